@@ -0,0 +1,229 @@
+package de.codesourcery.tinyscript.eval;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Implementation of {@link IColumnKernels} using the JDK Vector API, lanes beyond the last full vector 
+ * are processed by a scalar tail loop. Comparison masks are stored into the bitmap as a whole, 
+ * which requires the number of lanes to divide 64 (true for all power-of-two vector shapes).
+ * Doubles are compared as longs (see {@link ScalarColumnKernels#toOrderedBits(double)}) to get the
+ * semantics of {@link Double#compare(double, double)}. Long division has no SIMD instruction and is
+ * delegated to {@link ScalarColumnKernels}.
+ * 
+ * Only gets compiled with the <code>vector-api</code> Maven profile (JDK 17+) and needs 
+ * <code>--add-modules jdk.incubator.vector</code> at runtime, see {@link VectorEvaluator#getDefaultKernels()}.
+ */
+public class VectorColumnKernels implements IColumnKernels 
+{
+	private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+	
+	private static final long CANONICAL_NAN = Double.doubleToLongBits( Double.NaN );
+	
+	private final ScalarColumnKernels scalar = new ScalarColumnKernels();
+
+	@Override
+	public void arithmetic(OperatorType op, double[] a, double[] b, double[] out, int count) 
+	{
+		final VectorOperators.Binary operator = getOperator( op );
+		final int step = DOUBLES.length();
+		final int bound = DOUBLES.loopBound( count );
+		int i = 0;
+		for ( ; i < bound ; i += step ) {
+			DoubleVector.fromArray( DOUBLES , a , i ).lanewise( operator , DoubleVector.fromArray( DOUBLES , b , i ) ).intoArray( out , i );
+		}
+		for ( ; i < count ; i++ ) {
+			out[i] = apply( op , a[i] , b[i] );
+		}
+	}
+
+	@Override
+	public void arithmetic(OperatorType op, double[] a, double b, double[] out, int count) 
+	{
+		final VectorOperators.Binary operator = getOperator( op );
+		final int step = DOUBLES.length();
+		final int bound = DOUBLES.loopBound( count );
+		int i = 0;
+		for ( ; i < bound ; i += step ) {
+			DoubleVector.fromArray( DOUBLES , a , i ).lanewise( operator , b ).intoArray( out , i );
+		}
+		for ( ; i < count ; i++ ) {
+			out[i] = apply( op , a[i] , b );
+		}
+	}
+
+	@Override
+	public void arithmetic(OperatorType op, long[] a, long[] b, long[] out, int count) 
+	{
+		if ( op == OperatorType.DIVIDE ) {
+			scalar.arithmetic( op , a , b , out , count );
+			return;
+		}
+		final VectorOperators.Binary operator = getOperator( op );
+		final int step = LONGS.length();
+		final int bound = LONGS.loopBound( count );
+		int i = 0;
+		for ( ; i < bound ; i += step ) {
+			LongVector.fromArray( LONGS , a , i ).lanewise( operator , LongVector.fromArray( LONGS , b , i ) ).intoArray( out , i );
+		}
+		for ( ; i < count ; i++ ) {
+			out[i] = apply( op , a[i] , b[i] );
+		}
+	}
+
+	@Override
+	public void arithmetic(OperatorType op, long[] a, long b, long[] out, int count) 
+	{
+		if ( op == OperatorType.DIVIDE ) {
+			scalar.arithmetic( op , a , b , out , count );
+			return;
+		}
+		final VectorOperators.Binary operator = getOperator( op );
+		final int step = LONGS.length();
+		final int bound = LONGS.loopBound( count );
+		int i = 0;
+		for ( ; i < bound ; i += step ) {
+			LongVector.fromArray( LONGS , a , i ).lanewise( operator , b ).intoArray( out , i );
+		}
+		for ( ; i < count ; i++ ) {
+			out[i] = apply( op , a[i] , b );
+		}
+	}
+
+	@Override
+	public void compare(OperatorType op, double[] a, double[] b, long[] bitmap, int count) 
+	{
+		final VectorOperators.Comparison comparison = getComparison( op );
+		final int step = DOUBLES.length();
+		final int bound = DOUBLES.loopBound( count );
+		int i = 0;
+		for ( ; i < bound ; i += step ) {
+			store( toOrderedBits( DoubleVector.fromArray( DOUBLES , a , i ) ).compare( comparison , toOrderedBits( DoubleVector.fromArray( DOUBLES , b , i ) ) ) , bitmap , i );
+		}
+		for ( ; i < count ; i++ ) {
+			ScalarColumnKernels.setBit( bitmap , i , ScalarColumnKernels.compare( op , a[i] , b[i] ) );
+		}
+	}
+
+	@Override
+	public void compare(OperatorType op, double[] a, double b, long[] bitmap, int count) 
+	{
+		final VectorOperators.Comparison comparison = getComparison( op );
+		final long orderedB = ScalarColumnKernels.toOrderedBits( b );
+		final int step = DOUBLES.length();
+		final int bound = DOUBLES.loopBound( count );
+		int i = 0;
+		for ( ; i < bound ; i += step ) {
+			store( toOrderedBits( DoubleVector.fromArray( DOUBLES , a , i ) ).compare( comparison , orderedB ) , bitmap , i );
+		}
+		for ( ; i < count ; i++ ) {
+			ScalarColumnKernels.setBit( bitmap , i , ScalarColumnKernels.compare( op , a[i] , b ) );
+		}
+	}
+
+	@Override
+	public void compare(OperatorType op, long[] a, long[] b, long[] bitmap, int count) 
+	{
+		final VectorOperators.Comparison comparison = getComparison( op );
+		final int step = LONGS.length();
+		final int bound = LONGS.loopBound( count );
+		int i = 0;
+		for ( ; i < bound ; i += step ) {
+			store( LongVector.fromArray( LONGS , a , i ).compare( comparison , LongVector.fromArray( LONGS , b , i ) ) , bitmap , i );
+		}
+		for ( ; i < count ; i++ ) {
+			ScalarColumnKernels.setBit( bitmap , i , ScalarColumnKernels.compare( op , a[i] , b[i] ) );
+		}
+	}
+
+	@Override
+	public void compare(OperatorType op, long[] a, long b, long[] bitmap, int count) 
+	{
+		final VectorOperators.Comparison comparison = getComparison( op );
+		final int step = LONGS.length();
+		final int bound = LONGS.loopBound( count );
+		int i = 0;
+		for ( ; i < bound ; i += step ) {
+			store( LongVector.fromArray( LONGS , a , i ).compare( comparison , b ) , bitmap , i );
+		}
+		for ( ; i < count ; i++ ) {
+			ScalarColumnKernels.setBit( bitmap , i , ScalarColumnKernels.compare( op , a[i] , b ) );
+		}
+	}
+	
+	/**
+	 * Vectorized {@link ScalarColumnKernels#toOrderedBits(double)}.
+	 */
+	private static LongVector toOrderedBits(DoubleVector vector) 
+	{
+		final LongVector raw = vector.reinterpretAsLongs();
+		final LongVector bits = raw.blend( CANONICAL_NAN , vector.test( VectorOperators.IS_NAN ).cast( raw.species() ) );
+		return bits.lanewise( VectorOperators.XOR , bits.lanewise( VectorOperators.ASHR , 63 ).lanewise( VectorOperators.AND , Long.MAX_VALUE ) );
+	}
+	
+	private static void store(VectorMask<?> mask,long[] bitmap,int index) 
+	{
+		final int lanes = mask.length();
+		final long laneBits = lanes == 64 ? -1L : ( 1L << lanes ) - 1;
+		final int shift = index & 63;
+		final int word = index >>> 6;
+		bitmap[ word ] = ( bitmap[ word ] & ~( laneBits << shift ) ) | ( mask.toLong() << shift );
+	}
+	
+	private static double apply(OperatorType op,double a,double b) 
+	{
+		switch( op ) 
+		{
+			case PLUS:   return a + b;
+			case MINUS:  return a - b;
+			case TIMES:  return a * b;
+			case DIVIDE: return a / b;
+			default:
+				throw new IllegalArgumentException("Not an arithmetic operator: "+op);
+		}
+	}
+	
+	private static long apply(OperatorType op,long a,long b) 
+	{
+		switch( op ) 
+		{
+			case PLUS:   return a + b;
+			case MINUS:  return a - b;
+			case TIMES:  return a * b;
+			default:
+				throw new IllegalArgumentException("Not a vectorized arithmetic operator: "+op);
+		}
+	}
+	
+	private static VectorOperators.Binary getOperator(OperatorType op) 
+	{
+		switch( op ) 
+		{
+			case PLUS:   return VectorOperators.ADD;
+			case MINUS:  return VectorOperators.SUB;
+			case TIMES:  return VectorOperators.MUL;
+			case DIVIDE: return VectorOperators.DIV;
+			default:
+				throw new IllegalArgumentException("Not an arithmetic operator: "+op);
+		}
+	}
+	
+	private static VectorOperators.Comparison getComparison(OperatorType op) 
+	{
+		switch( op ) 
+		{
+			case GT:  return VectorOperators.GT;
+			case GTE: return VectorOperators.GE;
+			case LT:  return VectorOperators.LT;
+			case LTE: return VectorOperators.LE;
+			case EQ:  return VectorOperators.EQ;
+			case NEQ: return VectorOperators.NE;
+			default:
+				throw new IllegalArgumentException("Not a comparison operator: "+op);
+		}
+	}
+}
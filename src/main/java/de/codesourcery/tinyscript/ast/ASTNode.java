@@ -48,7 +48,7 @@ public abstract class ASTNode
 	{
 		final ASTNode result = copyNode();
 		for ( ASTNode child : children ) {
-			result.add( child.copyNode() );
+			result.add( child.copySubtree() );
 		}
 		return result;
 	}
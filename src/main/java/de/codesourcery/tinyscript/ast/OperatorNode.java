@@ -2,10 +2,12 @@ package de.codesourcery.tinyscript.ast;
 
 import static de.codesourcery.tinyscript.ast.ASTNode.NodeType.OPERATOR;
 import de.codesourcery.tinyscript.eval.OperatorType;
+import de.codesourcery.tinyscript.eval.TypedOperation;
 
 public final class OperatorNode extends ASTNode {
 
 	public OperatorType type;
+	public TypedOperation operation; // populated by OperatorBinder
 	
 	public OperatorNode(OperatorType op) {
 		super(OPERATOR);
@@ -37,6 +39,8 @@ public final class OperatorNode extends ASTNode {
 
 	@Override
 	public OperatorNode copyNodeHook() {
-		return new OperatorNode(this.type);
+		final OperatorNode result = new OperatorNode(this.type);
+		result.operation = this.operation;
+		return result;
 	}
 }
\ No newline at end of file
@@ -2,11 +2,14 @@ package de.codesourcery.tinyscript.ast;
 
 import static de.codesourcery.tinyscript.ast.ASTNode.NodeType.VARIABLE;
 import de.codesourcery.tinyscript.eval.Identifier;
+import de.codesourcery.tinyscript.eval.ScopeLayout;
 
 public final class VariableNode extends ASTNode {
 
 	public Identifier name;
 	public boolean isGenerated;
+	public int slot = -1; // populated by VariableBinder
+	public ScopeLayout layout; // populated by VariableBinder
 	
 	public VariableNode(Identifier name) {
 		super(VARIABLE);
@@ -27,6 +30,8 @@ public final class VariableNode extends ASTNode {
 	public VariableNode copyNodeHook() {
 		final VariableNode  result = new VariableNode(this.name);
 		result.isGenerated = this.isGenerated;
+		result.slot = this.slot;
+		result.layout = this.layout;
 		return result;
 	}		
 }
\ No newline at end of file
@@ -19,6 +19,7 @@ public class ASTSimplifier
 {
 	private boolean resolveVariables = true;
 	private boolean foldConstants = true;
+	private boolean applyAlgebraicRules = true;
 	
 	private IScope scope = new IScope() {
 
@@ -42,6 +43,14 @@ public class ASTSimplifier
 		this.foldConstants = foldConstants;
 	}
 	
+	/**
+	 * Sets whether operators with only some constant operands get rewritten 
+	 * (like <code>x * 1</code> to <code>x</code>), only has an effect if constant folding is enabled.
+	 */
+	public void setApplyAlgebraicRules(boolean applyAlgebraicRules) {
+		this.applyAlgebraicRules = applyAlgebraicRules;
+	}
+	
 	public ASTNode simplify(ASTNode node,Object target) 
 	{
 		switch( node.getNodeType() ) 
@@ -64,8 +73,14 @@ public class ASTSimplifier
 			case NUMBER:
 				return node;			
 			case VARIABLE:
-				if ( resolveVariables ) {
-					return toLiteralNode( scope.readVariable( ((VariableNode) node).name ) );
+				if ( resolveVariables ) 
+				{
+					final VariableNode variable = (VariableNode) node;
+					if ( variable.slot != -1 && scope instanceof ISlotScope ) {
+						VariableBinder.checkBinding( variable , (ISlotScope) scope );
+						return toLiteralNode( ((ISlotScope) scope).readSlot( variable.slot ) );
+					}
+					return toLiteralNode( scope.readVariable( variable.name ) );
 				}
 				return node;			
 			default:
@@ -93,8 +108,46 @@ public class ASTSimplifier
 			newChildren.add( value );
 		}
 		node.setChildren( newChildren );
+		
+		if ( foldConstants && target != null && operands.size() == node.getChildCount() ) 
+		{
+			final ASTNode result = invokePureFunction( func , operands , target );
+			if ( result != null ) {
+				return result;
+			}
+		}
 		return node;
 	}
+	
+	/**
+	 * Evaluates a call with constant arguments at simplification time.
+	 * 
+	 * @return literal node holding the result or <code>null</code> if the call cannot be evaluated now
+	 */
+	private ASTNode invokePureFunction(FunctionCallNode func,List<Object> arguments,Object target) 
+	{
+		final Method method;
+		try {
+			method = Evaluator.findMethod( func.getFunctionName() , arguments , target.getClass().getMethods() );
+		} 
+		catch(RuntimeException e) {
+			return null; // let evaluation report the error
+		}
+		if ( ! hasNoSideEffects( method ) ) {
+			return null;
+		}
+		final Object result;
+		try {
+			result = method.invoke( target , arguments.toArray() );
+		} 
+		catch (Exception e) {
+			return null; // let evaluation report the error
+		}
+		if ( result instanceof String || result instanceof Boolean || result instanceof Number ) {
+			return toLiteralNode( result );
+		}
+		return null;
+	}
 
 	private ASTNode simplifyOperator(ASTNode node, Object target) 
 	{
@@ -124,11 +177,383 @@ public class ASTSimplifier
 			}
 			newChildren.add( value );
 		}
-		if ( operands.size() == node.getChildCount() ) {
-			return toLiteralNode( operatorNode.type.apply( operands ) );
-		} 
 		node.setChildren( newChildren );
-		return node;
+		if ( operands.size() == node.getChildCount() ) 
+		{
+			try {
+				return toLiteralNode( operatorNode.type.apply( operands ) );
+			} 
+			catch(ArithmeticException e) {
+				return node; // division by zero, let evaluation report the error
+			}
+		} 
+		
+		if ( ! applyAlgebraicRules ) {
+			return node;
+		}
+		// operands are already simplified, apply rules until none matches anymore
+		ASTNode current = node;
+		while ( current instanceof OperatorNode ) 
+		{
+			final ASTNode rewritten = rewrite( (OperatorNode) current , target );
+			if ( rewritten == null ) {
+				break;
+			}
+			current = rewritten;
+		}
+		return current;
+	}
+	
+	/**
+	 * Applies the first matching algebraic rewrite rule to an operator.
+	 * 
+	 * Rules that rely on integer arithmetic or drop operands are only applied 
+	 * if the types of the operands are known (see {@link #getDataType(ASTNode)}).
+	 * 
+	 * @return rewritten expression or <code>null</code> if no rule matched
+	 */
+	private ASTNode rewrite(OperatorNode node,Object target) 
+	{
+		final OperatorType op = node.type;
+		if ( op == OperatorType.NOT ) 
+		{
+			final ASTNode child = node.child(0);
+			if ( ! ( child instanceof OperatorNode ) ) {
+				return null;
+			}
+			final OperatorType childOp = ((OperatorNode) child).type;
+			if ( childOp == OperatorType.NOT && isBoolean( child.child(0) ) ) { // not not x => x
+				return child.child(0);
+			}
+			if ( childOp == OperatorType.EQ || childOp == OperatorType.NEQ || 
+			   ( isComparison( childOp ) && isIntegral( child.child(0) ) && isIntegral( child.child(1) ) ) ) 
+			{
+				// not ( a < b ) => a >= b , does not hold for NaN
+				return newOperator( negate( childOp ) , child.child(0) , child.child(1) );
+			}
+			return null;
+		}
+		
+		if ( node.getChildCount() != 2 ) {
+			return null;
+		}
+		final ASTNode left = node.child(0);
+		final ASTNode right = node.child(1);
+		
+		if ( op == OperatorType.AND || op == OperatorType.OR ) 
+		{
+			final boolean isAnd = op == OperatorType.AND;
+			final boolean leftIsConstant = left instanceof BooleanNode;
+			final ASTNode constant = leftIsConstant ? left : right;
+			final ASTNode other = leftIsConstant ? right : left;
+			if ( !( constant instanceof BooleanNode ) ) {
+				return null;
+			}
+			if ( ((BooleanNode) constant).value() == isAnd ) { // true and x => x , false or x => x
+				return isBoolean( other ) ? other : null;
+			}
+			// false and x => false , x or true => true (if evaluating x has no side-effects and cannot throw)
+			return leftIsConstant || canBeDropped( other , target ) ? constant : null;
+		}
+		
+		if ( isComparison( op ) || op == OperatorType.EQ || op == OperatorType.NEQ ) 
+		{
+			// 10 < x => x > 10
+			if ( left.isLiteralValue() && ! right.isLiteralValue() ) {
+				return newOperator( mirror( op ) , right , left );
+			}
+			return null;
+		}
+		
+		if ( op != OperatorType.PLUS && op != OperatorType.MINUS && op != OperatorType.TIMES && op != OperatorType.DIVIDE ) {
+			return null;
+		}
+		
+		final boolean leftIsConstant = left instanceof NumberNode;
+		if ( leftIsConstant == ( right instanceof NumberNode ) ) {
+			return null;
+		}
+		final ASTNode x = leftIsConstant ? right : left;
+		final Number c = ((NumberNode) ( leftIsConstant ? left : right ) ).value();
+		final NumericType type = getNumericType( x );
+		if ( type == null ) {
+			return null;
+		}
+		// rules below only apply if the constant does not widen the result type
+		final boolean sameType = NumericType.getWiderType( type.getJavaType() , c.getClass() ) == type;
+		final boolean isIntegral = sameType && ( type == NumericType.INT || type == NumericType.LONG );
+		
+		if ( leftIsConstant && ( op == OperatorType.PLUS || op == OperatorType.TIMES ) ) { // 2 * x => x * 2
+			return newOperator( op , x , toLiteralNode( c ) );
+		}
+		if ( leftIsConstant ) {
+			return null;
+		}
+		
+		final boolean isZero = isIntegralValue( c ) && c.longValue() == 0 || isFloatingPointValue( c ) && c.doubleValue() == 0;
+		final boolean isOne = isIntegralValue( c ) && c.longValue() == 1 || isFloatingPointValue( c ) && c.doubleValue() == 1;
+		switch( op ) 
+		{
+			case TIMES:
+				if ( isOne && sameType ) { // x * 1 => x
+					return x;
+				}
+				if ( isZero && isIntegral && canBeDropped( x , target ) ) { // x * 0 => 0
+					return toLiteralNode( type.convert( c ) );
+				}
+				break;
+			case DIVIDE:
+				if ( isOne && sameType ) { // x / 1 => x
+					return x;
+				}
+				break;
+			case PLUS:
+				if ( isZero && isIntegral ) { // x + 0 => x , does not hold for -0.0
+					return x;
+				}
+				break;
+			case MINUS:
+				if ( isZero && isIntegral ) { // x - 0 => x
+					return x;
+				}
+				if ( isIntegral ) { // x - 1 => x + (-1) so it can get re-associated
+					return newOperator( OperatorType.PLUS , x , toLiteralNode( NumericKernel.minus( type.convert( 0 ) , type.convert( c ) ) ) );
+				}
+				break;
+			default:
+		}
+		
+		// re-associate ( y OP c1 ) OP c2 => y OP ( c1 OP c2 ), exact for integers because of two's complement wrap-around 
+		if ( isIntegral && ( op == OperatorType.PLUS || op == OperatorType.TIMES ) && x instanceof OperatorNode && ((OperatorNode) x).type == op ) 
+		{
+			final ASTNode y = x.child(0);
+			if ( x.child(1) instanceof NumberNode && type == getNumericType( y ) ) 
+			{
+				final Number c1 = ((NumberNode) x.child(1)).value();
+				if ( NumericType.getWiderType( type.getJavaType() , c1.getClass() ) == type ) 
+				{
+					final Object a = type.convert( c1 );
+					final Object b = type.convert( c );
+					return newOperator( op , y , toLiteralNode( op == OperatorType.PLUS ? NumericKernel.plus( a , b ) : NumericKernel.times( a , b ) ) );
+				}
+			}
+		}
+		return null;
+	}
+	
+	private static ASTNode newOperator(OperatorType type,ASTNode left,ASTNode right) 
+	{
+		final OperatorNode result = new OperatorNode( type );
+		result.add( left );
+		result.add( right );
+		return result;
+	}
+	
+	private static boolean isComparison(OperatorType type) {
+		return type == OperatorType.GT || type == OperatorType.GTE || type == OperatorType.LT || type == OperatorType.LTE;
+	}
+	
+	private static OperatorType negate(OperatorType type) 
+	{
+		switch( type ) 
+		{
+			case EQ:  return OperatorType.NEQ;
+			case NEQ: return OperatorType.EQ;
+			case GT:  return OperatorType.LTE;
+			case GTE: return OperatorType.LT;
+			case LT:  return OperatorType.GTE;
+			case LTE: return OperatorType.GT;
+			default:
+				throw new RuntimeException("Internal error, cannot negate "+type);
+		}
+	}
+	
+	private static OperatorType mirror(OperatorType type) 
+	{
+		switch( type ) 
+		{
+			case GT:  return OperatorType.LT;
+			case GTE: return OperatorType.LTE;
+			case LT:  return OperatorType.GT;
+			case LTE: return OperatorType.GTE;
+			default:
+				return type;
+		}
+	}
+	
+	private static boolean isIntegralValue(Number n) {
+		return n instanceof Integer || n instanceof Long || n instanceof Short || n instanceof Byte;
+	}
+	
+	private static boolean isFloatingPointValue(Number n) {
+		return n instanceof Double || n instanceof Float;
+	}
+	
+	private boolean isBoolean(ASTNode node) 
+	{
+		final Class<?> type = getDataType( node );
+		return type == Boolean.class || type == Boolean.TYPE;
+	}
+	
+	private boolean isIntegral(ASTNode node) 
+	{
+		final NumericType type = getNumericType( node );
+		return type != null && ! type.isFloatingPoint();
+	}
+	
+	private NumericType getNumericType(ASTNode node) 
+	{
+		final Class<?> type = getDataType( node );
+		if ( type == null || type == Boolean.TYPE || type == Character.TYPE || type == Void.TYPE ) {
+			return null;
+		}
+		if ( type.isPrimitive() || Number.class.isAssignableFrom( type ) ) 
+		{
+			try {
+				return NumericType.getType( type );
+			} catch(IllegalArgumentException e) {
+				return null; // BigDecimal etc.
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the type of an expression if it can be determined before running the {@link Typer}.
+	 * 
+	 * @return type or <code>null</code> if unknown
+	 */
+	protected Class<?> getDataType(ASTNode node) 
+	{
+		if ( node.getDataType() != null ) {
+			return node.getDataType();
+		}
+		switch( node.getNodeType() ) 
+		{
+			case BOOLEAN:
+			case NUMBER:
+			case STRING:
+				return ((ILiteralNode) node).value().getClass();
+			case VARIABLE:
+				if ( scope == null ) {
+					return null;
+				}
+				try {
+					return scope.getDataType( ((VariableNode) node).name );
+				} catch(RuntimeException e) {
+					return null; // scope does not know the variable (yet)
+				}
+			case FUNCTION_CALL:
+				final Method method = ((FunctionCallNode) node).targetMethod;
+				return method == null ? null : method.getReturnType();
+			case OPERATOR:
+				final OperatorType type = ((OperatorNode) node).type;
+				switch( type ) 
+				{
+					case ASSIGNMENT:
+						return getDataType( node.child(1) );
+					case PLUS:
+					case MINUS:
+					case TIMES:
+					case DIVIDE:
+						final NumericType left = getNumericType( node.child(0) );
+						final NumericType right = getNumericType( node.child(1) );
+						if ( left == null || right == null ) {
+							return null;
+						}
+						return NumericType.getWiderType( left.getJavaType() , right.getJavaType() ).getJavaType();
+					default:
+						return Boolean.class;
+				}
+			default:
+				return null;
+		}
+	}
+	
+	private boolean hasNoSideEffects(ASTNode node,Object target) 
+	{
+		if ( node instanceof OperatorNode && ((OperatorNode) node).type == OperatorType.ASSIGNMENT ) {
+			return false;
+		}
+		if ( node instanceof FunctionCallNode ) 
+		{
+			final FunctionCallNode func = (FunctionCallNode) node;
+			if ( func.targetMethod != null ) 
+			{
+				if ( ! hasNoSideEffects( func.targetMethod ) ) {
+					return false;
+				}
+			} 
+			else 
+			{
+				if ( target == null ) {
+					return false;
+				}
+				// not typed yet, all candidates need to be side-effect free
+				for ( Method m : target.getClass().getMethods() ) 
+				{
+					if ( m.getName().equals( func.getFunctionName().getSymbol() ) && m.getParameterCount() == func.getChildCount() && ! hasNoSideEffects( m ) ) {
+						return false;
+					}
+				}
+			}
+		}
+		for ( ASTNode child : node.children() ) 
+		{
+			if ( ! hasNoSideEffects( child , target ) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Check whether a sub-expression may be removed without changing the outcome, 
+	 * that is evaluating it neither has side-effects nor may throw an exception.
+	 */
+	private boolean canBeDropped(ASTNode node,Object target) {
+		return hasNoSideEffects( node , target ) && cannotFail( node , target );
+	}
+	
+	private boolean cannotFail(ASTNode node,Object target) 
+	{
+		if ( node instanceof OperatorNode && ((OperatorNode) node).type == OperatorType.DIVIDE ) 
+		{
+			final NumericType type = getNumericType( node );
+			if ( type == null || ! type.isFloatingPoint() ) {
+				return false; // division by zero
+			}
+		}
+		if ( node instanceof FunctionCallNode ) 
+		{
+			final FunctionCallNode func = (FunctionCallNode) node;
+			if ( func.targetMethod != null ) 
+			{
+				if ( ! cannotFailHook( func.targetMethod ) ) {
+					return false;
+				}
+			} 
+			else 
+			{
+				if ( target == null ) {
+					return false;
+				}
+				// not typed yet, none of the candidates may fail
+				for ( Method m : target.getClass().getMethods() ) 
+				{
+					if ( m.getName().equals( func.getFunctionName().getSymbol() ) && m.getParameterCount() == func.getChildCount() && ! cannotFailHook( m ) ) {
+						return false;
+					}
+				}
+			}
+		}
+		for ( ASTNode child : node.children() ) 
+		{
+			if ( ! cannotFail( child , target ) ) {
+				return false;
+			}
+		}
+		return true;
 	}
 	
 	public void setResolveVariables(boolean resolveVariables) {
@@ -153,7 +578,6 @@ public class ASTSimplifier
 		throw new RuntimeException("Don't know how to convert literal "+obj+" to AST node");
 	}
 	
-	@SuppressWarnings("unused")
 	private final boolean hasNoSideEffects(Method method) 
 	{
 		if ( method.getReturnType() == Void.TYPE || method.getReturnType() == Void.class ) 
@@ -164,7 +588,26 @@ public class ASTSimplifier
 		return hasNoSideEffectsHook(method);
 	}
 	
+	/**
+	 * Check whether a method may be invoked at simplification time instead of when evaluating the expression.
+	 * 
+	 * @param method non-void method
+	 * @return <code>true</code> if the method has no side effects, by default only methods annotated with {@link Pure}
+	 */
 	protected boolean hasNoSideEffectsHook(Method method) 
+	{
+		return method.isAnnotationPresent( Pure.class );
+	}
+	
+	/**
+	 * Check whether invoking a method never fails, regardless of the arguments and the target object's state.
+	 * 
+	 * Calls that may fail are never removed by algebraic rules like <code>false and x</code>, even if they have no side-effects.
+	 * 
+	 * @param method
+	 * @return <code>true</code> if the method never throws an exception, <code>false</code> by default
+	 */
+	protected boolean cannotFailHook(Method method) 
 	{
 		return false;
 	}
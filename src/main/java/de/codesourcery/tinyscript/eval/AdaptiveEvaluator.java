@@ -0,0 +1,389 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.codesourcery.tinyscript.ast.AST;
+import de.codesourcery.tinyscript.ast.ASTNode;
+import de.codesourcery.tinyscript.ast.FunctionCallNode;
+import de.codesourcery.tinyscript.ast.OperatorNode;
+
+/**
+ * Evaluator that reorders the operands of AND/OR chains based on runtime profiling.
+ *
+ * For each chain like <code>a and b and c</code>, how often every operand yielded <code>true</code> gets recorded,
+ * its average evaluation time is measured on every {@link #setSampleInterval(int) n-th} evaluation of the chain only
+ * to keep the overhead of reading the clock low. Every {@link #setReorderInterval(int) n} evaluations
+ * of a chain its operands get sorted by <code>cost / P(operand short-circuits)</code> so that cheap and selective
+ * checks come first.
+ *
+ * The AST passed to {@link #evaluate(ASTNode)} never gets modified, each chain is profiled and reordered
+ * using a private copy of its operands (see {@link #getOperands(ASTNode)}). Use {@link #getReorderedAST(ASTNode)}
+ * to get a copy of the AST with the learned order, for example to compile it with {@link ByteCodeWriter}.
+ *
+ * Only chains without side-effects get reordered, that is chains that contain no assignments and
+ * only invoke methods for which {@link #hasNoSideEffectsHook(Method)} returns <code>true</code>.
+ * Operands that may fail (integer divisions and calls to methods for which {@link #cannotFailHook(Method)} returns
+ * <code>false</code>) never change their position and no other operand gets moved across them, so guards like
+ * <code>b != 0 and a / b > 2</code> keep protecting the operands following them.
+ * Since the hooks require the target methods to be known, the AST needs to have been processed by {@link Typer}.
+ */
+public class AdaptiveEvaluator extends Evaluator
+{
+	public static final int DEFAULT_REORDER_INTERVAL = 1000;
+
+	public static final int DEFAULT_SAMPLE_INTERVAL = 16;
+
+	private final Map<ASTNode,ChainProfile> profiles = new IdentityHashMap<>();
+
+	private int reorderInterval = DEFAULT_REORDER_INTERVAL;
+	private int sampleInterval = DEFAULT_SAMPLE_INTERVAL;
+
+	protected static final class ChainProfile
+	{
+		public final boolean isAnd;
+		public boolean canReorder;
+
+		// operands that may fail, these split the chain into groups that get reordered independently
+		public boolean[] isBarrier;
+
+		public ASTNode[] operands;
+		public long[] nanos;
+		public long[] timedEvaluations;
+		public long[] evaluations;
+		public long[] trueCount;
+
+		public int evaluationCount;
+
+		public ChainProfile(OperatorNode root)
+		{
+			this.isAnd = root.type == OperatorType.AND;
+			final List<ASTNode> copies = new ArrayList<>();
+			collectOperands( root , copies );
+
+			final int count = copies.size();
+			operands = copies.toArray( new ASTNode[ count ] );
+			isBarrier = new boolean[ count ];
+			nanos = new long[ count ];
+			timedEvaluations = new long[ count ];
+			evaluations = new long[ count ];
+			trueCount = new long[ count ];
+		}
+
+		private static void collectOperands(ASTNode node,List<ASTNode> copies)
+		{
+			for ( ASTNode child : node.children() )
+			{
+				if ( isSameOperator( node , child ) ) {
+					collectOperands( child , copies );
+				} else {
+					copies.add( child.copySubtree() );
+				}
+			}
+		}
+
+		/**
+		 * Expected cost of evaluating an operand divided by the probability that it determines the result of the chain.
+		 */
+		public double rank(int operand)
+		{
+			final long count = evaluations[operand];
+			if ( count == 0 || timedEvaluations[operand] == 0 ) {
+				return Double.MAX_VALUE; // never evaluated (or timed), keep it at the end
+			}
+			final double cost = nanos[operand] / (double) timedEvaluations[operand];
+			final double pTrue = trueCount[operand] / (double) count;
+			final double pShortCircuit = isAnd ? 1 - pTrue : pTrue;
+			return cost / Math.max( pShortCircuit , 1e-6 );
+		}
+
+		public void reorder()
+		{
+			final int count = operands.length;
+			final Integer[] order = new Integer[ count ];
+			final double[] ranks = new double[ count ];
+			for ( int i = 0 ; i < count ; i++ ) {
+				order[i] = i;
+				ranks[i] = rank( i );
+			}
+			int groupStart = 0;
+			for ( int i = 0 ; i <= count ; i++ )
+			{
+				if ( i == count || isBarrier[i] )
+				{
+					Arrays.sort( order , groupStart , i , (a,b) -> Double.compare( ranks[a] , ranks[b] ) );
+					groupStart = i + 1;
+				}
+			}
+
+			final ASTNode[] newOperands = new ASTNode[ count ];
+			final long[] newNanos = new long[ count ];
+			final long[] newTimedEvaluations = new long[ count ];
+			final long[] newEvaluations = new long[ count ];
+			final long[] newTrueCount = new long[ count ];
+			for ( int i = 0 ; i < count ; i++ )
+			{
+				final int previous = order[i];
+				newOperands[i] = operands[ previous ];
+				// halve old measurements so the order can adapt when the input data changes
+				newNanos[i] = nanos[ previous ] / 2;
+				newTimedEvaluations[i] = timedEvaluations[ previous ] / 2;
+				newEvaluations[i] = evaluations[ previous ] / 2;
+				newTrueCount[i] = trueCount[ previous ] / 2;
+			}
+			operands = newOperands;
+			nanos = newNanos;
+			timedEvaluations = newTimedEvaluations;
+			evaluations = newEvaluations;
+			trueCount = newTrueCount;
+		}
+	}
+
+	public AdaptiveEvaluator(Object target) {
+		super(target);
+	}
+
+	/**
+	 * Sets how many evaluations of a chain happen between reordering its operands.
+	 */
+	public void setReorderInterval(int reorderInterval)
+	{
+		if ( reorderInterval < 1 ) {
+			throw new IllegalArgumentException("Reorder interval must be >= 1");
+		}
+		this.reorderInterval = reorderInterval;
+	}
+
+	/**
+	 * Sets how many evaluations of a chain happen between measuring the evaluation times of its operands.
+	 */
+	public void setSampleInterval(int sampleInterval)
+	{
+		if ( sampleInterval < 1 ) {
+			throw new IllegalArgumentException("Sample interval must be >= 1");
+		}
+		this.sampleInterval = sampleInterval;
+	}
+
+	/**
+	 * Check whether invoking a method (with the same arguments) more or less often or in a different
+	 * order than written changes the result of an expression.
+	 *
+	 * @param method
+	 * @return <code>true</code> if the method has no side effects, by default only methods annotated with {@link Pure}
+	 */
+	protected boolean hasNoSideEffectsHook(Method method) {
+		return method.isAnnotationPresent( Pure.class );
+	}
+
+	/**
+	 * Check whether invoking a method never fails, regardless of the arguments and the target object's state.
+	 *
+	 * @param method
+	 * @return <code>true</code> if the method never throws an exception, <code>false</code> by default
+	 */
+	protected boolean cannotFailHook(Method method) {
+		return false;
+	}
+
+	private static boolean isSameOperator(ASTNode parent,ASTNode child) {
+		return parent instanceof OperatorNode && child instanceof OperatorNode && ((OperatorNode) child).type == ((OperatorNode) parent).type;
+	}
+
+	@Override
+	protected Result evalShortCircuit(OperatorNode node)
+	{
+		if ( node.hasParent() && isSameOperator( node.getParent() , node ) ) {
+			// not the root of a chain, may happen if a chain got evaluated through evaluate(ASTNode) with one of its sub-nodes
+			return super.evalShortCircuit( node );
+		}
+
+		ChainProfile profile = profiles.get( node );
+		if ( profile == null ) {
+			profile = new ChainProfile( node );
+			profile.canReorder = isSideEffectFree( profile );
+			for ( int i = 0 ; i < profile.operands.length ; i++ ) {
+				profile.isBarrier[i] = mayFail( profile.operands[i] );
+			}
+			profiles.put( node , profile );
+		}
+
+		if ( ! profile.canReorder ) {
+			return evalChain( profile );
+		}
+
+		final Result result = evalProfiledChain( profile , profile.evaluationCount % sampleInterval == 0 );
+		if ( ++profile.evaluationCount % reorderInterval == 0 ) {
+			profile.reorder();
+		}
+		return result;
+	}
+
+	private boolean isSideEffectFree(ChainProfile profile)
+	{
+		for ( ASTNode operand : profile.operands ) {
+			if ( ! isSideEffectFree( operand ) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isSideEffectFree(ASTNode node)
+	{
+		if ( node instanceof OperatorNode && ((OperatorNode) node).type == OperatorType.ASSIGNMENT ) {
+			return false;
+		}
+		if ( node instanceof FunctionCallNode )
+		{
+			final Method method = ((FunctionCallNode) node).targetMethod;
+			if ( method == null || ! hasNoSideEffectsHook( method ) ) {
+				return false;
+			}
+		}
+		for ( ASTNode child : node.children() ) {
+			if ( ! isSideEffectFree( child ) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean mayFail(ASTNode node)
+	{
+		if ( node instanceof OperatorNode && ((OperatorNode) node).type == OperatorType.DIVIDE && ! isFloatingPoint( node.getDataType() ) ) {
+			return true; // division by zero
+		}
+		if ( node instanceof FunctionCallNode )
+		{
+			final Method method = ((FunctionCallNode) node).targetMethod;
+			if ( method == null || ! cannotFailHook( method ) ) {
+				return true;
+			}
+		}
+		for ( ASTNode child : node.children() ) {
+			if ( mayFail( child ) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isFloatingPoint(Class<?> type)
+	{
+		return type == Double.class || type == Double.TYPE || type == Float.class || type == Float.TYPE;
+	}
+
+	private Result evalChain(ChainProfile profile)
+	{
+		final boolean isAnd = profile.isAnd;
+		for ( ASTNode operand : profile.operands )
+		{
+			if ( evalBoolean( operand ) != isAnd ) {
+				return result( Boolean.valueOf( ! isAnd ) );
+			}
+		}
+		return result( Boolean.valueOf( isAnd ) );
+	}
+
+	private Result evalProfiledChain(ChainProfile profile,boolean timed)
+	{
+		final boolean isAnd = profile.isAnd;
+		final ASTNode[] operands = profile.operands;
+		for ( int i = 0 ; i < operands.length ; i++ )
+		{
+			final boolean value;
+			if ( timed ) 
+			{
+				final long start = System.nanoTime();
+				value = evalBoolean( operands[i] );
+				profile.nanos[i] += System.nanoTime() - start;
+				profile.timedEvaluations[i]++;
+			} else {
+				value = evalBoolean( operands[i] );
+			}
+			profile.evaluations[i]++;
+			if ( value ) {
+				profile.trueCount[i]++;
+			}
+			if ( value != isAnd ) {
+				return result( Boolean.valueOf( ! isAnd ) );
+			}
+		}
+		return result( Boolean.valueOf( isAnd ) );
+	}
+
+	/**
+	 * Returns the operands of an AND/OR chain in the order they are currently evaluated in.
+	 *
+	 * @param chain root node of the chain
+	 * @return copies of the operands or <code>null</code> if the chain has not been evaluated by this evaluator yet
+	 */
+	public List<ASTNode> getOperands(ASTNode chain)
+	{
+		final ChainProfile profile = profiles.get( chain );
+		return profile == null ? null : Arrays.asList( profile.operands.clone() );
+	}
+
+	/**
+	 * Returns a copy of an AST with the operands of all chains profiled by this evaluator in the order they 
+	 * are currently evaluated in, chains that have not been profiled keep their order.
+	 *
+	 * @param ast AST evaluated by this evaluator
+	 */
+	public AST getReorderedAST(AST ast) {
+		return (AST) reorder( ast );
+	}
+
+	private ASTNode reorder(ASTNode node)
+	{
+		final ChainProfile profile = profiles.get( node );
+		if ( profile == null )
+		{
+			final ASTNode result = node.copyNode();
+			for ( ASTNode child : node.children() ) {
+				result.add( reorder( child ) );
+			}
+			return result;
+		}
+		// operands are copies, chains nested inside them got profiled using these copies
+		ASTNode result = reorder( profile.operands[0] );
+		for ( int i = 1 ; i < profile.operands.length ; i++ )
+		{
+			final ASTNode chain = node.copyNode();
+			chain.add( result );
+			chain.add( reorder( profile.operands[i] ) );
+			result = chain;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the current operand order of all profiled chains, for diagnostic purposes.
+	 */
+	public String getProfile()
+	{
+		final ASTPrinter printer = new ASTPrinter();
+		final StringBuilder result = new StringBuilder();
+		for ( ChainProfile profile : profiles.values() )
+		{
+			result.append( profile.isAnd ? "AND" : "OR" ).append(": ");
+			for ( int i = 0 ; i < profile.operands.length ; i++ )
+			{
+				if ( i > 0 ) {
+					result.append(" , ");
+				}
+				result.append( printer.print( profile.operands[i] ) );
+				if ( profile.canReorder ) {
+					result.append(" (rank ").append( (long) profile.rank( i ) ).append(")");
+				}
+			}
+			result.append("\n");
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,687 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import de.codesourcery.tinyscript.ast.ASTNode;
+import de.codesourcery.tinyscript.ast.FunctionCallNode;
+import de.codesourcery.tinyscript.ast.ILiteralNode;
+import de.codesourcery.tinyscript.ast.OperatorNode;
+import de.codesourcery.tinyscript.ast.VariableNode;
+
+/**
+ * Evaluates an expression against a whole batch of rows at once.
+ *
+ * Input values are passed as columns (one array per variable, see {@link Batch}), every node of the AST
+ * gets evaluated by a loop over the whole column so the overhead of interpreting the AST is paid once per batch
+ * instead of once per row.
+ *
+ * Which rows get evaluated is determined by a selection vector (an array of ascending row indices).
+ * The right operand of AND/OR is only evaluated for the rows where the left operand does not already
+ * determine the result, so <code>x != 0 and 10 / x > 1</code> never divides by zero.
+ * Values of result columns are only defined for selected rows.
+ *
+ * Integral values are represented as <code>long</code>, floating-point values as <code>double</code>. Integral
+ * arithmetic thus only wraps around if it overflows 64 bits. Function calls are invoked on the target object once per row
+ * with arguments of type <code>Long</code>,<code>Double</code>,<code>Boolean</code> or <code>String</code>.
+ */
+public class BatchEvaluator
+{
+	public static enum ColumnType {
+		LONG,DOUBLE,BOOLEAN,STRING;
+	}
+
+	public static final class Column
+	{
+		public final ColumnType type;
+		public final long[] longs;
+		public final double[] doubles;
+		public final boolean[] booleans;
+		public final String[] strings;
+
+		private Column(ColumnType type,long[] longs,double[] doubles,boolean[] booleans,String[] strings)
+		{
+			this.type = type;
+			this.longs = longs;
+			this.doubles = doubles;
+			this.booleans = booleans;
+			this.strings = strings;
+		}
+
+		public static Column of(long[] values) {
+			return new Column( ColumnType.LONG , values , null , null , null );
+		}
+
+		public static Column of(double[] values) {
+			return new Column( ColumnType.DOUBLE , null , values , null , null );
+		}
+
+		public static Column of(boolean[] values) {
+			return new Column( ColumnType.BOOLEAN , null , null , values , null );
+		}
+
+		public static Column of(String[] values) {
+			return new Column( ColumnType.STRING , null , null , null , values );
+		}
+
+		public boolean isNumeric() {
+			return type == ColumnType.LONG || type == ColumnType.DOUBLE;
+		}
+
+		public int size()
+		{
+			switch( type ) {
+				case LONG: return longs.length;
+				case DOUBLE: return doubles.length;
+				case BOOLEAN: return booleans.length;
+				default:
+					return strings.length;
+			}
+		}
+
+		/**
+		 * Returns the (boxed) value of a row.
+		 */
+		public Object get(int row)
+		{
+			switch( type ) {
+				case LONG: return longs[row];
+				case DOUBLE: return doubles[row];
+				case BOOLEAN: return booleans[row];
+				default:
+					return strings[row];
+			}
+		}
+
+		private double getDouble(int row) {
+			return type == ColumnType.LONG ? longs[row] : doubles[row];
+		}
+
+		@Override
+		public String toString() {
+			return type+" column with "+size()+" rows";
+		}
+	}
+
+	/**
+	 * Input values, one column per variable.
+	 */
+	public static final class Batch
+	{
+		private final int rowCount;
+		private final Map<Identifier,Column> columns = new HashMap<>();
+
+		public Batch(int rowCount) {
+			this.rowCount = rowCount;
+		}
+
+		public int getRowCount() {
+			return rowCount;
+		}
+
+		public Batch add(String variable,long[] values) {
+			return add( new Identifier( variable ) , Column.of( values ) );
+		}
+
+		public Batch add(String variable,double[] values) {
+			return add( new Identifier( variable ) , Column.of( values ) );
+		}
+
+		public Batch add(String variable,boolean[] values) {
+			return add( new Identifier( variable ) , Column.of( values ) );
+		}
+
+		public Batch add(String variable,String[] values) {
+			return add( new Identifier( variable ) , Column.of( values ) );
+		}
+
+		public Batch add(Identifier variable,Column column)
+		{
+			if ( column.size() < rowCount ) {
+				throw new IllegalArgumentException("Column "+variable+" has only "+column.size()+" rows, expected "+rowCount);
+			}
+			columns.put( variable , column );
+			return this;
+		}
+
+		public Column get(Identifier variable) {
+			return columns.get( variable );
+		}
+	}
+
+	private Object target;
+	private final Map<Identifier,Column> assigned = new HashMap<>();
+
+	public BatchEvaluator(Object target) {
+		this.target = target;
+	}
+
+	public void setTarget(Object target) {
+		this.target = target;
+	}
+
+	/**
+	 * Evaluates an AST for all rows of a batch.
+	 */
+	public Column evaluate(ASTNode node,Batch batch) {
+		return evaluate( node , batch , allRows( batch.getRowCount() ) );
+	}
+
+	/**
+	 * Evaluates an AST for the selected rows of a batch.
+	 *
+	 * @param node
+	 * @param batch
+	 * @param selection ascending indices of the rows to evaluate
+	 * @return result column, values of rows that were not selected are undefined
+	 */
+	public Column evaluate(ASTNode node,Batch batch,int[] selection)
+	{
+		assigned.clear();
+		try {
+			return eval( node , batch , selection );
+		} finally {
+			assigned.clear();
+		}
+	}
+
+	/**
+	 * Evaluates a boolean expression for the selected rows of a batch.
+	 *
+	 * @return selection vector with all selected rows the expression is <code>true</code> for
+	 */
+	public int[] filter(ASTNode predicate,Batch batch,int[] selection)
+	{
+		final Column result = evaluate( predicate , batch , selection );
+		assertType( result , ColumnType.BOOLEAN , predicate );
+		return select( result.booleans , selection , true );
+	}
+
+	public static int[] allRows(int rowCount)
+	{
+		final int[] result = new int[ rowCount ];
+		for ( int i = 0 ; i < rowCount ; i++ ) {
+			result[i] = i;
+		}
+		return result;
+	}
+
+	private Column eval(ASTNode node,Batch batch,int[] sel)
+	{
+		switch( node.getNodeType() )
+		{
+			case AST:
+			case EXPRESSION:
+				if ( node.hasNoChildren() ) {
+					throw new RuntimeException("Cannot evaluate empty "+node);
+				}
+				Column last = null;
+				for ( ASTNode child : node.children() ) {
+					last = eval( child , batch , sel );
+				}
+				return last;
+			case BOOLEAN:
+			case NUMBER:
+			case STRING:
+				return constant( ((ILiteralNode) node).value() , batch.getRowCount() , sel );
+			case VARIABLE:
+				final Identifier name = ((VariableNode) node).name;
+				Column column = assigned.get( name );
+				if ( column == null ) {
+					column = batch.get( name );
+				}
+				if ( column == null ) {
+					throw new RuntimeException("Unknown variable "+name);
+				}
+				return column;
+			case FUNCTION_CALL:
+				return evalFunctionCall( (FunctionCallNode) node , batch , sel );
+			case OPERATOR:
+				return evalOperator( (OperatorNode) node , batch , sel );
+			default:
+				throw new RuntimeException("Internal error, unhandled node: "+node);
+		}
+	}
+
+	private Column evalOperator(OperatorNode node,Batch batch,int[] sel)
+	{
+		switch( node.type )
+		{
+			case ASSIGNMENT:
+				if ( !( node.child(0) instanceof VariableNode ) ) {
+					throw new IllegalArgumentException("LHS of assignment is no variable but "+node.child(0));
+				}
+				final Identifier variable = ((VariableNode) node.child(0)).name;
+				final Column value = eval( node.child(1) , batch , sel );
+				Column previous = assigned.get( variable );
+				if ( previous == null ) {
+					previous = batch.get( variable );
+				}
+				// rows that were not selected keep their previous value 
+				assigned.put( variable , previous == null || sel.length == batch.getRowCount() ? value : merge( variable , previous , value , sel ) );
+				return value;
+			case AND:
+			case OR:
+				return evalShortCircuit( node , batch , sel );
+			case NOT:
+				final Column operand = eval( node.child(0) , batch , sel );
+				assertType( operand , ColumnType.BOOLEAN , node );
+				final boolean[] in = operand.booleans;
+				final boolean[] out = new boolean[ batch.getRowCount() ];
+				for ( int row : sel ) {
+					out[row] = ! in[row];
+				}
+				return Column.of( out );
+			default:
+		}
+
+		final Column left = eval( node.child(0) , batch , sel );
+		final Column right = eval( node.child(1) , batch , sel );
+		final int rowCount = batch.getRowCount();
+		if ( node.type == OperatorType.EQ || node.type == OperatorType.NEQ ) {
+			return equals( left , right , node.type == OperatorType.EQ , rowCount , sel );
+		}
+		if ( node.type == OperatorType.PLUS && ( left.type == ColumnType.STRING || right.type == ColumnType.STRING ) ) {
+			return concat( left , right , rowCount , sel );
+		}
+		if ( ! left.isNumeric() || ! right.isNumeric() ) {
+			throw new IllegalArgumentException("Operator "+node.type+" is not supported for "+left.type+" and "+right.type);
+		}
+		if ( left.type == ColumnType.LONG && right.type == ColumnType.LONG ) {
+			return arithmetic( node.type , left.longs , right.longs , rowCount , sel );
+		}
+		return arithmetic( node.type , toDoubles( left , rowCount , sel ) , toDoubles( right , rowCount , sel ) , rowCount , sel );
+	}
+
+	private Column evalShortCircuit(OperatorNode node,Batch batch,int[] sel)
+	{
+		final boolean isAnd = node.type == OperatorType.AND;
+		final Column left = eval( node.child(0) , batch , sel );
+		assertType( left , ColumnType.BOOLEAN , node );
+
+		// rows not determined by the left operand
+		final int[] remaining = select( left.booleans , sel , isAnd );
+		final boolean[] out = new boolean[ batch.getRowCount() ];
+		if ( remaining.length > 0 )
+		{
+			final Column right = eval( node.child(1) , batch , remaining );
+			assertType( right , ColumnType.BOOLEAN , node );
+			final boolean[] in = right.booleans;
+			for ( int row : remaining ) {
+				out[row] = in[row];
+			}
+		}
+		if ( ! isAnd )
+		{
+			final boolean[] in = left.booleans;
+			for ( int row : sel ) {
+				out[row] |= in[row];
+			}
+		}
+		return Column.of( out );
+	}
+
+	private static Column arithmetic(OperatorType op,long[] a,long[] b,int rowCount,int[] sel)
+	{
+		if ( isComparison( op ) )
+		{
+			final boolean[] out = new boolean[ rowCount ];
+			switch( op ) {
+				case GT:  for ( int row : sel ) { out[row] = a[row] > b[row]; } break;
+				case GTE: for ( int row : sel ) { out[row] = a[row] >= b[row]; } break;
+				case LT:  for ( int row : sel ) { out[row] = a[row] < b[row]; } break;
+				default:  for ( int row : sel ) { out[row] = a[row] <= b[row]; } break;
+			}
+			return Column.of( out );
+		}
+		final long[] out = new long[ rowCount ];
+		switch( op )
+		{
+			case PLUS:   for ( int row : sel ) { out[row] = a[row] + b[row]; } break;
+			case MINUS:  for ( int row : sel ) { out[row] = a[row] - b[row]; } break;
+			case TIMES:  for ( int row : sel ) { out[row] = a[row] * b[row]; } break;
+			case DIVIDE: for ( int row : sel ) { out[row] = a[row] / b[row]; } break;
+			default:
+				throw new RuntimeException("Internal error, unhandled operator "+op);
+		}
+		return Column.of( out );
+	}
+
+	private static Column arithmetic(OperatorType op,double[] a,double[] b,int rowCount,int[] sel)
+	{
+		if ( isComparison( op ) )
+		{
+			// Double.compare() like NumericKernel
+			final boolean[] out = new boolean[ rowCount ];
+			switch( op ) {
+				case GT:  for ( int row : sel ) { out[row] = Double.compare( a[row] , b[row] ) > 0; } break;
+				case GTE: for ( int row : sel ) { out[row] = Double.compare( a[row] , b[row] ) >= 0; } break;
+				case LT:  for ( int row : sel ) { out[row] = Double.compare( a[row] , b[row] ) < 0; } break;
+				default:  for ( int row : sel ) { out[row] = Double.compare( a[row] , b[row] ) <= 0; } break;
+			}
+			return Column.of( out );
+		}
+		final double[] out = new double[ rowCount ];
+		switch( op )
+		{
+			case PLUS:   for ( int row : sel ) { out[row] = a[row] + b[row]; } break;
+			case MINUS:  for ( int row : sel ) { out[row] = a[row] - b[row]; } break;
+			case TIMES:  for ( int row : sel ) { out[row] = a[row] * b[row]; } break;
+			case DIVIDE: for ( int row : sel ) { out[row] = a[row] / b[row]; } break;
+			default:
+				throw new RuntimeException("Internal error, unhandled operator "+op);
+		}
+		return Column.of( out );
+	}
+
+	private static boolean isComparison(OperatorType op) {
+		return op == OperatorType.GT || op == OperatorType.GTE || op == OperatorType.LT || op == OperatorType.LTE;
+	}
+
+	private static Column equals(Column left,Column right,boolean isEq,int rowCount,int[] sel)
+	{
+		final boolean[] out = new boolean[ rowCount ];
+		if ( left.isNumeric() && right.isNumeric() )
+		{
+			if ( left.type == ColumnType.LONG && right.type == ColumnType.LONG )
+			{
+				final long[] a = left.longs;
+				final long[] b = right.longs;
+				for ( int row : sel ) {
+					out[row] = ( a[row] == b[row] ) == isEq;
+				}
+			}
+			else
+			{
+				for ( int row : sel ) {
+					out[row] = ( Double.compare( left.getDouble( row ) , right.getDouble( row ) ) == 0 ) == isEq;
+				}
+			}
+		}
+		else if ( left.type != right.type )
+		{
+			for ( int row : sel ) {
+				out[row] = ! isEq;
+			}
+		}
+		else if ( left.type == ColumnType.BOOLEAN )
+		{
+			final boolean[] a = left.booleans;
+			final boolean[] b = right.booleans;
+			for ( int row : sel ) {
+				out[row] = ( a[row] == b[row] ) == isEq;
+			}
+		}
+		else
+		{
+			final String[] a = left.strings;
+			final String[] b = right.strings;
+			for ( int row : sel ) {
+				out[row] = Objects.equals( a[row] , b[row] ) == isEq;
+			}
+		}
+		return Column.of( out );
+	}
+
+	private static Column concat(Column left,Column right,int rowCount,int[] sel)
+	{
+		final String[] out = new String[ rowCount ];
+		for ( int row : sel ) {
+			out[row] = String.valueOf( left.get( row ) ) + String.valueOf( right.get( row ) );
+		}
+		return Column.of( out );
+	}
+
+	private static double[] toDoubles(Column column,int rowCount,int[] sel)
+	{
+		if ( column.type == ColumnType.DOUBLE ) {
+			return column.doubles;
+		}
+		final long[] in = column.longs;
+		final double[] out = new double[ rowCount ];
+		for ( int row : sel ) {
+			out[row] = in[row];
+		}
+		return out;
+	}
+
+	private Column evalFunctionCall(FunctionCallNode node,Batch batch,int[] sel)
+	{
+		if ( target == null ) {
+			throw new RuntimeException("Cannot perform function call, no target object set");
+		}
+		final Column[] arguments = new Column[ node.getChildCount() ];
+		for ( int i = 0 ; i < arguments.length ; i++ ) {
+			arguments[i] = eval( node.child(i) , batch , sel );
+		}
+		final Object[] results = new Object[ batch.getRowCount() ];
+		final Method method = getMethod( node , arguments , sel );
+		final Class<?>[] parameterTypes = method.getParameterTypes();
+		for ( int row : sel )
+		{
+			final Object[] values = new Object[ arguments.length ];
+			for ( int i = 0 ; i < values.length ; i++ ) {
+				values[i] = toParameterType( parameterTypes[i] , arguments[i].get( row ) );
+			}
+			try {
+				results[row] = method.invoke( target , values );
+			}
+			catch (Exception e) {
+				throw new RuntimeException("Failed to invoke "+method+" with "+Arrays.toString( values )+" on "+target,e);
+			}
+		}
+		return toColumn( method , results , sel );
+	}
+
+	/**
+	 * Columns only hold long/double values, convert them to the (possibly narrower) type the method declares.
+	 */
+	private static Object toParameterType(Class<?> parameterType,Object value)
+	{
+		if ( value instanceof Number && ( parameterType.isPrimitive() || Number.class.isAssignableFrom( parameterType ) ) )
+		{
+			try {
+				return NumericType.getType( parameterType ).convert( value );
+			} catch(IllegalArgumentException e) {
+				// not a numeric type we know (like Number itself), pass the value as-is
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Looks up the method a function call invokes, using the method the {@link Typer} picked if available.
+	 *
+	 * Otherwise the method is looked up by name and number of arguments. Overloaded methods
+	 * get resolved using the argument values of the first selected row.
+	 */
+	private Method getMethod(FunctionCallNode node,Column[] arguments,int[] sel)
+	{
+		if ( node.targetMethod != null ) 
+		{
+			checkReturnType( node.targetMethod );
+			return node.targetMethod;
+		}
+		final List<Method> candidates = new ArrayList<>();
+		for ( Method m : target.getClass().getMethods() )
+		{
+			if ( m.getName().equals( node.getFunctionName().getSymbol() ) && m.getParameterCount() == node.getChildCount() ) {
+				candidates.add( m );
+			}
+		}
+		if ( candidates.isEmpty() ) {
+			throw new RuntimeException("Found no method "+node.getFunctionName()+" with "+node.getChildCount()+" arguments on "+target);
+		}
+		Method result = candidates.get(0);
+		if ( candidates.size() > 1 )
+		{
+			if ( sel.length > 0 )
+			{
+				final List<Object> values = new ArrayList<>( arguments.length );
+				for ( Column argument : arguments ) {
+					values.add( argument.get( sel[0] ) );
+				}
+				result = Evaluator.findMethod( node.getFunctionName() , values , candidates.toArray( new Method[ candidates.size() ] ) );
+			} 
+			else 
+			{
+				for ( Method m : candidates ) 
+				{
+					if ( m.getReturnType() != result.getReturnType() ) {
+						throw new RuntimeException("Cannot determine the result type of "+node+", it is ambiguous for an empty selection");
+					}
+				}
+			}
+		}
+		checkReturnType( result );
+		return result;
+	}
+
+	private static void checkReturnType(Method method)
+	{
+		if ( method.getReturnType() == Void.TYPE ) {
+			throw new RuntimeException("Cannot use result of void method "+method+" in batch evaluation");
+		}
+	}
+
+	private static Column toColumn(Method method,Object[] values,int[] sel)
+	{
+		final Class<?> type = method.getReturnType();
+		final int rowCount = values.length;
+		if ( type != String.class ) 
+		{
+			for ( int row : sel ) 
+			{
+				if ( values[row] == null ) {
+					throw new RuntimeException("Method "+method+" returned NULL for row "+row+", batch evaluation does not support NULL values");
+				}
+			}
+		}
+		if ( type == Boolean.class || type == Boolean.TYPE )
+		{
+			final boolean[] out = new boolean[ rowCount ];
+			for ( int row : sel ) {
+				out[row] = (Boolean) values[row];
+			}
+			return Column.of( out );
+		}
+		if ( type == String.class ) {
+			return Column.of( Arrays.copyOf( values , rowCount , String[].class ) );
+		}
+		final NumericType numericType;
+		try {
+			numericType = NumericType.getType( type );
+		} catch(IllegalArgumentException e) {
+			throw new RuntimeException("Unsupported type in batch evaluation: "+type);
+		}
+		if ( numericType.isFloatingPoint() )
+		{
+			final double[] out = new double[ rowCount ];
+			for ( int row : sel ) {
+				out[row] = ((Number) values[row]).doubleValue();
+			}
+			return Column.of( out );
+		}
+		final long[] out = new long[ rowCount ];
+		for ( int row : sel ) {
+			out[row] = ((Number) values[row]).longValue();
+		}
+		return Column.of( out );
+	}
+
+	private static Column merge(Identifier variable,Column previous,Column value,int[] sel)
+	{
+		if ( previous.type != value.type ) {
+			throw new IllegalArgumentException("Cannot assign "+value.type+" values to some of the rows of "+previous.type+" variable "+variable);
+		}
+		switch( value.type )
+		{
+			case LONG:
+				final long[] longs = previous.longs.clone();
+				for ( int row : sel ) {
+					longs[row] = value.longs[row];
+				}
+				return Column.of( longs );
+			case DOUBLE:
+				final double[] doubles = previous.doubles.clone();
+				for ( int row : sel ) {
+					doubles[row] = value.doubles[row];
+				}
+				return Column.of( doubles );
+			case BOOLEAN:
+				final boolean[] booleans = previous.booleans.clone();
+				for ( int row : sel ) {
+					booleans[row] = value.booleans[row];
+				}
+				return Column.of( booleans );
+			default:
+				final String[] strings = previous.strings.clone();
+				for ( int row : sel ) {
+					strings[row] = value.strings[row];
+				}
+				return Column.of( strings );
+		}
+	}
+
+	private static Column constant(Object value,int rowCount,int[] sel)
+	{
+		if ( value instanceof Boolean )
+		{
+			final boolean[] out = new boolean[ rowCount ];
+			if ( (Boolean) value ) {
+				for ( int row : sel ) {
+					out[row] = true;
+				}
+			}
+			return Column.of( out );
+		}
+		if ( value instanceof String )
+		{
+			final String[] out = new String[ rowCount ];
+			for ( int row : sel ) {
+				out[row] = (String) value;
+			}
+			return Column.of( out );
+		}
+		if ( NumericType.getType( value.getClass() ).isFloatingPoint() )
+		{
+			final double v = ((Number) value).doubleValue();
+			final double[] out = new double[ rowCount ];
+			for ( int row : sel ) {
+				out[row] = v;
+			}
+			return Column.of( out );
+		}
+		final long v = ((Number) value).longValue();
+		final long[] out = new long[ rowCount ];
+		for ( int row : sel ) {
+			out[row] = v;
+		}
+		return Column.of( out );
+	}
+
+	private static int[] select(boolean[] values,int[] sel,boolean expected)
+	{
+		int count = 0;
+		final int[] result = new int[ sel.length ];
+		for ( int row : sel )
+		{
+			if ( values[row] == expected ) {
+				result[count++] = row;
+			}
+		}
+		return count == result.length ? result : Arrays.copyOf( result , count );
+	}
+
+	private static void assertType(Column column,ColumnType expected,ASTNode node)
+	{
+		if ( column.type != expected ) {
+			throw new IllegalArgumentException("Expected a "+expected+" operand for "+node+" but got "+column.type);
+		}
+	}
+}
@@ -0,0 +1,289 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+
+import de.codesourcery.tinyscript.ast.ASTNode;
+import de.codesourcery.tinyscript.ast.VariableNode;
+
+/**
+ * Persistent cache for class files generated by {@link ByteCodeWriter}.
+ *
+ * Entries are looked up by a hash of the class name, the target class name, the source text and
+ * the name, slot and data type of each variable the source refers to (as seen by the compiler's scope).
+ * Each entry records a fingerprint of the target class' public method signatures
+ * and the {@link ByteCodeWriter#COMPILER_VERSION} it was generated with, entries
+ * whose fingerprint no longer matches are deleted and recompiled.
+ *
+ * Each generated class gets defined by its own {@link ByteCodeClassLoader}, so classes with the same name
+ * but different byte code can coexist. Defined classes are remembered per parent class loader and
+ * byte code hash without preventing either of them from being garbage-collected.
+ */
+public class ByteCodeCache
+{
+	private static final int MAGIC = 0x54534243; // 'TSBC'
+
+	@FunctionalInterface
+	public interface ICompiler
+	{
+		public byte[] compile(String className,String source,Class<?> targetClass);
+
+		/**
+		 * Returns the scope variables get resolved against when compiling.
+		 *
+		 * @return scope or <code>null</code> if variable types and slots do not affect the generated code
+		 */
+		public default IScope getScope() {
+			return null;
+		}
+
+		/**
+		 * Describes the options that affect the generated code, becomes part of the cache key.
+		 *
+		 * @return description, never <code>null</code>
+		 */
+		public default String getOptions() {
+			return "";
+		}
+	}
+
+	private final File directory;
+
+	// defined classes by parent class loader and byte code hash
+	private final Map<ClassLoader,Map<String,WeakReference<Class<?>>>> definedClasses = new WeakHashMap<>();
+
+	/**
+	 * Class loader for a single generated class.
+	 */
+	public static final class ByteCodeClassLoader extends ClassLoader
+	{
+		public ByteCodeClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		public Class<?> define(String className,byte[] byteCode) {
+			return defineClass( className.replace('/','.') , byteCode , 0 , byteCode.length );
+		}
+	}
+
+	public ByteCodeCache(File directory)
+	{
+		if ( directory == null ) {
+			throw new IllegalArgumentException("Cache directory must not be NULL");
+		}
+		this.directory = directory;
+	}
+
+	public Class<?> getOrCompile(String className,String source,Class<?> targetClass)
+	{
+		return getOrCompile( className , source , targetClass , new ExpressionCompiler() );
+	}
+
+	public Class<?> getOrCompile(String className,String source,Class<?> targetClass,ICompiler compiler)
+	{
+		// compiling may declare variables in the scope, so the key must be computed before
+		final File file = getFile( className , source , targetClass , compiler.getScope() , compiler.getOptions() );
+		byte[] byteCode = get( className , file , targetClass );
+		if ( byteCode == null )
+		{
+			byteCode = compiler.compile( className , source , targetClass );
+			put( className , file , targetClass , byteCode );
+		}
+		return defineClass( className , byteCode , targetClass );
+	}
+
+	public <T> CompiledExpression<T> newInstance(Class<?> compiledClass,T target,IScope scope)
+	{
+		return CompiledExpression.newInstance( compiledClass , target , scope );
+	}
+
+	public byte[] get(String className,String source,Class<?> targetClass) {
+		return get( className , source , targetClass , null );
+	}
+
+	/**
+	 * @param scope scope the source gets compiled against, may be <code>null</code>
+	 */
+	public byte[] get(String className,String source,Class<?> targetClass,IScope scope) {
+		return get( className , getFile( className , source , targetClass , scope , "" ) , targetClass );
+	}
+
+	private synchronized byte[] get(String className,File file,Class<?> targetClass)
+	{
+		if ( ! file.exists() ) {
+			return null;
+		}
+
+		final String expectedFingerprint = fingerprint( targetClass );
+		try ( DataInputStream in = new DataInputStream( Files.newInputStream( file.toPath() ) ) )
+		{
+			if ( in.readInt() == MAGIC && className.equals( in.readUTF() ) && expectedFingerprint.equals( in.readUTF() ) )
+			{
+				final byte[] result = new byte[ in.readInt() ];
+				in.readFully( result );
+				return result;
+			}
+		}
+		catch(IOException e) {
+			// fall through, corrupted entries are treated like stale ones
+		}
+		invalidate( file );
+		return null;
+	}
+
+	public void put(String className,String source,Class<?> targetClass,byte[] byteCode) {
+		put( className , source , targetClass , null , byteCode );
+	}
+
+	/**
+	 * @param scope scope the source got compiled against, may be <code>null</code>
+	 */
+	public void put(String className,String source,Class<?> targetClass,IScope scope,byte[] byteCode) {
+		put( className , getFile( className , source , targetClass , scope , "" ) , targetClass , byteCode );
+	}
+
+	private synchronized void put(String className,File file,Class<?> targetClass,byte[] byteCode)
+	{
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try ( DataOutputStream out = new DataOutputStream( buffer ) )
+		{
+			out.writeInt( MAGIC );
+			out.writeUTF( className );
+			out.writeUTF( fingerprint( targetClass ) );
+			out.writeInt( byteCode.length );
+			out.write( byteCode );
+		}
+		catch(IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		try
+		{
+			Files.createDirectories( directory.toPath() );
+			final File tmpFile = File.createTempFile( file.getName() , ".tmp" , directory );
+			Files.write( tmpFile.toPath() , buffer.toByteArray() );
+			Files.move( tmpFile.toPath() , file.toPath() , StandardCopyOption.REPLACE_EXISTING , StandardCopyOption.ATOMIC_MOVE );
+		}
+		catch(IOException e) {
+			throw new RuntimeException("Failed to write cache entry "+file.getAbsolutePath(),e);
+		}
+	}
+
+	public synchronized Class<?> defineClass(String className,byte[] byteCode,Class<?> targetClass)
+	{
+		final ClassLoader parent = targetClass.getClassLoader() != null ? targetClass.getClassLoader() : getClass().getClassLoader();
+		final Map<String,WeakReference<Class<?>>> classes = definedClasses.computeIfAbsent( parent , key -> new HashMap<>() );
+		final String key = className.replace('/','.')+"\0"+hash( byteCode );
+		final WeakReference<Class<?>> existing = classes.get( key );
+		Class<?> result = existing != null ? existing.get() : null;
+		if ( result == null )
+		{
+			result = new ByteCodeClassLoader( parent ).define( className , byteCode );
+			classes.put( key , new WeakReference<>( result ) );
+		}
+		return result;
+	}
+
+	private void invalidate(File file)
+	{
+		if ( ! file.delete() && file.exists() ) {
+			throw new RuntimeException("Failed to delete stale cache entry "+file.getAbsolutePath());
+		}
+	}
+
+	private File getFile(String className,String source,Class<?> targetClass,IScope scope,String options) {
+		return new File( directory , hash( className+"\0"+targetClass.getName()+"\0"+source+"\0"+variables( source , scope )+"\0"+options )+".tsc" );
+	}
+
+	/**
+	 * Describes name, slot and data type of all variables a source refers to.
+	 */
+	private static String variables(String source,IScope scope)
+	{
+		if ( scope == null ) {
+			return "";
+		}
+		final Set<String> names = new TreeSet<>();
+		collectVariables( new ExpressionCompiler().parse( source ) , names );
+
+		final StringBuilder buffer = new StringBuilder();
+		for ( String name : names )
+		{
+			final Identifier identifier = new Identifier( name );
+			final int slot = scope instanceof ISlotScope ? ((ISlotScope) scope).getLayout().getSlot( identifier ) : -1;
+			Class<?> type;
+			try {
+				type = scope.getDataType( identifier );
+			} catch(RuntimeException e) {
+				type = null; // unknown variable, compilation will fail or declare it
+			}
+			buffer.append( name ).append(':').append( slot ).append(':').append( type == null ? "?" : type.getName() ).append('\n');
+		}
+		return buffer.toString();
+	}
+
+	private static void collectVariables(ASTNode node,Set<String> names)
+	{
+		if ( node instanceof VariableNode ) {
+			names.add( ((VariableNode) node).name.getSymbol() );
+		}
+		for ( ASTNode child : node.children() ) {
+			collectVariables( child , names );
+		}
+	}
+
+	protected String fingerprint(Class<?> targetClass)
+	{
+		final List<String> signatures = new ArrayList<>();
+		for ( Method m : targetClass.getMethods() ) {
+			signatures.add( m.toGenericString() );
+		}
+		Collections.sort( signatures );
+
+		final StringBuilder buffer = new StringBuilder();
+		buffer.append( ByteCodeWriter.COMPILER_VERSION ).append('\n');
+		buffer.append( targetClass.getName() ).append('\n');
+		for ( String signature : signatures ) {
+			buffer.append( signature ).append('\n');
+		}
+		return hash( buffer.toString() );
+	}
+
+	private static String hash(String input) {
+		return hash( input.getBytes( StandardCharsets.UTF_8 ) );
+	}
+
+	private static String hash(byte[] input)
+	{
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		final StringBuilder result = new StringBuilder();
+		for ( byte b : digest.digest( input ) ) {
+			result.append( Character.forDigit( (b >> 4) & 0x0f , 16 ) ).append( Character.forDigit( b & 0x0f , 16 ) );
+		}
+		return result.toString();
+	}
+}
@@ -1,6 +1,8 @@
 package de.codesourcery.tinyscript.eval;
 
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
@@ -11,34 +13,77 @@ import org.objectweb.asm.util.CheckClassAdapter;
 import org.objectweb.asm.util.TraceClassVisitor;
 
 import de.codesourcery.tinyscript.ast.AST;
+import de.codesourcery.tinyscript.ast.ASTNode;
+import de.codesourcery.tinyscript.ast.VariableNode;
 
 public class ByteCodeWriter {
 
+	/**
+	 * Version of the generated code, needs to be incremented whenever
+	 * code generation changes so that cached class files get invalidated.
+	 */
+	public static final int COMPILER_VERSION = 17;
+
 	private final String className;
 	private ClassVisitor classWriter;
 
 	private MethodVisitor mv;
 
+	private RangeAnalyzer rangeAnalyzer;
+	private boolean checkOverflow;
+
 	public ByteCodeWriter(String className) {
 		this.className = convertClassName(className);
 	}
 
+	/**
+	 * Sets the analyzer used to narrow the value ranges of integer expressions.
+	 *
+	 * @param rangeAnalyzer analyzer or <code>null</code> to use a new {@link RangeAnalyzer} for each compilation
+	 */
+	public void setRangeAnalyzer(RangeAnalyzer rangeAnalyzer) {
+		this.rangeAnalyzer = rangeAnalyzer;
+	}
+
+	/**
+	 * Sets whether <code>int</code> and <code>long</code> additions, subtractions and multiplications that
+	 * may overflow (see {@link RangeAnalyzer#mayOverflow(ASTNode)}) throw an {@link ArithmeticException} 
+	 * instead of silently wrapping around. 
+	 * 
+	 * Disabled by default. Only affects compiled code, the {@link Evaluator} always wraps around.
+	 */
+	public void setCheckOverflow(boolean checkOverflow) {
+		this.checkOverflow = checkOverflow;
+	}
+
 	public byte[] compile(AST ssa,Class<?> targetClass) 
 	{
-		final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS|ClassWriter.COMPUTE_FRAMES) 
+		{
+			@Override
+			protected String getCommonSuperClass(String type1, String type2) 
+			{
+				try {
+					return super.getCommonSuperClass(type1, type2);
+				} catch(TypeNotPresentException e) {
+					return "java/lang/Object";
+				}
+			}
+		};
 		final PrintWriter printWriter = new PrintWriter(System.out , true );
 		classWriter = new TraceClassVisitor( writer , printWriter );
 
 		try {
-			startMethod();
+			startMethod( getSlotNames( ssa ) );
 			
-			final MethodBodyWriter builder = new MethodBodyWriter(targetClass);
+			final MethodBodyWriter builder = new MethodBodyWriter(targetClass, rangeAnalyzer != null ? rangeAnalyzer : new RangeAnalyzer() );
+			builder.setCheckOverflow( checkOverflow );
 			final Class<?> returnType = builder.generateMethodBody( ssa, mv );
 			System.out.println("==> end method: "+returnType+" (is_primitive: "+returnType.isPrimitive()+")");
 			endMethod(returnType);
 		} 
 		finally {
-			System.out.println(((TraceClassVisitor) classWriter).text);
+			System.out.println(((TraceClassVisitor) classWriter).p.getText());
 		}
 
 		byte[] byteArray = writer.toByteArray();
@@ -49,6 +94,33 @@ public class ByteCodeWriter {
 		return byteArray;
 	}
 
+	/**
+	 * Returns the names of all variables bound to slots, comma-separated in slot order.
+	 * 
+	 * @return names or <code>null</code> if no variable is bound to a slot
+	 */
+	private static String getSlotNames(ASTNode ast) 
+	{
+		final List<String> names = new ArrayList<>();
+		collectSlotNames( ast , names );
+		return names.isEmpty() ? null : String.join( "," , names );
+	}
+	
+	private static void collectSlotNames(ASTNode node,List<String> names) 
+	{
+		if ( node instanceof VariableNode && ((VariableNode) node).slot != -1 ) 
+		{
+			final VariableNode variable = (VariableNode) node;
+			while ( names.size() <= variable.slot ) {
+				names.add( "" );
+			}
+			names.set( variable.slot , variable.name.getSymbol() );
+		}
+		for ( ASTNode child : node.children() ) {
+			collectSlotNames( child , names );
+		}
+	}
+	
 	private static String convertClassName(String name) {
 		return name.replace('.', '/');
 	}
@@ -57,12 +129,12 @@ public class ByteCodeWriter {
 		return cl.getName().replace('.', '/');
 	}	
 
-	private void startMethod() 
+	private void startMethod(String slotNames) 
 	{
 		// start visiting class
 		final String superClass = convertClassName(CompiledExpression.class);
 
-		classWriter.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC + Opcodes.ACC_SUPER, convertClassName( className ) , 
+		classWriter.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC + Opcodes.ACC_SUPER, convertClassName( className ) , 
 				"<T:Ljava/lang/Object;>L"+superClass+";", // signature
 				superClass , 
 				null // interfaces
@@ -83,7 +155,14 @@ public class ByteCodeWriter {
 
 		mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "de/codesourcery/tinyscript/eval/CompiledExpression", 
 				"<init>", 
-				"(Ljava/lang/Object;Lde/codesourcery/tinyscript/eval/IScope;)V");
+				"(Ljava/lang/Object;Lde/codesourcery/tinyscript/eval/IScope;)V" , false );
+		
+		if ( slotNames != null ) 
+		{
+			mv.visitVarInsn(Opcodes.ALOAD, 0);
+			mv.visitLdcInsn( slotNames );
+			mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "de/codesourcery/tinyscript/eval/CompiledExpression", "checkLayout", "(Ljava/lang/String;)V" , false );
+		}
 		mv.visitInsn(Opcodes.RETURN);
 		mv.visitMaxs(0, 0);
 		mv.visitEnd();
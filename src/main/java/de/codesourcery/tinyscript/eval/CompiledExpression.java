@@ -13,4 +13,36 @@ public abstract class CompiledExpression<T>
 	}
 
 	public abstract Object apply();
+
+	/**
+	 * Invoked by the constructor of generated classes that access variables by slot (see {@link VariableBinder}).
+	 *
+	 * @param slotNames comma-separated variable names in slot order, empty for slots the expression does not use
+	 * @throws RuntimeException if the scope's layout assigns a variable a different slot
+	 */
+	protected final void checkLayout(String slotNames)
+	{
+		if ( !( variableResolver instanceof ISlotScope ) ) {
+			throw new IllegalArgumentException("Expression has been compiled against a scope layout, needs an ISlotScope but got "+variableResolver);
+		}
+		final ScopeLayout layout = ((ISlotScope) variableResolver).getLayout();
+		final String[] names = slotNames.split( "," , -1 );
+		for ( int slot = 0 ; slot < names.length ; slot++ )
+		{
+			if ( ! names[slot].isEmpty() && layout.getSlot( new Identifier( names[slot] ) ) != slot ) {
+				throw new RuntimeException("Variable "+names[slot]+" has been bound to slot "+slot+" of another layout than "+layout);
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <T> CompiledExpression<T> newInstance(Class<?> compiledClass,T target,IScope variableResolver)
+	{
+		try {
+			return (CompiledExpression<T>) compiledClass.getConstructor( Object.class , IScope.class ).newInstance( target , variableResolver );
+		}
+		catch (Exception e) {
+			throw new RuntimeException("Failed to instantiate "+compiledClass.getName(),e);
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,171 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thread-safe scope for sharing variables between concurrently running scripts.
+ *
+ * All variables live in an immutable, versioned {@link Snapshot}. Reads never lock, they
+ * just dereference the current snapshot. Writes copy the current snapshot, apply their changes
+ * and publish the copy using compare-and-set, retrying if another writer got there first. This
+ * favours workloads with many readers and few writers.
+ *
+ * To get consistent reads for the duration of one evaluation, evaluate against
+ * {@link #snapshot()} instead of this scope.
+ */
+public class ConcurrentScope implements IScope
+{
+	private final AtomicReference<Snapshot> current = new AtomicReference<>( new Snapshot( 0 , Collections.emptyMap() ) );
+
+	public static final class Snapshot
+	{
+		public final long version;
+		private final Map<Identifier,Object> values;
+
+		private Snapshot(long version,Map<Identifier,Object> values) {
+			this.version = version;
+			this.values = values;
+		}
+
+		public Object get(Identifier name)
+		{
+			final Object result = values.get( name );
+			if ( result == null && ! values.containsKey( name ) ) {
+				throw new RuntimeException("Unknown variable "+name);
+			}
+			return result;
+		}
+
+		public boolean contains(Identifier name) {
+			return values.containsKey( name );
+		}
+
+		private Snapshot with(Map<Identifier,Object> changes)
+		{
+			final Map<Identifier,Object> copy = new HashMap<>( values );
+			copy.putAll( changes );
+			return new Snapshot( version+1 , Collections.unmodifiableMap( copy ) );
+		}
+	}
+
+	public Snapshot getCurrentSnapshot() {
+		return current.get();
+	}
+
+	public long getVersion() {
+		return current.get().version;
+	}
+
+	@Override
+	public Object readVariable(Identifier name) {
+		return current.get().get( name );
+	}
+
+	@Override
+	public void writeVariable(Identifier name, Object value) {
+		writeVariables( Collections.singletonMap( name , value ) );
+	}
+
+	/**
+	 * Atomically updates several variables at once.
+	 *
+	 * @return version of the snapshot that contains the changes
+	 */
+	public long writeVariables(Map<Identifier,Object> changes)
+	{
+		return apply( changes ).version;
+	}
+
+	private Snapshot apply(Map<Identifier,Object> changes)
+	{
+		while ( true )
+		{
+			final Snapshot existing = current.get();
+			final Snapshot updated = existing.with( changes );
+			if ( current.compareAndSet( existing , updated ) ) {
+				return updated;
+			}
+		}
+	}
+
+	@Override
+	public Class<?> getDataType(Identifier name)
+	{
+		final Object value = readVariable( name );
+		return value == null ? null : value.getClass();
+	}
+
+	/**
+	 * Returns a scope that sees the variables as they were when this method got called.
+	 *
+	 * Assignments performed through the returned scope are only visible to the returned scope itself
+	 * until {@link SnapshotScope#publish()} gets called.
+	 */
+	public SnapshotScope snapshot() {
+		return new SnapshotScope( this , current.get() );
+	}
+
+	/**
+	 * Scope view of a single {@link Snapshot}, not thread-safe.
+	 */
+	public static final class SnapshotScope implements IScope
+	{
+		private final ConcurrentScope parent;
+		private Snapshot snapshot;
+		private final Map<Identifier,Object> writes = new HashMap<>();
+
+		private SnapshotScope(ConcurrentScope parent,Snapshot snapshot) {
+			this.parent = parent;
+			this.snapshot = snapshot;
+		}
+
+		public long getVersion() {
+			return snapshot.version;
+		}
+
+		@Override
+		public Object readVariable(Identifier name)
+		{
+			final Object result = writes.get( name );
+			if ( result != null || writes.containsKey( name ) ) {
+				return result;
+			}
+			return snapshot.get( name );
+		}
+
+		@Override
+		public void writeVariable(Identifier name, Object value) {
+			writes.put( name , value );
+		}
+
+		@Override
+		public Class<?> getDataType(Identifier name)
+		{
+			final Object value = readVariable( name );
+			return value == null ? null : value.getClass();
+		}
+
+		/**
+		 * Atomically applies all assignments made through this scope to the parent scope.
+		 *
+		 * Changes made by others since the snapshot was taken are kept unless they
+		 * touched the same variables (last writer wins). Afterwards this scope reads from
+		 * the published snapshot, so it may be used for further evaluations.
+		 *
+		 * @return version of the parent's snapshot that contains the changes
+		 */
+		public long publish()
+		{
+			if ( writes.isEmpty() ) {
+				snapshot = parent.getCurrentSnapshot();
+			} else {
+				snapshot = parent.apply( writes );
+				writes.clear();
+			}
+			return snapshot.version;
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.codesourcery.tinyscript.ast.AST;
+import de.codesourcery.tinyscript.ast.ASTNode;
+import de.codesourcery.tinyscript.ast.FunctionCallNode;
+import de.codesourcery.tinyscript.ast.OperatorNode;
+import de.codesourcery.tinyscript.ast.VariableNode;
+
+/**
+ * Removes statements from an AST in SSA form (as produced by {@link SSARewriter}) that
+ * neither contribute to the result nor have side effects.
+ *
+ * First, temporaries that hold a literal value get replaced by the literal itself (copy propagation).
+ * Afterwards, a backwards liveness analysis removes every assignment to a temporary that is never read
+ * later on, unless computing its value has side effects. Assignments to user variables and the last
+ * statement (which yields the result) are always kept.
+ *
+ * Computing a value is considered free of side effects if it contains no assignment and only
+ * invokes methods for which {@link #hasNoSideEffectsHook(Method)} returns <code>true</code>, which requires
+ * the AST to have been processed by {@link Typer}. Note that exceptions (like a division by zero)
+ * in removed statements are not preserved.
+ */
+public class DeadCodeEliminator
+{
+	/**
+	 * Check whether a method invocation may be removed if its result is never used.
+	 *
+	 * @param method
+	 * @return <code>true</code> if the method has no side effects, by default only methods annotated with {@link Pure}
+	 */
+	protected boolean hasNoSideEffectsHook(Method method) {
+		return method.isAnnotationPresent( Pure.class );
+	}
+
+	/**
+	 * Rewrites an AST in SSA form.
+	 *
+	 * @param ssa AST, gets modified in-place
+	 * @return rewritten AST
+	 */
+	public AST rewrite(AST ssa)
+	{
+		final List<ASTNode> statements = propagateLiterals( new ArrayList<>( ssa.children() ) );
+
+		// liveness analysis, walking backwards from the result
+		final Set<Identifier> live = new HashSet<>();
+		final boolean[] keep = new boolean[ statements.size() ];
+		for ( int i = statements.size()-1 ; i >= 0 ; i-- )
+		{
+			final ASTNode statement = statements.get(i);
+			if ( i == statements.size()-1 || ! isTemporaryAssignment( statement ) ||
+			     live.contains( ((VariableNode) statement.child(0)).name ) || ! hasNoSideEffects( statement.child(1) ) )
+			{
+				keep[i] = true;
+				collectReadTemporaries( statement , live );
+			}
+		}
+
+		final AST result = new AST();
+		for ( int i = 0 ; i < statements.size() ; i++ ) {
+			if ( keep[i] ) {
+				result.add( statements.get(i) );
+			}
+		}
+		return result;
+	}
+
+	private List<ASTNode> propagateLiterals(List<ASTNode> statements)
+	{
+		final Map<Identifier,ASTNode> literals = new HashMap<>();
+		final List<ASTNode> result = new ArrayList<>();
+		for ( int i = 0 ; i < statements.size() ; i++ )
+		{
+			final ASTNode statement = substitute( statements.get(i) , literals );
+			if ( i < statements.size()-1 && isTemporaryAssignment( statement ) && statement.child(1).isLiteralValue() ) {
+				literals.put( ((VariableNode) statement.child(0)).name , statement.child(1) );
+				continue;
+			}
+			result.add( statement );
+		}
+		return result;
+	}
+
+	private static ASTNode substitute(ASTNode node,Map<Identifier,ASTNode> literals)
+	{
+		if ( node instanceof VariableNode && ((VariableNode) node).isGenerated )
+		{
+			final ASTNode literal = literals.get( ((VariableNode) node).name );
+			return literal != null ? literal.copyNode() : node;
+		}
+		for ( int i = 0 ; i < node.getChildCount() ; i++ )
+		{
+			final ASTNode child = node.child(i);
+			final ASTNode newChild = substitute( child , literals );
+			if ( newChild != child ) {
+				node.replaceChild( i , newChild );
+			}
+		}
+		return node;
+	}
+
+	private static void collectReadTemporaries(ASTNode node,Set<Identifier> result)
+	{
+		if ( isTemporaryAssignment( node ) ) {
+			collectReadTemporaries( node.child(1) , result );
+			return;
+		}
+		if ( node instanceof VariableNode && ((VariableNode) node).isGenerated ) {
+			result.add( ((VariableNode) node).name );
+		}
+		for ( ASTNode child : node.children() ) {
+			collectReadTemporaries( child , result );
+		}
+	}
+
+	private boolean hasNoSideEffects(ASTNode node)
+	{
+		if ( node instanceof OperatorNode && ((OperatorNode) node).type == OperatorType.ASSIGNMENT ) {
+			return false;
+		}
+		if ( node instanceof FunctionCallNode )
+		{
+			final Method method = ((FunctionCallNode) node).targetMethod;
+			if ( method == null || method.getReturnType() == Void.TYPE || ! hasNoSideEffectsHook( method ) ) {
+				return false;
+			}
+		}
+		for ( ASTNode child : node.children() ) {
+			if ( ! hasNoSideEffects( child ) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isTemporaryAssignment(ASTNode node)
+	{
+		return node instanceof OperatorNode && ((OperatorNode) node).type == OperatorType.ASSIGNMENT &&
+				node.child(0) instanceof VariableNode && ((VariableNode) node.child(0)).isGenerated;
+	}
+}
@@ -30,6 +30,10 @@ public class Evaluator {
 	private Object target;
 	private final Map<Long,List<Method>> methodCache = new HashMap<>();
 	
+	private ISlotScope slotScope;
+	
+	// values of temporaries introduced by SSARewriter
+	private final Map<Identifier,Object> temporaries = new HashMap<>();
 	private IScope variableResolver = new IScope() {
 
 		@Override
@@ -128,7 +132,14 @@ public class Evaluator {
 				if ( node.getChildCount() == 1 ) {
 					return evaluate( node.child(0) );
 				}
-				throw new IllegalArgumentException("Don't know how to evaluate AST with "+node.getChildCount()+" node");
+				// sequence of statements (for example in SSA form), the last one yields the result
+				temporaries.clear();
+				Result last = VOID_RESULT;
+				for ( ASTNode child : node.children() ) {
+					last = evaluate( child );
+				}
+				temporaries.clear();
+				return last;
 			case FUNCTION_CALL:
 				return evalFunctionCall( node );			
 			case BOOLEAN:
@@ -138,12 +149,68 @@ public class Evaluator {
 			case OPERATOR:
 				return evalOperator(node);
 			case VARIABLE:
-				return result( variableResolver.readVariable( ((VariableNode) node).name  ) );
+				final VariableNode variable = (VariableNode) node;
+				if ( variable.isGenerated ) 
+				{
+					if ( ! temporaries.containsKey( variable.name ) ) {
+						throw new RuntimeException("Internal error, temporary "+variable.name+" read before it was assigned");
+					}
+					return result( temporaries.get( variable.name ) );
+				}
+				if ( variable.slot != -1 && slotScope != null ) {
+					VariableBinder.checkBinding( variable , slotScope );
+					return result( readSlot( variable ) );
+				}
+				return result( variableResolver.readVariable( variable.name  ) );
 			default:
 				throw new RuntimeException("Internal error, unhandled node: "+node);		
 		}
 	}
 	
+	private Object readSlot(VariableNode variable) 
+	{
+		final Class<?> type = variable.getDataType();
+		final Class<?> storageType = ScopeLayout.getStorageType( type );
+		if ( storageType == Long.TYPE ) 
+		{
+			final long value = slotScope.readLong( variable.slot );
+			if ( type == Integer.class || type == Integer.TYPE ) {
+				return Integer.valueOf( (int) value );
+			} else if ( type == Short.class || type == Short.TYPE ) {
+				return Short.valueOf( (short) value );
+			} else if ( type == Byte.class || type == Byte.TYPE ) {
+				return Byte.valueOf( (byte) value );
+			}
+			return Long.valueOf( value );
+		} 
+		if ( storageType == Double.TYPE ) 
+		{
+			final double value = slotScope.readDouble( variable.slot );
+			if ( type == Float.class || type == Float.TYPE ) {
+				return Float.valueOf( (float) value );
+			}
+			return Double.valueOf( value );
+		} 
+		if ( storageType == Boolean.TYPE ) {
+			return Boolean.valueOf( slotScope.readBoolean( variable.slot ) );
+		}
+		return slotScope.readSlot( variable.slot );
+	}
+	
+	private void writeSlot(VariableNode variable,Object value) 
+	{
+		final Class<?> storageType = ScopeLayout.getStorageType( variable.getDataType() );
+		if ( storageType == Long.TYPE && value instanceof Number ) {
+			slotScope.writeLong( variable.slot , ((Number) value).longValue() );
+		} else if ( storageType == Double.TYPE && value instanceof Number ) {
+			slotScope.writeDouble( variable.slot , ((Number) value).doubleValue() );
+		} else if ( storageType == Boolean.TYPE && value instanceof Boolean ) {
+			slotScope.writeBoolean( variable.slot , ((Boolean) value).booleanValue() );
+		} else {
+			slotScope.writeSlot( variable.slot , value );
+		}
+	}
+	
 	private Result evalFunctionCall(ASTNode node) 
 	{
 		final FunctionCallNode func = (FunctionCallNode) node;
@@ -156,6 +223,10 @@ public class Evaluator {
 			}
 			operands.add( result.value() );
 		}
+		if ( func.targetMethod != null && operands.contains( null ) ) {
+			// NULL arguments (e.g. a temporary holding a NULL method result) carry no runtime type to look up a method with 
+			return invokeMethod( func.targetMethod , func.getFunctionName() , operands );
+		}
 		return invokeFunction( func.getFunctionName() , operands );		
 	}
 
@@ -167,16 +238,35 @@ public class Evaluator {
 		if ( operatorNode.type == OperatorType.ASSIGNMENT ) 
 		{
 			final Result rhs = evaluate( node.child(1 ) );
+			if ( rhs.isVoid() && node.child(0) instanceof VariableNode && ((VariableNode) node.child(0)).isGenerated ) {
+				return rhs; // SSARewriter also assigns calls to void methods to a temporary
+			}
 			if ( rhs.isVoid() ) {
 				throw new IllegalArgumentException("Cannot assign VOID value to "+node.child(0) );
 			}
 			if ( !( node.child(0) instanceof VariableNode ) ) {
 				throw new IllegalArgumentException("LHS of assignment is no variable but "+node.child(0));
 			}
-			variableResolver.writeVariable( ((VariableNode) node.child(0)).name , rhs.value );
+			final VariableNode variable = (VariableNode) node.child(0);
+			if ( variable.isGenerated ) {
+				temporaries.put( variable.name , rhs.value );
+			} else if ( variable.slot != -1 && slotScope != null ) {
+				VariableBinder.checkBinding( variable , slotScope );
+				writeSlot( variable , rhs.value );
+			} else {
+				variableResolver.writeVariable( variable.name , rhs.value );
+			}
 			return rhs;
 		}		
 		
+		if ( operatorNode.type == OperatorType.AND || operatorNode.type == OperatorType.OR ) {
+			return evalShortCircuit( operatorNode );
+		}
+		
+		if ( operatorNode.operation != null ) {
+			return evalTypedOperator( operatorNode );
+		}
+		
 		final List<Object> operands = new ArrayList<>();
 		for ( ASTNode child : node.children() ) {
 			Result result = evaluate( child );
@@ -188,7 +278,45 @@ public class Evaluator {
 		return result( operatorNode.type.apply( operands ) );
 	}
 	
-	private static Result result(Object object) {
+	/**
+	 * Evaluates an operator bound by {@link OperatorBinder}, the operand types are not checked.
+	 */
+	private Result evalTypedOperator(OperatorNode node) 
+	{
+		final Object left = evaluate( node.child(0) ).value;
+		final Object right = node.getChildCount() > 1 ? evaluate( node.child(1) ).value : null;
+		if ( left == null || ( right == null && node.getChildCount() > 1 ) ) {
+			throw new RuntimeException("Internal error,evaluating operands of "+node+" yielded VOID");
+		}
+		return result( node.operation.apply( left , right ) );
+	}
+	
+	/**
+	 * Evaluates an AND/OR operator, the second operand only gets evaluated 
+	 * if the first one does not already determine the result.
+	 */
+	protected Result evalShortCircuit(OperatorNode node) 
+	{
+		final boolean isAnd = node.type == OperatorType.AND;
+		for ( ASTNode child : node.children() ) 
+		{
+			if ( evalBoolean( child ) != isAnd ) {
+				return result( Boolean.valueOf( ! isAnd ) );
+			}
+		}
+		return result( Boolean.valueOf( isAnd ) );
+	}
+	
+	protected final boolean evalBoolean(ASTNode node) 
+	{
+		final Result result = evaluate( node );
+		if ( result.isVoid() || !( result.value() instanceof Boolean ) ) {
+			throw new RuntimeException("Expected a boolean value but "+node+" yielded "+( result.isVoid() ? "VOID" : result.value() ) );
+		}
+		return (Boolean) result.value();
+	}
+	
+	protected static Result result(Object object) {
 		return new Result(object);
 	}
 	
@@ -198,7 +326,14 @@ public class Evaluator {
 			throw new RuntimeException("Cannot perform function call, no target object set");
 		}
 		
-		final Method m = getMethod(functionName,arguments);
+		return invokeMethod( getMethod(functionName,arguments) , functionName , arguments );
+	}
+	
+	private Result invokeMethod(Method m,Identifier functionName,List<Object> arguments) 
+	{
+		if ( target == null ) {
+			throw new RuntimeException("Cannot perform function call, no target object set");
+		}
 		
 		final Object[] realArguments = arguments.toArray( new Object[arguments.size()] );
 		final Object result;
@@ -410,5 +545,6 @@ outer:
 	
 	public void setVariableResolver(IScope variableResolver) {
 		this.variableResolver = variableResolver;
+		this.slotScope = variableResolver instanceof ISlotScope ? (ISlotScope) variableResolver : null;
 	}
 }
\ No newline at end of file
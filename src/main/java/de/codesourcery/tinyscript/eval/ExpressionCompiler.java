@@ -0,0 +1,101 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.text.ParseException;
+
+import de.codesourcery.tinyscript.ast.AST;
+import de.codesourcery.tinyscript.parser.ASTBuilder;
+import de.codesourcery.tinyscript.parser.ExpressionParser;
+import de.codesourcery.tinyscript.parser.Lexer;
+import de.codesourcery.tinyscript.parser.Scanner;
+
+public class ExpressionCompiler implements ByteCodeCache.ICompiler
+{
+	private IScope scope = new IScope() {
+
+		@Override
+		public Object readVariable(Identifier name) {
+			throw new RuntimeException("Unknown variable "+name);
+		}
+
+		@Override
+		public void writeVariable(Identifier name, Object value) {
+			throw new RuntimeException("Assignment of "+value+" to "+name+" not implemented");
+		}
+
+		@Override
+		public Class<?> getDataType(Identifier name) {
+			throw new RuntimeException("getDataType("+name+") not implemented");
+		}
+	};
+
+	private RangeAnalyzer rangeAnalyzer;
+	private boolean checkOverflow;
+
+	public AST parse(String expression)
+	{
+		final Lexer lexer = new Lexer(new Scanner( expression ) );
+		final ASTBuilder builder = new ASTBuilder();
+		try {
+			new ExpressionParser().parse( lexer ,  builder );
+		}
+		catch (ParseException e) {
+			throw new RuntimeException("Failed to parse '"+expression+"': "+e.getMessage(),e);
+		}
+		return builder.getResult();
+	}
+
+	public AST parseAndType(String expression,Class<?> targetClass)
+	{
+		final ASTSimplifier simplifier = new ASTSimplifier();
+		simplifier.setScope( scope );
+		simplifier.setResolveVariables( false );
+
+		final AST ast = (AST) simplifier.simplify( parse( expression ) , null );
+		new Typer( scope , targetClass ).type( ast );
+		new OperatorBinder().bind( ast );
+		if ( scope instanceof ISlotScope ) {
+			new VariableBinder( ((ISlotScope) scope).getLayout() ).bind( ast );
+		}
+		return ast;
+	}
+
+	@Override
+	public byte[] compile(String className,String expression,Class<?> targetClass)
+	{
+		final ByteCodeWriter writer = new ByteCodeWriter( className );
+		writer.setRangeAnalyzer( rangeAnalyzer );
+		writer.setCheckOverflow( checkOverflow );
+		return writer.compile( parseAndType( expression , targetClass ) , targetClass );
+	}
+
+	/**
+	 * Sets the analyzer used to narrow the value ranges of integer expressions.
+	 * 
+	 * @param rangeAnalyzer analyzer or <code>null</code> to use the ranges of the variables' types
+	 * @see RangeAnalyzer#getVariableRangeHook(de.codesourcery.tinyscript.ast.VariableNode)
+	 */
+	public void setRangeAnalyzer(RangeAnalyzer rangeAnalyzer) {
+		this.rangeAnalyzer = rangeAnalyzer;
+	}
+
+	/**
+	 * @see ByteCodeWriter#setCheckOverflow(boolean)
+	 */
+	public void setCheckOverflow(boolean checkOverflow) {
+		this.checkOverflow = checkOverflow;
+	}
+
+	@Override
+	public String getOptions() {
+		return "checkOverflow="+checkOverflow+",ranges="+( rangeAnalyzer != null ? rangeAnalyzer.getClass().getName() : "" );
+	}
+
+	public void setScope(IScope scope) {
+		this.scope = scope;
+	}
+
+	@Override
+	public IScope getScope() {
+		return scope;
+	}
+}
@@ -0,0 +1,30 @@
+package de.codesourcery.tinyscript.eval;
+
+/**
+ * Loops over whole columns of primitive values, used by {@link VectorEvaluator}.
+ * 
+ * Comparisons set bit <code>i % 64</code> of <code>bitmap[ i / 64 ]</code> if the comparison is true for row <code>i</code>.
+ * Like {@link BatchEvaluator} and {@link NumericKernel}, floating-point comparisons follow {@link Double#compare(double, double)}:
+ * <code>NaN</code> is equal to itself and greater than all other values and <code>-0.0</code> is less than <code>0.0</code>.
+ * 
+ * Arithmetic operators are PLUS,MINUS,TIMES and DIVIDE, comparison operators are GT,GTE,LT,LTE,EQ and NEQ.
+ * Long arithmetic wraps around like Java arithmetic does, dividing by zero throws an {@link ArithmeticException}.
+ */
+public interface IColumnKernels 
+{
+	public void arithmetic(OperatorType op,double[] a,double[] b,double[] out,int count);
+	
+	public void arithmetic(OperatorType op,double[] a,double b,double[] out,int count);
+	
+	public void arithmetic(OperatorType op,long[] a,long[] b,long[] out,int count);
+	
+	public void arithmetic(OperatorType op,long[] a,long b,long[] out,int count);
+	
+	public void compare(OperatorType op,double[] a,double[] b,long[] bitmap,int count);
+	
+	public void compare(OperatorType op,double[] a,double b,long[] bitmap,int count);
+	
+	public void compare(OperatorType op,long[] a,long[] b,long[] bitmap,int count);
+	
+	public void compare(OperatorType op,long[] a,long b,long[] bitmap,int count);
+}
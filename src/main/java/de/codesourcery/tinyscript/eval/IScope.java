@@ -7,4 +7,30 @@ public interface IScope
 	public void writeVariable(Identifier name,Object value);	
 	
 	public Class<?> getDataType(Identifier name);
-}
\ No newline at end of file
+	
+	// typed accessors, implementations that store primitives should override these to avoid boxing
+	
+	public default long readLong(Identifier name) {
+		return ((Number) readVariable( name )).longValue();
+	}
+	
+	public default double readDouble(Identifier name) {
+		return ((Number) readVariable( name )).doubleValue();
+	}
+	
+	public default boolean readBoolean(Identifier name) {
+		return ((Boolean) readVariable( name )).booleanValue();
+	}
+	
+	public default void writeLong(Identifier name,long value) {
+		writeVariable( name , Long.valueOf( value ) );
+	}
+	
+	public default void writeDouble(Identifier name,double value) {
+		writeVariable( name , Double.valueOf( value ) );
+	}
+	
+	public default void writeBoolean(Identifier name,boolean value) {
+		writeVariable( name , Boolean.valueOf( value ) );
+	}
+}
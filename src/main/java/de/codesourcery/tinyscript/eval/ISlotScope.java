@@ -0,0 +1,44 @@
+package de.codesourcery.tinyscript.eval;
+
+/**
+ * A scope whose variables are addressed by the slot indices of a {@link ScopeLayout}.
+ *
+ * Variable nodes bound against the layout of this scope (see {@link VariableBinder}) 
+ * are read and written through {@link #readSlot(int)} / {@link #writeSlot(int, Object)} 
+ * instead of looking them up by name.
+ * 
+ * The typed accessors are used for variables whose type is known to be
+ * numeric or boolean (see {@link ScopeLayout#getStorageType(Class)}).
+ */
+public interface ISlotScope extends IScope 
+{
+	public ScopeLayout getLayout();
+	
+	public Object readSlot(int slot);
+	
+	public void writeSlot(int slot,Object value);
+	
+	public default long readLong(int slot) {
+		return ((Number) readSlot( slot )).longValue();
+	}
+	
+	public default double readDouble(int slot) {
+		return ((Number) readSlot( slot )).doubleValue();
+	}
+	
+	public default boolean readBoolean(int slot) {
+		return ((Boolean) readSlot( slot )).booleanValue();
+	}
+	
+	public default void writeLong(int slot,long value) {
+		writeSlot( slot , Long.valueOf( value ) );
+	}
+	
+	public default void writeDouble(int slot,double value) {
+		writeSlot( slot , Double.valueOf( value ) );
+	}
+	
+	public default void writeBoolean(int slot,boolean value) {
+		writeSlot( slot , Boolean.valueOf( value ) );
+	}
+}
@@ -0,0 +1,367 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import de.codesourcery.tinyscript.ast.AST;
+import de.codesourcery.tinyscript.ast.ASTNode;
+import de.codesourcery.tinyscript.ast.OperatorNode;
+import de.codesourcery.tinyscript.ast.VariableNode;
+
+/**
+ * Keeps a set of derived variables (defined by assignments like <code>x = a * b + c</code>) up-to-date
+ * while their inputs change, spreadsheet-style.
+ *
+ * Assigning a variable through {@link #writeVariable(Identifier, Object)} only marks the definitions
+ * that directly reference it as dirty. Dirty definitions get recomputed on the next read (or explicit
+ * call to {@link #recompute()}) in topological order, definitions whose value did not change do not
+ * invalidate their own dependents.
+ *
+ * Definitions on the same level of the dependency graph are independent of each other and
+ * get evaluated in parallel when an {@link ExecutorService} has been set.
+ */
+public class IncrementalEvaluator implements IScope
+{
+	private final Object target;
+	private final ExpressionCompiler parser = new ExpressionCompiler();
+
+	private final Map<Identifier,Object> values = new ConcurrentHashMap<>();
+	private final Map<Identifier,Definition> definitions = new HashMap<>();
+	private final Map<Identifier,List<Definition>> dependents = new HashMap<>();
+	private final Set<Definition> dirty = new HashSet<>();
+
+	private List<List<Definition>> levels = Collections.emptyList();
+	private ExecutorService executor;
+
+	private final Evaluator evaluator;
+
+	protected static final class Definition
+	{
+		public final Identifier variable;
+		public final ASTNode assignment;
+		public final Set<Identifier> inputs;
+		public int level;
+
+		public Definition(Identifier variable, ASTNode assignment, Set<Identifier> inputs) {
+			this.variable = variable;
+			this.assignment = assignment;
+			this.inputs = inputs;
+		}
+
+		@Override
+		public String toString() {
+			return variable.getSymbol()+" (level "+level+")";
+		}
+	}
+
+	// evaluation scope, writes from recomputed definitions must not invalidate anything
+	private final IScope evaluationScope = new IScope()
+	{
+		@Override
+		public Object readVariable(Identifier name) {
+			return getValue( name );
+		}
+
+		@Override
+		public void writeVariable(Identifier name, Object value) {
+			putValue( name , value );
+		}
+
+		@Override
+		public Class<?> getDataType(Identifier name) {
+			return getValue( name ).getClass();
+		}
+	};
+
+	/**
+	 *
+	 * @param target object function calls get invoked on, may be <code>null</code>
+	 */
+	public IncrementalEvaluator(Object target)
+	{
+		this.target = target;
+		this.evaluator = createEvaluator();
+	}
+
+	private Evaluator createEvaluator()
+	{
+		final Evaluator result = new Evaluator( target );
+		result.setVariableResolver( evaluationScope );
+		return result;
+	}
+
+	/**
+	 * Adds a definition.
+	 *
+	 * @param expression assignment of an expression to a variable
+	 * @throws IllegalArgumentException if the expression is no assignment, the variable has already been defined
+	 * or the definition would introduce a cyclic dependency
+	 */
+	public synchronized void define(String expression)
+	{
+		final AST ast = parser.parse( expression );
+		if ( ast.getChildCount() != 1 || ! isAssignment( ast.child(0) ) ) {
+			throw new IllegalArgumentException("Expected a single assignment but got '"+expression+"'");
+		}
+		final ASTNode assignment = ast.child(0);
+		final Identifier variable = ((VariableNode) assignment.child(0)).name;
+		if ( definitions.containsKey( variable ) ) {
+			throw new IllegalArgumentException("Variable "+variable.getSymbol()+" has already been defined");
+		}
+
+		final Set<Identifier> inputs = new LinkedHashSet<>();
+		collectInputs( assignment.child(1) , inputs );
+
+		final Definition definition = new Definition( variable , assignment , inputs );
+		definitions.put( variable , definition );
+		for ( Identifier input : inputs ) {
+			dependents.computeIfAbsent( input , key -> new ArrayList<>() ).add( definition );
+		}
+
+		try {
+			levels = sortTopologically();
+		}
+		catch(IllegalArgumentException e)
+		{
+			definitions.remove( variable );
+			for ( Identifier input : inputs ) {
+				dependents.get( input ).remove( definition );
+			}
+			throw e;
+		}
+		dirty.add( definition );
+	}
+
+	private static boolean isAssignment(ASTNode node) {
+		return node instanceof OperatorNode && ((OperatorNode) node).type == OperatorType.ASSIGNMENT && node.child(0) instanceof VariableNode;
+	}
+
+	private static void collectInputs(ASTNode node,Set<Identifier> result)
+	{
+		if ( node instanceof VariableNode ) {
+			result.add( ((VariableNode) node).name );
+		}
+		for ( ASTNode child : node.children() ) {
+			collectInputs( child , result );
+		}
+	}
+
+	/**
+	 * Assigns each definition the length of the longest path from an input variable (Kahn's algorithm).
+	 */
+	private List<List<Definition>> sortTopologically()
+	{
+		final Map<Definition,Integer> unresolvedInputs = new HashMap<>();
+		List<Definition> current = new ArrayList<>();
+		for ( Definition def : definitions.values() )
+		{
+			int count = 0;
+			for ( Identifier input : def.inputs ) {
+				if ( definitions.containsKey( input ) ) {
+					count++;
+				}
+			}
+			unresolvedInputs.put( def , count );
+			if ( count == 0 ) {
+				current.add( def );
+			}
+		}
+
+		final List<List<Definition>> result = new ArrayList<>();
+		int sorted = 0;
+		while ( ! current.isEmpty() )
+		{
+			final List<Definition> next = new ArrayList<>();
+			for ( Definition def : current )
+			{
+				def.level = result.size();
+				for ( Definition dependent : dependents.getOrDefault( def.variable , Collections.emptyList() ) )
+				{
+					final int remaining = unresolvedInputs.get( dependent ) - 1;
+					unresolvedInputs.put( dependent , remaining );
+					if ( remaining == 0 ) {
+						next.add( dependent );
+					}
+				}
+			}
+			sorted += current.size();
+			result.add( current );
+			current = next;
+		}
+
+		if ( sorted != definitions.size() )
+		{
+			final List<Identifier> cycle = new ArrayList<>();
+			for ( Map.Entry<Definition,Integer> entry : unresolvedInputs.entrySet() ) {
+				if ( entry.getValue() > 0 ) {
+					cycle.add( entry.getKey().variable );
+				}
+			}
+			throw new IllegalArgumentException("Cyclic dependency between variables "+cycle);
+		}
+		return result;
+	}
+
+	/**
+	 * Sets the executor service used to recompute independent definitions in parallel,
+	 * <code>null</code> to recompute everything on the calling thread.
+	 */
+	public synchronized void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Recomputes all definitions that are (possibly) out-of-date.
+	 */
+	public synchronized void recompute()
+	{
+		if ( dirty.isEmpty() ) {
+			return;
+		}
+
+		for ( List<Definition> level : levels )
+		{
+			final List<Definition> todo = new ArrayList<>();
+			for ( Definition def : level ) {
+				if ( dirty.remove( def ) ) {
+					todo.add( def );
+				}
+			}
+			if ( todo.isEmpty() ) {
+				continue;
+			}
+
+			final boolean[] changed = new boolean[ todo.size() ];
+			try 
+			{
+				if ( executor != null && todo.size() > 1 ) {
+					recomputeInParallel( todo , changed );
+				}
+				else
+				{
+					for ( int i = 0 ; i < todo.size() ; i++ ) {
+						changed[i] = recompute( todo.get(i) , evaluator );
+					}
+				}
+			} 
+			catch(RuntimeException e) 
+			{
+				// retry on next read, for example after a missing input variable got assigned
+				dirty.addAll( todo );
+				throw e;
+			}
+
+			for ( int i = 0 ; i < todo.size() ; i++ ) {
+				if ( changed[i] ) {
+					invalidateDependents( todo.get(i).variable );
+				}
+			}
+		}
+	}
+
+	private void recomputeInParallel(List<Definition> todo,boolean[] changed)
+	{
+		final List<Future<Boolean>> futures = new ArrayList<>();
+		for ( Definition def : todo ) {
+			futures.add( executor.submit( () -> recompute( def , createEvaluator() ) ) );
+		}
+		try
+		{
+			for ( int i = 0 ; i < futures.size() ; i++ ) {
+				changed[i] = futures.get(i).get();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while recomputing",e);
+		}
+		catch (ExecutionException e)
+		{
+			if ( e.getCause() instanceof RuntimeException ) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the value of the definition's variable changed
+	 */
+	private boolean recompute(Definition def,Evaluator evaluator)
+	{
+		final Object oldValue = values.get( def.variable );
+		recomputeHook( def.variable );
+		evaluator.evaluate( def.assignment );
+		return ! Objects.equals( oldValue , values.get( def.variable ) );
+	}
+
+	/**
+	 * Invoked before a definition gets recomputed, may be called concurrently.
+	 *
+	 * @param variable
+	 */
+	protected void recomputeHook(Identifier variable) {
+	}
+
+	private void invalidateDependents(Identifier variable)
+	{
+		final List<Definition> list = dependents.get( variable );
+		if ( list != null ) {
+			dirty.addAll( list );
+		}
+	}
+
+	private Object getValue(Identifier name)
+	{
+		final Object result = values.get( name );
+		if ( result == null ) {
+			throw new RuntimeException("Unknown variable "+name);
+		}
+		return result;
+	}
+
+	private void putValue(Identifier name,Object value)
+	{
+		if ( value == null ) {
+			throw new IllegalArgumentException("Cannot assign NULL to "+name);
+		}
+		values.put( name , value );
+	}
+
+	@Override
+	public synchronized Object readVariable(Identifier name)
+	{
+		recompute();
+		return getValue( name );
+	}
+
+	@Override
+	public synchronized void writeVariable(Identifier name, Object value)
+	{
+		if ( definitions.containsKey( name ) ) {
+			throw new IllegalArgumentException("Variable "+name.getSymbol()+" is derived and cannot be assigned");
+		}
+		final Object oldValue = values.get( name );
+		putValue( name , value );
+		if ( ! value.equals( oldValue ) ) {
+			invalidateDependents( name );
+		}
+	}
+
+	@Override
+	public synchronized Class<?> getDataType(Identifier name) {
+		return readVariable( name ).getClass();
+	}
+}
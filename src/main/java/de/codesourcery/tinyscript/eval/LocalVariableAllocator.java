@@ -0,0 +1,214 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import de.codesourcery.tinyscript.ast.ASTNode;
+import de.codesourcery.tinyscript.ast.OperatorNode;
+import de.codesourcery.tinyscript.ast.VariableNode;
+
+/**
+ * Assigns JVM local variable indices to the temporaries of an AST in SSA form (see {@link SSARewriter}).
+ *
+ * Each temporary is live from the statement that assigns it up to the last statement reading it.
+ * Allocation happens in statement order (linear scan), indices of temporaries whose live range has ended
+ * get reused for later temporaries of the same type category (int,long,float,double or reference).
+ * A temporary read by statement <code>n</code> may share its index with the temporary assigned by statement <code>n</code>
+ * because all operands have been loaded before the result gets stored.
+ */
+public class LocalVariableAllocator
+{
+	public static enum Category
+	{
+		INT(1),LONG(2),FLOAT(1),DOUBLE(2),REFERENCE(1);
+
+		public final int size;
+
+		private Category(int size) {
+			this.size = size;
+		}
+
+		public static Category of(Class<?> type)
+		{
+			if ( type == Long.TYPE ) {
+				return LONG;
+			}
+			if ( type == Double.TYPE ) {
+				return DOUBLE;
+			}
+			if ( type == Float.TYPE ) {
+				return FLOAT;
+			}
+			return type.isPrimitive() ? INT : REFERENCE;
+		}
+	}
+
+	public static final class Interval
+	{
+		public final Identifier name;
+		public final Class<?> type;
+		public final Category category;
+		public final int index;
+		public final int start;
+		public final int end;
+
+		public Interval(Identifier name, Class<?> type, int index, int start, int end)
+		{
+			this.name = name;
+			this.type = type;
+			this.category = Category.of( type );
+			this.index = index;
+			this.start = start;
+			this.end = end;
+		}
+
+		public boolean overlaps(Interval other) {
+			return this.start < other.end && other.start < this.end;
+		}
+
+		public boolean sharesIndexWith(Interval other) {
+			return this.index < other.index + other.category.size && other.index < this.index + this.category.size;
+		}
+
+		@Override
+		public String toString() {
+			return name.getSymbol()+" ["+start+","+end+"] => #"+index+" ("+category+")";
+		}
+	}
+
+	private final int firstIndex;
+	private int nextIndex;
+
+	// statement that reads a temporary for the last time
+	private final Map<Identifier,Integer> lastUses = new HashMap<>();
+
+	private final Map<Identifier,Interval> intervals = new HashMap<>();
+	private final List<Interval> active = new ArrayList<>();
+	private final Map<Category,Deque<Integer>> freeIndices = new EnumMap<>( Category.class );
+
+	/**
+	 * @param firstIndex first local variable index that may be used (method parameters come first)
+	 */
+	public LocalVariableAllocator(int firstIndex)
+	{
+		this.firstIndex = firstIndex;
+		this.nextIndex = firstIndex;
+		for ( Category category : Category.values() ) {
+			freeIndices.put( category , new ArrayDeque<>() );
+		}
+	}
+
+	/**
+	 * Determines the live ranges of all temporaries, must be invoked before the first call to {@link #allocate(Identifier, Class, int)}.
+	 *
+	 * @param ast AST whose children are the statements
+	 */
+	public void computeLiveRanges(ASTNode ast)
+	{
+		for ( int i = 0 ; i < ast.getChildCount() ; i++ ) {
+			collectReads( ast.child(i) , i );
+		}
+	}
+
+	private void collectReads(ASTNode node,int statement)
+	{
+		if ( node instanceof OperatorNode && ((OperatorNode) node).type == OperatorType.ASSIGNMENT && node.child(0) instanceof VariableNode )
+		{
+			collectReads( node.child(1) , statement );
+			return;
+		}
+		if ( node instanceof VariableNode && ((VariableNode) node).isGenerated ) {
+			lastUses.put( ((VariableNode) node).name , statement );
+		}
+		for ( ASTNode child : node.children() ) {
+			collectReads( child , statement );
+		}
+	}
+
+	/**
+	 * Allocates a local variable for a temporary.
+	 *
+	 * @param name temporary
+	 * @param type JVM type of the temporary's value
+	 * @param statement index of the statement assigning the temporary
+	 */
+	public Interval allocate(Identifier name,Class<?> type,int statement)
+	{
+		if ( intervals.containsKey( name ) ) {
+			throw new IllegalArgumentException("Temporary "+name+" has already been allocated");
+		}
+		// release temporaries that are not read after this statement
+		for ( Iterator<Interval> it = active.iterator() ; it.hasNext() ; )
+		{
+			final Interval interval = it.next();
+			if ( interval.end <= statement )
+			{
+				freeIndices.get( interval.category ).push( interval.index );
+				it.remove();
+			}
+		}
+
+		final Category category = Category.of( type );
+		final Deque<Integer> free = freeIndices.get( category );
+		final int index;
+		if ( free.isEmpty() ) {
+			index = nextIndex;
+			nextIndex += category.size;
+		} else {
+			index = free.pop();
+		}
+		final Interval result = new Interval( name , type , index , statement , lastUses.getOrDefault( name , statement ) );
+		intervals.put( name , result );
+		active.add( result );
+		return result;
+	}
+
+	public Interval get(Identifier name) {
+		return intervals.get( name );
+	}
+
+	/**
+	 * Returns the number of local variable slots used by temporaries.
+	 */
+	public int getSlotCount() {
+		return nextIndex - firstIndex;
+	}
+
+	public int getTemporaryCount() {
+		return intervals.size();
+	}
+
+	/**
+	 * Checks that no two temporaries with overlapping live ranges got the same index
+	 * and that indices are only reused within the same type category.
+	 *
+	 * @throws RuntimeException if the allocation is invalid
+	 */
+	public void verify()
+	{
+		final List<Interval> all = new ArrayList<>( intervals.values() );
+		for ( int i = 0 ; i < all.size() ; i++ )
+		{
+			final Interval a = all.get(i);
+			for ( int j = i+1 ; j < all.size() ; j++ )
+			{
+				final Interval b = all.get(j);
+				if ( ! a.sharesIndexWith( b ) ) {
+					continue;
+				}
+				if ( a.overlaps( b ) ) {
+					throw new RuntimeException("Internal error, live temporaries "+a+" and "+b+" share a local variable");
+				}
+				if ( a.index != b.index || a.category != b.category ) {
+					throw new RuntimeException("Internal error, temporaries "+a+" and "+b+" reuse a local variable with a different type");
+				}
+			}
+		}
+	}
+}
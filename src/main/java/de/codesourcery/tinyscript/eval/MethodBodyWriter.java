@@ -1,25 +1,65 @@
 package de.codesourcery.tinyscript.eval;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.List;
 
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
-import com.sun.xml.internal.ws.org.objectweb.asm.Type;
+import org.objectweb.asm.Type;
 
 import de.codesourcery.tinyscript.ast.ASTNode;
 import de.codesourcery.tinyscript.ast.FunctionCallNode;
 import de.codesourcery.tinyscript.ast.ILiteralNode;
 import de.codesourcery.tinyscript.ast.OperatorNode;
+import de.codesourcery.tinyscript.ast.VariableNode;
 
 public class MethodBodyWriter 
 {
+	private static final Handle BOOTSTRAP_METHOD = new Handle( Opcodes.H_INVOKESTATIC , typeName( TargetCallSites.class ) , 
+			TargetCallSites.BOOTSTRAP_METHOD_NAME , TargetCallSites.BOOTSTRAP_METHOD_DESCRIPTOR , false );
+	
 	protected final Class<?> targetClass;
-
+	
+	// temporaries introduced by SSARewriter live in local variables, local #0 is 'this'
+	private final LocalVariableAllocator locals = new LocalVariableAllocator( 1 );
+	private int currentStatement;
+	
+	private final RangeAnalyzer ranges;
+	private boolean checkOverflow;
+	
 	public MethodBodyWriter(Class<?> targetClass) {
+		this( targetClass , new RangeAnalyzer() );
+	}
+	
+	public MethodBodyWriter(Class<?> targetClass,RangeAnalyzer ranges) {
+		if ( ranges == null ) {
+			throw new IllegalArgumentException("Range analyzer must not be NULL");
+		}
 		this.targetClass = targetClass;
+		this.ranges = ranges;
+	}
+	
+	/**
+	 * Sets whether integer additions, subtractions and multiplications that may overflow
+	 * throw an {@link ArithmeticException} instead of silently wrapping around.
+	 */
+	public void setCheckOverflow(boolean checkOverflow) {
+		this.checkOverflow = checkOverflow;
+	}
+	
+	public boolean isCheckOverflow() {
+		return checkOverflow;
+	}
+	
+	/**
+	 * Returns the allocation of local variables to temporaries, for diagnostic purposes.
+	 */
+	public LocalVariableAllocator getLocalVariables() {
+		return locals;
 	}
 
 	protected abstract class AbstractOperation {
@@ -84,29 +124,25 @@ public class MethodBodyWriter
 
 		protected Class<?> generateConditional(MethodBodyWriter builder,int branchOnOperandsOpcode, int branchOnResultOpcode, ASTNode node,MethodVisitor methodVisitor) 
 		{
-			final Class<?> lhs = builder.generateMethodBody( node.child(0) , methodVisitor );
-			final Class<?> rhs = builder.generateMethodBody( node.child(1) , methodVisitor );	
-			
-			final Class<?> targetType = getWidestType(lhs,rhs);
+			final Class<?> targetType = generateNumericOperands( builder , node , methodVisitor );
 			return generateConditional(targetType,builder,branchOnOperandsOpcode,branchOnResultOpcode,methodVisitor);
 		}
 		
 		protected Class<?> generateConditional(Class<?> targetType,MethodBodyWriter builder,int branchOnOperandsOpcode, int branchOnResultOpcode, MethodVisitor methodVisitor) 
 		{
-			if ( targetType == Long.class ) 
+			// floating-point values are compared like Double.compare() / Float.compare() (and the interpreter) do, 
+			// NaN equals NaN and is greater than everything else, -0.0 is less than 0.0 
+			if ( targetType == Long.TYPE ) 
 			{
 				methodVisitor.visitInsn(Opcodes.LCMP);
 				generateConditional(branchOnResultOpcode,methodVisitor);
-			} else if ( targetType == Integer.class || targetType == Short.class || targetType == Byte.class) {
+			} else if ( targetType == Integer.TYPE ) {
 				generateConditional(branchOnOperandsOpcode,methodVisitor);	
-			} else if ( targetType == Double.class ) 
-			{
-				// TODO: DCMPG or DCMPL only differ in their treatment of NaN...
-				methodVisitor.visitInsn( Opcodes.DCMPG );	
+			} else if ( targetType == Double.TYPE ) {
+				methodVisitor.visitMethodInsn( Opcodes.INVOKESTATIC , "java/lang/Double" , "compare" , "(DD)I" , false );	
 				generateConditional(branchOnResultOpcode,methodVisitor);					
-			}  else if ( targetType == Float.class ) {
-				// TODO: FCMPG or FCMPL only differ in their treatment of NaN...
-				methodVisitor.visitInsn( Opcodes.FCMPG );	
+			}  else if ( targetType == Float.TYPE ) {
+				methodVisitor.visitMethodInsn( Opcodes.INVOKESTATIC , "java/lang/Float" , "compare" , "(FF)I" , false );	
 				generateConditional(branchOnResultOpcode,methodVisitor);							
 			} else {
 				throw new RuntimeException("I have no xCMP instruction for type "+targetType);
@@ -114,6 +150,140 @@ public class MethodBodyWriter
 			return Boolean.TYPE;
 		}
 
+		/**
+		 * Generates both operands of a binary numeric operation, converting each of them
+		 * to the type mandated by JVM binary numeric promotion.
+		 * 
+		 * @return the promoted type (either int, long, float or double)
+		 */
+		protected Class<?> generateNumericOperands(MethodBodyWriter builder,ASTNode node,MethodVisitor methodVisitor) 
+		{
+			final Class<?> targetType = getPromotedType( getDataType( node.child(0) ) , getDataType( node.child(1) ) );
+			convertNumber( builder.generateMethodBody( node.child(0) , methodVisitor ) , targetType , methodVisitor );
+			convertNumber( builder.generateMethodBody( node.child(1) , methodVisitor ) , targetType , methodVisitor );
+			return targetType;
+		}
+		
+		protected Class<?> generateArithmetic(MethodBodyWriter builder,int intOpcode,ASTNode node,MethodVisitor methodVisitor) 
+		{
+			final Class<?> promotedType = getPromotedType( getDataType( node.child(0) ) , getDataType( node.child(1) ) );
+			if ( promotedType == Long.TYPE && builder.fitsInt( node ) && builder.fitsInt( node.child(0) ) && builder.fitsInt( node.child(1) ) ) 
+			{
+				// operands and result have been proven to fit into an int (see RangeAnalyzer), 32-bit arithmetic yields the same value
+				convertNumber( builder.generateMethodBody( node.child(0) , methodVisitor ) , Integer.TYPE , methodVisitor );
+				convertNumber( builder.generateMethodBody( node.child(1) , methodVisitor ) , Integer.TYPE , methodVisitor );
+				methodVisitor.visitInsn( intOpcode );
+				methodVisitor.visitInsn( Opcodes.I2L );
+				return Long.TYPE;
+			}
+			
+			final Class<?> targetType = generateNumericOperands( builder , node , methodVisitor );
+			final String exactMethod = getExactMethodName( intOpcode );
+			if ( exactMethod != null && ( targetType == Integer.TYPE || targetType == Long.TYPE ) && builder.isCheckOverflow() && builder.mayOverflow( node ) ) 
+			{
+				final String descriptor = targetType == Integer.TYPE ? "(II)I" : "(JJ)J";
+				methodVisitor.visitMethodInsn( Opcodes.INVOKESTATIC , "java/lang/Math" , exactMethod , descriptor , false );
+				return targetType;
+			}
+			methodVisitor.visitInsn( Type.getType( targetType ).getOpcode( intOpcode ) );
+			return targetType;
+		}
+		
+		/**
+		 * Returns the name of the <code>java.lang.Math</code> method that performs an operation
+		 * with overflow checking.
+		 * 
+		 * @return method name or <code>null</code> if the operation cannot overflow or has no checked variant
+		 */
+		private String getExactMethodName(int intOpcode) 
+		{
+			switch( intOpcode ) 
+			{
+				case Opcodes.IADD: return "addExact";
+				case Opcodes.ISUB: return "subtractExact";
+				case Opcodes.IMUL: return "multiplyExact";
+				default:
+					return null;
+			}
+		}
+		
+		/**
+		 * Generates an integer multiplication or division by a constant power of two as a shift.
+		 * 
+		 * @return result type or <code>null</code> if the operation was not generated because it cannot be strength-reduced
+		 */
+		protected Class<?> generateShift(MethodBodyWriter builder,boolean isDivision,ASTNode node,MethodVisitor methodVisitor) 
+		{
+			final Class<?> targetType = getPromotedType( getDataType( node.child(0) ) , getDataType( node.child(1) ) );
+			if ( targetType != Integer.TYPE && targetType != Long.TYPE ) {
+				return null;
+			}
+			if ( ! isDivision && builder.isCheckOverflow() && builder.mayOverflow( node ) ) {
+				return null; // a shift cannot detect overflow
+			}
+			final int constantIndex = isDivision || getShift( node.child(1) ) > 0 ? 1 : 0;
+			final int shift = getShift( node.child( constantIndex ) );
+			if ( shift <= 0 ) {
+				return null;
+			}
+			final ASTNode operand = node.child( 1 - constantIndex );
+			convertNumber( builder.generateMethodBody( operand , methodVisitor ) , targetType , methodVisitor );
+			
+			final boolean isLong = targetType == Long.TYPE;
+			if ( isDivision && builder.mayBeNegative( operand ) ) 
+			{
+				// IDIV rounds towards zero, so add 2^shift-1 to negative dividends before shifting: 
+				// ( x + ( ( x >> 31 ) >>> ( 32 - shift ) ) ) >> shift
+				methodVisitor.visitInsn( isLong ? Opcodes.DUP2 : Opcodes.DUP );
+				genValue( isLong ? 63 : 31 , Integer.TYPE , methodVisitor );
+				methodVisitor.visitInsn( isLong ? Opcodes.LSHR : Opcodes.ISHR );
+				genValue( ( isLong ? 64 : 32 ) - shift , Integer.TYPE , methodVisitor );
+				methodVisitor.visitInsn( isLong ? Opcodes.LUSHR : Opcodes.IUSHR );
+				methodVisitor.visitInsn( isLong ? Opcodes.LADD : Opcodes.IADD );
+				genValue( shift , Integer.TYPE , methodVisitor );
+				methodVisitor.visitInsn( isLong ? Opcodes.LSHR : Opcodes.ISHR );
+			} 
+			else if ( isDivision ) 
+			{
+				// the dividend has been proven to be non-negative (see RangeAnalyzer)
+				genValue( shift , Integer.TYPE , methodVisitor );
+				methodVisitor.visitInsn( isLong ? Opcodes.LSHR : Opcodes.ISHR );
+			}
+			else 
+			{
+				genValue( shift , Integer.TYPE , methodVisitor );
+				methodVisitor.visitInsn( isLong ? Opcodes.LSHL : Opcodes.ISHL );
+			}
+			return targetType;
+		}
+		
+		/**
+		 * Returns log2 of an integer constant that is a power of two greater than one, otherwise zero.
+		 */
+		private int getShift(ASTNode node) 
+		{
+			if ( node instanceof ILiteralNode ) 
+			{
+				final Object value = ((ILiteralNode) node).value();
+				if ( value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte ) 
+				{
+					final long v = ((Number) value).longValue();
+					if ( v > 1 && ( v & ( v-1 ) ) == 0 ) {
+						return Long.numberOfTrailingZeros( v );
+					}
+				}
+			}
+			return 0;
+		}
+		
+		private Class<?> getDataType(ASTNode node) 
+		{
+			if ( node.getDataType() == null ) {
+				throw new RuntimeException("Internal error, node "+node+" has no data type - make sure the Typer ran!");
+			}
+			return node.getDataType();
+		}
+		
 		protected void generateConditional(int conditionalOpcode,MethodVisitor methodVisitor) 
 		{
 			/**
@@ -137,6 +307,101 @@ public class MethodBodyWriter
 			methodVisitor.visitLabel( continueLabel );			
 		}
 		
+		protected Class<?> generateEquality(MethodBodyWriter builder,boolean negate,ASTNode node,MethodVisitor methodVisitor) 
+		{
+			final int branchOnOperandsOpcode = negate ? Opcodes.IF_ICMPNE : Opcodes.IF_ICMPEQ;
+			final int branchOnResultOpcode = negate ? Opcodes.IFNE : Opcodes.IFEQ;
+			
+			if ( isNumericType( node.child(0).getDataType() ) && isNumericType( node.child(1).getDataType() ) ) 
+			{
+				final Class<?> targetType = generateNumericOperands( builder , node , methodVisitor );
+				return generateConditional( targetType , builder , branchOnOperandsOpcode , branchOnResultOpcode , methodVisitor );
+			}
+			
+			final Class<?> lhs = unboxBoolean( builder.generateMethodBody( node.child(0) , methodVisitor ) , methodVisitor );
+			final Class<?> rhs = unboxBoolean( builder.generateMethodBody( node.child(1) , methodVisitor ) , methodVisitor );
+			
+			if ( lhs == String.class && rhs == String.class ) 
+			{
+				// null-safe like the interpreter
+				methodVisitor.visitMethodInsn( Opcodes.INVOKESTATIC , "java/util/Objects" , "equals" , "(Ljava/lang/Object;Ljava/lang/Object;)Z" , false );
+				if ( negate ) {
+					methodVisitor.visitInsn( Opcodes.ICONST_1 );
+					methodVisitor.visitInsn( Opcodes.IXOR );
+				}
+				return Boolean.TYPE;
+			}
+			if ( lhs == Boolean.TYPE && rhs == Boolean.TYPE ) 
+			{
+				generateConditional( branchOnOperandsOpcode , methodVisitor );
+				return Boolean.TYPE;
+			}
+			if ( lhs == String.class || rhs == String.class || lhs == Boolean.TYPE || rhs == Boolean.TYPE ) 
+			{
+				// values of different data types are never equal
+				pop( rhs , methodVisitor );
+				pop( lhs , methodVisitor );
+				genValue( Boolean.valueOf( negate ) , Boolean.TYPE , methodVisitor );
+				return Boolean.TYPE;
+			}
+			throw new RuntimeException("Don't know how to compare "+lhs+" and "+rhs);
+		}
+		
+		private Class<?> unboxBoolean(Class<?> type,MethodVisitor methodVisitor) {
+			return type == Boolean.class ? unbox( type , methodVisitor ) : type;
+		}
+		
+		protected Class<?> generateStringConcatenation(MethodBodyWriter builder,ASTNode node,MethodVisitor methodVisitor) 
+		{
+			final List<ASTNode> operands = new ArrayList<>();
+			collectConcatenationOperands( node , operands );
+			
+			int capacity = 0;
+			for ( ASTNode operand : operands ) {
+				capacity += operand.isLiteralValue() ? String.valueOf( ((ILiteralNode) operand).value() ).length() : 16;
+			}
+			
+			methodVisitor.visitTypeInsn( Opcodes.NEW , typeName( StringBuilder.class ) );
+			methodVisitor.visitInsn( Opcodes.DUP );
+			genValue( capacity , Integer.TYPE , methodVisitor );
+			methodVisitor.visitMethodInsn( Opcodes.INVOKESPECIAL , typeName( StringBuilder.class ) , "<init>" , "(I)V" , false );
+			for ( ASTNode operand : operands ) 
+			{
+				final Class<?> type = builder.generateMethodBody( operand , methodVisitor );
+				final String argType;
+				if ( type == String.class ) {
+					argType = "Ljava/lang/String;";
+				} else if ( type == Integer.TYPE || type == Short.TYPE || type == Byte.TYPE ) {
+					argType = "I";
+				} else if ( type == Long.TYPE ) {
+					argType = "J";
+				} else if ( type == Float.TYPE ) {
+					argType = "F";
+				} else if ( type == Double.TYPE ) {
+					argType = "D";
+				} else if ( type == Boolean.TYPE ) {
+					argType = "Z";
+				} else if ( type == Character.TYPE ) {
+					argType = "C";
+				} else {
+					argType = "Ljava/lang/Object;";
+				}
+				methodVisitor.visitMethodInsn( Opcodes.INVOKEVIRTUAL , typeName( StringBuilder.class ) , "append" , "("+argType+")Ljava/lang/StringBuilder;" , false );
+			}
+			methodVisitor.visitMethodInsn( Opcodes.INVOKEVIRTUAL , typeName( StringBuilder.class ) , "toString" , "()Ljava/lang/String;" , false );
+			return String.class;
+		}
+		
+		private void collectConcatenationOperands(ASTNode node,List<ASTNode> result) 
+		{
+			if ( isStringConcatenation( node ) ) {
+				collectConcatenationOperands( node.child(0) , result );
+				collectConcatenationOperands( node.child(1) , result );
+			} else {
+				result.add( node );
+			}
+		}
+		
 		protected Class<?> getWidestType(Class<?> a,Class<?> b) 
 		{
 			return NumericType.getWiderType(a, b).getJavaType();
@@ -163,10 +428,16 @@ public class MethodBodyWriter
 		@Override
 		public Class<?> generate(MethodVisitor methodVisitor,ASTNode node, MethodBodyWriter builder) 
 		{
-			builder.generateMethodBody( node.child(0) , methodVisitor );
-			builder.generateMethodBody( node.child(1) , methodVisitor );
-			
-			methodVisitor.visitInsn( Opcodes.IAND );
+			// only evaluate RHS if LHS is true
+			final Label falseLabel = new Label();
+			final Label continueLabel = new Label();
+			unbox( builder.generateMethodBody( node.child(0) , methodVisitor ) , methodVisitor );
+			methodVisitor.visitJumpInsn( Opcodes.IFEQ , falseLabel );
+			unbox( builder.generateMethodBody( node.child(1) , methodVisitor ) , methodVisitor );
+			methodVisitor.visitJumpInsn( Opcodes.GOTO , continueLabel );
+			methodVisitor.visitLabel( falseLabel );
+			methodVisitor.visitInsn( Opcodes.ICONST_0 );
+			methodVisitor.visitLabel( continueLabel );
 			return Boolean.TYPE;
 		}
 	};
@@ -175,7 +446,58 @@ public class MethodBodyWriter
 		@Override
 		public Class<?> generate(MethodVisitor methodVisitor,ASTNode node,MethodBodyWriter builder) 
 		{
-			throw new RuntimeException("assignments not implemented yet");
+			final VariableNode variable = (VariableNode) node.child(0);
+			if ( variable.isGenerated ) {
+				return storeTemporary( variable , builder.generateMethodBody( node.child(1) , methodVisitor ) , true , methodVisitor );
+			}
+			final Class<?> storageType = ScopeLayout.getStorageType( variable.getDataType() );
+			if ( variable.slot != -1 && storageType != Object.class ) 
+			{
+				// store primitive value without boxing
+				final Class<?> variableType = getUnboxedType( variable.getDataType() );
+				loadScope( variable , methodVisitor );
+				genValue( variable.slot , Integer.TYPE , methodVisitor );
+				final Class<?> rhsType = builder.generateMethodBody( node.child(1) , methodVisitor );
+				if ( storageType == Boolean.TYPE ) {
+					unbox( rhsType , methodVisitor );
+				} else {
+					convertNumber( rhsType , variableType , methodVisitor );
+				}
+				// stack: scope , slot , value => value , scope , slot , value
+				final boolean isWide = variableType == Long.TYPE || variableType == Double.TYPE;
+				methodVisitor.visitInsn( isWide ? Opcodes.DUP2_X2 : Opcodes.DUP_X2 );
+				if ( storageType == Boolean.TYPE ) {
+					methodVisitor.visitMethodInsn( Opcodes.INVOKEINTERFACE , typeName( ISlotScope.class ) , "writeBoolean" , "(IZ)V" , true );
+				} 
+				else 
+				{
+					convertNumber( variableType , storageType , methodVisitor );
+					final String descriptor = storageType == Long.TYPE ? "(IJ)V" : "(ID)V";
+					final String method = storageType == Long.TYPE ? "writeLong" : "writeDouble";
+					methodVisitor.visitMethodInsn( Opcodes.INVOKEINTERFACE , typeName( ISlotScope.class ) , method , descriptor , true );
+				}
+				return variableType;
+			}
+			
+			final Class<?> type = box( builder.generateMethodBody( node.child(1) , methodVisitor ) , methodVisitor );
+			
+			// value of the assignment is also the result of this expression
+			methodVisitor.visitInsn( Opcodes.DUP );
+			loadScope( variable , methodVisitor );
+			methodVisitor.visitInsn( Opcodes.SWAP );
+			if ( variable.slot != -1 ) 
+			{
+				genValue( variable.slot , Integer.TYPE , methodVisitor );
+				methodVisitor.visitInsn( Opcodes.SWAP );
+				methodVisitor.visitMethodInsn( Opcodes.INVOKEINTERFACE , typeName( ISlotScope.class ) , "writeSlot" , "(ILjava/lang/Object;)V" , true );
+			} 
+			else 
+			{
+				newIdentifier( variable.name , methodVisitor );
+				methodVisitor.visitInsn( Opcodes.SWAP );
+				methodVisitor.visitMethodInsn( Opcodes.INVOKEINTERFACE , typeName( IScope.class ) , "writeVariable" , "(Lde/codesourcery/tinyscript/eval/Identifier;Ljava/lang/Object;)V" , true );
+			}
+			return type;
 		}
 	};
 
@@ -183,21 +505,8 @@ public class MethodBodyWriter
 		@Override
 		public Class<?> generate(MethodVisitor methodVisitor,ASTNode node,MethodBodyWriter builder) 
 		{
-			Class<?> lhs = builder.generateMethodBody( node.child(0) , methodVisitor );
-			Class<?> rhs = builder.generateMethodBody( node.child(1) , methodVisitor );			
-			final Class<?> targetType = getWidestType(lhs,rhs);
-			if ( targetType == Long.class ) {
-				methodVisitor.visitInsn( Opcodes.LDIV);	
-			} else if ( targetType == Integer.class || targetType == Short.class || targetType == Byte.class) {
-				methodVisitor.visitInsn( Opcodes.IDIV );	
-			} else if ( targetType == Double.class ) {
-				methodVisitor.visitInsn( Opcodes.DDIV );	
-			}  else if ( targetType == Float.class ) {
-				methodVisitor.visitInsn( Opcodes.FDIV );	
-			} else {
-				throw new RuntimeException("I have no xADD instruction for type "+targetType);
-			}
-			return getUnboxedType( targetType );
+			final Class<?> type = generateShift( builder , true , node , methodVisitor );
+			return type != null ? type : generateArithmetic( builder , Opcodes.IDIV , node , methodVisitor );
 		}				
 	};
 
@@ -205,7 +514,7 @@ public class MethodBodyWriter
 		@Override
 		public Class<?> generate(MethodVisitor methodVisitor,ASTNode node,MethodBodyWriter builder) 
 		{
-			return generateConditional( builder , Opcodes.IF_ICMPEQ , Opcodes.IFEQ , node , methodVisitor );				
+			return generateEquality( builder , false , node , methodVisitor );
 		}			
 	};
 
@@ -246,21 +555,7 @@ public class MethodBodyWriter
 		@Override
 		public Class<?> generate(MethodVisitor methodVisitor,ASTNode node,MethodBodyWriter builder) 
 		{
-			Class<?> lhs = builder.generateMethodBody( node.child(0) , methodVisitor );
-			Class<?> rhs = builder.generateMethodBody( node.child(1) , methodVisitor );				
-			final Class<?> targetType = getWidestType(lhs,rhs);
-			if ( targetType == Long.class ) {
-				methodVisitor.visitInsn( Opcodes.LSUB);	
-			} else if ( targetType == Integer.class || targetType == Short.class || targetType == Byte.class) {
-				methodVisitor.visitInsn( Opcodes.ISUB );	
-			} else if ( targetType == Double.class ) {
-				methodVisitor.visitInsn( Opcodes.DSUB );	
-			}  else if ( targetType == Float.class ) {
-				methodVisitor.visitInsn( Opcodes.FSUB );	
-			} else {
-				throw new RuntimeException("I have no xADD instruction for type "+targetType);
-			}
-			return getUnboxedType( targetType );
+			return generateArithmetic( builder , Opcodes.ISUB , node , methodVisitor );
 		}				
 	};
 
@@ -268,14 +563,14 @@ public class MethodBodyWriter
 		@Override
 		public Class<?> generate(MethodVisitor methodVisitor,ASTNode node,MethodBodyWriter builder) 
 		{
-			return generateConditional( builder, Opcodes.IF_ICMPNE , Opcodes.IFNE , node,methodVisitor );
+			return generateEquality( builder , true , node , methodVisitor );
 		}			
 	};
 	protected  final AbstractOperation NOT = new AbstractOperation("!") {
 		@Override
 		public Class<?> generate(MethodVisitor methodVisitor,ASTNode node,MethodBodyWriter builder) 
 		{
-			builder.generateMethodBody( node.child(0) , methodVisitor );
+			unbox( builder.generateMethodBody( node.child(0) , methodVisitor ) , methodVisitor );
 			generateConditional(Opcodes.IFEQ, methodVisitor);			
 			return Boolean.TYPE;
 		}			
@@ -285,9 +580,16 @@ public class MethodBodyWriter
 		@Override
 		public Class<?> generate(MethodVisitor methodVisitor,ASTNode node,MethodBodyWriter builder) 
 		{
-			builder.generateMethodBody( node.child(0) , methodVisitor );
-			builder.generateMethodBody( node.child(1) , methodVisitor );					
-			methodVisitor.visitInsn( Opcodes.IOR );
+			// only evaluate RHS if LHS is false
+			final Label trueLabel = new Label();
+			final Label continueLabel = new Label();
+			unbox( builder.generateMethodBody( node.child(0) , methodVisitor ) , methodVisitor );
+			methodVisitor.visitJumpInsn( Opcodes.IFNE , trueLabel );
+			unbox( builder.generateMethodBody( node.child(1) , methodVisitor ) , methodVisitor );
+			methodVisitor.visitJumpInsn( Opcodes.GOTO , continueLabel );
+			methodVisitor.visitLabel( trueLabel );
+			methodVisitor.visitInsn( Opcodes.ICONST_1 );
+			methodVisitor.visitLabel( continueLabel );
 			return Boolean.TYPE;
 		}			
 	};
@@ -295,22 +597,11 @@ public class MethodBodyWriter
 		@Override
 		public Class<?> generate(MethodVisitor methodVisitor,ASTNode node,MethodBodyWriter builder) 
 		{
-			Class<?> lhs = builder.generateMethodBody( node.child(0) , methodVisitor );
-			Class<?> rhs = builder.generateMethodBody( node.child(1) , methodVisitor );		
-			
-			final Class<?> targetType = getWidestType(lhs,rhs);
-			if ( targetType == Long.class ) {
-				methodVisitor.visitInsn( Opcodes.LADD );	
-			} else if ( targetType == Integer.class || targetType == Short.class || targetType == Byte.class) {
-				methodVisitor.visitInsn( Opcodes.IADD );	
-			} else if ( targetType == Double.class ) {
-				methodVisitor.visitInsn( Opcodes.DADD );	
-			}  else if ( targetType == Float.class ) {
-				methodVisitor.visitInsn( Opcodes.FADD );	
-			} else {
-				throw new RuntimeException("I have no xADD instruction for type "+targetType);
+			if ( isStringConcatenation( node ) ) {
+				return generateStringConcatenation( builder , node , methodVisitor );
 			}
-			return getUnboxedType( targetType );
+			
+			return generateArithmetic( builder , Opcodes.IADD , node , methodVisitor );
 		}			
 	};
 
@@ -318,21 +609,8 @@ public class MethodBodyWriter
 		@Override
 		public Class<?> generate(MethodVisitor methodVisitor,ASTNode node,MethodBodyWriter builder) 
 		{
-			final Class<?> lhs = builder.generateMethodBody( node.child(0) , methodVisitor );
-			final Class<?> rhs = builder.generateMethodBody( node.child(1) , methodVisitor );					
-			final Class<?> targetType = getWidestType(lhs,rhs);
-			if ( targetType == Long.class ) {
-				methodVisitor.visitInsn( Opcodes.LMUL );	
-			} else if ( targetType == Integer.class || targetType == Short.class || targetType == Byte.class) {
-				methodVisitor.visitInsn( Opcodes.IMUL  );	
-			} else if ( targetType == Double.class ) {
-				methodVisitor.visitInsn( Opcodes.DMUL );	
-			}  else if ( targetType == Float.class ) {
-				methodVisitor.visitInsn( Opcodes.FMUL );	
-			} else {
-				throw new RuntimeException("I have no xADD instruction for type "+targetType);
-			}
-			return getUnboxedType( targetType );
+			final Class<?> type = generateShift( builder , false , node , methodVisitor );
+			return type != null ? type : generateArithmetic( builder , Opcodes.IMUL , node , methodVisitor );
 		}				
 	};
 
@@ -355,6 +633,9 @@ public class MethodBodyWriter
 		{
 			final FunctionCallNode fn = (FunctionCallNode) node;
 			final Method method = fn.targetMethod;
+			if ( method == null ) {
+				throw new RuntimeException("Internal error, target method not set on FunctionCallNode "+node+" - make sure the Typer ran!");
+			}
 			
 			loadReferenceToTargetObject( methodVisitor );
 			
@@ -364,7 +645,10 @@ public class MethodBodyWriter
 				final Class<?> expectedType = method.getParameterTypes()[i];
 				if ( argType != expectedType ) 
 				{
-					if ( argType.isPrimitive() != expectedType.isPrimitive() ) 
+					if ( expectedType.isPrimitive() && isNumericType( expectedType ) && isNumericType( argType ) ) {
+						convertNumber( argType , expectedType , methodVisitor );
+					} 
+					else if ( argType.isPrimitive() != expectedType.isPrimitive() ) 
 					{
 						if ( argType.isPrimitive() ) {
 							box(argType,methodVisitor);
@@ -377,10 +661,14 @@ public class MethodBodyWriter
 				}
 			}
 
-			if ( method == null ) {
-				throw new RuntimeException("Internal error, target method not set on FunctionCallNode "+node+" - make sure the Typer ran!");
+			// call site gets linked against the runtime type of the target object, see TargetCallSites
+			final Type[] parameterTypes = new Type[ 1 + method.getParameterCount() ];
+			parameterTypes[0] = Type.getType( Object.class );
+			for ( int i = 0 ; i < method.getParameterCount() ; i++ ) {
+				parameterTypes[1+i] = Type.getType( method.getParameterTypes()[i] );
 			}
-			methodVisitor.visitMethodInsn(Opcodes.INVOKEVIRTUAL, builder.targetClass.getName().replace(".","/"), functionName.getSymbol() , Type.getMethodDescriptor( method ) );
+			final String descriptor = Type.getMethodDescriptor( Type.getType( method.getReturnType() ) , parameterTypes );
+			methodVisitor.visitInvokeDynamicInsn( functionName.getSymbol() , descriptor , BOOTSTRAP_METHOD );
 			System.out.println("Method return type: "+method.getReturnType());
 			return method.getReturnType();				
 		}			
@@ -442,6 +730,39 @@ public class MethodBodyWriter
 		return getUnboxedType( targetType );
 	}	
 
+	/**
+	 * Returns whether an integer expression may yield a negative value.
+	 */
+	protected boolean mayBeNegative(ASTNode node) 
+	{
+		final RangeAnalyzer.Range range = analyze( node ).getRange( node );
+		return range == null || range.min < 0;
+	}
+	
+	/**
+	 * Returns whether the value of an integer expression is guaranteed to fit into an <code>int</code>.
+	 */
+	protected boolean fitsInt(ASTNode node) 
+	{
+		return analyze( node ).fitsInt( node );
+	}
+	
+	/**
+	 * Returns whether an integer operator may overflow.
+	 */
+	protected boolean mayOverflow(ASTNode node) 
+	{
+		return analyze( node ).mayOverflow( node );
+	}
+	
+	private RangeAnalyzer analyze(ASTNode node) 
+	{
+		if ( ! ranges.isAnalyzed( node ) ) {
+			ranges.analyze( node );
+		}
+		return ranges;
+	}
+	
 	public Class<?> generateMethodBody(ASTNode node,MethodVisitor visitor) {
 
 		Class<?> lastType = null;
@@ -449,9 +770,33 @@ public class MethodBodyWriter
 		{
 			case AST:
 			case EXPRESSION:
-				for ( ASTNode child : node.children() ) {
+				final boolean isScript = node.getNodeType() == ASTNode.NodeType.AST;
+				if ( isScript ) {
+					locals.computeLiveRanges( node );
+					ranges.clear();
+					ranges.analyze( node );
+				}
+				for ( int i = 0 , count = node.getChildCount() ; i < count ; i++ ) 
+				{
+					if ( isScript ) {
+						currentStatement = i;
+					}
+					if ( lastType != null && lastType != Void.TYPE ) {
+						pop( lastType , visitor ); // discard result of previous statement
+					}
+					final ASTNode child = node.child(i);
+					if ( i < count-1 && isTemporaryAssignment( child ) ) 
+					{
+						// result is not needed, just store the value
+						storeTemporary( (VariableNode) child.child(0) , generateMethodBody( child.child(1) , visitor ) , false , visitor );
+						lastType = Void.TYPE;
+						continue;
+					}
 					lastType = generateMethodBody( child , visitor );
 				}
+				if ( isScript ) {
+					locals.verify();
+				}
 				return lastType;
 			case BOOLEAN:
 			case NUMBER:
@@ -466,6 +811,8 @@ public class MethodBodyWriter
 				return new InvokeMethodOnTarget( fn.functionName ).generate( visitor ,  fn , this );
 			case OPERATOR:
 				return pushOperator((OperatorNode) node , visitor );
+			case VARIABLE:
+				return readVariable( (VariableNode) node , visitor );
 			default:
 			}
 			
@@ -525,6 +872,95 @@ public class MethodBodyWriter
 		return abstractOP.generate( visitor ,  node , this );
 	}
 
+	private static boolean isTemporaryAssignment(ASTNode node) 
+	{
+		return node instanceof OperatorNode && ((OperatorNode) node).type == OperatorType.ASSIGNMENT && 
+				node.child(0) instanceof VariableNode && ((VariableNode) node.child(0)).isGenerated;
+	}
+	
+	/**
+	 * Stores the value on top of the stack in the local variable of a temporary.
+	 * 
+	 * @param keepValue whether to leave the stored value on the stack
+	 */
+	protected Class<?> storeTemporary(VariableNode variable,Class<?> type,boolean keepValue,MethodVisitor methodVisitor) 
+	{
+		if ( type == Void.TYPE ) {
+			return type; // SSARewriter also assigns calls to void methods to a temporary
+		}
+		final boolean isWide = type == Long.TYPE || type == Double.TYPE;
+		final LocalVariableAllocator.Interval local = locals.allocate( variable.name , type , currentStatement );
+		
+		if ( keepValue ) {
+			// value of the assignment is also the result of this expression
+			methodVisitor.visitInsn( isWide ? Opcodes.DUP2 : Opcodes.DUP );
+		}
+		methodVisitor.visitVarInsn( Type.getType( type ).getOpcode( Opcodes.ISTORE ) , local.index );
+		return keepValue ? type : Void.TYPE;
+	}
+	
+	protected Class<?> readVariable(VariableNode variable,MethodVisitor methodVisitor) 
+	{
+		if ( variable.isGenerated ) 
+		{
+			final LocalVariableAllocator.Interval local = locals.get( variable.name );
+			if ( local == null ) {
+				throw new RuntimeException("Internal error, temporary "+variable.name+" read before it was assigned");
+			}
+			methodVisitor.visitVarInsn( Type.getType( local.type ).getOpcode( Opcodes.ILOAD ) , local.index );
+			return local.type;
+		}
+		loadScope( variable , methodVisitor );
+		if ( variable.slot != -1 ) 
+		{
+			genValue( variable.slot , Integer.TYPE , methodVisitor );
+			
+			final Class<?> storageType = ScopeLayout.getStorageType( variable.getDataType() );
+			if ( storageType == Long.TYPE || storageType == Double.TYPE ) 
+			{
+				final boolean isLong = storageType == Long.TYPE;
+				methodVisitor.visitMethodInsn( Opcodes.INVOKEINTERFACE , typeName( ISlotScope.class ) , isLong ? "readLong" : "readDouble" , isLong ? "(I)J" : "(I)D" , true );
+				final Class<?> type = getUnboxedType( variable.getDataType() );
+				convertNumber( storageType , type , methodVisitor );
+				return type;
+			} 
+			if ( storageType == Boolean.TYPE ) 
+			{
+				methodVisitor.visitMethodInsn( Opcodes.INVOKEINTERFACE , typeName( ISlotScope.class ) , "readBoolean" , "(I)Z" , true );
+				return Boolean.TYPE;
+			}
+			methodVisitor.visitMethodInsn( Opcodes.INVOKEINTERFACE , typeName( ISlotScope.class ) , "readSlot" , "(I)Ljava/lang/Object;" , true );
+		} 
+		else 
+		{
+			newIdentifier( variable.name , methodVisitor );
+			methodVisitor.visitMethodInsn( Opcodes.INVOKEINTERFACE , typeName( IScope.class ) , "readVariable" , "(Lde/codesourcery/tinyscript/eval/Identifier;)Ljava/lang/Object;" , true );
+		}
+		
+		final Class<?> type = variable.getDataType() == null ? Object.class : getBoxedType( variable.getDataType() );
+		if ( type != Object.class ) {
+			methodVisitor.visitTypeInsn( Opcodes.CHECKCAST , typeName( type ) );
+		}
+		return type;
+	}
+	
+	protected void loadScope(VariableNode variable,MethodVisitor methodVisitor) 
+	{
+		methodVisitor.visitVarInsn(Opcodes.ALOAD, 0 ); // 'this' pointer
+		methodVisitor.visitFieldInsn(Opcodes.GETFIELD, typeName( CompiledExpression.class ) , "variableResolver" , "Lde/codesourcery/tinyscript/eval/IScope;" );
+		if ( variable.slot != -1 ) {
+			methodVisitor.visitTypeInsn( Opcodes.CHECKCAST , typeName( ISlotScope.class ) );
+		}
+	}
+	
+	private static void newIdentifier(Identifier name,MethodVisitor methodVisitor) 
+	{
+		methodVisitor.visitTypeInsn( Opcodes.NEW , typeName( Identifier.class ) );
+		methodVisitor.visitInsn( Opcodes.DUP );
+		methodVisitor.visitLdcInsn( name.getSymbol() );
+		methodVisitor.visitMethodInsn( Opcodes.INVOKESPECIAL , typeName( Identifier.class ) , "<init>" , "(Ljava/lang/String;)V" , false );
+	}
+	
 	protected void loadReferenceToTargetObject(MethodVisitor methodVisitor) 
 	{
 		// arg 0 : load object reference to invoke method on
@@ -533,8 +969,6 @@ public class MethodBodyWriter
 				CompiledExpression.class.getName().replace(".","/" ), "target" , 
 				"Ljava/lang/Object;"  
 				);
-
-		methodVisitor.visitTypeInsn( Opcodes.CHECKCAST , targetClass.getName().replace(".","/" ) );			
 	}
 	
 	public static Class<?> box(Class<?> currentType,MethodVisitor mv) 
@@ -544,31 +978,31 @@ public class MethodBodyWriter
 		}
 			// nothing to do here
 		if ( currentType == Integer.TYPE) {
-			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;" );
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;" , false );
 			return Integer.class;
 		} 
 		if ( currentType == Long.TYPE) {
-			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Long", "valueOf", "(J)Ljava/lang/Long;" );
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Long", "valueOf", "(J)Ljava/lang/Long;" , false );
 			return Long.class;
 		} 
 		if ( currentType == Short.TYPE) {
-			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Short", "valueOf", "(J)Ljava/lang/Short;" );
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Short", "valueOf", "(S)Ljava/lang/Short;" , false );
 			return Short.class;
 		} 
 		if ( currentType == Byte.TYPE) {
-			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Byte", "valueOf", "(J)Ljava/lang/Byte;" );
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Byte", "valueOf", "(B)Ljava/lang/Byte;" , false );
 			return Byte.class;
 		} 
 		if ( currentType == Float.TYPE) {
-			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Float", "valueOf", "(F)Ljava/lang/Float;" );
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Float", "valueOf", "(F)Ljava/lang/Float;" , false );
 			return Float.class;
 		} 
 		if ( currentType == Double.TYPE) {
-			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;" );
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;" , false );
 			return Double.class;
 		} 
 		if ( currentType == Boolean.TYPE) {
-			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;" );
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;" , false );
 			return Boolean.class;
 		} 
 		throw new RuntimeException("Don't know how to box "+currentType);
@@ -581,37 +1015,124 @@ public class MethodBodyWriter
 		}
 			// nothing to do here
 		if ( currentType == Integer.class) {
-			mv.visitMethodInsn( Opcodes.INVOKEVIRTUAL, typeName( Integer.class) , "intValue", "()I");				
+			mv.visitMethodInsn( Opcodes.INVOKEVIRTUAL, typeName( Integer.class) , "intValue", "()I" , false );				
 			return Integer.TYPE;
 		} 
 		if ( currentType == Long.class) {
-			mv.visitMethodInsn( Opcodes.INVOKEVIRTUAL, typeName( Long.class) , "longValue", "()J");				
+			mv.visitMethodInsn( Opcodes.INVOKEVIRTUAL, typeName( Long.class) , "longValue", "()J" , false );				
 			return Long.TYPE;
 		} 
 		if ( currentType == Short.class) 
 		{
-			mv.visitMethodInsn( Opcodes.INVOKEVIRTUAL, typeName( Short.class) , "shortValue", "()S");				
+			mv.visitMethodInsn( Opcodes.INVOKEVIRTUAL, typeName( Short.class) , "shortValue", "()S" , false );				
 			return Short.TYPE;
 		} 
 		if ( currentType == Byte.class) {
-			mv.visitMethodInsn( Opcodes.INVOKEVIRTUAL, typeName( Byte.class) , "byteValue", "()B");					
+			mv.visitMethodInsn( Opcodes.INVOKEVIRTUAL, typeName( Byte.class) , "byteValue", "()B" , false );					
 			return Byte.TYPE;
 		} 
 		if ( currentType == Float.class) {
-			mv.visitMethodInsn( Opcodes.INVOKEVIRTUAL, typeName( Float.class) , "floatValue", "()F");				
+			mv.visitMethodInsn( Opcodes.INVOKEVIRTUAL, typeName( Float.class) , "floatValue", "()F" , false );				
 			return Float.TYPE;
 		} 
 		if ( currentType == Double.class) {
-			mv.visitMethodInsn( Opcodes.INVOKEVIRTUAL, typeName( Double.class) , "doubleValue", "()D");			
+			mv.visitMethodInsn( Opcodes.INVOKEVIRTUAL, typeName( Double.class) , "doubleValue", "()D" , false );			
 			return Double.TYPE;
 		} 
 		if ( currentType == Boolean.class) {
-			mv.visitMethodInsn( Opcodes.INVOKEVIRTUAL, typeName( Boolean.class) , "booleanValue", "()Z");
+			mv.visitMethodInsn( Opcodes.INVOKEVIRTUAL, typeName( Boolean.class) , "booleanValue", "()Z" , false );
 			return Boolean.TYPE;
 		} 
 		throw new RuntimeException("Don't know how to unbox "+currentType);
 	}	
 	
+	public static boolean isNumericType(Class<?> type) 
+	{
+		if ( type == null ) {
+			return false;
+		}
+		if ( type.isPrimitive() ) {
+			return type != Boolean.TYPE && type != Void.TYPE;
+		}
+		return Number.class.isAssignableFrom( type );
+	}
+	
+	/**
+	 * Returns the type both operands of a binary numeric operation get converted to (JLS 5.6.2). 
+	 */
+	public static Class<?> getPromotedType(Class<?> a,Class<?> b) 
+	{
+		final Class<?> t1 = getUnboxedType( a );
+		final Class<?> t2 = getUnboxedType( b );
+		if ( t1 == Double.TYPE || t2 == Double.TYPE ) {
+			return Double.TYPE;
+		}
+		if ( t1 == Float.TYPE || t2 == Float.TYPE ) {
+			return Float.TYPE;
+		}
+		if ( t1 == Long.TYPE || t2 == Long.TYPE ) {
+			return Long.TYPE;
+		}
+		return Integer.TYPE;
+	}
+	
+	/**
+	 * Converts the (possibly boxed) number on top of the stack to a primitive type. 
+	 */
+	public static void convertNumber(Class<?> from,Class<?> to,MethodVisitor mv) 
+	{
+		final Class<?> source = toComputationalType( unbox( from , mv ) );
+		final Class<?> target = toComputationalType( to );
+		if ( source != target ) 
+		{
+			final int opcode;
+			if ( source == Integer.TYPE ) {
+				opcode = target == Long.TYPE ? Opcodes.I2L : target == Float.TYPE ? Opcodes.I2F : Opcodes.I2D;
+			} else if ( source == Long.TYPE ) {
+				opcode = target == Integer.TYPE ? Opcodes.L2I : target == Float.TYPE ? Opcodes.L2F : Opcodes.L2D;
+			} else if ( source == Float.TYPE ) {
+				opcode = target == Integer.TYPE ? Opcodes.F2I : target == Long.TYPE ? Opcodes.F2L : Opcodes.F2D;
+			} else {
+				opcode = target == Integer.TYPE ? Opcodes.D2I : target == Long.TYPE ? Opcodes.D2L : Opcodes.D2F;
+			}
+			mv.visitInsn( opcode );
+		}
+		if ( to == Short.TYPE ) {
+			mv.visitInsn( Opcodes.I2S );
+		} else if ( to == Byte.TYPE ) {
+			mv.visitInsn( Opcodes.I2B );
+		}
+	}
+	
+	private static Class<?> toComputationalType(Class<?> type) 
+	{
+		if ( type == Short.TYPE || type == Byte.TYPE || type == Character.TYPE ) {
+			return Integer.TYPE;
+		}
+		return type;
+	}
+	
+	protected static boolean isStringConcatenation(ASTNode node) 
+	{
+		if ( node instanceof OperatorNode && ((OperatorNode) node).type == OperatorType.PLUS ) 
+		{
+			if ( node.getDataType() != null ) {
+				return node.getDataType() == String.class;
+			}
+			return node.child(0).getDataType() == String.class || node.child(1).getDataType() == String.class;
+		}
+		return false;
+	}
+	
+	public static void pop(Class<?> type,MethodVisitor mv) 
+	{
+		if ( type == Long.TYPE || type == Double.TYPE ) {
+			mv.visitInsn( Opcodes.POP2 );
+		} else {
+			mv.visitInsn( Opcodes.POP );
+		}
+	}
+	
 	private static String typeName(Class<?> clazz) {
 		return clazz.getName().replace(".","/");
 	}
@@ -647,7 +1168,7 @@ public class MethodBodyWriter
 		if ( cl == Boolean.TYPE ) {
 			return Boolean.class;
 		} else if ( cl == Long.TYPE ) {
-			return Long.TYPE;
+			return Long.class;
 		} else if ( cl == Integer.TYPE ) {
 			return Integer.class;
 		} else if ( cl == Short.TYPE ) {
@@ -0,0 +1,174 @@
+package de.codesourcery.tinyscript.eval;
+
+/**
+ * Arithmetic on numbers of arbitrary {@link NumericType}s.
+ * 
+ * The type of an operation is looked up in a promotion matrix indexed by the ordinals of the operand types,
+ * both operands are converted to this type before the operation is performed (see {@link NumericType#getWiderType(Class, Class)}). 
+ * All integral types are computed as <code>long</code> and all floating-point types as <code>double</code> 
+ * without any intermediate boxing, only the result gets narrowed to the promoted type and boxed. 
+ * Like in Java, arithmetic on <code>short</code> and <code>byte</code> operands yields an <code>int</code>.
+ * Like in Java, <code>int</code> and <code>long</code> arithmetic silently wraps around on overflow.
+ * 
+ * Operands promoted to <code>float</code> get rounded to <code>float</code> first, for example a <code>long</code> 
+ * compared with a <code>float</code>. Narrowing the <code>double</code> results of <code>float</code> operands 
+ * is exact for <code>+,-,*,/</code> because a <code>double</code> has more than twice the precision of a <code>float</code>.
+ */
+public final class NumericKernel 
+{
+	private static final NumericType[][] PROMOTIONS;
+	
+	static 
+	{
+		final NumericType[] types = NumericType.values();
+		PROMOTIONS = new NumericType[ types.length ][ types.length ];
+		for ( NumericType a : types ) 
+		{
+			for ( NumericType b : types ) 
+			{
+				final NumericType wider;
+				if ( a.isFloatingPoint() == b.isFloatingPoint() ) {
+					wider = a.getSize() > b.getSize() ? a : b;
+				} else {
+					wider = a.isFloatingPoint() ? a : b;
+				}
+				PROMOTIONS[ a.ordinal() ][ b.ordinal() ] = wider;
+			}
+		}
+	}
+	
+	private NumericKernel() {
+	}
+	
+	/**
+	 * Returns the type a binary operation on two numeric types is performed with.
+	 */
+	public static NumericType promote(NumericType a,NumericType b) {
+		return PROMOTIONS[ a.ordinal() ][ b.ordinal() ];
+	}
+	
+	public static NumericType promote(Object a,Object b) {
+		return PROMOTIONS[ NumericType.getType( a.getClass() ).ordinal() ][ NumericType.getType( b.getClass() ).ordinal() ];
+	}
+	
+	// primitive specializations
+	
+	public static long plus(long a,long b) {
+		return a + b;
+	}
+	
+	public static double plus(double a,double b) {
+		return a + b;
+	}
+	
+	public static long minus(long a,long b) {
+		return a - b;
+	}
+	
+	public static double minus(double a,double b) {
+		return a - b;
+	}
+	
+	public static long times(long a,long b) {
+		return a * b;
+	}
+	
+	public static double times(double a,double b) {
+		return a * b;
+	}
+	
+	public static long divide(long a,long b) {
+		return a / b;
+	}
+	
+	public static double divide(double a,double b) {
+		return a / b;
+	}
+	
+	public static int compare(long a,long b) {
+		return Long.compare( a , b );
+	}
+	
+	public static int compare(double a,double b) {
+		return Double.compare( a , b );
+	}
+	
+	// boxed operands
+	
+	public static Object plus(Object a,Object b) 
+	{
+		final NumericType type = promote( a , b );
+		if ( type.isFloatingPoint() ) {
+			return toFloatingPoint( type , plus( toDouble( type , a ) , toDouble( type , b ) ) );
+		}
+		return toIntegral( type , plus( ((Number) a).longValue() , ((Number) b).longValue() ) );
+	}
+	
+	public static Object minus(Object a,Object b) 
+	{
+		final NumericType type = promote( a , b );
+		if ( type.isFloatingPoint() ) {
+			return toFloatingPoint( type , minus( toDouble( type , a ) , toDouble( type , b ) ) );
+		}
+		return toIntegral( type , minus( ((Number) a).longValue() , ((Number) b).longValue() ) );
+	}
+	
+	public static Object times(Object a,Object b) 
+	{
+		final NumericType type = promote( a , b );
+		if ( type.isFloatingPoint() ) {
+			return toFloatingPoint( type , times( toDouble( type , a ) , toDouble( type , b ) ) );
+		}
+		return toIntegral( type , times( ((Number) a).longValue() , ((Number) b).longValue() ) );
+	}
+	
+	public static Object divide(Object a,Object b) 
+	{
+		final NumericType type = promote( a , b );
+		if ( type.isFloatingPoint() ) {
+			return toFloatingPoint( type , divide( toDouble( type , a ) , toDouble( type , b ) ) );
+		}
+		return toIntegral( type , divide( ((Number) a).longValue() , ((Number) b).longValue() ) );
+	}
+	
+	public static int compare(Object a,Object b) 
+	{
+		final NumericType type = promote( a , b );
+		if ( type.isFloatingPoint() ) {
+			return compare( toDouble( type , a ) , toDouble( type , b ) );
+		}
+		return compare( ((Number) a).longValue() , ((Number) b).longValue() );
+	}
+	
+	/**
+	 * Compares two numbers for equality, <code>NaN</code> equals itself and <code>0.0</code> does not equal <code>-0.0</code>
+	 * (see {@link Double#equals(Object)}).
+	 */
+	public static boolean eq(Object a,Object b) {
+		return compare( a , b ) == 0;
+	}
+	
+	private static double toDouble(NumericType type,Object value) 
+	{
+		return type == NumericType.FLOAT ? ((Number) value).floatValue() : ((Number) value).doubleValue();
+	}
+	
+	private static Object toIntegral(NumericType type,long value) 
+	{
+		switch( type ) 
+		{
+			case LONG:
+				return Long.valueOf( value );
+			default:
+				return Integer.valueOf( (int) value ); // wraps around like 32-bit arithmetic would
+		}
+	}
+	
+	private static Object toFloatingPoint(NumericType type,double value) 
+	{
+		if ( type == NumericType.FLOAT ) {
+			return Float.valueOf( (float) value );
+		}
+		return Double.valueOf( value );
+	}
+}
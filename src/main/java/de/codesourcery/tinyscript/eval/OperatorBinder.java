@@ -0,0 +1,191 @@
+package de.codesourcery.tinyscript.eval;
+
+import de.codesourcery.tinyscript.ast.ASTNode;
+import de.codesourcery.tinyscript.ast.OperatorNode;
+
+/**
+ * Binds the operators of a typed AST (see {@link Typer}) to implementations that are
+ * specialized for the data types of their operands (see {@link TypedOperation}).
+ * 
+ * The {@link Evaluator} invokes bound operations directly instead of checking the operand types 
+ * and looking up the numeric type on every evaluation. Operators whose operand types are not known 
+ * statically (for example calls to methods returning <code>Object</code>) as well as assignments and 
+ * short-circuiting AND/OR are left unbound and get evaluated like before.
+ */
+public class OperatorBinder 
+{
+	public void bind(ASTNode tree) 
+	{
+		for ( ASTNode child : tree.children() ) {
+			bind( child );
+		}
+		if ( tree instanceof OperatorNode ) 
+		{
+			final OperatorNode node = (OperatorNode) tree;
+			final Class<?>[] types = new Class<?>[ node.getChildCount() ];
+			for ( int i = 0 ; i < types.length ; i++ ) 
+			{
+				types[i] = node.child(i).getDataType();
+				if ( types[i] == null ) {
+					throw new RuntimeException("Internal error, node "+node.child(i)+" has no data type - make sure the Typer ran!");
+				}
+			}
+			node.operation = getOperation( node.type , types );
+		}
+	}
+	
+	/**
+	 * Returns the specialized implementation of an operator.
+	 * 
+	 * @param type operator
+	 * @param operandTypes static types of the operands
+	 * @return operation or <code>null</code> if the operator has no specialized implementation for these types
+	 */
+	public static TypedOperation getOperation(OperatorType type,Class<?>... operandTypes) 
+	{
+		if ( operandTypes.length != type.getArgumentCount() ) {
+			return null;
+		}
+		final DataType[] dataTypes = new DataType[ operandTypes.length ];
+		for ( int i = 0 ; i < operandTypes.length ; i++ ) 
+		{
+			dataTypes[i] = getDataType( operandTypes[i] );
+			if ( dataTypes[i] == null ) {
+				return null; // type not known statically
+			}
+		}
+		
+		if ( type == OperatorType.PLUS ) 
+		{
+			if ( dataTypes[0] == DataType.STRING ) {
+				return (a,b) -> ((String) a) + DataType.STRING.convert( b );
+			} 
+			if ( dataTypes[1] == DataType.STRING ) {
+				return (a,b) -> DataType.STRING.convert( a ) + ((String) b);
+			}
+		}
+		
+		switch( type ) 
+		{
+			case NOT:
+				return dataTypes[0] == DataType.BOOLEAN ? (a,b) -> ! ((Boolean) a) : null; 
+			case EQ:
+			case NEQ:
+				final TypedOperation eq = getEquals( dataTypes[0] , dataTypes[1] , operandTypes );
+				if ( eq == null || type == OperatorType.EQ ) {
+					return eq;
+				}
+				return (a,b) -> ! ((Boolean) eq.apply( a , b ));
+			case PLUS:
+			case MINUS:
+			case TIMES:
+			case DIVIDE:
+			case GT:
+			case GTE:
+			case LT:
+			case LTE:
+				if ( dataTypes[0] != DataType.NUMBER || dataTypes[1] != DataType.NUMBER ) {
+					return null;
+				}
+				return getNumericOperation( type , NumericType.getWiderType( operandTypes[0] , operandTypes[1] ) );
+			default:
+				return null;
+		}
+	}
+	
+	private static DataType getDataType(Class<?> clazz) 
+	{
+		if ( clazz == Boolean.class || clazz == Boolean.TYPE ) {
+			return DataType.BOOLEAN;
+		}
+		if ( clazz == String.class ) {
+			return DataType.STRING;
+		}
+		try {
+			NumericType.getType( clazz );
+			return DataType.NUMBER;
+		} 
+		catch(IllegalArgumentException e) {
+			return null;
+		}
+	}
+	
+	private static TypedOperation getEquals(DataType left,DataType right,Class<?>[] operandTypes) 
+	{
+		if ( left != right ) {
+			return (a,b) -> Boolean.FALSE;
+		}
+		switch( left ) 
+		{
+			case BOOLEAN:
+			case STRING:
+				return (a,b) -> a.equals( b );
+			case NUMBER:
+				return (a,b) -> NumericKernel.eq( a , b );
+			default:
+				return null;
+		}
+	}
+	
+	private static TypedOperation getNumericOperation(OperatorType operator,NumericType type) 
+	{
+		switch( type ) 
+		{
+			case INT:
+				switch( operator ) {
+					case PLUS:   return (a,b) -> ((Number) a).intValue() + ((Number) b).intValue();
+					case MINUS:  return (a,b) -> ((Number) a).intValue() - ((Number) b).intValue();
+					case TIMES:  return (a,b) -> ((Number) a).intValue() * ((Number) b).intValue();
+					case DIVIDE: return (a,b) -> ((Number) a).intValue() / ((Number) b).intValue();
+					case GT:     return (a,b) -> ((Number) a).intValue() > ((Number) b).intValue();
+					case GTE:    return (a,b) -> ((Number) a).intValue() >= ((Number) b).intValue();
+					case LT:     return (a,b) -> ((Number) a).intValue() < ((Number) b).intValue();
+					case LTE:    return (a,b) -> ((Number) a).intValue() <= ((Number) b).intValue();
+					default:
+				}
+				break;
+			case LONG:
+				switch( operator ) {
+					case PLUS:   return (a,b) -> ((Number) a).longValue() + ((Number) b).longValue();
+					case MINUS:  return (a,b) -> ((Number) a).longValue() - ((Number) b).longValue();
+					case TIMES:  return (a,b) -> ((Number) a).longValue() * ((Number) b).longValue();
+					case DIVIDE: return (a,b) -> ((Number) a).longValue() / ((Number) b).longValue();
+					case GT:     return (a,b) -> ((Number) a).longValue() > ((Number) b).longValue();
+					case GTE:    return (a,b) -> ((Number) a).longValue() >= ((Number) b).longValue();
+					case LT:     return (a,b) -> ((Number) a).longValue() < ((Number) b).longValue();
+					case LTE:    return (a,b) -> ((Number) a).longValue() <= ((Number) b).longValue();
+					default:
+				}
+				break;
+			case DOUBLE:
+				// comparisons use Double.compare() like NumericType does, so NaN compares greater than everything
+				switch( operator ) {
+					case PLUS:   return (a,b) -> ((Number) a).doubleValue() + ((Number) b).doubleValue();
+					case MINUS:  return (a,b) -> ((Number) a).doubleValue() - ((Number) b).doubleValue();
+					case TIMES:  return (a,b) -> ((Number) a).doubleValue() * ((Number) b).doubleValue();
+					case DIVIDE: return (a,b) -> ((Number) a).doubleValue() / ((Number) b).doubleValue();
+					case GT:     return (a,b) -> Double.compare( ((Number) a).doubleValue() , ((Number) b).doubleValue() ) > 0;
+					case GTE:    return (a,b) -> Double.compare( ((Number) a).doubleValue() , ((Number) b).doubleValue() ) >= 0;
+					case LT:     return (a,b) -> Double.compare( ((Number) a).doubleValue() , ((Number) b).doubleValue() ) < 0;
+					case LTE:    return (a,b) -> Double.compare( ((Number) a).doubleValue() , ((Number) b).doubleValue() ) <= 0;
+					default:
+				}
+				break;
+			default:
+		}
+		
+		// float,short,byte: still skips the type checks
+		switch( operator ) {
+			case PLUS:   return NumericKernel::plus;
+			case MINUS:  return NumericKernel::minus;
+			case TIMES:  return NumericKernel::times;
+			case DIVIDE: return NumericKernel::divide;
+			case GT:     return (a,b) -> NumericKernel.compare( a , b ) > 0;
+			case GTE:    return (a,b) -> NumericKernel.compare( a , b ) >= 0;
+			case LT:     return (a,b) -> NumericKernel.compare( a , b ) < 0;
+			case LTE:    return (a,b) -> NumericKernel.compare( a , b ) <= 0;
+			default:
+				return null;
+		}
+	}
+}
@@ -4,7 +4,6 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
 import de.codesourcery.tinyscript.ast.ASTNode;
@@ -18,7 +17,7 @@ public enum OperatorType
 	{
 		@Override public Object applyHook(Object left,Object... right)		
 		{
-			return compare(left,right[0], (a,b) -> NumericType.compare(a,b) > 0 );			
+			return NumericKernel.compare( left , right[0] ) > 0;			
 		}
 
 		@Override protected Class<?> calculateType(List<Class<?>> data) { return Boolean.class; }
@@ -27,21 +26,21 @@ public enum OperatorType
 	{
 		@Override public Object applyHook(Object left,Object... right)		
 		{
-			return compare(left,right[0], (a,b) -> NumericType.compare(a,b) < 0 );
+			return NumericKernel.compare( left , right[0] ) < 0;
 		}		
 		@Override protected Class<?> calculateType(List<Class<?>> data) { return Boolean.class; }	
 	},
 	GTE(">=",2,4,DataType.NUMBER) {
 		@Override public Object applyHook(Object left,Object... right)		
 		{
-			return compare(left,right[0], (a,b) -> NumericType.compare(a,b) >= 0 );
+			return NumericKernel.compare( left , right[0] ) >= 0;
 		}
 		@Override protected Class<?> calculateType(List<Class<?>> data) { return Boolean.class; }		
 	},
 	LTE("<=",2,4,DataType.NUMBER) {
 		@Override public Object applyHook(Object left,Object... right)		
 		{
-			return compare(left,right[0], (a,b) -> NumericType.compare(a,b) <= 0 );
+			return NumericKernel.compare( left , right[0] ) <= 0;
 		}	
 		@Override protected Class<?> calculateType(List<Class<?>> data) { return Boolean.class; }		
 	},	
@@ -91,7 +90,7 @@ public enum OperatorType
 				case BOOLEAN:
 					return ((Boolean) left).booleanValue() == ((Boolean) right).booleanValue();
 				case NUMBER:
-					return (Boolean) NumericType.eq( left , right );
+					return NumericKernel.eq( left , right );
 				case STRING:
 					return ((String) left).equals( right );
 				default:
@@ -121,7 +120,7 @@ public enum OperatorType
 				final String l = (String) DataType.STRING.convert( left );
 				return l + ((String) right[0] ) ;				
 			}
-			return numericBinaryOp(left,right[0], (a,b) -> NumericType.getType(a).plus( a, b)  );
+			return NumericKernel.plus( left , right[0] );
 		}		
 		@Override protected Class<?> calculateType(List<Class<?>> data) 
 		{ 
@@ -134,7 +133,7 @@ public enum OperatorType
 	MINUS("-",2,5,DataType.NUMBER) {
 		@Override public Object applyHook(Object left,Object... right)		
 		{
-			return numericBinaryOp(left,right[0], (a,b) -> NumericType.getType(a).minus( a, b)  );
+			return NumericKernel.minus( left , right[0] );
 		}
 		@Override protected Class<?> calculateType(List<Class<?>> data) 
 		{ 
@@ -144,7 +143,7 @@ public enum OperatorType
 	TIMES("*",2,6,DataType.NUMBER) { 
 		@Override public Object applyHook(Object left,Object... right)		
 		{
-			return numericBinaryOp(left,right[0], (a,b) -> NumericType.getType(a).times( a, b)  );
+			return NumericKernel.times( left , right[0] );
 		}
 		@Override protected Class<?> calculateType(List<Class<?>> data) 
 		{ 
@@ -154,7 +153,7 @@ public enum OperatorType
 	DIVIDE("/",2,6,DataType.NUMBER) {
 		@Override public Object applyHook(Object left,Object... right)		
 		{
-			return numericBinaryOp(left,right[0], (a,b) -> NumericType.getType(a).divide( a, b)  );
+			return NumericKernel.divide( left , right[0] );
 		}
 		@Override protected Class<?> calculateType(List<Class<?>> data) 
 		{ 
@@ -232,22 +231,6 @@ public enum OperatorType
 		return symbol;
 	}
 	
-	private static boolean compare(Object left,Object right,BiFunction<Object, Object , Boolean > func ) 
-	{
-		final NumericType type = NumericType.getWiderType( left ,  right );
-		final Object a = type.convert(left); 
-		final Object b = type.convert(right);
-		return func.apply( a ,  b );
-	}
-	
-	private static Object numericBinaryOp(Object left,Object right,BiFunction<Object, Object , Object > op) 
-	{
-		final NumericType type = NumericType.getWiderType( left ,  right );
-		final Object a = type.convert(left); 
-		final Object b = type.convert(right);
-		return op.apply( a ,  b );
-	}	
-	
 	public final boolean matchesSymbol(String s) {
 		return s.equalsIgnoreCase( symbol );
 	}
@@ -0,0 +1,271 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import de.codesourcery.tinyscript.ast.ASTNode;
+
+/**
+ * Evaluates one expression for many inputs (for example targets or records) in parallel on a {@link ForkJoinPool}.
+ *
+ * Inputs get split recursively until chunks are small enough. Each thread evaluating chunks uses its own {@link Evaluator}
+ * and scope, created by {@link #createEvaluatorHook()} and {@link #createScopeHook()} when the thread evaluates its first chunk
+ * and reused for all further chunks of the same call. Since an evaluator (including its method cache) and its scope are only ever used 
+ * by a single thread, neither needs to be thread-safe. The AST must not be modified while it is being evaluated.
+ *
+ * Evaluators are owned by the call that created them and get discarded when it returns, so pool threads 
+ * never keep evaluators, scopes or inputs alive.
+ * 
+ * Inputs that are not {@link RandomAccess} lists get copied before they are split.
+ *
+ * Before evaluating an input, {@link #bindHook(Evaluator, IScope, Object)} gets invoked to make the input
+ * available to the evaluator. By default, the input becomes the evaluator's target object.
+ *
+ * @param <T> type of inputs
+ */
+public class ParallelEvaluator<T>
+{
+	private static final int MIN_CHUNK_SIZE = 256;
+
+	// chunks per thread, more chunks balance the load better if evaluation times vary
+	private static final int CHUNKS_PER_THREAD = 8;
+
+	private final ASTNode expression;
+	private final ForkJoinPool pool;
+	private int chunkSize;
+
+	public ParallelEvaluator(ASTNode expression) {
+		this( expression , ForkJoinPool.commonPool() );
+	}
+
+	public ParallelEvaluator(ASTNode expression,ForkJoinPool pool)
+	{
+		if ( expression == null || pool == null ) {
+			throw new IllegalArgumentException("Expression and pool must not be NULL");
+		}
+		this.expression = expression;
+		this.pool = pool;
+	}
+
+	/**
+	 * Sets the number of inputs evaluated by a single task.
+	 *
+	 * @param chunkSize chunk size or 0 to derive it from the number of inputs and the pool's parallelism
+	 */
+	public void setChunkSize(int chunkSize)
+	{
+		if ( chunkSize < 0 ) {
+			throw new IllegalArgumentException("Chunk size must not be negative");
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Creates an evaluator, invoked once per thread.
+	 */
+	protected Evaluator createEvaluatorHook() {
+		return new Evaluator( null );
+	}
+
+	/**
+	 * Creates the scope for variables, invoked once per thread.
+	 *
+	 * @return scope or <code>null</code> if the expression uses no variables
+	 */
+	protected IScope createScopeHook() {
+		return null;
+	}
+
+	/**
+	 * Prepares an evaluator for evaluating the expression for an input.
+	 *
+	 * @param evaluator evaluator created by {@link #createEvaluatorHook()}
+	 * @param scope scope created by {@link #createScopeHook()}, may be <code>null</code>
+	 * @param input
+	 */
+	protected void bindHook(Evaluator evaluator,IScope scope,T input) {
+		evaluator.setTarget( input );
+	}
+
+	/**
+	 * Evaluates the expression for all inputs.
+	 *
+	 * @return results in the order of the inputs
+	 */
+	public List<Object> evaluate(List<? extends T> inputs)
+	{
+		final List<? extends T> list = toRandomAccess( inputs );
+		final Object[] results = new Object[ list.size() ];
+		pool.invoke( new EvaluateTask( new ConcurrentHashMap<>() , list , results , 0 , list.size() , getChunkSize( list.size() ) ) );
+		return Arrays.asList( results );
+	}
+
+	/**
+	 * Check whether a boolean expression is <code>true</code> for at least one input,
+	 * stops evaluating as soon as one is found.
+	 */
+	public boolean anyMatch(List<? extends T> inputs) {
+		return find( inputs , true );
+	}
+
+	/**
+	 * Check whether a boolean expression is <code>true</code> for all inputs,
+	 * stops evaluating as soon as it is <code>false</code> for one of them.
+	 */
+	public boolean allMatch(List<? extends T> inputs) {
+		return ! find( inputs , false );
+	}
+
+	private boolean find(List<? extends T> inputs,boolean expected)
+	{
+		final List<? extends T> list = toRandomAccess( inputs );
+		final AtomicBoolean found = new AtomicBoolean();
+		pool.invoke( new FindTask( new ConcurrentHashMap<>() , list , expected , found , 0 , list.size() , getChunkSize( list.size() ) ) );
+		return found.get();
+	}
+
+	private static <X> List<? extends X> toRandomAccess(List<? extends X> inputs) {
+		return inputs instanceof RandomAccess ? inputs : new ArrayList<>( inputs );
+	}
+
+	private int getChunkSize(int inputCount)
+	{
+		if ( chunkSize > 0 ) {
+			return chunkSize;
+		}
+		return Math.max( MIN_CHUNK_SIZE , inputCount / ( pool.getParallelism() * CHUNKS_PER_THREAD ) );
+	}
+
+	private static final class Worker
+	{
+		public final Evaluator evaluator;
+		public final IScope scope;
+
+		public Worker(Evaluator evaluator,IScope scope)
+		{
+			this.evaluator = evaluator;
+			this.scope = scope;
+			if ( scope != null ) {
+				evaluator.setVariableResolver( scope );
+			}
+		}
+	}
+
+	private Worker getWorker(Map<Thread,Worker> workers) {
+		return workers.computeIfAbsent( Thread.currentThread() , thread -> new Worker( createEvaluatorHook() , createScopeHook() ) );
+	}
+
+	private Object evaluate(Worker worker,T input)
+	{
+		bindHook( worker.evaluator , worker.scope , input );
+		return worker.evaluator.evaluate( expression ).value();
+	}
+
+	private boolean evaluateBoolean(Worker worker,T input)
+	{
+		final Object result = evaluate( worker , input );
+		if ( !( result instanceof Boolean ) ) {
+			throw new RuntimeException("Expected a boolean value but "+expression+" yielded "+result);
+		}
+		return (Boolean) result;
+	}
+
+	protected final class EvaluateTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final Map<Thread,Worker> workers;
+		private final List<? extends T> inputs;
+		private final Object[] results;
+		private final int from;
+		private final int to;
+		private final int chunkSize;
+
+		public EvaluateTask(Map<Thread,Worker> workers,List<? extends T> inputs,Object[] results,int from,int to,int chunkSize)
+		{
+			this.workers = workers;
+			this.inputs = inputs;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if ( to - from > chunkSize )
+			{
+				final int middle = ( from + to ) >>> 1;
+				invokeAll( new EvaluateTask( workers , inputs , results , from , middle , chunkSize ) , new EvaluateTask( workers , inputs , results , middle , to , chunkSize ) );
+				return;
+			}
+			final Worker worker = getWorker( workers );
+			try 
+			{
+				for ( int i = from ; i < to ; i++ ) {
+					results[i] = evaluate( worker , inputs.get(i) );
+				}
+			} finally {
+				worker.evaluator.setTarget( null );
+			}
+		}
+	}
+
+	protected final class FindTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final Map<Thread,Worker> workers;
+		private final List<? extends T> inputs;
+		private final boolean expected;
+		private final AtomicBoolean found;
+		private final int from;
+		private final int to;
+		private final int chunkSize;
+
+		public FindTask(Map<Thread,Worker> workers,List<? extends T> inputs,boolean expected,AtomicBoolean found,int from,int to,int chunkSize)
+		{
+			this.workers = workers;
+			this.inputs = inputs;
+			this.expected = expected;
+			this.found = found;
+			this.from = from;
+			this.to = to;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if ( found.get() ) {
+				return;
+			}
+			if ( to - from > chunkSize )
+			{
+				final int middle = ( from + to ) >>> 1;
+				invokeAll( new FindTask( workers , inputs , expected , found , from , middle , chunkSize ) , new FindTask( workers , inputs , expected , found , middle , to , chunkSize ) );
+				return;
+			}
+			final Worker worker = getWorker( workers );
+			try 
+			{
+				for ( int i = from ; i < to && ! found.get() ; i++ )
+				{
+					if ( evaluateBoolean( worker , inputs.get(i) ) == expected ) {
+						found.set( true );
+					}
+				}
+			} finally {
+				worker.evaluator.setTarget( null );
+			}
+		}
+	}
+}
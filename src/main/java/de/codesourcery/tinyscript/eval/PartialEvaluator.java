@@ -0,0 +1,208 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import de.codesourcery.tinyscript.ast.ASTNode;
+import de.codesourcery.tinyscript.ast.FunctionCallNode;
+import de.codesourcery.tinyscript.ast.OperatorNode;
+import de.codesourcery.tinyscript.ast.VariableNode;
+
+/**
+ * Specializes an expression for a batch of rows or target objects before it gets evaluated for each of them.
+ *
+ * Each subtree is classified as either batch-invariant or per-row. Literals are invariant, variables
+ * if {@link #isInvariantHook(VariableNode)} says so and are never assigned by the expression, function calls
+ * if all their arguments are invariant and {@link #isInvariantHook(Method)} says so for the invoked method.
+ * Operators are invariant if all their operands are, except for assignments.
+ *
+ * {@link #specialize(ASTNode, Object)} evaluates each maximal invariant subtree once and returns a copy
+ * of the expression where these subtrees got replaced by literals, which can then be evaluated for every row
+ * (for example using {@link Evaluator}, {@link BatchEvaluator} or {@link ParallelEvaluator}).
+ * Subtrees whose evaluation fails or yields a value that has no literal representation are left alone,
+ * so errors still get reported per row.
+ */
+public class PartialEvaluator
+{
+	private enum Kind { INVARIANT , PER_ROW }
+
+	private IScope scope;
+	private int hoistedCount;
+
+	/**
+	 * Sets the scope holding the values of batch-invariant variables.
+	 */
+	public void setScope(IScope scope) {
+		this.scope = scope;
+	}
+
+	/**
+	 * Returns whether a variable holds the same value for all rows of a batch.
+	 *
+	 * @return <code>false</code> by default
+	 */
+	protected boolean isInvariantHook(VariableNode variable) {
+		return false;
+	}
+
+	/**
+	 * Returns whether a method of the batch's target object returns the same value for all rows of a batch
+	 * when invoked with the same arguments.
+	 *
+	 * @return <code>true</code> by default only for methods annotated with {@link Pure}
+	 */
+	protected boolean isInvariantHook(Method method) {
+		return method.isAnnotationPresent( Pure.class );
+	}
+
+	/**
+	 * Replaces all batch-invariant subtrees of an expression by their values.
+	 *
+	 * @param node expression, will not be modified
+	 * @param target target object invariant functions get invoked on, may be <code>null</code>
+	 * @return specialized copy of the expression
+	 */
+	public ASTNode specialize(ASTNode node,Object target)
+	{
+		final Map<ASTNode,Kind> kinds = classify( node , target );
+		final Evaluator evaluator = new Evaluator( target );
+		if ( scope != null ) {
+			evaluator.setVariableResolver( scope );
+		}
+		hoistedCount = 0;
+		return specialize( node , kinds , evaluator );
+	}
+
+	/**
+	 * Returns the number of subtrees the last call to {@link #specialize(ASTNode, Object)} replaced by literals.
+	 */
+	public int getHoistedCount() {
+		return hoistedCount;
+	}
+
+	/**
+	 * Returns whether a subtree of an expression is batch-invariant.
+	 *
+	 * @param node subtree
+	 * @param root expression the subtree is part of
+	 */
+	public boolean isInvariant(ASTNode node,ASTNode root,Object target) {
+		return classify( root , target ).get( node ) == Kind.INVARIANT;
+	}
+
+	private Map<ASTNode,Kind> classify(ASTNode root,Object target)
+	{
+		final Set<Identifier> assigned = new HashSet<>();
+		collectAssignedVariables( root , assigned );
+		final Map<ASTNode,Kind> kinds = new IdentityHashMap<>();
+		classify( root , target , assigned , kinds );
+		return kinds;
+	}
+
+	private static void collectAssignedVariables(ASTNode node,Set<Identifier> assigned)
+	{
+		if ( node instanceof OperatorNode && ((OperatorNode) node).type == OperatorType.ASSIGNMENT && node.child(0) instanceof VariableNode ) {
+			assigned.add( ((VariableNode) node.child(0)).name );
+		}
+		for ( ASTNode child : node.children() ) {
+			collectAssignedVariables( child , assigned );
+		}
+	}
+
+	private Kind classify(ASTNode node,Object target,Set<Identifier> assigned,Map<ASTNode,Kind> kinds)
+	{
+		boolean childrenInvariant = true;
+		for ( ASTNode child : node.children() )
+		{
+			if ( classify( child , target , assigned , kinds ) == Kind.PER_ROW ) {
+				childrenInvariant = false;
+			}
+		}
+
+		final boolean invariant;
+		switch( node.getNodeType() )
+		{
+			case BOOLEAN:
+			case NUMBER:
+			case STRING:
+				invariant = true;
+				break;
+			case VARIABLE:
+				final VariableNode variable = (VariableNode) node;
+				invariant = ! assigned.contains( variable.name ) && isInvariantHook( variable );
+				break;
+			case FUNCTION_CALL:
+				invariant = childrenInvariant && isInvariantFunction( (FunctionCallNode) node , target );
+				break;
+			case OPERATOR:
+				invariant = childrenInvariant && ((OperatorNode) node).type != OperatorType.ASSIGNMENT;
+				break;
+			default:
+				invariant = false;
+		}
+		final Kind result = invariant ? Kind.INVARIANT : Kind.PER_ROW;
+		kinds.put( node , result );
+		return result;
+	}
+
+	private boolean isInvariantFunction(FunctionCallNode func,Object target)
+	{
+		if ( func.targetMethod != null ) {
+			return isInvariantHook( func.targetMethod );
+		}
+		if ( target == null ) {
+			return false;
+		}
+		// not typed yet, all candidates need to be invariant
+		boolean found = false;
+		for ( Method m : target.getClass().getMethods() )
+		{
+			if ( m.getName().equals( func.getFunctionName().getSymbol() ) && m.getParameterCount() == func.getChildCount() )
+			{
+				if ( m.getReturnType() == Void.TYPE || ! isInvariantHook( m ) ) {
+					return false;
+				}
+				found = true;
+			}
+		}
+		return found;
+	}
+
+	private ASTNode specialize(ASTNode node,Map<ASTNode,Kind> kinds,Evaluator evaluator)
+	{
+		if ( kinds.get( node ) == Kind.INVARIANT && ! node.isLiteralValue() )
+		{
+			final ASTNode literal = evaluate( node , evaluator );
+			if ( literal != null )
+			{
+				hoistedCount++;
+				return literal;
+			}
+		}
+		final ASTNode result = node.copyNode();
+		for ( ASTNode child : node.children() ) {
+			result.add( specialize( child , kinds , evaluator ) );
+		}
+		return result;
+	}
+
+	private static ASTNode evaluate(ASTNode node,Evaluator evaluator)
+	{
+		final Object value;
+		try {
+			value = evaluator.evaluate( node ).value();
+		}
+		catch(RuntimeException e) {
+			return null; // let per-row evaluation report the error
+		}
+		if ( !( value instanceof Number || value instanceof Boolean || value instanceof String ) ) {
+			return null;
+		}
+		final ASTNode result = ASTSimplifier.toLiteralNode( value );
+		result.setDataType( node.getDataType() );
+		return result;
+	}
+}
@@ -0,0 +1,82 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Looks up expressions that have been compiled ahead-of-time by the tinyscript Maven plugin.
+ *
+ * The plugin writes one registry file per project that maps the name of each
+ * expression (the path of its source file relative to the source directory, without the '.ts' suffix)
+ * to the fully-qualified name of the generated class.
+ */
+public class PrecompiledExpressions
+{
+	public static final String REGISTRY_FILE = "META-INF/tinyscript/expressions.properties";
+
+	private final ClassLoader classLoader;
+	private final Map<String,String> classNames = new HashMap<>();
+	private final Map<String,Class<?>> classes = new HashMap<>();
+
+	public PrecompiledExpressions(ClassLoader classLoader)
+	{
+		this.classLoader = classLoader;
+		try
+		{
+			final Enumeration<URL> registries = classLoader.getResources( REGISTRY_FILE );
+			while ( registries.hasMoreElements() )
+			{
+				final URL url = registries.nextElement();
+				final Properties props = new Properties();
+				try ( InputStream in = url.openStream() ) {
+					props.load( in );
+				}
+				for ( String name : props.stringPropertyNames() )
+				{
+					final String existing = classNames.put( name , props.getProperty( name ) );
+					if ( existing != null && ! existing.equals( props.getProperty( name ) ) ) {
+						throw new RuntimeException("Expression '"+name+"' is registered more than once ("+existing+" , "+props.getProperty( name )+")");
+					}
+				}
+			}
+		}
+		catch(IOException e) {
+			throw new RuntimeException("Failed to read "+REGISTRY_FILE,e);
+		}
+	}
+
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet( classNames.keySet() );
+	}
+
+	public synchronized Class<?> getExpressionClass(String name)
+	{
+		Class<?> result = classes.get( name );
+		if ( result == null )
+		{
+			final String className = classNames.get( name );
+			if ( className == null ) {
+				throw new IllegalArgumentException("Unknown precompiled expression '"+name+"'");
+			}
+			try {
+				result = Class.forName( className , true , classLoader );
+			}
+			catch (ClassNotFoundException e) {
+				throw new RuntimeException("Failed to load class "+className+" of precompiled expression '"+name+"'",e);
+			}
+			classes.put( name , result );
+		}
+		return result;
+	}
+
+	public <T> CompiledExpression<T> newInstance(String name,T target,IScope scope) {
+		return CompiledExpression.newInstance( getExpressionClass( name ) , target , scope );
+	}
+}
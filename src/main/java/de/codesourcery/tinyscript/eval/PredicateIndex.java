@@ -0,0 +1,302 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import de.codesourcery.tinyscript.ast.ASTNode;
+import de.codesourcery.tinyscript.ast.ILiteralNode;
+import de.codesourcery.tinyscript.ast.OperatorNode;
+import de.codesourcery.tinyscript.eval.RuleNetwork.Node;
+
+/**
+ * Finds the rules matching an event by probing indices instead of evaluating every rule.
+ *
+ * Each rule is split into its top-level conjuncts. Conjuncts that compare some expression
+ * (the 'attribute', usually a function call like <code>price()</code>) against a literal using
+ * <code>==, &gt;, &gt;=, &lt;, &lt;=</code> are put into a per-attribute index: a hash table for equality
+ * and sorted maps for the thresholds. For each event, every indexed attribute gets evaluated once and
+ * the indices are probed with its value, counting the satisfied conjuncts of each rule. Only rules
+ * whose indexed conjuncts are all satisfied (or that have no indexed conjunct at all) are candidates,
+ * their remaining conjuncts get evaluated through a {@link RuleNetwork}.
+ *
+ * Instances of this class are not thread-safe.
+ */
+public class PredicateIndex
+{
+	private final RuleNetwork network = new RuleNetwork();
+
+	private final Map<Node,AttributeIndex> attributes = new LinkedHashMap<>();
+
+	private final List<String> ruleIds = new ArrayList<>();
+	private final List<Boolean> hasResidual = new ArrayList<>();
+	private final List<Integer> unindexedRules = new ArrayList<>();
+
+	private int[] requiredMatches = new int[0];
+
+	// per-event state
+	private int[] matchCounts = new int[0];
+	private int[] touched = new int[0];
+	private int touchedCount;
+	private final BitSet candidates = new BitSet();
+
+	protected final class AttributeIndex
+	{
+		public final Node attribute;
+
+		public final Map<Object,List<Integer>> equal = new HashMap<>();
+		// key: threshold, value: rules with conjunct 'attribute OP threshold'
+		public final NavigableMap<Object,List<Integer>> greater = new TreeMap<>( NumericType::compare );
+		public final NavigableMap<Object,List<Integer>> greaterOrEqual = new TreeMap<>( NumericType::compare );
+		public final NavigableMap<Object,List<Integer>> less = new TreeMap<>( NumericType::compare );
+		public final NavigableMap<Object,List<Integer>> lessOrEqual = new TreeMap<>( NumericType::compare );
+
+		public AttributeIndex(Node attribute) {
+			this.attribute = attribute;
+		}
+
+		public void add(OperatorType op,Object literal,int rule)
+		{
+			final Map<Object,List<Integer>> map;
+			switch( op )
+			{
+				case EQ:  map = equal; break;
+				case GT:  map = greater; break;
+				case GTE: map = greaterOrEqual; break;
+				case LT:  map = less; break;
+				case LTE: map = lessOrEqual; break;
+				default:
+					throw new RuntimeException("Internal error, operator "+op+" cannot be indexed");
+			}
+			map.computeIfAbsent( op == OperatorType.EQ ? normalize( literal ) : literal , key -> new ArrayList<>() ).add( rule );
+		}
+
+		public void probe(Object value)
+		{
+			count( equal.get( normalize( value ) ) );
+			if ( value instanceof Number )
+			{
+				// value > threshold <=> threshold < value
+				countAll( greater.headMap( value , false ) );
+				countAll( greaterOrEqual.headMap( value , true ) );
+				countAll( less.tailMap( value , false ) );
+				countAll( lessOrEqual.tailMap( value , true ) );
+			}
+		}
+
+		private void countAll(Map<Object,List<Integer>> map)
+		{
+			for ( List<Integer> rules : map.values() ) {
+				count( rules );
+			}
+		}
+
+		private void count(List<Integer> rules)
+		{
+			if ( rules != null )
+			{
+				for ( int i = 0 , len = rules.size() ; i < len ; i++ ) {
+					conjunctMatched( rules.get(i) );
+				}
+			}
+		}
+
+		/**
+		 * Maps numbers that are considered equal by {@link OperatorType#EQ} to the same key.
+		 *
+		 * Floating-point values only become a Long if they hold an exact integral value
+		 * that fits a long, everything else stays a Double (whose equals() compares the bits,
+		 * so -0.0 and 0.0 get different keys just like with {@link Double#compare(double, double)}).
+		 */
+		private Object normalize(Object value)
+		{
+			if ( value instanceof Double || value instanceof Float )
+			{
+				final double d = ((Number) value).doubleValue();
+				final boolean negativeZero = d == 0 && Double.doubleToRawLongBits( d ) != 0;
+				if ( d == Math.rint( d ) && ! negativeZero && d >= -0x1p63 && d < 0x1p63 ) {
+					return Long.valueOf( (long) d );
+				}
+				return Double.valueOf( d );
+			}
+			if ( value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte ) {
+				return Long.valueOf( ((Number) value).longValue() );
+			}
+			return value;
+		}
+	}
+
+	public void setScope(IScope scope) {
+		network.setScope( scope );
+	}
+
+	public void addRule(String ruleId,String expression) {
+		addRule( ruleId , new ExpressionCompiler().parse( expression ) );
+	}
+
+	public void addRule(String ruleId,ASTNode ast)
+	{
+		if ( ruleIds.contains( ruleId ) ) {
+			throw new IllegalArgumentException("Duplicate rule ID "+ruleId);
+		}
+		final int rule = ruleIds.size();
+
+		final List<ASTNode> conjuncts = new ArrayList<>();
+		collectConjuncts( ast , conjuncts );
+
+		final List<Node> residual = new ArrayList<>();
+		int indexed = 0;
+		for ( ASTNode conjunct : conjuncts )
+		{
+			if ( ! addToIndex( conjunct , rule ) ) {
+				residual.add( network.addExpression( conjunct ) );
+			} else {
+				indexed++;
+			}
+		}
+
+		ruleIds.add( ruleId );
+		hasResidual.add( ! residual.isEmpty() );
+		if ( ! residual.isEmpty() ) {
+			network.addRule( ruleId , network.and( residual ) );
+		}
+		if ( indexed == 0 ) {
+			unindexedRules.add( rule );
+		}
+		requiredMatches = append( requiredMatches , indexed );
+		matchCounts = new int[ requiredMatches.length ];
+		touched = new int[ requiredMatches.length ];
+	}
+
+	private static int[] append(int[] array,int value)
+	{
+		final int[] result = new int[ array.length+1 ];
+		System.arraycopy( array , 0 , result , 0 , array.length );
+		result[ array.length ] = value;
+		return result;
+	}
+
+	private static void collectConjuncts(ASTNode node,List<ASTNode> result)
+	{
+		if ( node.getNodeType() == ASTNode.NodeType.AST || node.getNodeType() == ASTNode.NodeType.EXPRESSION )
+		{
+			if ( node.getChildCount() != 1 ) {
+				throw new IllegalArgumentException("Expected exactly one expression but got "+node.getChildCount());
+			}
+			collectConjuncts( node.child(0) , result );
+		}
+		else if ( node instanceof OperatorNode && ((OperatorNode) node).type == OperatorType.AND )
+		{
+			for ( ASTNode child : node.children() ) {
+				collectConjuncts( child , result );
+			}
+		} else {
+			result.add( node );
+		}
+	}
+
+	private boolean addToIndex(ASTNode conjunct,int rule)
+	{
+		if ( !( conjunct instanceof OperatorNode ) ) {
+			return false;
+		}
+		OperatorType op = ((OperatorNode) conjunct).type;
+		if ( op != OperatorType.EQ && op != OperatorType.GT && op != OperatorType.GTE && op != OperatorType.LT && op != OperatorType.LTE ) {
+			return false;
+		}
+
+		ASTNode attribute = conjunct.child(0);
+		ASTNode literal = conjunct.child(1);
+		if ( attribute instanceof ILiteralNode )
+		{
+			// 'CONST OP attribute' , swap operands
+			final ASTNode tmp = attribute;
+			attribute = literal;
+			literal = tmp;
+			op = mirror( op );
+		}
+		if ( attribute instanceof ILiteralNode || !( literal instanceof ILiteralNode ) ) {
+			return false;
+		}
+		final Object value = ((ILiteralNode) literal).value();
+		if ( op != OperatorType.EQ && !( value instanceof Number ) ) {
+			return false;
+		}
+
+		final Node node = network.addExpression( attribute );
+		attributes.computeIfAbsent( node , key -> new AttributeIndex( key ) ).add( op , value , rule );
+		return true;
+	}
+
+	private static OperatorType mirror(OperatorType op)
+	{
+		switch( op ) {
+			case GT:  return OperatorType.LT;
+			case GTE: return OperatorType.LTE;
+			case LT:  return OperatorType.GT;
+			case LTE: return OperatorType.GTE;
+			default:
+				return op;
+		}
+	}
+
+	public int getRuleCount() {
+		return ruleIds.size();
+	}
+
+	public int getAttributeCount() {
+		return attributes.size();
+	}
+
+	/**
+	 * Returns the IDs of all rules matching an event, in the order the rules were added.
+	 *
+	 * @param event target object function calls get invoked on
+	 */
+	public Set<String> evaluate(Object event)
+	{
+		network.beginEvent( event );
+
+		for ( AttributeIndex index : attributes.values() ) {
+			index.probe( network.value( index.attribute ) );
+		}
+		for ( int i = 0 , len = unindexedRules.size() ; i < len ; i++ ) {
+			candidates.set( unindexedRules.get(i) );
+		}
+
+		final Set<String> result = new LinkedHashSet<>();
+		for ( int rule = candidates.nextSetBit( 0 ) ; rule >= 0 ; rule = candidates.nextSetBit( rule+1 ) )
+		{
+			final String ruleId = ruleIds.get( rule );
+			if ( ! hasResidual.get( rule ) || network.matches( ruleId ) ) {
+				result.add( ruleId );
+			}
+		}
+
+		// reset per-event state
+		candidates.clear();
+		for ( int i = 0 ; i < touchedCount ; i++ ) {
+			matchCounts[ touched[i] ] = 0;
+		}
+		touchedCount = 0;
+		return result;
+	}
+
+	private void conjunctMatched(int rule)
+	{
+		final int count = ++matchCounts[rule];
+		if ( count == 1 ) {
+			touched[ touchedCount++ ] = rule;
+		}
+		if ( count == requiredMatches[rule] ) {
+			candidates.set( rule );
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method of a target object as pure, meaning its return value only depends on its arguments
+ * and invoking it has no side effects.
+ *
+ * Calls to pure methods with constant arguments get evaluated once by {@link ASTSimplifier}
+ * and replaced by their result, other passes may merge or reorder calls to pure methods.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Pure {
+}
@@ -0,0 +1,253 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import de.codesourcery.tinyscript.ast.ASTNode;
+import de.codesourcery.tinyscript.ast.ILiteralNode;
+import de.codesourcery.tinyscript.ast.OperatorNode;
+import de.codesourcery.tinyscript.ast.VariableNode;
+
+/**
+ * Computes the range of values each integer expression of a typed AST (see {@link Typer}) may take.
+ *
+ * Literals have an exact range, variables and function calls the range of their type (see {@link #getVariableRangeHook(VariableNode)}),
+ * the ranges of arithmetic operators are derived from the ranges of their operands using interval arithmetic.
+ * Since integer arithmetic wraps around on overflow, the range of an operator that may overflow is the range of its type.
+ *
+ * {@link MethodBodyWriter} uses the ranges to omit the rounding correction for negative dividends when it
+ * replaces a division by a power of two with a shift, to compute <code>long</code> expressions that are known
+ * to fit into an <code>int</code> with 32-bit instructions and to only check operators that may overflow
+ * when overflow checking is enabled (see {@link ByteCodeWriter#setCheckOverflow(boolean)}).
+ *
+ * Subclass and override {@link #getVariableRangeHook(VariableNode)} to narrow the ranges of variables, then pass
+ * the analyzer to {@link ExpressionCompiler#setRangeAnalyzer(RangeAnalyzer)}.
+ */
+public class RangeAnalyzer
+{
+	private final Map<ASTNode,Range> ranges = new IdentityHashMap<>();
+	private final Map<ASTNode,Boolean> mayOverflow = new IdentityHashMap<>();
+	private final Map<Identifier,Range> temporaries = new HashMap<>();
+
+	public static final class Range
+	{
+		public static final Range BYTE = new Range( Byte.MIN_VALUE , Byte.MAX_VALUE );
+		public static final Range SHORT = new Range( Short.MIN_VALUE , Short.MAX_VALUE );
+		public static final Range INT = new Range( Integer.MIN_VALUE , Integer.MAX_VALUE );
+		public static final Range LONG = new Range( Long.MIN_VALUE , Long.MAX_VALUE );
+
+		public final long min;
+		public final long max;
+
+		public Range(long min, long max)
+		{
+			if ( min > max ) {
+				throw new IllegalArgumentException("min > max");
+			}
+			this.min = min;
+			this.max = max;
+		}
+
+		public boolean isWithin(Range other) {
+			return other.min <= min && max <= other.max;
+		}
+
+		public boolean contains(long value) {
+			return min <= value && value <= max;
+		}
+
+		/**
+		 * Returns the range of an integer type or <code>null</code> for non-integer types.
+		 */
+		public static Range of(Class<?> type)
+		{
+			if ( type == Integer.class || type == Integer.TYPE ) {
+				return INT;
+			}
+			if ( type == Long.class || type == Long.TYPE ) {
+				return LONG;
+			}
+			if ( type == Short.class || type == Short.TYPE ) {
+				return SHORT;
+			}
+			if ( type == Byte.class || type == Byte.TYPE ) {
+				return BYTE;
+			}
+			return null;
+		}
+
+		@Override
+		public String toString() {
+			return "["+min+","+max+"]";
+		}
+	}
+
+	/**
+	 * Returns the range of values a variable may hold.
+	 *
+	 * @param variable
+	 * @return range or <code>null</code> to use the range of the variable's type
+	 */
+	protected Range getVariableRangeHook(VariableNode variable) {
+		return null;
+	}
+
+	/**
+	 * Discards the results of all previous analyses.
+	 */
+	public void clear()
+	{
+		ranges.clear();
+		mayOverflow.clear();
+		temporaries.clear();
+	}
+
+	/**
+	 * Analyzes an AST.
+	 *
+	 * @return range of the AST's value, <code>null</code> if it is not an integer
+	 */
+	public Range analyze(ASTNode node)
+	{
+		for ( ASTNode child : node.children() ) {
+			analyze( child );
+		}
+		final Range result = computeRange( node );
+		if ( result != null ) {
+			ranges.put( node , result );
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the range of an analyzed node.
+	 *
+	 * @return range or <code>null</code> if the node is no integer expression or has not been analyzed
+	 */
+	public Range getRange(ASTNode node) {
+		return ranges.get( node );
+	}
+
+	public boolean isAnalyzed(ASTNode node) {
+		return ranges.containsKey( node ) || mayOverflow.containsKey( node );
+	}
+
+	/**
+	 * Returns whether an integer operator may overflow, <code>true</code> if the node has not been analyzed.
+	 */
+	public boolean mayOverflow(ASTNode node) {
+		return mayOverflow.getOrDefault( node , Boolean.TRUE );
+	}
+
+	/**
+	 * Returns whether the value of an expression is guaranteed to fit into an <code>int</code>.
+	 */
+	public boolean fitsInt(ASTNode node)
+	{
+		final Range range = getRange( node );
+		return range != null && range.isWithin( Range.INT );
+	}
+
+	private Range computeRange(ASTNode node)
+	{
+		switch( node.getNodeType() )
+		{
+			case AST:
+			case EXPRESSION:
+				return node.hasNoChildren() ? null : getRange( node.child( node.getChildCount()-1 ) );
+			case NUMBER:
+				final Object value = ((ILiteralNode) node).value();
+				if ( Range.of( value.getClass() ) == null ) {
+					return null;
+				}
+				return new Range( ((Number) value).longValue() , ((Number) value).longValue() );
+			case VARIABLE:
+				final VariableNode variable = (VariableNode) node;
+				if ( variable.isGenerated && temporaries.containsKey( variable.name ) ) {
+					return temporaries.get( variable.name );
+				}
+				final Range range = getVariableRangeHook( variable );
+				return range != null ? range : Range.of( node.getDataType() );
+			case FUNCTION_CALL:
+				return Range.of( node.getDataType() );
+			case OPERATOR:
+				return computeRange( (OperatorNode) node );
+			default:
+				return null;
+		}
+	}
+
+	private Range computeRange(OperatorNode node)
+	{
+		final Range typeRange = Range.of( node.getDataType() );
+		if ( node.type == OperatorType.ASSIGNMENT )
+		{
+			final Range rhs = getRange( node.child(1) );
+			final VariableNode lhs = (VariableNode) node.child(0);
+			if ( lhs.isGenerated && rhs != null ) {
+				temporaries.put( lhs.name , rhs );
+			}
+			return rhs;
+		}
+		if ( typeRange == null || node.getChildCount() != 2 ) {
+			return null;
+		}
+		final Range a = getRange( node.child(0) );
+		final Range b = getRange( node.child(1) );
+		if ( a == null || b == null ) {
+			mayOverflow.put( node , Boolean.TRUE );
+			return typeRange;
+		}
+
+		Range exact;
+		try
+		{
+			switch( node.type )
+			{
+				case PLUS:
+					exact = new Range( Math.addExact( a.min , b.min ) , Math.addExact( a.max , b.max ) );
+					break;
+				case MINUS:
+					exact = new Range( Math.subtractExact( a.min , b.max ) , Math.subtractExact( a.max , b.min ) );
+					break;
+				case TIMES:
+					final long p1 = Math.multiplyExact( a.min , b.min );
+					final long p2 = Math.multiplyExact( a.min , b.max );
+					final long p3 = Math.multiplyExact( a.max , b.min );
+					final long p4 = Math.multiplyExact( a.max , b.max );
+					exact = new Range( Math.min( Math.min( p1 , p2 ) , Math.min( p3 , p4 ) ) , Math.max( Math.max( p1 , p2 ) , Math.max( p3 , p4 ) ) );
+					break;
+				case DIVIDE:
+					if ( a.min == Long.MIN_VALUE ) {
+						exact = Range.LONG;
+					} else if ( b.contains( 0 ) ) {
+						// dividing by a non-zero integer never increases the magnitude
+						final long magnitude = Math.max( Math.abs( a.min ) , Math.abs( a.max ) );
+						exact = new Range( -magnitude , magnitude );
+					} else {
+						final long q1 = a.min / b.min;
+						final long q2 = a.min / b.max;
+						final long q3 = a.max / b.min;
+						final long q4 = a.max / b.max;
+						exact = new Range( Math.min( Math.min( q1 , q2 ) , Math.min( q3 , q4 ) ) , Math.max( Math.max( q1 , q2 ) , Math.max( q3 , q4 ) ) );
+					}
+					break;
+				default:
+					return typeRange;
+			}
+		}
+		catch(ArithmeticException e) {
+			exact = null; // exceeds 64 bits
+		}
+
+		if ( exact != null && exact.isWithin( typeRange ) )
+		{
+			mayOverflow.put( node , Boolean.FALSE );
+			return exact;
+		}
+		// MIN_VALUE / -1 silently wraps around like in Java
+		mayOverflow.put( node , node.type != OperatorType.DIVIDE );
+		return typeRange;
+	}
+}
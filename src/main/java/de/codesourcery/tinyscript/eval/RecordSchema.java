@@ -0,0 +1,99 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Describes the binary layout of fixed-width records.
+ * 
+ * Each field gets a slot in the {@link ScopeLayout} of this schema, in the order 
+ * the fields were added.
+ * 
+ * @see RecordScope
+ */
+public final class RecordSchema 
+{
+	public static enum FieldType 
+	{
+		BYTE(1,Byte.class),
+		SHORT(2,Short.class),
+		INT(4,Integer.class),
+		LONG(8,Long.class),
+		FLOAT(4,Float.class),
+		DOUBLE(8,Double.class),
+		BOOLEAN(1,Boolean.class); // zero byte is false, anything else true
+		
+		public final int size;
+		public final Class<?> javaType;
+		
+		private FieldType(int size,Class<?> javaType) {
+			this.size = size;
+			this.javaType = javaType;
+		}
+	}
+	
+	private final ScopeLayout layout = new ScopeLayout();
+	private final List<FieldType> types = new ArrayList<>();
+	private final List<Integer> offsets = new ArrayList<>();
+	
+	private int recordSize;
+	
+	/**
+	 * Adds a field directly after the last field of this schema.
+	 */
+	public RecordSchema addField(String name,FieldType type) {
+		return addField( name , type , recordSize );
+	}
+	
+	public synchronized RecordSchema addField(String name,FieldType type,int offset) 
+	{
+		if ( offset < 0 ) {
+			throw new IllegalArgumentException("Offset must be >= 0");
+		}
+		if ( layout.getSlot( new Identifier( name ) ) != -1 ) {
+			throw new IllegalArgumentException("Duplicate field "+name);
+		}
+		final int slot = layout.declare( name , type.javaType );
+		if ( slot != types.size() ) {
+			throw new RuntimeException("Internal error, slot "+slot+" does not match field index "+types.size());
+		}
+		types.add( type );
+		offsets.add( offset );
+		recordSize = Math.max( recordSize , offset + type.size );
+		return this;
+	}
+	
+	/**
+	 * Sets the record size, for records that have padding or unused trailing fields.
+	 */
+	public synchronized void setRecordSize(int recordSize) 
+	{
+		for ( int i = 0 ; i < types.size() ; i++ ) 
+		{
+			if ( offsets.get(i) + types.get(i).size > recordSize ) {
+				throw new IllegalArgumentException("Record size "+recordSize+" is too small for field "+layout.getName( i ));
+			}
+		}
+		this.recordSize = recordSize;
+	}
+	
+	public synchronized int getRecordSize() {
+		return recordSize;
+	}
+	
+	public ScopeLayout getLayout() {
+		return layout;
+	}
+	
+	public synchronized int getFieldCount() {
+		return types.size();
+	}
+	
+	public synchronized FieldType getFieldType(int slot) {
+		return types.get( slot );
+	}
+	
+	public synchronized int getOffset(int slot) {
+		return offsets.get( slot );
+	}
+}
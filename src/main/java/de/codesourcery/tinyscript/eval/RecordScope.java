@@ -0,0 +1,238 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.nio.ByteBuffer;
+
+import de.codesourcery.tinyscript.eval.RecordSchema.FieldType;
+
+/**
+ * Read-only scope that reads variables directly from fixed-width binary records
+ * stored in one or more (possibly direct or memory-mapped) {@link ByteBuffer}s.
+ * 
+ * Since a single buffer is limited to 2 GB, bigger files can be mapped as several buffers
+ * that each hold a whole number of records. Records are numbered across all buffers using <code>long</code> indices.
+ *
+ * The scope points at one record at a time, use {@link #next()} to advance to the
+ * following record. Fields are read using absolute <code>get()</code> calls relative to the 
+ * start of the current record, so moving through the buffer does not allocate.
+ * Compiled expressions (see {@link MethodBodyWriter}) read numeric and boolean fields
+ * through the typed accessors and thus do not box either.
+ * 
+ * Values are read using the byte order of the buffer.
+ */
+public class RecordScope implements ISlotScope 
+{
+	private final RecordSchema schema;
+	private final ByteBuffer[] buffers;
+	// index of the first record in each buffer
+	private final long[] firstRecords;
+	private final int recordSize;
+	private final long recordCount;
+	
+	// field offsets and types indexed by slot, copied from the schema so reads need no locking
+	private final int[] offsets;
+	private final FieldType[] types;
+	
+	private long recordIndex;
+	private ByteBuffer buffer;
+	// offset of the current record in the current buffer
+	private int base;
+	
+	/**
+	 * 
+	 * @param schema
+	 * @param buffers buffers holding the records, each starting at the buffer's current position and ending at its limit
+	 */
+	public RecordScope(RecordSchema schema,ByteBuffer... buffers) 
+	{
+		this.schema = schema;
+		this.recordSize = schema.getRecordSize();
+		if ( recordSize <= 0 ) {
+			throw new IllegalArgumentException("Schema has no fields");
+		}
+		if ( buffers.length == 0 ) {
+			throw new IllegalArgumentException("Need at least one buffer");
+		}
+		this.buffers = new ByteBuffer[ buffers.length ];
+		this.firstRecords = new long[ buffers.length ];
+		long count = 0;
+		for ( int i = 0 ; i < buffers.length ; i++ ) 
+		{
+			this.buffers[i] = buffers[i].slice().order( buffers[i].order() );
+			firstRecords[i] = count;
+			try {
+				count = Math.addExact( count , this.buffers[i].limit() / recordSize );
+			} catch(ArithmeticException e) {
+				throw new IllegalArgumentException("Too many records",e);
+			}
+		}
+		this.recordCount = count;
+		
+		final int fieldCount = schema.getFieldCount();
+		this.offsets = new int[ fieldCount ];
+		this.types = new FieldType[ fieldCount ];
+		for ( int i = 0 ; i < fieldCount ; i++ ) 
+		{
+			offsets[i] = schema.getOffset( i );
+			types[i] = schema.getFieldType( i );
+		}
+		reset();
+	}
+	
+	/**
+	 * Advances to the next record.
+	 * 
+	 * @return <code>false</code> if there are no more records
+	 */
+	public boolean next() 
+	{
+		if ( recordIndex + 1 >= recordCount ) {
+			return false;
+		}
+		recordIndex++;
+		base += recordSize;
+		if ( base > buffer.limit() - recordSize ) {
+			moveTo( recordIndex ); // continue with the next buffer
+		}
+		return true;
+	}
+	
+	/**
+	 * Moves before the first record, {@link #next()} needs to be called before reading any fields.
+	 */
+	public void reset() 
+	{
+		recordIndex = -1;
+		buffer = buffers[0];
+		base = -recordSize;
+	}
+	
+	public void setRecordIndex(long index) 
+	{
+		if ( index < 0 || index >= recordCount ) {
+			throw new IllegalArgumentException("Record index "+index+" out of range [0,"+recordCount+")");
+		}
+		recordIndex = index;
+		moveTo( index );
+	}
+	
+	private void moveTo(long index) 
+	{
+		int i = firstRecords.length - 1;
+		while ( firstRecords[i] > index ) {
+			i--;
+		}
+		buffer = buffers[i];
+		base = Math.toIntExact( Math.multiplyExact( index - firstRecords[i] , (long) recordSize ) );
+	}
+	
+	public long getRecordIndex() {
+		return recordIndex;
+	}
+	
+	public long getRecordCount() {
+		return recordCount;
+	}
+	
+	@Override
+	public ScopeLayout getLayout() {
+		return schema.getLayout();
+	}
+	
+	private int offset(int slot) 
+	{
+		if ( recordIndex == -1 ) {
+			throw new RuntimeException("No current record, call next() first");
+		}
+		if ( slot >= offsets.length ) {
+			throw new RuntimeException("Record has no field "+getLayout().getName( slot ) );
+		}
+		return base + offsets[slot];
+	}
+	
+	@Override
+	public long readLong(int slot) 
+	{
+		final int offset = offset( slot );
+		switch( types[slot] ) 
+		{
+			case BYTE:    return buffer.get( offset );
+			case SHORT:   return buffer.getShort( offset );
+			case INT:     return buffer.getInt( offset );
+			case LONG:    return buffer.getLong( offset );
+			case FLOAT:   return (long) buffer.getFloat( offset );
+			case DOUBLE:  return (long) buffer.getDouble( offset );
+			default:
+				throw new RuntimeException("Field "+getLayout().getName( slot )+" is no number");
+		}
+	}
+	
+	@Override
+	public double readDouble(int slot) 
+	{
+		final int offset = offset( slot );
+		switch( types[slot] ) 
+		{
+			case FLOAT:   return buffer.getFloat( offset );
+			case DOUBLE:  return buffer.getDouble( offset );
+			default:
+				return readLong( slot );
+		}
+	}
+	
+	@Override
+	public boolean readBoolean(int slot) 
+	{
+		final int offset = offset( slot );
+		if ( types[slot] != FieldType.BOOLEAN ) {
+			throw new RuntimeException("Field "+getLayout().getName( slot )+" is no boolean");
+		}
+		return buffer.get( offset ) != 0;
+	}
+	
+	@Override
+	public Object readSlot(int slot) 
+	{
+		final int offset = offset( slot );
+		switch( types[slot] ) 
+		{
+			case BYTE:    return buffer.get( offset );
+			case SHORT:   return buffer.getShort( offset );
+			case INT:     return buffer.getInt( offset );
+			case LONG:    return buffer.getLong( offset );
+			case FLOAT:   return buffer.getFloat( offset );
+			case DOUBLE:  return buffer.getDouble( offset );
+			case BOOLEAN: return buffer.get( offset ) != 0;
+			default:
+				throw new RuntimeException("Unhandled field type "+types[slot]);
+		}
+	}
+	
+	@Override
+	public void writeSlot(int slot, Object value) {
+		throw new RuntimeException("Cannot assign to "+getLayout().getName( slot )+", records are read-only");
+	}
+	
+	@Override
+	public Object readVariable(Identifier name) {
+		return readSlot( getSlot( name ) );
+	}
+	
+	@Override
+	public void writeVariable(Identifier name, Object value) {
+		writeSlot( getSlot( name ) , value );
+	}
+	
+	@Override
+	public Class<?> getDataType(Identifier name) {
+		return types[ getSlot( name ) ].javaType;
+	}
+	
+	private int getSlot(Identifier name) 
+	{
+		final int slot = getLayout().getSlot( name );
+		if ( slot == -1 || slot >= types.length ) {
+			throw new RuntimeException("Unknown field "+name);
+		}
+		return slot;
+	}
+}
@@ -0,0 +1,345 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.codesourcery.tinyscript.ast.ASTNode;
+import de.codesourcery.tinyscript.ast.FunctionCallNode;
+import de.codesourcery.tinyscript.ast.ILiteralNode;
+import de.codesourcery.tinyscript.ast.OperatorNode;
+import de.codesourcery.tinyscript.ast.VariableNode;
+
+/**
+ * Evaluates many boolean rules against the same event (target object), sharing
+ * common sub-expressions between all rules.
+ *
+ * Rules are merged into a DAG in which structurally identical sub-expressions
+ * (function calls, variable reads, operators and literals) are represented by a single node.
+ * For every event, each node gets evaluated at most once and only if a rule actually needs
+ * its value, <code>and</code>/<code>or</code> short-circuit.
+ *
+ * Since functions are assumed to return the same value when invoked more than once for
+ * the same event, a call like <code>country() == 'DE'</code> that is shared by thousands of rules
+ * only gets evaluated once per event.
+ *
+ * Instances of this class are not thread-safe.
+ */
+public class RuleNetwork
+{
+	private final Map<String,Node> nodesByKey = new HashMap<>();
+	private final List<Node> nodes = new ArrayList<>();
+	private final Map<String,Node> rules = new LinkedHashMap<>();
+
+	private final Evaluator evaluator = new Evaluator( null );
+	private IScope scope;
+
+	// per-event memoization, a node's value is valid if its epoch matches the current one
+	private Object[] values = new Object[0];
+	private long[] epochs = new long[0];
+	private long epoch; // long so the stamp cannot wrap around and revive stale values
+
+	protected static enum NodeKind {
+		LITERAL,VARIABLE,FUNCTION_CALL,OPERATOR
+	}
+
+	protected static final class Node
+	{
+		public final int id;
+		public final NodeKind kind;
+		public final Object value; // literal value, variable/function name or operator type
+		public final Node[] inputs;
+
+		public Node(int id, NodeKind kind, Object value, Node[] inputs) {
+			this.id = id;
+			this.kind = kind;
+			this.value = value;
+			this.inputs = inputs;
+		}
+	}
+
+	public void setScope(IScope scope) {
+		this.scope = scope;
+		evaluator.setVariableResolver( scope );
+	}
+
+	/**
+	 * Adds a rule.
+	 *
+	 * @param ruleId
+	 * @param expression boolean expression
+	 */
+	public void addRule(String ruleId,String expression) {
+		addRule( ruleId , new ExpressionCompiler().parse( expression ) );
+	}
+
+	/**
+	 * Adds a rule.
+	 *
+	 * @param ruleId
+	 * @param ast (possibly typed) AST of a boolean expression
+	 */
+	public void addRule(String ruleId,ASTNode ast)
+	{
+		if ( rules.containsKey( ruleId ) ) {
+			throw new IllegalArgumentException("Duplicate rule ID "+ruleId);
+		}
+		if ( ast.getDataType() != null && ast.getDataType() != Boolean.class && ast.getDataType() != Boolean.TYPE ) {
+			throw new IllegalArgumentException("Rule "+ruleId+" is not a boolean expression but yields "+ast.getDataType().getName());
+		}
+		addRule( ruleId , addExpression( ast ) );
+	}
+
+	void addRule(String ruleId,Node root) 
+	{
+		if ( rules.containsKey( ruleId ) ) {
+			throw new IllegalArgumentException("Duplicate rule ID "+ruleId);
+		}
+		rules.put( ruleId , root );
+	}
+
+	/**
+	 * Adds an expression to the network without turning it into a rule.
+	 */
+	Node addExpression(ASTNode ast) {
+		return toNode( unwrap( ast ) );
+	}
+
+	/**
+	 * Returns the node for the conjunction of some other nodes.
+	 */
+	Node and(List<Node> inputs) 
+	{
+		if ( inputs.size() == 1 ) {
+			return inputs.get(0);
+		}
+		return getOrCreate( NodeKind.OPERATOR , OperatorType.AND , inputs.toArray( new Node[ inputs.size() ] ) );
+	}
+
+	private static ASTNode unwrap(ASTNode node)
+	{
+		ASTNode current = node;
+		while ( current.getNodeType() == ASTNode.NodeType.AST || current.getNodeType() == ASTNode.NodeType.EXPRESSION )
+		{
+			if ( current.getChildCount() != 1 ) {
+				throw new IllegalArgumentException("Expected exactly one expression but got "+current.getChildCount());
+			}
+			current = current.child(0);
+		}
+		return current;
+	}
+
+	private Node toNode(ASTNode astNode)
+	{
+		final ASTNode node = unwrap( astNode );
+		final Node[] inputs = new Node[ node.getChildCount() ];
+		for ( int i = 0 ; i < inputs.length ; i++ ) {
+			inputs[i] = toNode( node.child(i) );
+		}
+
+		final NodeKind kind;
+		final Object value;
+		switch( node.getNodeType() )
+		{
+			case BOOLEAN:
+			case NUMBER:
+			case STRING:
+				kind = NodeKind.LITERAL;
+				value = ((ILiteralNode) node).value();
+				break;
+			case VARIABLE:
+				kind = NodeKind.VARIABLE;
+				value = ((VariableNode) node).name;
+				break;
+			case FUNCTION_CALL:
+				kind = NodeKind.FUNCTION_CALL;
+				value = ((FunctionCallNode) node).functionName;
+				break;
+			case OPERATOR:
+				kind = NodeKind.OPERATOR;
+				value = ((OperatorNode) node).type;
+				if ( value == OperatorType.ASSIGNMENT ) {
+					throw new IllegalArgumentException("Rules must not contain assignments");
+				}
+				break;
+			default:
+				throw new RuntimeException("Internal error, unhandled node "+node);
+		}
+
+		return getOrCreate( kind , value , inputs );
+	}
+
+	private Node getOrCreate(NodeKind kind,Object value,Node[] inputs) 
+	{
+		final String key = key( kind , value , inputs );
+		Node result = nodesByKey.get( key );
+		if ( result == null )
+		{
+			result = new Node( nodes.size() , kind , value , inputs );
+			nodes.add( result );
+			nodesByKey.put( key , result );
+		}
+		return result;
+	}
+
+	private static String key(NodeKind kind,Object value,Node[] inputs)
+	{
+		final StringBuilder result = new StringBuilder();
+		result.append( kind ).append(':');
+		if ( kind == NodeKind.LITERAL ) {
+			result.append( value.getClass().getSimpleName() ).append(':');
+		}
+		result.append( value instanceof Identifier ? ((Identifier) value).getSymbol() : value );
+
+		final int[] ids = new int[ inputs.length ];
+		for ( int i = 0 ; i < inputs.length ; i++ ) {
+			ids[i] = inputs[i].id;
+		}
+		if ( isCommutative( value ) ) {
+			Arrays.sort( ids );
+		}
+		result.append( Arrays.toString( ids ) );
+		return result.toString();
+	}
+
+	private static boolean isCommutative(Object value) {
+		return value == OperatorType.AND || value == OperatorType.OR || value == OperatorType.EQ || value == OperatorType.NEQ || value == OperatorType.TIMES;
+	}
+
+	public int getNodeCount() {
+		return nodes.size();
+	}
+
+	public int getRuleCount() {
+		return rules.size();
+	}
+
+	/**
+	 * Evaluates all rules against an event.
+	 *
+	 * @param event target object function calls get invoked on
+	 * @return IDs of matching rules, in the order the rules were added
+	 */
+	public Set<String> evaluate(Object event)
+	{
+		beginEvent( event );
+		final Set<String> result = new LinkedHashSet<>();
+		for ( Map.Entry<String,Node> entry : rules.entrySet() )
+		{
+			if ( matches( entry.getKey() , entry.getValue() ) ) {
+				result.add( entry.getKey() );
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Starts evaluation of a new event, discarding all memoized values. 
+	 */
+	void beginEvent(Object event) 
+	{
+		evaluator.setTarget( event );
+		if ( values.length != nodes.size() )
+		{
+			values = new Object[ nodes.size() ];
+			epochs = new long[ nodes.size() ];
+			epoch = 0;
+		}
+		epoch++;
+	}
+
+	/**
+	 * Evaluates a single rule against the current event.
+	 * 
+	 * @see #beginEvent(Object)
+	 */
+	boolean matches(String ruleId) 
+	{
+		final Node root = rules.get( ruleId );
+		if ( root == null ) {
+			throw new IllegalArgumentException("Unknown rule "+ruleId);
+		}
+		return matches( ruleId , root );
+	}
+
+	private boolean matches(String ruleId,Node root) 
+	{
+		final Object value = value( root );
+		if ( !( value instanceof Boolean ) ) {
+			throw new RuntimeException("Rule "+ruleId+" did not yield a boolean value but "+value);
+		}
+		return (Boolean) value;
+	}
+
+	Object value(Node node)
+	{
+		if ( epochs[ node.id ] == epoch ) {
+			return values[ node.id ];
+		}
+		final Object result = compute( node );
+		values[ node.id ] = result;
+		epochs[ node.id ] = epoch;
+		return result;
+	}
+
+	private Object compute(Node node)
+	{
+		switch( node.kind )
+		{
+			case LITERAL:
+				return node.value;
+			case VARIABLE:
+				if ( scope == null ) {
+					throw new RuntimeException("Cannot read variable "+node.value+", no scope set");
+				}
+				return scope.readVariable( (Identifier) node.value );
+			case FUNCTION_CALL:
+				final Evaluator.Result result = evaluator.invokeFunction( (Identifier) node.value , values( node.inputs ) );
+				if ( result.isVoid() ) {
+					throw new RuntimeException("Function "+((Identifier) node.value).getSymbol()+"() does not return a value");
+				}
+				return result.value();
+			case OPERATOR:
+				final OperatorType type = (OperatorType) node.value;
+				if ( type == OperatorType.AND )
+				{
+					for ( Node input : node.inputs ) {
+						if ( ! (Boolean) value( input ) ) {
+							return Boolean.FALSE;
+						}
+					}
+					return Boolean.TRUE;
+				}
+				if ( type == OperatorType.OR )
+				{
+					for ( Node input : node.inputs ) {
+						if ( (Boolean) value( input ) ) {
+							return Boolean.TRUE;
+						}
+					}
+					return Boolean.FALSE;
+				}
+				return type.apply( values( node.inputs ) );
+			default:
+				throw new RuntimeException("Internal error, unhandled node kind "+node.kind);
+		}
+	}
+
+	private List<Object> values(Node[] inputs)
+	{
+		if ( inputs.length == 0 ) {
+			return Collections.emptyList();
+		}
+		final List<Object> result = new ArrayList<>( inputs.length );
+		for ( Node input : inputs ) {
+			result.add( value( input ) );
+		}
+		return result;
+	}
+}
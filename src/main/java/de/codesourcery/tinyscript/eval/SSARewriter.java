@@ -44,8 +44,13 @@ public class SSARewriter
 		switch(tree.getNodeType() ) 
 		{
 			case AST:
-				for ( ASTNode child : tree.children() ) {
-					rewrite( child );
+				for ( ASTNode child : tree.children() ) 
+				{
+					if ( child.getNodeType() == NodeType.VARIABLE ) {
+						addAssignment( child.copyNode() ); // statement consisting of a single variable still yields a value
+					} else {
+						rewrite( child );
+					}
 				}
 				return null;		
 			case BOOLEAN:
@@ -69,11 +74,22 @@ public class SSARewriter
 						ids.add( child.copySubtree() );
 						continue;
 					}
+					if ( child.getNodeType() == NodeType.VARIABLE ) {
+						ids.add( child.copyNode() );
+						continue;
+					}
 					Identifier id = rewrite( child );
 					if ( id == null ) {
 						throw new RuntimeException("Internal error");
 					}
-					ids.add(new VariableNode( id ) );
+					if ( isAssignment( child ) ) {
+						ids.add( child.child(0).copyNode() );
+						continue;
+					}
+					final VariableNode tmp = new VariableNode( id );
+					tmp.isGenerated = true;
+					tmp.setDataType( child.getDataType() );
+					ids.add( tmp );
 				}
 				
 				final ASTNode newNode;
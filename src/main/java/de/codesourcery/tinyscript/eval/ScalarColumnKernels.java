@@ -0,0 +1,139 @@
+package de.codesourcery.tinyscript.eval;
+
+/**
+ * Plain Java implementation of {@link IColumnKernels}, used when the JDK Vector API is not available.
+ */
+public class ScalarColumnKernels implements IColumnKernels 
+{
+	@Override
+	public void arithmetic(OperatorType op, double[] a, double[] b, double[] out, int count) 
+	{
+		switch( op ) 
+		{
+			case PLUS:   for ( int i = 0 ; i < count ; i++ ) { out[i] = a[i] + b[i]; } break;
+			case MINUS:  for ( int i = 0 ; i < count ; i++ ) { out[i] = a[i] - b[i]; } break;
+			case TIMES:  for ( int i = 0 ; i < count ; i++ ) { out[i] = a[i] * b[i]; } break;
+			case DIVIDE: for ( int i = 0 ; i < count ; i++ ) { out[i] = a[i] / b[i]; } break;
+			default:
+				throw new IllegalArgumentException("Not an arithmetic operator: "+op);
+		}
+	}
+
+	@Override
+	public void arithmetic(OperatorType op, double[] a, double b, double[] out, int count) 
+	{
+		switch( op ) 
+		{
+			case PLUS:   for ( int i = 0 ; i < count ; i++ ) { out[i] = a[i] + b; } break;
+			case MINUS:  for ( int i = 0 ; i < count ; i++ ) { out[i] = a[i] - b; } break;
+			case TIMES:  for ( int i = 0 ; i < count ; i++ ) { out[i] = a[i] * b; } break;
+			case DIVIDE: for ( int i = 0 ; i < count ; i++ ) { out[i] = a[i] / b; } break;
+			default:
+				throw new IllegalArgumentException("Not an arithmetic operator: "+op);
+		}
+	}
+
+	@Override
+	public void arithmetic(OperatorType op, long[] a, long[] b, long[] out, int count) 
+	{
+		switch( op ) 
+		{
+			case PLUS:   for ( int i = 0 ; i < count ; i++ ) { out[i] = a[i] + b[i]; } break;
+			case MINUS:  for ( int i = 0 ; i < count ; i++ ) { out[i] = a[i] - b[i]; } break;
+			case TIMES:  for ( int i = 0 ; i < count ; i++ ) { out[i] = a[i] * b[i]; } break;
+			case DIVIDE: for ( int i = 0 ; i < count ; i++ ) { out[i] = a[i] / b[i]; } break;
+			default:
+				throw new IllegalArgumentException("Not an arithmetic operator: "+op);
+		}
+	}
+
+	@Override
+	public void arithmetic(OperatorType op, long[] a, long b, long[] out, int count) 
+	{
+		switch( op ) 
+		{
+			case PLUS:   for ( int i = 0 ; i < count ; i++ ) { out[i] = a[i] + b; } break;
+			case MINUS:  for ( int i = 0 ; i < count ; i++ ) { out[i] = a[i] - b; } break;
+			case TIMES:  for ( int i = 0 ; i < count ; i++ ) { out[i] = a[i] * b; } break;
+			case DIVIDE: for ( int i = 0 ; i < count ; i++ ) { out[i] = a[i] / b; } break;
+			default:
+				throw new IllegalArgumentException("Not an arithmetic operator: "+op);
+		}
+	}
+
+	@Override
+	public void compare(OperatorType op, double[] a, double[] b, long[] bitmap, int count) 
+	{
+		for ( int i = 0 ; i < count ; i++ ) {
+			setBit( bitmap , i , compare( op , a[i] , b[i] ) );
+		}
+	}
+
+	@Override
+	public void compare(OperatorType op, double[] a, double b, long[] bitmap, int count) 
+	{
+		for ( int i = 0 ; i < count ; i++ ) {
+			setBit( bitmap , i , compare( op , a[i] , b ) );
+		}
+	}
+
+	@Override
+	public void compare(OperatorType op, long[] a, long[] b, long[] bitmap, int count) 
+	{
+		for ( int i = 0 ; i < count ; i++ ) {
+			setBit( bitmap , i , compare( op , a[i] , b[i] ) );
+		}
+	}
+
+	@Override
+	public void compare(OperatorType op, long[] a, long b, long[] bitmap, int count) 
+	{
+		for ( int i = 0 ; i < count ; i++ ) {
+			setBit( bitmap , i , compare( op , a[i] , b ) );
+		}
+	}
+	
+	/**
+	 * Sets or clears a bit, also used for the tail loops of vectorized kernels.
+	 */
+	public static void setBit(long[] bitmap,int index,boolean value) 
+	{
+		if ( value ) {
+			bitmap[ index >>> 6 ] |= 1L << index;
+		} else {
+			bitmap[ index >>> 6 ] &= ~( 1L << index );
+		}
+	}
+	
+	public static boolean compare(OperatorType op,double a,double b) 
+	{
+		return compare( op , toOrderedBits( a ) , toOrderedBits( b ) );
+	}
+	
+	/**
+	 * Maps a double to a long so that comparing the longs yields the same result as {@link Double#compare(double, double)}.
+	 * 
+	 * The bits of negative values get inverted (except for the sign) since IEEE 754 stores sign and magnitude, 
+	 * all NaNs are mapped to the canonical NaN first.
+	 */
+	public static long toOrderedBits(double value) 
+	{
+		final long bits = Double.doubleToLongBits( value );
+		return bits ^ ( ( bits >> 63 ) & Long.MAX_VALUE );
+	}
+	
+	public static boolean compare(OperatorType op,long a,long b) 
+	{
+		switch( op ) 
+		{
+			case GT:  return a > b;
+			case GTE: return a >= b;
+			case LT:  return a < b;
+			case LTE: return a <= b;
+			case EQ:  return a == b;
+			case NEQ: return a != b;
+			default:
+				throw new IllegalArgumentException("Not a comparison operator: "+op);
+		}
+	}
+}
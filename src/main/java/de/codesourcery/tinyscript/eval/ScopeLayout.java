@@ -0,0 +1,93 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns each declared variable a fixed slot index.
+ * 
+ * @see VariableBinder
+ * @see ISlotScope
+ */
+public final class ScopeLayout 
+{
+	private final Map<Identifier,Integer> slots = new HashMap<>();
+	private final List<Identifier> names = new ArrayList<>();
+	private final List<Class<?>> types = new ArrayList<>();
+	
+	public synchronized int declare(Identifier name,Class<?> type) 
+	{
+		final Integer existing = slots.get( name );
+		if ( existing != null ) 
+		{
+			final Class<?> existingType = types.get( existing );
+			if ( existingType != null && type != null && existingType != type ) {
+				throw new IllegalArgumentException("Variable "+name+" is already declared with type "+existingType.getName()+" , cannot redeclare it as "+type.getName());
+			}
+			if ( existingType == null ) {
+				types.set( existing , type );
+			}
+			return existing;
+		}
+		final int slot = names.size();
+		slots.put( name , slot );
+		names.add( name );
+		types.add( type );
+		return slot;
+	}
+	
+	public int declare(String name,Class<?> type) {
+		return declare( new Identifier( name ) , type );
+	}
+	
+	/**
+	 * 
+	 * @param name
+	 * @return slot index or -1 if the variable has not been declared
+	 */
+	public synchronized int getSlot(Identifier name) {
+		final Integer result = slots.get( name );
+		return result == null ? -1 : result;
+	}
+	
+	public synchronized Identifier getName(int slot) {
+		return names.get( slot );
+	}
+	
+	public synchronized Class<?> getType(int slot) {
+		return types.get( slot );
+	}
+	
+	/**
+	 * Returns the type a variable of the given type is stored as 
+	 * by {@link SlotScope}.
+	 * 
+	 * @return <code>long</code>, <code>double</code>, <code>boolean</code> or <code>Object</code>
+	 */
+	public static Class<?> getStorageType(Class<?> type) 
+	{
+		if ( type == Long.class || type == Integer.class || type == Short.class || type == Byte.class ||
+			 type == Long.TYPE || type == Integer.TYPE || type == Short.TYPE || type == Byte.TYPE ) 
+		{
+			return Long.TYPE;
+		}
+		if ( type == Double.class || type == Float.class || type == Double.TYPE || type == Float.TYPE ) {
+			return Double.TYPE;
+		}
+		if ( type == Boolean.class || type == Boolean.TYPE ) {
+			return Boolean.TYPE;
+		}
+		return Object.class;
+	}
+	
+	public synchronized int size() {
+		return names.size();
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return "ScopeLayout"+names;
+	}
+}
@@ -0,0 +1,307 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.util.Arrays;
+
+/**
+ * Stores variables in arrays indexed by their slot.
+ *
+ * Variables with an integral or boolean type are kept in a <code>long[]</code>,
+ * floating-point variables in a <code>double[]</code> and everything else
+ * in an <code>Object[]</code> so that the typed accessors never need to box.
+ *
+ * Reading a variable that has been declared but never assigned fails like reading an unknown variable.
+ */
+public class SlotScope implements ISlotScope
+{
+	private static final byte KIND_UNKNOWN = 0;
+	private static final byte KIND_OBJECT = 1;
+	private static final byte KIND_LONG = 2;
+	private static final byte KIND_DOUBLE = 3;
+	private static final byte KIND_BOOLEAN = 4;
+
+	private final ScopeLayout layout;
+
+	private byte[] kinds;
+	private boolean[] assigned;
+	private Class<?>[] types;
+	private Object[] values;
+	private long[] longs;
+	private double[] doubles;
+
+	public SlotScope(ScopeLayout layout)
+	{
+		this.layout = layout;
+		final int size = layout.size();
+		this.kinds = new byte[ size ];
+		this.assigned = new boolean[ size ];
+		this.types = new Class<?>[ size ];
+		this.values = new Object[ size ];
+		this.longs = new long[ size ];
+		this.doubles = new double[ size ];
+	}
+
+	@Override
+	public ScopeLayout getLayout() {
+		return layout;
+	}
+
+	private byte kind(int slot)
+	{
+		if ( slot >= kinds.length ) {
+			grow();
+		}
+		final byte kind = kinds[slot];
+		return kind != KIND_UNKNOWN ? kind : resolveKind( slot );
+	}
+
+	private byte resolveKind(int slot)
+	{
+		final Class<?> type = layout.getType( slot );
+		if ( type == null ) {
+			return KIND_OBJECT; // type not known yet
+		}
+		final Class<?> storageType = ScopeLayout.getStorageType( type );
+		final byte kind;
+		if ( storageType == Long.TYPE ) {
+			kind = KIND_LONG;
+		} else if ( storageType == Double.TYPE ) {
+			kind = KIND_DOUBLE;
+		} else if ( storageType == Boolean.TYPE ) {
+			kind = KIND_BOOLEAN;
+		} else {
+			kind = KIND_OBJECT;
+		}
+
+		final Object existing = values[slot];
+		kinds[slot] = kind;
+		types[slot] = type;
+		if ( kind != KIND_OBJECT && existing != null )
+		{
+			// value got written before the type of the slot was known
+			values[slot] = null;
+			writeSlot( slot , existing );
+		}
+		return kind;
+	}
+
+	private void grow()
+	{
+		final int size = layout.size();
+		kinds = Arrays.copyOf( kinds , size );
+		assigned = Arrays.copyOf( assigned , size );
+		types = Arrays.copyOf( types , size );
+		values = Arrays.copyOf( values , size );
+		longs = Arrays.copyOf( longs , size );
+		doubles = Arrays.copyOf( doubles , size );
+	}
+
+	private byte kindForRead(int slot)
+	{
+		final byte kind = kind( slot );
+		if ( ! assigned[slot] ) {
+			throw new RuntimeException("Unknown variable "+layout.getName( slot )+" , it has not been assigned yet");
+		}
+		return kind;
+	}
+
+	private byte kindForWrite(int slot)
+	{
+		final byte kind = kind( slot );
+		assigned[slot] = true;
+		return kind;
+	}
+
+	@Override
+	public Object readSlot(int slot)
+	{
+		switch( kindForRead( slot ) )
+		{
+			case KIND_LONG:
+				final long l = longs[slot];
+				final Class<?> type = types[slot];
+				if ( type == Integer.class ) {
+					return Integer.valueOf( (int) l );
+				} else if ( type == Short.class ) {
+					return Short.valueOf( (short) l );
+				} else if ( type == Byte.class ) {
+					return Byte.valueOf( (byte) l );
+				}
+				return Long.valueOf( l );
+			case KIND_DOUBLE:
+				if ( types[slot] == Float.class ) {
+					return Float.valueOf( (float) doubles[slot] );
+				}
+				return Double.valueOf( doubles[slot] );
+			case KIND_BOOLEAN:
+				return Boolean.valueOf( longs[slot] != 0 );
+			default:
+				return values[slot];
+		}
+	}
+
+	@Override
+	public void writeSlot(int slot, Object value)
+	{
+		switch( kindForWrite( slot ) )
+		{
+			case KIND_LONG:
+				longs[slot] = ((Number) value).longValue();
+				break;
+			case KIND_DOUBLE:
+				doubles[slot] = ((Number) value).doubleValue();
+				break;
+			case KIND_BOOLEAN:
+				longs[slot] = ((Boolean) value).booleanValue() ? 1 : 0;
+				break;
+			default:
+				values[slot] = value;
+		}
+	}
+
+	@Override
+	public long readLong(int slot)
+	{
+		switch( kindForRead( slot ) ) {
+			case KIND_LONG:
+				return longs[slot];
+			case KIND_DOUBLE:
+				return (long) doubles[slot];
+			default:
+				return ISlotScope.super.readLong( slot );
+		}
+	}
+
+	@Override
+	public double readDouble(int slot)
+	{
+		switch( kindForRead( slot ) ) {
+			case KIND_LONG:
+				return longs[slot];
+			case KIND_DOUBLE:
+				return doubles[slot];
+			default:
+				return ISlotScope.super.readDouble( slot );
+		}
+	}
+
+	@Override
+	public boolean readBoolean(int slot)
+	{
+		if ( kindForRead( slot ) == KIND_BOOLEAN ) {
+			return longs[slot] != 0;
+		}
+		return ISlotScope.super.readBoolean( slot );
+	}
+
+	@Override
+	public void writeLong(int slot, long value)
+	{
+		switch( kindForWrite( slot ) ) {
+			case KIND_LONG:
+				longs[slot] = value;
+				break;
+			case KIND_DOUBLE:
+				doubles[slot] = value;
+				break;
+			default:
+				ISlotScope.super.writeLong( slot , value );
+		}
+	}
+
+	@Override
+	public void writeDouble(int slot, double value)
+	{
+		switch( kindForWrite( slot ) ) {
+			case KIND_LONG:
+				longs[slot] = (long) value;
+				break;
+			case KIND_DOUBLE:
+				doubles[slot] = value;
+				break;
+			default:
+				ISlotScope.super.writeDouble( slot , value );
+		}
+	}
+
+	@Override
+	public void writeBoolean(int slot, boolean value)
+	{
+		if ( kindForWrite( slot ) == KIND_BOOLEAN ) {
+			longs[slot] = value ? 1 : 0;
+		} else {
+			ISlotScope.super.writeBoolean( slot , value );
+		}
+	}
+
+	@Override
+	public Object readVariable(Identifier name) {
+		return readSlot( getSlot( name ) );
+	}
+
+	@Override
+	public void writeVariable(Identifier name, Object value) {
+		writeSlot( getSlot( name ) , value );
+	}
+
+	@Override
+	public long readLong(Identifier name) {
+		return readLong( getSlot( name ) );
+	}
+
+	@Override
+	public double readDouble(Identifier name) {
+		return readDouble( getSlot( name ) );
+	}
+
+	@Override
+	public boolean readBoolean(Identifier name) {
+		return readBoolean( getSlot( name ) );
+	}
+
+	@Override
+	public void writeLong(Identifier name, long value) {
+		writeLong( getSlot( name ) , value );
+	}
+
+	@Override
+	public void writeDouble(Identifier name, double value) {
+		writeDouble( getSlot( name ) , value );
+	}
+
+	@Override
+	public void writeBoolean(Identifier name, boolean value) {
+		writeBoolean( getSlot( name ) , value );
+	}
+
+	@Override
+	public Class<?> getDataType(Identifier name)
+	{
+		final int slot = getSlot( name );
+		final Class<?> type = layout.getType( slot );
+		if ( type != null ) {
+			return type;
+		}
+		if ( slot >= assigned.length || ! assigned[slot] ) {
+			return null;
+		}
+		final Object value = readSlot( slot );
+		return value == null ? null : value.getClass();
+	}
+
+	private int getSlot(Identifier name)
+	{
+		final int slot = layout.getSlot( name );
+		if ( slot == -1 ) {
+			throw new RuntimeException("Unknown variable "+name);
+		}
+		return slot;
+	}
+
+	public void clear()
+	{
+		Arrays.fill( assigned , false );
+		Arrays.fill( values , null );
+		Arrays.fill( longs , 0 );
+		Arrays.fill( doubles , 0 );
+	}
+}
@@ -0,0 +1,136 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.reflect.Method;
+
+/**
+ * Bootstrap for the <code>invokedynamic</code> call sites {@link MethodBodyWriter} emits
+ * for function calls on the target object.
+ *
+ * Call sites get linked against the runtime class of the receiver, so one compiled
+ * expression can be used with any target object that provides matching methods.
+ * Each call site keeps a polymorphic inline cache of up to {@link #MAX_POLYMORPHIC_DEPTH}
+ * receiver classes, once more classes have been seen the call site turns megamorphic and
+ * dispatches through a per-call-site {@link ClassValue}.
+ */
+public final class TargetCallSites
+{
+	public static final int MAX_POLYMORPHIC_DEPTH = 4;
+
+	public static final String BOOTSTRAP_METHOD_NAME = "bootstrap";
+
+	public static final String BOOTSTRAP_METHOD_DESCRIPTOR = MethodType.methodType( CallSite.class , Lookup.class , String.class , MethodType.class ).toMethodDescriptorString();
+
+	private static final MethodHandle CHECK_CLASS;
+	private static final MethodHandle FALLBACK;
+	private static final MethodHandle SELECT;
+
+	static
+	{
+		final Lookup lookup = MethodHandles.lookup();
+		try {
+			CHECK_CLASS = lookup.findStatic( TargetCallSites.class , "checkClass" , MethodType.methodType( boolean.class , Class.class , Object.class ) );
+			FALLBACK = lookup.findStatic( TargetCallSites.class , "fallback" , MethodType.methodType( Object.class , InlineCacheCallSite.class , Object[].class ) );
+			SELECT = lookup.findStatic( TargetCallSites.class , "select" , MethodType.methodType( MethodHandle.class , InlineCacheCallSite.class , Object.class ) );
+		}
+		catch (NoSuchMethodException | IllegalAccessException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	protected static final class InlineCacheCallSite extends MutableCallSite
+	{
+		public final String methodName;
+		public int depth;
+
+		public final ClassValue<MethodHandle> megamorphicCache = new ClassValue<MethodHandle>()
+		{
+			@Override
+			protected MethodHandle computeValue(Class<?> receiverClass) {
+				return link( receiverClass , methodName , type() );
+			}
+		};
+
+		public InlineCacheCallSite(String methodName,MethodType type) {
+			super(type);
+			this.methodName = methodName;
+		}
+	}
+
+	private TargetCallSites() {
+	}
+
+	public static CallSite bootstrap(Lookup caller,String methodName,MethodType type)
+	{
+		final InlineCacheCallSite site = new InlineCacheCallSite( methodName , type );
+		site.setTarget( FALLBACK.bindTo( site ).asCollector( Object[].class , type.parameterCount() ).asType( type ) );
+		return site;
+	}
+
+	private static boolean checkClass(Class<?> expected,Object receiver) {
+		return receiver != null && receiver.getClass() == expected;
+	}
+
+	private static MethodHandle select(InlineCacheCallSite site,Object receiver) {
+		return site.megamorphicCache.get( getReceiverClass( site , receiver ) );
+	}
+
+	private static Object fallback(InlineCacheCallSite site,Object[] arguments) throws Throwable
+	{
+		final MethodType type = site.type();
+		final Class<?> receiverClass = getReceiverClass( site , arguments[0] );
+		final MethodHandle target;
+		synchronized( site )
+		{
+			if ( site.depth < MAX_POLYMORPHIC_DEPTH )
+			{
+				target = link( receiverClass , site.methodName , type );
+				final MethodHandle test = MethodHandles.dropArguments( CHECK_CLASS.bindTo( receiverClass ) , 1 , type.parameterList().subList( 1 , type.parameterCount() ) );
+				site.setTarget( MethodHandles.guardWithTest( test , target , site.getTarget() ) );
+				site.depth++;
+			}
+			else
+			{
+				target = site.megamorphicCache.get( receiverClass );
+				final MethodHandle selector = SELECT.bindTo( site );
+				site.setTarget( MethodHandles.foldArguments( MethodHandles.exactInvoker( type ) , selector ) );
+			}
+		}
+		return target.invokeWithArguments( arguments );
+	}
+
+	private static Class<?> getReceiverClass(InlineCacheCallSite site,Object receiver)
+	{
+		if ( receiver == null ) {
+			throw new RuntimeException("Cannot perform function call "+site.methodName+"(), no target object set");
+		}
+		return receiver.getClass();
+	}
+
+	protected static MethodHandle link(Class<?> receiverClass,String methodName,MethodType type)
+	{
+		final Class<?>[] argumentTypes = type.dropParameterTypes( 0 , 1 ).parameterArray();
+		final Method method = Evaluator.findMethod( new Identifier( methodName ) , argumentTypes , receiverClass.getMethods() );
+
+		MethodHandle handle;
+		try {
+			handle = MethodHandles.publicLookup().unreflect( method );
+		}
+		catch (IllegalAccessException e)
+		{
+			// public method declared by a non-public class
+			method.setAccessible( true );
+			try {
+				handle = MethodHandles.lookup().unreflect( method );
+			} catch (IllegalAccessException e2) {
+				throw new RuntimeException("Failed to access "+method,e2);
+			}
+		}
+		return handle.asType( type );
+	}
+}
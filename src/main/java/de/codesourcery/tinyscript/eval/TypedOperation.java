@@ -0,0 +1,22 @@
+package de.codesourcery.tinyscript.eval;
+
+/**
+ * Implementation of an operator that is specialized for the (static) types of its operands.
+ * 
+ * Unlike {@link OperatorType#apply(Object, Object...)}, typed operations do not check the
+ * types of their operands but trust them to match the types determined by {@link Typer}.
+ * 
+ * @see OperatorBinder
+ */
+@FunctionalInterface
+public interface TypedOperation 
+{
+	/**
+	 * Applies the operation.
+	 * 
+	 * @param left first operand
+	 * @param right second operand, <code>null</code> for unary operators
+	 * @return result
+	 */
+	public Object apply(Object left,Object right);
+}
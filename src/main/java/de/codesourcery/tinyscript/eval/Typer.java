@@ -92,6 +92,7 @@ public class Typer {
 					} else {
 						types.put( lhs.name ,  type );
 					}
+					lhs.setDataType( type );
 					tree.setDataType( type );
 					return;
 				}
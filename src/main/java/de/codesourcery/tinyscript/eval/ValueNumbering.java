@@ -0,0 +1,181 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.codesourcery.tinyscript.ast.AST;
+import de.codesourcery.tinyscript.ast.ASTNode;
+import de.codesourcery.tinyscript.ast.FunctionCallNode;
+import de.codesourcery.tinyscript.ast.ILiteralNode;
+import de.codesourcery.tinyscript.ast.OperatorNode;
+import de.codesourcery.tinyscript.ast.VariableNode;
+
+/**
+ * Eliminates common sub-expressions from an AST in SSA form (as produced by {@link SSARewriter}).
+ *
+ * Every temporary gets a value number made up of its operator (or function) and the value numbers
+ * of its operands. A temporary that computes a value some earlier temporary already holds
+ * (for example <code>tmp_3 = a * b</code> and <code>tmp_7 = b * a</code>) gets removed and all
+ * later uses are redirected to the earlier temporary.
+ *
+ * Reads of user variables are numbered by the variable's name and the number of assignments to it
+ * seen so far, so <code>a * b</code> before and after an assignment to <code>a</code> are distinct values.
+ * Function calls are only merged if {@link #hasNoSideEffectsHook(Method)} returns <code>true</code> for
+ * the target method, which requires the AST to have been processed by {@link Typer}.
+ */
+public class ValueNumbering
+{
+	private final Map<String,VariableNode> valueNumbers = new HashMap<>();
+	private final Map<Identifier,VariableNode> replacements = new HashMap<>();
+	private final Map<Identifier,Integer> versions = new HashMap<>();
+
+	/**
+	 * Check whether invoking a method (with the same arguments) once instead of several times
+	 * changes the result of an expression.
+	 *
+	 * @param method
+	 * @return <code>true</code> if the method has no side effects, by default only methods annotated with {@link Pure}
+	 */
+	protected boolean hasNoSideEffectsHook(Method method) {
+		return method.isAnnotationPresent( Pure.class );
+	}
+
+	/**
+	 * Rewrites an AST in SSA form.
+	 *
+	 * @param ssa AST, gets modified in-place
+	 * @return rewritten AST
+	 */
+	public AST rewrite(AST ssa)
+	{
+		valueNumbers.clear();
+		replacements.clear();
+		versions.clear();
+
+		final AST result = new AST();
+		final List<ASTNode> statements = new ArrayList<>( ssa.children() );
+		for ( int i = 0 ; i < statements.size() ; i++ )
+		{
+			final ASTNode statement = substitute( statements.get(i) );
+			if ( isAssignment( statement ) && ((VariableNode) statement.child(0)).isGenerated )
+			{
+				final VariableNode lhs = (VariableNode) statement.child(0);
+				final String key = key( statement.child(1) );
+				if ( key != null )
+				{
+					final VariableNode existing = valueNumbers.get( key );
+					if ( existing != null )
+					{
+						replacements.put( lhs.name , existing );
+						if ( i == statements.size()-1 ) {
+							// value of the last statement is the result of the whole AST
+							result.add( existing.copyNode() );
+						}
+						continue;
+					}
+					valueNumbers.put( key , lhs );
+				}
+			} else {
+				countAssignments( statement );
+			}
+			result.add( statement );
+		}
+		return result;
+	}
+
+	private ASTNode substitute(ASTNode node)
+	{
+		if ( node instanceof VariableNode && ((VariableNode) node).isGenerated )
+		{
+			final VariableNode replacement = replacements.get( ((VariableNode) node).name );
+			if ( replacement != null ) {
+				return replacement.copyNode();
+			}
+			return node;
+		}
+		for ( int i = 0 ; i < node.getChildCount() ; i++ )
+		{
+			final ASTNode child = node.child(i);
+			final ASTNode newChild = substitute( child );
+			if ( newChild != child ) {
+				node.replaceChild( i , newChild );
+			}
+		}
+		return node;
+	}
+
+	private void countAssignments(ASTNode node)
+	{
+		for ( ASTNode child : node.children() ) {
+			countAssignments( child );
+		}
+		if ( isAssignment( node ) && ! ((VariableNode) node.child(0)).isGenerated ) {
+			versions.merge( ((VariableNode) node.child(0)).name , 1 , Integer::sum );
+		}
+	}
+
+	/**
+	 * Returns the value number of an expression or <code>null</code> if the expression
+	 * must not be merged with others.
+	 */
+	private String key(ASTNode node)
+	{
+		switch( node.getNodeType() )
+		{
+			case BOOLEAN:
+			case NUMBER:
+			case STRING:
+				final Object value = ((ILiteralNode) node).value();
+				return value.getClass().getSimpleName()+":"+value;
+			case VARIABLE:
+				final VariableNode variable = (VariableNode) node;
+				if ( variable.isGenerated ) {
+					return "%"+variable.name.getSymbol();
+				}
+				return variable.name.getSymbol()+"#"+versions.getOrDefault( variable.name , 0 );
+			case FUNCTION_CALL:
+				final Method method = ((FunctionCallNode) node).targetMethod;
+				if ( method == null || method.getReturnType() == Void.TYPE || ! hasNoSideEffectsHook( method ) ) {
+					return null;
+				}
+				return operandKeys( method.getName()+"()" , node , false );
+			case OPERATOR:
+				final OperatorType type = ((OperatorNode) node).type;
+				if ( type == OperatorType.ASSIGNMENT ) {
+					return null;
+				}
+				return operandKeys( type.name() , node , isCommutative( type ) );
+			default:
+				return null;
+		}
+	}
+
+	private String operandKeys(String prefix,ASTNode node,boolean sort)
+	{
+		final List<String> keys = new ArrayList<>();
+		for ( ASTNode child : node.children() )
+		{
+			final String key = key( child );
+			if ( key == null ) {
+				return null;
+			}
+			keys.add( key );
+		}
+		if ( sort ) {
+			Collections.sort( keys );
+		}
+		return prefix+keys;
+	}
+
+	private static boolean isCommutative(OperatorType type) {
+		return type == OperatorType.AND || type == OperatorType.OR || type == OperatorType.EQ || type == OperatorType.NEQ || type == OperatorType.TIMES;
+	}
+
+	private static boolean isAssignment(ASTNode node) {
+		return node instanceof OperatorNode && ((OperatorNode) node).type == OperatorType.ASSIGNMENT && node.child(0) instanceof VariableNode;
+	}
+}
@@ -0,0 +1,71 @@
+package de.codesourcery.tinyscript.eval;
+
+import de.codesourcery.tinyscript.ast.ASTNode;
+import de.codesourcery.tinyscript.ast.OperatorNode;
+import de.codesourcery.tinyscript.ast.VariableNode;
+
+/**
+ * Resolves all variables of an AST to the slot indices of a {@link ScopeLayout}.
+ * 
+ * Variables that are the target of an assignment get declared in the layout 
+ * if they do not exist yet, all other variables need to be declared beforehand.
+ * 
+ * Bound variables remember their layout, evaluating them against a scope whose layout
+ * assigns them a different slot fails (see {@link #checkBinding(VariableNode, ISlotScope)}).
+ */
+public class VariableBinder 
+{
+	private final ScopeLayout layout;
+	
+	public VariableBinder(ScopeLayout layout) {
+		this.layout = layout;
+	}
+	
+	public void bind(ASTNode tree) 
+	{
+		if ( tree instanceof OperatorNode && ((OperatorNode) tree).type == OperatorType.ASSIGNMENT ) 
+		{
+			final ASTNode rhs = tree.child(1);
+			bind( rhs );
+			
+			if ( !( tree.child(0) instanceof VariableNode ) ) {
+				throw new IllegalArgumentException("LHS of assignment is no variable but "+tree.child(0));
+			}
+			final VariableNode lhs = (VariableNode) tree.child(0);
+			final Class<?> type = rhs.getDataType() != null ? rhs.getDataType() : lhs.getDataType();
+			lhs.slot = layout.declare( lhs.name , type == null ? null : MethodBodyWriter.getBoxedType( type ) );
+			lhs.layout = layout;
+			return;
+		}
+		
+		if ( tree instanceof VariableNode ) 
+		{
+			final VariableNode variable = (VariableNode) tree;
+			final int slot = layout.getSlot( variable.name );
+			if ( slot == -1 ) {
+				throw new RuntimeException("Unknown variable "+variable.name+" , not declared in "+layout);
+			}
+			variable.slot = slot;
+			variable.layout = layout;
+			return;
+		}
+		
+		for ( ASTNode child : tree.children() ) {
+			bind( child );
+		}
+	}
+	
+	/**
+	 * Checks that a bound variable occupies the same slot in the layout of a scope
+	 * as in the layout it has been bound against.
+	 * 
+	 * @throws RuntimeException if the scope uses a different layout 
+	 */
+	public static void checkBinding(VariableNode variable,ISlotScope scope) 
+	{
+		final ScopeLayout actual = scope.getLayout();
+		if ( variable.layout != actual && actual.getSlot( variable.name ) != variable.slot ) {
+			throw new RuntimeException("Variable "+variable.name+" has been bound to slot "+variable.slot+" of another layout than "+actual);
+		}
+	}
+}
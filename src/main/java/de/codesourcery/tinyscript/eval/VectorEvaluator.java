@@ -0,0 +1,514 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import de.codesourcery.tinyscript.ast.ASTNode;
+import de.codesourcery.tinyscript.ast.ILiteralNode;
+import de.codesourcery.tinyscript.ast.OperatorNode;
+import de.codesourcery.tinyscript.ast.VariableNode;
+import de.codesourcery.tinyscript.eval.BatchEvaluator.Batch;
+import de.codesourcery.tinyscript.eval.BatchEvaluator.Column;
+import de.codesourcery.tinyscript.eval.BatchEvaluator.ColumnType;
+
+/**
+ * Evaluates purely arithmetic or comparison expressions over the primitive columns of a {@link Batch}
+ * (for example <code>a * b + c > d</code>) using SIMD instructions if available.
+ *
+ * Each operator is lowered to a loop of {@link IColumnKernels}. By default, the kernels use the JDK Vector API
+ * if the code was built with the <code>vector-api</code> profile and <code>jdk.incubator.vector</code> is available
+ * at runtime (see {@link #getDefaultKernels()}), otherwise plain Java loops.
+ *
+ * Boolean results are bitmaps (bit <code>i % 64</code> of word <code>i / 64</code> is set if the expression is true for row <code>i</code>),
+ * AND/OR/NOT are performed on whole words. Use {@link #toSelection(long[], int)} to get a selection vector for
+ * {@link BatchEvaluator}.
+ *
+ * Supported are literals, numeric and boolean columns, arithmetic (long arithmetic if both operands are integral
+ * and wrapping around like Java does, otherwise floating-point), comparisons of numbers,
+ * <code>==</code>/<code>!=</code> on booleans as well as AND, OR and NOT. Unlike {@link BatchEvaluator},
+ * all operands are evaluated for all rows, so an integral division fails if any row divides by zero. Floating-point comparisons follow {@link Double#compare(double, double)}
+ * like they do in {@link BatchEvaluator} (see {@link IColumnKernels}). Use {@link #supports(ASTNode, Batch)} to check whether an expression can be evaluated.
+ */
+public class VectorEvaluator
+{
+	private static final String VECTOR_KERNELS = "de.codesourcery.tinyscript.eval.VectorColumnKernels";
+
+	private final IColumnKernels kernels;
+
+	private final Map<long[],double[]> converted = new IdentityHashMap<>();
+
+	private static enum Kind {
+		INTEGRAL,FLOATING,BOOLEAN;
+	}
+
+	/**
+	 * Intermediate result, either a constant or a column/bitmap with one value per row.
+	 */
+	private static final class Value
+	{
+		public final Kind kind;
+		public final boolean isConstant;
+		public final long longValue;
+		public final double doubleValue;
+		public final long[] longs; // long column or bitmap
+		public final double[] doubles;
+
+		private Value(Kind kind,boolean isConstant,long longValue,double doubleValue,long[] longs,double[] doubles)
+		{
+			this.kind = kind;
+			this.isConstant = isConstant;
+			this.longValue = longValue;
+			this.doubleValue = doubleValue;
+			this.longs = longs;
+			this.doubles = doubles;
+		}
+
+		public static Value of(long[] values,Kind kind) {
+			return new Value( kind , false , 0 , 0 , values , null );
+		}
+
+		public static Value of(double[] values) {
+			return new Value( Kind.FLOATING , false , 0 , 0 , null , values );
+		}
+
+		public static Value constant(long value) {
+			return new Value( Kind.INTEGRAL , true , value , value , null , null );
+		}
+
+		public static Value constant(double value) {
+			return new Value( Kind.FLOATING , true , 0 , value , null , null );
+		}
+	}
+
+	public VectorEvaluator() {
+		this( getDefaultKernels() );
+	}
+
+	public VectorEvaluator(IColumnKernels kernels) {
+		this.kernels = kernels;
+	}
+
+	public IColumnKernels getKernels() {
+		return kernels;
+	}
+
+	/**
+	 * Returns the Vector API kernels if available, otherwise {@link ScalarColumnKernels}.
+	 */
+	public static IColumnKernels getDefaultKernels()
+	{
+		try {
+			return (IColumnKernels) Class.forName( VECTOR_KERNELS ).getDeclaredConstructor().newInstance();
+		}
+		catch(Exception | LinkageError e) {
+			return new ScalarColumnKernels(); // not compiled or module jdk.incubator.vector not present
+		}
+	}
+
+	/**
+	 * Check whether an expression can be evaluated against a batch.
+	 */
+	public boolean supports(ASTNode node,Batch batch) {
+		return getKind( node , batch ) != null;
+	}
+
+	/**
+	 * Evaluates a floating-point expression.
+	 *
+	 * @return one value per row
+	 */
+	public double[] evaluateNumeric(ASTNode node,Batch batch)
+	{
+		if ( getKind( node , batch ) != Kind.FLOATING ) {
+			throw new IllegalArgumentException("Not a supported floating-point expression: "+node);
+		}
+		final Value result = evaluate( node , batch );
+		return result.isConstant ? fill( result.doubleValue , batch.getRowCount() ) : result.doubles;
+	}
+
+	/**
+	 * Evaluates an integral expression.
+	 *
+	 * @return one value per row
+	 */
+	public long[] evaluateIntegral(ASTNode node,Batch batch)
+	{
+		if ( getKind( node , batch ) != Kind.INTEGRAL ) {
+			throw new IllegalArgumentException("Not a supported integral expression: "+node);
+		}
+		final Value result = evaluate( node , batch );
+		if ( result.isConstant ) 
+		{
+			final long[] values = new long[ batch.getRowCount() ];
+			Arrays.fill( values , result.longValue );
+			return values;
+		}
+		return result.longs;
+	}
+
+	/**
+	 * Evaluates a boolean expression.
+	 *
+	 * @return bitmap with one bit per row
+	 */
+	public long[] evaluatePredicate(ASTNode node,Batch batch)
+	{
+		if ( getKind( node , batch ) != Kind.BOOLEAN ) {
+			throw new IllegalArgumentException("Not a supported boolean expression: "+node);
+		}
+		return evaluate( node , batch ).longs;
+	}
+
+	/**
+	 * Converts a bitmap into a selection vector with the indices of all rows whose bit is set.
+	 */
+	public static int[] toSelection(long[] bitmap,int rowCount)
+	{
+		int count = 0;
+		for ( long word : bitmap ) {
+			count += Long.bitCount( word );
+		}
+		final int[] result = new int[ count ];
+		int index = 0;
+		for ( int i = 0 ; i < bitmap.length ; i++ )
+		{
+			for ( long word = bitmap[i] ; word != 0 ; word &= word - 1 )
+			{
+				final int row = i * 64 + Long.numberOfTrailingZeros( word );
+				if ( row < rowCount ) {
+					result[ index++ ] = row;
+				}
+			}
+		}
+		return index == count ? result : Arrays.copyOf( result , index );
+	}
+
+	private Value evaluate(ASTNode node,Batch batch)
+	{
+		converted.clear();
+		try {
+			return eval( node , batch );
+		} finally {
+			converted.clear();
+		}
+	}
+
+	private Kind getKind(ASTNode node,Batch batch)
+	{
+		switch( node.getNodeType() )
+		{
+			case AST:
+			case EXPRESSION:
+				return node.getChildCount() == 1 ? getKind( node.child(0) , batch ) : null;
+			case BOOLEAN:
+				return Kind.BOOLEAN;
+			case NUMBER:
+				final Object value = ((ILiteralNode) node).value();
+				return NumericType.getType( value.getClass() ).isFloatingPoint() ? Kind.FLOATING : Kind.INTEGRAL;
+			case VARIABLE:
+				final Column column = batch.get( ((VariableNode) node).name );
+				if ( column == null ) {
+					return null;
+				}
+				switch( column.type ) {
+					case LONG: return Kind.INTEGRAL;
+					case DOUBLE: return Kind.FLOATING;
+					case BOOLEAN: return Kind.BOOLEAN;
+					default:
+						return null;
+				}
+			case OPERATOR:
+				break;
+			default:
+				return null;
+		}
+
+		final OperatorType op = ((OperatorNode) node).type;
+		if ( op == OperatorType.ASSIGNMENT ) {
+			return null;
+		}
+		if ( op == OperatorType.NOT ) {
+			return getKind( node.child(0) , batch ) == Kind.BOOLEAN ? Kind.BOOLEAN : null;
+		}
+		final Kind left = getKind( node.child(0) , batch );
+		final Kind right = getKind( node.child(1) , batch );
+		if ( left == null || right == null ) {
+			return null;
+		}
+		switch( op )
+		{
+			case AND:
+			case OR:
+				return left == Kind.BOOLEAN && right == Kind.BOOLEAN ? Kind.BOOLEAN : null;
+			case EQ:
+			case NEQ:
+				if ( left == Kind.BOOLEAN && right == Kind.BOOLEAN ) {
+					return Kind.BOOLEAN;
+				}
+				return left != Kind.BOOLEAN && right != Kind.BOOLEAN ? Kind.BOOLEAN : null;
+			case GT:
+			case GTE:
+			case LT:
+			case LTE:
+				return left != Kind.BOOLEAN && right != Kind.BOOLEAN ? Kind.BOOLEAN : null;
+			default:
+				if ( left == Kind.BOOLEAN || right == Kind.BOOLEAN ) {
+					return null;
+				}
+				return left == Kind.INTEGRAL && right == Kind.INTEGRAL ? Kind.INTEGRAL : Kind.FLOATING;
+		}
+	}
+
+	private Value eval(ASTNode node,Batch batch)
+	{
+		final int rowCount = batch.getRowCount();
+		switch( node.getNodeType() )
+		{
+			case AST:
+			case EXPRESSION:
+				return eval( node.child(0) , batch );
+			case BOOLEAN:
+				final long[] bitmap = new long[ words( rowCount ) ];
+				if ( (Boolean) ((ILiteralNode) node).value() ) {
+					Arrays.fill( bitmap , -1L );
+					clearTail( bitmap , rowCount );
+				}
+				return Value.of( bitmap , Kind.BOOLEAN );
+			case NUMBER:
+				final Number number = (Number) ((ILiteralNode) node).value();
+				return NumericType.getType( number.getClass() ).isFloatingPoint() ? Value.constant( number.doubleValue() ) : Value.constant( number.longValue() );
+			case VARIABLE:
+				final Column column = batch.get( ((VariableNode) node).name );
+				switch( column.type )
+				{
+					case LONG:
+						return Value.of( column.longs , Kind.INTEGRAL );
+					case DOUBLE:
+						return Value.of( column.doubles );
+					default:
+						final long[] result = new long[ words( rowCount ) ];
+						for ( int i = 0 ; i < rowCount ; i++ ) {
+							if ( column.booleans[i] ) {
+								result[ i >>> 6 ] |= 1L << i;
+							}
+						}
+						return Value.of( result , Kind.BOOLEAN );
+				}
+			default:
+		}
+
+		final OperatorType op = ((OperatorNode) node).type;
+		if ( op == OperatorType.NOT )
+		{
+			final long[] in = eval( node.child(0) , batch ).longs;
+			final long[] out = new long[ in.length ];
+			for ( int i = 0 ; i < in.length ; i++ ) {
+				out[i] = ~in[i];
+			}
+			clearTail( out , rowCount );
+			return Value.of( out , Kind.BOOLEAN );
+		}
+
+		Value left = eval( node.child(0) , batch );
+		Value right = eval( node.child(1) , batch );
+		switch( op )
+		{
+			case AND:
+			case OR:
+				return logical( op , left.longs , right.longs , rowCount );
+			case EQ:
+			case NEQ:
+				if ( left.kind == Kind.BOOLEAN ) {
+					return logical( op , left.longs , right.longs , rowCount );
+				}
+				return compare( op , left , right , rowCount );
+			case GT:
+			case GTE:
+			case LT:
+			case LTE:
+				return compare( op , left , right , rowCount );
+			default:
+		}
+
+		if ( left.kind == Kind.INTEGRAL && right.kind == Kind.INTEGRAL ) {
+			return integralArithmetic( op , left , right , rowCount );
+		}
+
+		// arithmetic with a floating-point result
+		if ( left.isConstant && right.isConstant ) {
+			return Value.constant( apply( op , left.doubleValue , right.doubleValue ) );
+		}
+		if ( left.isConstant && ( op == OperatorType.PLUS || op == OperatorType.TIMES ) )
+		{
+			final Value tmp = left;
+			left = right;
+			right = tmp;
+		}
+		final double[] out = new double[ rowCount ];
+		if ( right.isConstant ) {
+			kernels.arithmetic( op , toDoubles( left , rowCount ) , right.doubleValue , out , rowCount );
+		} else {
+			kernels.arithmetic( op , toDoubles( left , rowCount ) , toDoubles( right , rowCount ) , out , rowCount );
+		}
+		return Value.of( out );
+	}
+
+	private Value integralArithmetic(OperatorType op,Value left,Value right,int rowCount)
+	{
+		if ( left.isConstant && right.isConstant ) {
+			return Value.constant( apply( op , left.longValue , right.longValue ) );
+		}
+		if ( left.isConstant && ( op == OperatorType.PLUS || op == OperatorType.TIMES ) )
+		{
+			final Value tmp = left;
+			left = right;
+			right = tmp;
+		}
+		final long[] out = new long[ rowCount ];
+		if ( right.isConstant ) {
+			kernels.arithmetic( op , toLongs( left , rowCount ) , right.longValue , out , rowCount );
+		} else {
+			kernels.arithmetic( op , toLongs( left , rowCount ) , right.longs , out , rowCount );
+		}
+		return Value.of( out , Kind.INTEGRAL );
+	}
+
+	private Value compare(OperatorType op,Value left,Value right,int rowCount)
+	{
+		final long[] bitmap = new long[ words( rowCount ) ];
+		if ( left.isConstant && right.isConstant )
+		{
+			final boolean result = left.kind == Kind.INTEGRAL && right.kind == Kind.INTEGRAL ?
+					ScalarColumnKernels.compare( op , left.longValue , right.longValue ) : ScalarColumnKernels.compare( op , left.doubleValue , right.doubleValue );
+			if ( result ) {
+				Arrays.fill( bitmap , -1L );
+				clearTail( bitmap , rowCount );
+			}
+			return Value.of( bitmap , Kind.BOOLEAN );
+		}
+		if ( left.isConstant ) // 3 < x => x > 3
+		{
+			final Value tmp = left;
+			left = right;
+			right = tmp;
+			op = mirror( op );
+		}
+
+		if ( left.kind == Kind.INTEGRAL && right.kind == Kind.INTEGRAL )
+		{
+			if ( right.isConstant ) {
+				kernels.compare( op , left.longs , right.longValue , bitmap , rowCount );
+			} else {
+				kernels.compare( op , left.longs , right.longs , bitmap , rowCount );
+			}
+		}
+		else if ( right.isConstant ) {
+			kernels.compare( op , toDoubles( left , rowCount ) , right.doubleValue , bitmap , rowCount );
+		} else {
+			kernels.compare( op , toDoubles( left , rowCount ) , toDoubles( right , rowCount ) , bitmap , rowCount );
+		}
+		return Value.of( bitmap , Kind.BOOLEAN );
+	}
+
+	private static Value logical(OperatorType op,long[] a,long[] b,int rowCount)
+	{
+		final long[] out = new long[ a.length ];
+		switch( op )
+		{
+			case AND: for ( int i = 0 ; i < out.length ; i++ ) { out[i] = a[i] & b[i]; } break;
+			case OR:  for ( int i = 0 ; i < out.length ; i++ ) { out[i] = a[i] | b[i]; } break;
+			case NEQ: for ( int i = 0 ; i < out.length ; i++ ) { out[i] = a[i] ^ b[i]; } break;
+			default:
+				for ( int i = 0 ; i < out.length ; i++ ) { out[i] = ~( a[i] ^ b[i] ); } 
+				clearTail( out , rowCount );
+		}
+		return Value.of( out , Kind.BOOLEAN );
+	}
+	
+	private static double apply(OperatorType op,double a,double b)
+	{
+		switch( op )
+		{
+			case PLUS:   return NumericKernel.plus( a , b );
+			case MINUS:  return NumericKernel.minus( a , b );
+			case TIMES:  return NumericKernel.times( a , b );
+			default:
+				return NumericKernel.divide( a , b );
+		}
+	}
+
+	private static long apply(OperatorType op,long a,long b)
+	{
+		switch( op )
+		{
+			case PLUS:   return NumericKernel.plus( a , b );
+			case MINUS:  return NumericKernel.minus( a , b );
+			case TIMES:  return NumericKernel.times( a , b );
+			default:
+				return NumericKernel.divide( a , b );
+		}
+	}
+
+	private static long[] toLongs(Value value,int rowCount)
+	{
+		if ( value.isConstant )
+		{
+			final long[] result = new long[ rowCount ];
+			Arrays.fill( result , value.longValue );
+			return result;
+		}
+		return value.longs;
+	}
+
+	private double[] toDoubles(Value value,int rowCount)
+	{
+		if ( value.isConstant ) {
+			return fill( value.doubleValue , rowCount );
+		}
+		if ( value.kind == Kind.FLOATING ) {
+			return value.doubles;
+		}
+		double[] result = converted.get( value.longs );
+		if ( result == null )
+		{
+			result = new double[ rowCount ];
+			for ( int i = 0 ; i < rowCount ; i++ ) {
+				result[i] = value.longs[i];
+			}
+			converted.put( value.longs , result );
+		}
+		return result;
+	}
+
+	private static OperatorType mirror(OperatorType op)
+	{
+		switch( op )
+		{
+			case GT:  return OperatorType.LT;
+			case GTE: return OperatorType.LTE;
+			case LT:  return OperatorType.GT;
+			case LTE: return OperatorType.GTE;
+			default:
+				return op; // EQ,NEQ
+		}
+	}
+
+	private static double[] fill(double value,int rowCount)
+	{
+		final double[] result = new double[ rowCount ];
+		Arrays.fill( result , value );
+		return result;
+	}
+
+	private static int words(int rowCount) {
+		return ( rowCount + 63 ) >>> 6;
+	}
+
+	private static void clearTail(long[] bitmap,int rowCount)
+	{
+		if ( ( rowCount & 63 ) != 0 ) {
+			bitmap[ bitmap.length - 1 ] &= ( 1L << rowCount ) - 1;
+		}
+	}
+}
@@ -258,7 +258,17 @@ public class ExpressionParser {
 				num += "."+lexer.next().text;
 				parseListener.pushValue( Double.parseDouble( num ) );
 			} else {
-				parseListener.pushValue( Integer.parseInt( num ) );
+				try {
+					parseListener.pushValue( Integer.parseInt( num ) );
+				} 
+				catch(NumberFormatException e) 
+				{
+					try {
+						parseListener.pushValue( Long.parseLong( num ) ); // too large for an int
+					} catch(NumberFormatException e2) {
+						return error("Number out of range: "+num);
+					}
+				}
 			}
 			return success("Number "+num);
 		}
@@ -0,0 +1,123 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import de.codesourcery.tinyscript.ast.ASTNode;
+
+public class ASTSimplifierTest extends TestCase {
+
+	private final Map<Identifier,Object> vars = new HashMap<>();
+	
+	private final IScope scope = new IScope() 
+	{
+		@Override
+		public void writeVariable(Identifier name, Object value) {
+			vars.put(name,value);
+		}
+		
+		@Override
+		public Object readVariable(Identifier name) {
+			final Object result = vars.get(name);
+			if ( result == null ) {
+				throw new RuntimeException("Unknown variable "+name);
+			}
+			return result;
+		}
+		
+		@Override
+		public Class<?> getDataType(Identifier name) {
+			return readVariable( name ).getClass();
+		}
+	};
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		vars.clear();
+		vars.put( new Identifier("x") , 5 );
+		vars.put( new Identifier("y") , 5L );
+		vars.put( new Identifier("d") , 0.5d );
+		vars.put( new Identifier("flag") , Boolean.TRUE );
+	}
+	
+	public void testArithmeticIdentities() 
+	{
+		assertSimplifiesTo( "x" , "x*1" );
+		assertSimplifiesTo( "x" , "1*x" );
+		assertSimplifiesTo( "x" , "x+0" );
+		assertSimplifiesTo( "x" , "x-0" );
+		assertSimplifiesTo( "x" , "x/1" );
+		assertSimplifiesTo( "0" , "x*0" );
+		assertSimplifiesTo( "d" , "d*1" );
+		
+		// widening / floating point
+		assertSimplifiesTo( "y*1.5" , "y*1.5" );
+		assertSimplifiesTo( "d+0" , "d+0" );
+		assertSimplifiesTo( "d*0" , "d*0" );
+	}
+	
+	public void testReassociation() 
+	{
+		assertSimplifiesTo( "x+3" , "(x+1)+2" );
+		assertSimplifiesTo( "x+1" , "(x-1)+2" );
+		assertSimplifiesTo( "x*8" , "2*(x*4)" );
+		assertSimplifiesTo( "y+6" , "1+(y+2)+3" );
+		assertSimplifiesTo( "(d+1)+2" , "(d+1)+2" );
+	}
+	
+	public void testBooleanRules() 
+	{
+		assertSimplifiesTo( "flag" , "not not flag" );
+		assertSimplifiesTo( "flag" , "true and flag" );
+		assertSimplifiesTo( "flag" , "flag or false" );
+		assertSimplifiesTo( "true" , "flag or true" );
+		assertSimplifiesTo( "false" , "false and unknownFunction()" );
+		assertSimplifiesTo( "x > 3" , "true and x > 3" );
+		
+		// function might have side effects
+		assertSimplifiesTo( "unknownFunction() or true" , "unknownFunction() or true" );
+		
+		// division might fail
+		assertSimplifiesTo( "x / y > 1 or true" , "x / y > 1 or true" );
+		assertSimplifiesTo( "true" , "d / 2 > 1 or true" );
+		assertSimplifiesTo( "( x / y ) * 0" , "( x / y ) * 0" );
+	}
+	
+	public void testComparisonCanonicalization() 
+	{
+		assertSimplifiesTo( "x > 10" , "10 < x" );
+		assertSimplifiesTo( "x >= 10" , "not ( x < 10 )" );
+		assertSimplifiesTo( "x != 10" , "not ( 10 == x )" );
+		assertSimplifiesTo( "x > 4" , "not ( ( x + 1 ) - 1 <= 4 )" );
+		
+		// does not hold for NaN
+		assertSimplifiesTo( "not ( d < 10 )" , "not ( d < 10 )" );
+	}
+	
+	public void testRulesDisabled() 
+	{
+		final ASTSimplifier simplifier = newSimplifier();
+		simplifier.setApplyAlgebraicRules( false );
+		assertEquals( print( "x*1" ) , new ASTPrinter().print( simplifier.simplify( new ExpressionCompiler().parse( "x*1" ) , null ) ) );
+	}
+	
+	private void assertSimplifiesTo(String expected,String expression) 
+	{
+		final ASTNode actual = newSimplifier().simplify( new ExpressionCompiler().parse( expression ) , null );
+		assertEquals( expression , print( expected ) , new ASTPrinter().print( actual ) );
+	}
+	
+	private String print(String expression) {
+		return new ASTPrinter().print( new ExpressionCompiler().parse( expression ) );
+	}
+	
+	private ASTSimplifier newSimplifier() 
+	{
+		final ASTSimplifier simplifier = new ASTSimplifier();
+		simplifier.setScope( scope );
+		simplifier.setResolveVariables( false );
+		return simplifier;
+	}
+}
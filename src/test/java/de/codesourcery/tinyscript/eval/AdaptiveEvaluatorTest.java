@@ -0,0 +1,161 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import de.codesourcery.tinyscript.ast.AST;
+import de.codesourcery.tinyscript.ast.FunctionCallNode;
+
+public class AdaptiveEvaluatorTest extends TestCase {
+
+	public static final class TestTarget
+	{
+		public int expensiveCalls;
+		public int cheapCalls;
+
+		public Boolean expensive()
+		{
+			expensiveCalls++;
+			long sum = 0;
+			for ( int i = 0 ; i < 20000 ; i++ ) {
+				sum += i*i;
+			}
+			return sum > 0;
+		}
+
+		public Boolean cheap() {
+			cheapCalls++;
+			return cheapCalls % 10 == 0; // selective
+		}
+	}
+
+	public void testOperandsGetReordered()
+	{
+		final TestTarget target = new TestTarget();
+		final AST ast = new ExpressionCompiler().parseAndType( "expensive() and cheap()" , TestTarget.class );
+
+		final AdaptiveEvaluator evaluator = new AdaptiveEvaluator( target )
+		{
+			@Override
+			protected boolean hasNoSideEffectsHook(Method method) {
+				return true;
+			}
+
+			@Override
+			protected boolean cannotFailHook(Method method) {
+				return true;
+			}
+		};
+		evaluator.setReorderInterval( 100 );
+
+		for ( int i = 0 ; i < 100 ; i++ ) {
+			evaluator.evaluate( ast );
+		}
+		assertEquals( 100 , target.expensiveCalls );
+		assertEquals( "cheap" , ((FunctionCallNode) evaluator.getOperands( ast.child(0) ).get(0)).functionName.getSymbol() );
+		assertEquals( "expensive" , ((FunctionCallNode) ast.child(0).child(0)).functionName.getSymbol() ); // AST is unchanged
+
+		target.expensiveCalls = 0;
+		int matches = 0;
+		for ( int i = 0 ; i < 100 ; i++ ) {
+			if ( (Boolean) evaluator.evaluate( ast ).value() ) {
+				matches++;
+			}
+		}
+		assertEquals( 10 , matches );
+		assertEquals( 10 , target.expensiveCalls );
+	}
+
+	public void testReorderedASTCanBeCompiled() throws Exception
+	{
+		final TestTarget target = new TestTarget();
+		final AST ast = new ExpressionCompiler().parseAndType( "expensive() and cheap()" , TestTarget.class );
+
+		final AdaptiveEvaluator evaluator = new AdaptiveEvaluator( target )
+		{
+			@Override
+			protected boolean hasNoSideEffectsHook(Method method) {
+				return true;
+			}
+
+			@Override
+			protected boolean cannotFailHook(Method method) {
+				return true;
+			}
+		};
+		evaluator.setReorderInterval( 100 );
+		for ( int i = 0 ; i < 100 ; i++ ) {
+			evaluator.evaluate( ast );
+		}
+
+		final AST reordered = evaluator.getReorderedAST( ast );
+		assertEquals( "cheap" , ((FunctionCallNode) reordered.child(0).child(0)).functionName.getSymbol() );
+		assertEquals( "expensive" , ((FunctionCallNode) ast.child(0).child(0)).functionName.getSymbol() ); // AST is unchanged
+
+		final byte[] data = new ByteCodeWriter( "ReorderedExpression" ).compile( reordered , TestTarget.class );
+		final Class<?> cl = new ByteCodeCache.ByteCodeClassLoader( getClass().getClassLoader() ).define( "ReorderedExpression" , data );
+		final CompiledExpression<TestTarget> compiled = CompiledExpression.newInstance( cl , target , null );
+
+		target.expensiveCalls = 0;
+		target.cheapCalls = 0;
+		int matches = 0;
+		for ( int i = 0 ; i < 100 ; i++ ) {
+			if ( (Boolean) compiled.apply() ) {
+				matches++;
+			}
+		}
+		assertEquals( 10 , matches );
+		assertEquals( 10 , target.expensiveCalls );
+	}
+
+	public void testNoReorderingWithSideEffects()
+	{
+		final TestTarget target = new TestTarget();
+		final AST ast = new ExpressionCompiler().parseAndType( "expensive() and cheap()" , TestTarget.class );
+
+		final AdaptiveEvaluator evaluator = new AdaptiveEvaluator( target );
+		evaluator.setReorderInterval( 10 );
+		for ( int i = 0 ; i < 50 ; i++ ) {
+			evaluator.evaluate( ast );
+		}
+		assertEquals( 50 , target.expensiveCalls );
+		assertEquals( "expensive" , ((FunctionCallNode) evaluator.getOperands( ast.child(0) ).get(0)).functionName.getSymbol() );
+	}
+
+	public void testGuardsAreNotReordered()
+	{
+		final Map<Identifier,Object> variables = new HashMap<>();
+		variables.put( new Identifier("a") , 1 );
+		variables.put( new Identifier("b") , 1 );
+
+		final AST ast = new ExpressionCompiler().parse( "b != 0 and a / b > 2" );
+		final AdaptiveEvaluator evaluator = new AdaptiveEvaluator( null );
+		evaluator.setVariableResolver( new IScope()
+		{
+			@Override
+			public Object readVariable(Identifier name) {
+				return variables.get( name );
+			}
+
+			@Override
+			public void writeVariable(Identifier name, Object value) {
+				variables.put( name , value );
+			}
+
+			@Override
+			public Class<?> getDataType(Identifier name) {
+				return Integer.class;
+			}
+		});
+		evaluator.setReorderInterval( 100 );
+
+		// the division never short-circuits the chain while the guard always passes
+		for ( int i = 0 ; i < 1000 ; i++ ) {
+			assertEquals( Boolean.FALSE , evaluator.evaluate( ast ).value() );
+		}
+		variables.put( new Identifier("b") , 0 );
+		assertEquals( Boolean.FALSE , evaluator.evaluate( ast ).value() );
+	}
+}
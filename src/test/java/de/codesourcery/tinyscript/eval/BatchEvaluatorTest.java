@@ -0,0 +1,177 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import de.codesourcery.tinyscript.ast.AST;
+import de.codesourcery.tinyscript.eval.BatchEvaluator.Batch;
+import de.codesourcery.tinyscript.eval.BatchEvaluator.Column;
+import de.codesourcery.tinyscript.eval.BatchEvaluator.ColumnType;
+
+public class BatchEvaluatorTest extends TestCase 
+{
+	private static final long[] QTY = { 1 , 5 , 0 , 12 , -3 , 7 };
+	private static final double[] PRICE = { 9.5 , 120 , 3 , 0.25 , 50 , Double.NaN };
+	private static final boolean[] ACTIVE = { true , false , true , true , false , true };
+	private static final String[] NAME = { "a" , "b" , "c" , "d" , "e" , "f" };
+	
+	public static final class TestTarget 
+	{
+		public int calls;
+		
+		public Long twice(Long value) {
+			calls++;
+			return value * 2;
+		}
+		
+		public String lookup(Long value) {
+			return value > 0 ? "x" : null;
+		}
+		
+		public Long missing(Long value) {
+			return value > 10 ? null : value;
+		}
+		
+		public int triple(int value) {
+			return value * 3;
+		}
+		
+		public float half(float value) {
+			return value / 2;
+		}
+	}
+	
+	private final TestTarget target = new TestTarget();
+	private final BatchEvaluator evaluator = new BatchEvaluator( target );
+	
+	private final Batch batch = new Batch( QTY.length )
+			.add( "qty" , QTY )
+			.add( "price" , PRICE )
+			.add( "active" , ACTIVE )
+			.add( "name" , NAME );
+	
+	public void testMatchesEvaluator() 
+	{
+		final String[] expressions = { 
+			"qty * 3 - 1" , 
+			"price * qty > 40 or not active" , 
+			"qty / 2 + price" , 
+			"name + qty" , 
+			"qty == 5 or name == \"d\"" , 
+			"twice( qty ) >= 10 and price <= 50" ,
+			"x = qty + 1 ; x * x"
+		};
+		for ( String expression : expressions ) 
+		{
+			final AST ast = new ExpressionCompiler().parse( expression );
+			final Column column = evaluator.evaluate( ast , batch );
+			for ( int row = 0 ; row < QTY.length ; row++ ) {
+				assertEquals( expression+" , row "+row , normalize( evaluateRow( ast , row ) ) , column.get( row ) );
+			}
+		}
+	}
+	
+	public void testSelectionSkipsRows() 
+	{
+		final AST ast = new ExpressionCompiler().parse( "qty != 0 and twice( 10 / qty ) > 0" );
+		final int[] selection = evaluator.filter( ast , batch , BatchEvaluator.allRows( QTY.length ) );
+		assertEquals( 3 , selection.length );
+		assertEquals( 5 , target.calls ); // not for qty == 0 
+		
+		final int[] subset = evaluator.filter( new ExpressionCompiler().parse( "active" ) , batch , selection );
+		assertEquals( 2 , subset.length );
+		assertEquals( 0 , subset[0] );
+		assertEquals( 5 , subset[1] );
+	}
+	
+	public void testColumnTypes() 
+	{
+		assertEquals( ColumnType.DOUBLE , evaluator.evaluate( new ExpressionCompiler().parse( "qty + 0.5" ) , batch ).type );
+		assertEquals( ColumnType.LONG , evaluator.evaluate( new ExpressionCompiler().parse( "qty * 2" ) , batch ).type );
+		assertEquals( ColumnType.STRING , evaluator.evaluate( new ExpressionCompiler().parse( "name + 1" ) , batch ).type );
+	}
+	
+	public void testEmptySelection() 
+	{
+		final Column column = evaluator.evaluate( new ExpressionCompiler().parse( "twice( qty ) + 1" ) , batch , new int[0] );
+		assertEquals( ColumnType.LONG , column.type );
+		assertEquals( 0 , target.calls );
+	}
+	
+	public void testNullResults() 
+	{
+		final Column strings = evaluator.evaluate( new ExpressionCompiler().parse( "lookup( qty ) == \"x\"" ) , batch );
+		assertEquals( Boolean.FALSE , strings.get( 2 ) );
+		assertEquals( Boolean.TRUE , strings.get( 3 ) );
+		try {
+			evaluator.evaluate( new ExpressionCompiler().parse( "missing( qty ) + 1" ) , batch );
+			fail("Should've failed");
+		} 
+		catch(RuntimeException e) {
+			assertTrue( e.getMessage() , e.getMessage().contains("returned NULL for row 3") );
+		}
+	}
+	
+	public void testNarrowParameterTypes() 
+	{
+		final Column ints = evaluator.evaluate( new ExpressionCompiler().parse( "triple( 3 ) + qty" ) , batch );
+		assertEquals( ColumnType.LONG , ints.type );
+		for ( int row = 0 ; row < QTY.length ; row++ ) {
+			assertEquals( "row "+row , Long.valueOf( 9 + QTY[row] ) , ints.get( row ) );
+		}
+		final Column floats = evaluator.evaluate( new ExpressionCompiler().parse( "half( price )" ) , batch );
+		assertEquals( ColumnType.DOUBLE , floats.type );
+		assertEquals( Double.valueOf( 4.75 ) , floats.get( 0 ) );
+	}
+	
+	public void testAssignmentToSelectedRows() 
+	{
+		final Batch flags = new Batch( QTY.length )
+				.add( "qty" , QTY )
+				.add( "x" , new boolean[] { true , true , true , true , true , true } );
+		// x gets assigned only for rows with qty > 5, all other rows need to keep their values
+		final AST ast = new ExpressionCompiler().parse( "( qty > 5 and ( x = false ) ) or x" );
+		final Column column = evaluator.evaluate( ast , flags );
+		for ( int row = 0 ; row < QTY.length ; row++ ) {
+			assertEquals( "row "+row , Boolean.valueOf( QTY[row] <= 5 ) , column.get( row ) );
+		}
+	}
+	
+	private Object evaluateRow(AST ast,int row) 
+	{
+		final Map<Identifier,Object> vars = new HashMap<>();
+		vars.put( new Identifier("qty") , QTY[row] );
+		vars.put( new Identifier("price") , PRICE[row] );
+		vars.put( new Identifier("active") , ACTIVE[row] );
+		vars.put( new Identifier("name") , NAME[row] );
+		
+		final Evaluator rowEvaluator = new Evaluator( target );
+		rowEvaluator.setVariableResolver( new IScope() 
+		{
+			@Override
+			public void writeVariable(Identifier name, Object value) {
+				vars.put( name , value );
+			}
+			
+			@Override
+			public Object readVariable(Identifier name) {
+				return vars.get( name );
+			}
+			
+			@Override
+			public Class<?> getDataType(Identifier name) {
+				return vars.get( name ).getClass();
+			}
+		});
+		return rowEvaluator.evaluate( ast ).value();
+	}
+	
+	private static Object normalize(Object value) 
+	{
+		if ( value instanceof Integer ) {
+			return ((Integer) value).longValue();
+		}
+		return value;
+	}
+}
@@ -0,0 +1,135 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+public class ByteCodeCacheTest extends TestCase {
+
+	private File directory;
+
+	public static final class TestTarget {
+
+		public Integer value1() {
+			return 3;
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		directory = Files.createTempDirectory("tinyscript_cache").toFile();
+	}
+
+	@Override
+	protected void tearDown() throws Exception
+	{
+		super.tearDown();
+		final File[] files = directory.listFiles();
+		if ( files != null ) {
+			for ( File f : files ) {
+				f.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	public void testCompileAndReload() throws Exception
+	{
+		final int[] compileCount = { 0 };
+		final ByteCodeCache.ICompiler compiler = (className,source,targetClass) ->
+		{
+			compileCount[0]++;
+			return new ExpressionCompiler().compile( className , source , targetClass );
+		};
+
+		final ByteCodeCache cache1 = new ByteCodeCache( directory );
+		final Class<?> cl1 = cache1.getOrCompile( "CachedExpression1" , "value1()" , TestTarget.class , compiler );
+		assertEquals( 1 , compileCount[0] );
+		assertEquals( 3 , cache1.newInstance( cl1 , new TestTarget() , null ).apply() );
+
+		// simulates a restart
+		final ByteCodeCache cache2 = new ByteCodeCache( directory );
+		final Class<?> cl2 = cache2.getOrCompile( "CachedExpression1" , "value1()" , TestTarget.class , compiler );
+		assertEquals( 1 , compileCount[0] );
+		assertNotSame( cl1 , cl2 );
+		assertEquals( 3 , cache2.newInstance( cl2 , new TestTarget() , null ).apply() );
+
+		cache2.getOrCompile( "CachedExpression2" , "(1+4)*3" , TestTarget.class , compiler );
+		assertEquals( 2 , compileCount[0] );
+	}
+
+	public void testStaleEntriesAreInvalidated() throws Exception
+	{
+		final int[] compileCount = { 0 };
+		final ByteCodeCache.ICompiler compiler = (className,source,targetClass) ->
+		{
+			compileCount[0]++;
+			return new ExpressionCompiler().compile( className , source , targetClass );
+		};
+
+		new ByteCodeCache( directory ).getOrCompile( "CachedExpression3" , "value1()" , TestTarget.class , compiler );
+		assertEquals( 1 , compileCount[0] );
+
+		final ByteCodeCache changedTarget = new ByteCodeCache( directory )
+		{
+			@Override
+			protected String fingerprint(Class<?> targetClass) {
+				return super.fingerprint( targetClass )+"_changed";
+			}
+		};
+		assertNull( changedTarget.get( "CachedExpression3" , "value1()" , TestTarget.class ) );
+		assertEquals( 0 , directory.listFiles().length );
+
+		changedTarget.getOrCompile( "CachedExpression3" , "value1()" , TestTarget.class , compiler );
+		assertEquals( 2 , compileCount[0] );
+	}
+
+	public void testVariableTypesAndSlotsArePartOfTheKey() throws Exception
+	{
+		final int[] compileCount = { 0 };
+		final ScopeLayout longLayout = new ScopeLayout();
+		longLayout.declare( "x" , Long.class );
+		final ScopeLayout doubleLayout = new ScopeLayout();
+		doubleLayout.declare( "x" , Double.class );
+		final ScopeLayout shiftedLayout = new ScopeLayout();
+		shiftedLayout.declare( "y" , Long.class );
+		shiftedLayout.declare( "x" , Long.class );
+
+		final ByteCodeCache cache = new ByteCodeCache( directory );
+		for ( ScopeLayout layout : new ScopeLayout[] { longLayout , doubleLayout , shiftedLayout , longLayout } )
+		{
+			final ExpressionCompiler compiler = new ExpressionCompiler()
+			{
+				@Override
+				public byte[] compile(String className,String source,Class<?> targetClass)
+				{
+					compileCount[0]++;
+					return super.compile( className , source , targetClass );
+				}
+			};
+			final SlotScope scope = new SlotScope( layout );
+			compiler.setScope( scope );
+			scope.writeVariable( new Identifier("x") , layout == doubleLayout ? (Object) 1.5d : (Object) 2L );
+
+			final Class<?> cl = cache.getOrCompile( "CachedExpression5" , "x * 2" , TestTarget.class , compiler );
+			assertEquals( layout == doubleLayout ? (Object) 3.0d : (Object) 4L , cache.newInstance( cl , new TestTarget() , scope ).apply() );
+		}
+		// the last layout is the same as the first one
+		assertEquals( 3 , compileCount[0] );
+	}
+
+	public void testSameClassNameWithDifferentSource() throws Exception
+	{
+		final ByteCodeCache cache = new ByteCodeCache( directory );
+		final Class<?> cl1 = cache.getOrCompile( "CachedExpression4" , "value1()" , TestTarget.class );
+		final Class<?> cl2 = cache.getOrCompile( "CachedExpression4" , "value1() * 2" , TestTarget.class );
+		assertNotSame( cl1 , cl2 );
+		assertEquals( 3 , cache.newInstance( cl1 , new TestTarget() , null ).apply() );
+		assertEquals( 6 , cache.newInstance( cl2 , new TestTarget() , null ).apply() );
+
+		// same byte code yields the same class
+		assertSame( cl1 , cache.getOrCompile( "CachedExpression4" , "value1()" , TestTarget.class ) );
+	}
+}
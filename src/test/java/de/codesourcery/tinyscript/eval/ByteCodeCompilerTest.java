@@ -4,14 +4,23 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.lang.reflect.Method;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.function.BiFunction;
 import java.util.regex.Pattern;
 
 import junit.framework.TestCase;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
 import de.codesourcery.tinyscript.ast.AST;
 import de.codesourcery.tinyscript.ast.ASTNode;
+import de.codesourcery.tinyscript.ast.VariableNode;
 import de.codesourcery.tinyscript.parser.ASTBuilder;
 import de.codesourcery.tinyscript.parser.ExpressionParser;
 import de.codesourcery.tinyscript.parser.Lexer;
@@ -84,10 +93,53 @@ public class ByteCodeCompilerTest extends TestCase {
 			return a-b;
 		}	
 		
+		public String nullString() {
+			return null;
+		}
+		
+		public long bigValue() {
+			return 10000000000L;
+		}
+		
+		public Double doubleValue() {
+			return 0.5d;
+		}
+		
+		public long addLong(long a,long b) {
+			return a+b;
+		}
+		
+		public int checkCount;
+		
+		public Boolean check() {
+			checkCount++;
+			return true;
+		}
+		
 		public Integer subInteger4(int a,int b) {
 			System.out.println("==== Test method invoked ===");
 			return a-b;
 		}			
+		
+		public double nan() {
+			return Double.NaN;
+		}
+		
+		public float floatNan() {
+			return Float.NaN;
+		}
+		
+		public double zero() {
+			return 0.0d;
+		}
+		
+		public double negZero() {
+			return -0.0d;
+		}
+		
+		public float floatNegZero() {
+			return -0.0f;
+		}
 	}
 	
 	public void test1() throws Exception {
@@ -130,6 +182,188 @@ public class ByteCodeCompilerTest extends TestCase {
 		doTestBooleanOperators( "NOT ${A} OR ${B}", (a,b) -> ! a || b );	
 	}			
 	
+	public void testNumericPromotion() throws Exception 
+	{
+		assertEquals( 3.5d , debug("1+2.5") );
+		assertEquals( 6 , debug("value1()*2") );
+		assertEquals( 4.5d , debug("value1()+1.5") );
+		assertEquals( 7.5d , debug("2.5*value1()") );
+		assertEquals( 3 , debug("7/2") );
+		assertEquals( 3.5d , debug("7.0/2") );
+		assertEquals( 10000000001L , debug("bigValue()+1") );
+		assertEquals( 9999999997L , debug("bigValue()-value1()") );
+		assertEquals( 1.5E10d , debug("bigValue()*1.5") );
+		assertEquals( 3.5d , debug("value1()+doubleValue()") );
+		assertEquals( 30000000000L , debug("addLong(bigValue(),bigValue()*2)") );
+		
+		assertEquals( Boolean.TRUE , debug("value1() > 2") );
+		assertEquals( Boolean.TRUE , debug("1 < 2.5") );
+		assertEquals( Boolean.TRUE , debug("bigValue() > value1()") );
+		assertEquals( Boolean.TRUE , debug("value1() == 3") );
+		assertEquals( Boolean.TRUE , debug("value1() == 3.0") );
+		assertEquals( Boolean.FALSE , debug("doubleValue() >= value1()") );
+	}
+	
+	public void testShortCircuit() throws Exception 
+	{
+		assertEquals( Boolean.FALSE , debug("value1() > 5 and check()") );
+		assertEquals( 0 , ((TestTarget) target).checkCount );
+		assertEquals( Boolean.TRUE , debug("value1() < 5 or check()") );
+		assertEquals( 0 , ((TestTarget) target).checkCount );
+		assertEquals( Boolean.TRUE , debug("value1() < 5 and check()") );
+		assertEquals( 1 , ((TestTarget) target).checkCount );
+	}
+	
+	public void testStrings() throws Exception 
+	{
+		assertEquals( "ab" , debug("'a'+'b'") );
+		assertEquals( "a12" , debug("'a'+1+2") );
+		assertEquals( "3a" , debug("1+2+'a'") );
+		assertEquals( "a3b" , debug("'a'+value1()+'b'") );
+		assertEquals( "x1.5" , debug("'x'+1.5") );
+		
+		assertEquals( Boolean.TRUE , debug("'a' == 'a'") );
+		assertEquals( Boolean.FALSE , debug("'a' == 'b'") );
+		assertEquals( Boolean.TRUE , debug("'a' != 'b'") );
+		assertEquals( Boolean.TRUE , debug("'a'+'b' == 'ab'") );
+		assertEquals( Boolean.FALSE , debug("'a' == 1") );
+		assertEquals( Boolean.TRUE , debug("'a' != 1") );
+		assertEquals( Boolean.TRUE , debug("true == true") );
+		assertEquals( Boolean.TRUE , debug("true != false") );
+		
+		assertEquals( Boolean.FALSE , debug("nullString() == 'a'") );
+		assertEquals( Boolean.FALSE , debug("'a' == nullString()") );
+		assertEquals( Boolean.TRUE , debug("nullString() != 'a'") );
+		assertEquals( Boolean.TRUE , debug("nullString() == nullString()") );
+	}
+	
+	public static final class OtherTarget {
+		
+		public Integer value1() {
+			return 42;
+		}
+	}
+	
+	public void testTargetsOfDifferentTypes() throws Exception 
+	{
+		class Target1 { public int value1() { return 1; } }
+		class Target2 { public Integer value1() { return 2; } }
+		class Target3 { public Integer value1() { return 3; } }
+		class Target4 { public Integer value1() { return 4; } }
+		
+		target = new TestTarget();
+		final byte[] data = new ByteCodeWriter("TestClass").compile( parse( "value1()" ) , TestTarget.class );
+		final Class<?> cl = defineClass( data );
+		
+		final Object[] targets = { new TestTarget() , new OtherTarget() , new Target1() , new Target2() , new Target3() , new Target4() };
+		final Object[] expected = { VALUE1 , 42 , 1 , 2 , 3 , 4 };
+		for ( int round = 0 ; round < 3 ; round++ ) 
+		{
+			for ( int i = 0 ; i < targets.length ; i++ ) 
+			{
+				final CompiledExpression<?> instance = (CompiledExpression<?>) cl.getConstructor( Object.class , IScope.class ).newInstance( targets[i] , null );
+				assertEquals( expected[i] , instance.apply() );
+			}
+		}
+	}
+	
+	public void testStrengthReduction() throws Exception 
+	{
+		assertEquals( Integer.valueOf( -56 ) , debug("subInteger2(0,7) * 8") );
+		assertEquals( Integer.valueOf( -6 ) , debug("2 * subInteger2(0,3)") );
+		assertEquals( Integer.valueOf( -1 ) , debug("subInteger2(0,7) / 4") );
+		assertEquals( Integer.valueOf( -4 ) , debug("subInteger2(0,9) / 2") );
+		assertEquals( Integer.valueOf( 4 ) , debug("subInteger2(9,0) / 2") );
+		assertEquals( Integer.valueOf( -3 ) , debug("subInteger2(0,9) / 3") );
+		assertEquals( Long.valueOf( 3 ) , debug("( bigValue() - bigValue() + 7 ) / 2") );
+		assertEquals( Long.valueOf( -2500000000L ) , debug("( 0 - bigValue() ) / 4") );
+		assertEquals( Long.valueOf( 40000000000L ) , debug("bigValue() * 4") );
+	}
+	
+	public void testIntegerOverflow() throws Exception 
+	{
+		// wraps around like Java arithmetic
+		assertEquals( Integer.valueOf( 2147483646 ) , debug("subInteger2(2147483647,1)") );
+		assertEquals( Integer.valueOf( 2147483647 ) , debug("subInteger2(0,2147483647) - 2") );
+		assertEquals( Integer.valueOf( 0 ) , debug("subInteger2(0,1073741824) * 4") );
+		assertEquals( Integer.valueOf( -2147483648 ) , debug("subInteger2(2147483647,0) + 1") );
+		assertEquals( Long.valueOf( 7766279631452241920L ) , debug("bigValue() * bigValue()") );
+	}
+	
+	public void testNarrowedRangesUseIntArithmetic() throws Exception 
+	{
+		vars.put( new Identifier("x") , Long.valueOf( 1000 ) );
+		final RangeAnalyzer ranges = new RangeAnalyzer() 
+		{
+			@Override
+			protected Range getVariableRangeHook(VariableNode variable) {
+				return new Range( 0 , 1000 );
+			}
+		};
+		final ExpressionCompiler compiler = new ExpressionCompiler();
+		compiler.setScope( scope );
+		
+		final byte[] unbounded = compiler.compile( "TestClass" , "x * 3 + 7" , TestTarget.class );
+		assertEquals( Long.valueOf( 3007 ) , compile( unbounded , new TestTarget() , scope ).apply() );
+		assertFalse( getOpcodes( unbounded ).contains( Opcodes.IMUL ) );
+		
+		compiler.setRangeAnalyzer( ranges );
+		final byte[] bounded = compiler.compile( "TestClass" , "x * 3 + 7" , TestTarget.class );
+		assertEquals( Long.valueOf( 3007 ) , compile( bounded , new TestTarget() , scope ).apply() );
+		final List<Integer> opcodes = getOpcodes( bounded );
+		assertTrue( opcodes.contains( Opcodes.IMUL ) );
+		assertTrue( opcodes.contains( Opcodes.IADD ) );
+		assertFalse( opcodes.contains( Opcodes.LMUL ) );
+		assertFalse( opcodes.contains( Opcodes.LADD ) );
+	}
+	
+	public void testCheckedOverflow() throws Exception 
+	{
+		final ExpressionCompiler compiler = new ExpressionCompiler();
+		assertEquals( Integer.valueOf( 0 ) , compile( compiler.compile( "TestClass" , "subInteger2(0,1073741824) * 4" , TestTarget.class ) , new TestTarget() , null ).apply() );
+		
+		compiler.setCheckOverflow( true );
+		final String[] overflows = { "subInteger2(0,1073741824) * 4" , "subInteger2(2147483647,0) + 1" , "subInteger2(0,2147483647) - 2" , "bigValue() * bigValue()" };
+		for ( String expression : overflows ) 
+		{
+			final CompiledExpression<TestTarget> instance = compile( compiler.compile( "TestClass" , expression , TestTarget.class ) , new TestTarget() , null );
+			try {
+				instance.apply();
+				fail( expression+" should have failed" );
+			} catch(ArithmeticException e) {
+				// ok
+			}
+		}
+		// operators that cannot overflow are not checked
+		final byte[] data = compiler.compile( "TestClass" , "subInteger2(0,9) / 3 + 7" , TestTarget.class );
+		assertTrue( getOpcodes( data ).contains( Opcodes.IADD ) );
+		assertEquals( Integer.valueOf( 4 ) , compile( data , new TestTarget() , null ).apply() );
+	}
+	
+	public void testFloatingPointComparisonsMatchInterpreter() throws Exception 
+	{
+		final String[] operands = { "nan()" , "floatNan()" , "zero()" , "negZero()" , "floatNegZero()" , "doubleValue()" , "value1()" };
+		final String[] operators = { "==" , "!=" , "<" , "<=" , ">" , ">=" };
+		for ( String left : operands ) 
+		{
+			for ( String right : operands ) 
+			{
+				for ( String op : operators ) 
+				{
+					final String expression = left+" "+op+" "+right;
+					target = new TestTarget();
+					final Object expected = new Evaluator( target ).evaluate( parse( expression ) ).value();
+					assertEquals( expression , expected , debug( expression ) );
+				}
+			}
+		}
+		// like Double.compare()
+		assertEquals( Boolean.TRUE , debug("nan() == nan()") );
+		assertEquals( Boolean.TRUE , debug("nan() > value1()") );
+		assertEquals( Boolean.TRUE , debug("negZero() < zero()") );
+		assertEquals( Boolean.FALSE , debug("floatNegZero() == zero()") );
+	}
+	
 	public void testBroken() throws Exception {
 
 	}
@@ -173,6 +407,26 @@ public class ByteCodeCompilerTest extends TestCase {
 		return result;
 	}
 	
+	private static List<Integer> getOpcodes(byte[] bytecode) 
+	{
+		final List<Integer> result = new ArrayList<>();
+		new ClassReader( bytecode ).accept( new ClassVisitor( Opcodes.ASM9 ) 
+		{
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) 
+			{
+				return new MethodVisitor( Opcodes.ASM9 ) 
+				{
+					@Override
+					public void visitInsn(int opcode) {
+						result.add( opcode );
+					}
+				};
+			}
+		} , 0 );
+		return result;
+	}
+	
 	private <T> CompiledExpression<T> compile(byte[] bytecode,T target,IScope scope) throws Exception 
 	{
 		final Class<?> cl = defineClass(bytecode);
@@ -0,0 +1,90 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import de.codesourcery.tinyscript.ast.AST;
+
+public class ConcurrentScopeTest extends TestCase {
+
+	private static final Identifier A = new Identifier("a");
+	private static final Identifier B = new Identifier("b");
+
+	public void testSnapshotIsolation()
+	{
+		final ConcurrentScope scope = new ConcurrentScope();
+		scope.writeVariable( A , 1 );
+
+		final ConcurrentScope.SnapshotScope snapshot = scope.snapshot();
+		scope.writeVariable( A , 2 );
+
+		assertEquals( 1 , snapshot.readVariable( A ) );
+		assertEquals( 2 , scope.readVariable( A ) );
+
+		snapshot.writeVariable( B , 3 );
+		assertEquals( 3 , snapshot.readVariable( B ) );
+		try {
+			scope.readVariable( B );
+			fail("Should've failed");
+		} catch(RuntimeException e) {
+			// ok
+		}
+
+		final long version = snapshot.publish();
+		assertEquals( version , scope.getVersion() );
+		assertEquals( 3 , scope.readVariable( B ) );
+		assertEquals( 2 , scope.readVariable( A ) );
+
+		// the snapshot now reads from the published version
+		assertEquals( version , snapshot.getVersion() );
+		assertEquals( 2 , snapshot.readVariable( A ) );
+		assertEquals( 3 , snapshot.readVariable( B ) );
+	}
+
+	public void testConcurrentEvaluation() throws Exception
+	{
+		final ConcurrentScope scope = new ConcurrentScope();
+		scope.writeVariable( A , 0 );
+		scope.writeVariable( B , 0 );
+
+		final ExpressionCompiler compiler = new ExpressionCompiler();
+		compiler.setScope( scope );
+		final AST ast = compiler.parseAndType( "a - b" , Object.class );
+
+		final int iterations = 10000;
+		final Thread writer = new Thread( () ->
+		{
+			for ( int i = 1 ; i <= iterations ; i++ )
+			{
+				final Map<Identifier,Object> changes = new HashMap<>();
+				changes.put( A , i );
+				changes.put( B , i );
+				scope.writeVariables( changes );
+			}
+		});
+
+		final List<Object> inconsistent = new ArrayList<>();
+		final Thread reader = new Thread( () ->
+		{
+			final Evaluator evaluator = new Evaluator( null );
+			for ( int i = 0 ; i < iterations ; i++ )
+			{
+				evaluator.setVariableResolver( scope.snapshot() );
+				final Object result = evaluator.evaluate( ast ).value();
+				if ( ! Integer.valueOf( 0 ).equals( result ) ) {
+					inconsistent.add( result );
+				}
+			}
+		});
+		writer.start();
+		reader.start();
+		writer.join();
+		reader.join();
+
+		assertEquals( "[]" , inconsistent.toString() );
+		assertEquals( iterations , scope.readVariable( A ) );
+	}
+}
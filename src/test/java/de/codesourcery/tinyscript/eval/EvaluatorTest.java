@@ -10,6 +10,7 @@ import junit.framework.TestCase;
 import de.codesourcery.tinyscript.ast.AST;
 import de.codesourcery.tinyscript.ast.ASTNode;
 import de.codesourcery.tinyscript.ast.NumberNode;
+import de.codesourcery.tinyscript.ast.OperatorNode;
 import de.codesourcery.tinyscript.eval.Evaluator.Result;
 import de.codesourcery.tinyscript.parser.ASTBuilder;
 import de.codesourcery.tinyscript.parser.ExpressionParser;
@@ -76,6 +77,14 @@ public class EvaluatorTest extends TestCase {
 		public void noInliningTest(Integer a,Integer b) { // do NOT rename method, referenced in parse() method of this class
 			noInliningTestMethodInvocationCount++;
 		}		
+		
+		public int pureMethodInvocationCount;
+		
+		@Pure
+		public Integer pureMethod(Integer a,Integer b) {
+			pureMethodInvocationCount++;
+			return a-b;
+		}
 	}
 	
 	@Override
@@ -147,6 +156,35 @@ public class EvaluatorTest extends TestCase {
 		assertEquals( (int) 2 , iValue  );
 	}	
 	
+	public void testIntegerOverflow() 
+	{
+		assertEquals( Long.valueOf( 3000000000L ) , eval("3000000000").value() );
+		assertEquals( Long.valueOf( 2147483648L ) , eval("3000000000 - 852516352").value() );
+		// wraps around like Java arithmetic
+		assertEquals( Integer.valueOf( Integer.MIN_VALUE ) , eval("2147483647 + 1").value() );
+	}
+	
+	public void testTypedOperators() 
+	{
+		final String[] expressions = { "1+2*3" , "7/2 > 3" , "3000000000 - 1" , "1 + 2.5" , "not ( 1.5 <= 1 )" , "1 == 1.0" , "true != false" , "10 / 4.0 >= 2.5" };
+		for ( String expression : expressions ) 
+		{
+			final AST generic = new ExpressionCompiler().parse( expression );
+			new Typer( null , TestTarget1.class ).type( generic );
+			final AST typed = (AST) generic.copySubtree();
+			new OperatorBinder().bind( typed );
+			
+			final OperatorNode operator = (OperatorNode) typed.child(0);
+			assertNotNull( "Operator not bound: "+expression , operator.operation );
+			assertEquals( expression , eval( generic ).value() , eval( typed ).value() );
+		}
+		
+		final AST overflow = new ExpressionCompiler().parse( "2147483647 + 1" );
+		new Typer( null , TestTarget1.class ).type( overflow );
+		new OperatorBinder().bind( overflow );
+		assertEquals( Integer.valueOf( Integer.MIN_VALUE ) , eval( overflow ).value() );
+	}
+	
 	public void testParens1() {
 		Result result = eval("12+((1+3)*3)");
 		assertFalse( result.isVoid() );
@@ -271,6 +309,25 @@ public class EvaluatorTest extends TestCase {
 		assertEquals( (int) 21 , value );
 	}			
 	
+	public void testPureAnnotation() {
+		
+		final TestTarget1 target = new TestTarget1();
+		evaluator.setTarget( target );
+		
+		final ASTNode folded = new ASTSimplifier().simplify( new ExpressionCompiler().parse( "pureMethod(10,3) * 2" ) , target );
+		assertEquals( 1 , target.pureMethodInvocationCount );
+		assertTrue( folded.child(0).isLiteralValue() );
+		assertEquals( 14 , ((Number) eval( folded ).value()).intValue() );
+		assertEquals( 1 , target.pureMethodInvocationCount );
+		
+		// not all arguments are constant
+		final ASTSimplifier simplifier = new ASTSimplifier();
+		simplifier.setResolveVariables( false );
+		final ASTNode notFolded = simplifier.simplify( new ExpressionCompiler().parse( "pureMethod(a,3)" ) , target );
+		assertEquals( 1 , target.pureMethodInvocationCount );
+		assertFalse( notFolded.child(0).isLiteralValue() );
+	}
+	
 	public void testImpureMethodInlining() {
 		
 		final TestTarget1 target = new TestTarget1();
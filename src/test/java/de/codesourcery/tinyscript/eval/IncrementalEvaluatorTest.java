@@ -0,0 +1,97 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+public class IncrementalEvaluatorTest extends TestCase {
+
+	private final List<String> recomputed = Collections.synchronizedList( new ArrayList<>() );
+
+	private IncrementalEvaluator evaluator;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		recomputed.clear();
+		evaluator = new IncrementalEvaluator( null )
+		{
+			@Override
+			protected void recomputeHook(Identifier variable) {
+				recomputed.add( variable.getSymbol() );
+			}
+		};
+		evaluator.writeVariable( new Identifier("a") , 2 );
+		evaluator.writeVariable( new Identifier("b") , 3 );
+		evaluator.writeVariable( new Identifier("c") , 4 );
+		evaluator.define( "x = a * b + c" );
+		evaluator.define( "y = x * 2" );
+		evaluator.define( "z = c * 10" );
+	}
+
+	private Object read(String name) {
+		return evaluator.readVariable( new Identifier( name ) );
+	}
+
+	public void testOnlyAffectedDefinitionsAreRecomputed()
+	{
+		assertEquals( 20 , read("y") );
+		assertEquals( 40 , read("z") );
+		assertEquals( 3 , recomputed.size() );
+
+		recomputed.clear();
+		evaluator.writeVariable( new Identifier("a") , 5 );
+		assertEquals( 38 , read("y") );
+		assertEquals( "[x, y]" , recomputed.toString() );
+
+		// same value, nothing to do
+		recomputed.clear();
+		evaluator.writeVariable( new Identifier("a") , 5 );
+		assertEquals( 38 , read("y") );
+		assertEquals( "[]" , recomputed.toString() );
+	}
+
+	public void testUnchangedValueStopsPropagation()
+	{
+		read("y");
+		recomputed.clear();
+
+		// a*b stays the same
+		evaluator.writeVariable( new Identifier("a") , 3 );
+		evaluator.writeVariable( new Identifier("b") , 2 );
+		assertEquals( 20 , read("y") );
+		assertEquals( "[x]" , recomputed.toString() );
+	}
+
+	public void testCyclesAreRejected()
+	{
+		try {
+			evaluator.define( "a = y + 1" );
+			fail("Should've failed");
+		} catch(IllegalArgumentException e) {
+			assertTrue( e.getMessage().contains("Cyclic") );
+		}
+		evaluator.writeVariable( new Identifier("a") , 1 );
+		assertEquals( 14 , read("y") );
+	}
+
+	public void testParallelRecomputation() throws Exception
+	{
+		final ExecutorService executor = Executors.newFixedThreadPool( 2 );
+		try
+		{
+			evaluator.setExecutor( executor );
+			assertEquals( 20 , read("y") );
+			evaluator.writeVariable( new Identifier("c") , 1 );
+			assertEquals( 14 , read("y") );
+			assertEquals( 10 , read("z") );
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Compares {@link NumericKernel} with the way {@link NumericType} and {@link OperatorType} implemented 
+ * arithmetic before the kernel was introduced (look up the wider type by streaming over all types, 
+ * convert both operands to it, then invoke the type-specific method on the boxed values).
+ * 
+ * Not a unit test, run the main method manually.
+ */
+public class NumericKernelBenchmark 
+{
+	private static final Object[] OPERANDS = { 3 , 7L , 2.5d , 1.5f , (short) 4 , 11 , 13L , 0.25d };
+	
+	private static final int WARMUP = 5_000_000;
+	private static final int ITERATIONS = 20_000_000;
+	
+	/**
+	 * Copy of the previous NumericType implementation, reduced to the methods used by addition and comparison.
+	 */
+	private static enum PreviousNumericType
+	{
+		DOUBLE(true,8,Double.class,Double.TYPE) {
+			@Override public Object plus(Object a, Object b) { return   ((Double) a) + ((Double) b ); }
+			@Override public int compareHook(Object a, Object b) { return Double.compare( (Double) a, (Double) b); }		
+		},
+		FLOAT(true,4,Float.class,Float.TYPE) {
+			@Override public Object plus(Object a, Object b) { return   ((Float) a) + ((Float) b ); }
+			@Override public int compareHook(Object a, Object b) { return Float.compare( (Float) a, (Float) b); }			
+		},
+		LONG(false,8,Long.class,Long.TYPE) {
+			@Override public Object plus(Object a, Object b) { return   ((Long) a) + ((Long) b ); }
+			@Override public int compareHook(Object a, Object b) { return Long.compare( (Long) a, (Long) b); }		
+		},
+		INT(false,4,Integer.class,Integer.TYPE) {
+			@Override public Object plus(Object a, Object b) { return   ((Integer) a) + ((Integer) b ); }
+			@Override public int compareHook(Object a, Object b) { return Integer.compare( (Integer) a, (Integer) b); }		
+		},		
+		SHORT(false,2,Short.class,Short.TYPE) {
+			@Override public Object plus(Object a, Object b) { return   ((Short) a) + ((Short) b ); }
+			@Override public int compareHook(Object a, Object b) { return Short.compare( (Short) a, (Short) b); }			
+		},
+		BYTE(false,1,Byte.class,Byte.TYPE) {
+			@Override public Object plus(Object a, Object b) { return   ((Byte) a) + ((Byte) b ); }
+			@Override public int compareHook(Object a, Object b) { return Byte.compare( (Byte) a, (Byte) b); }		
+		};
+		
+		private final Class<?>[] clazzes;
+		private final boolean isFloatingPoint;
+		private final int size;
+		
+		private PreviousNumericType(boolean isFloatingPoint,int size,Class<?>... clazzes) {
+			this.clazzes=clazzes;
+			this.isFloatingPoint=isFloatingPoint;
+			this.size = size;
+		}
+		
+		private boolean matches(Class<?> clazz) {
+			for ( Class<?> cl : this.clazzes ) {
+				if ( cl == clazz ) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		public static PreviousNumericType getType(Class<?> clazz) {
+			Optional<PreviousNumericType> result = Arrays.stream( values() ).filter( type -> type.matches(clazz) ).findFirst();
+			if ( ! result.isPresent() ) {
+				throw new IllegalArgumentException("Found no numeric type for "+clazz);
+			}
+			return result.get();
+		}	
+		
+		public static PreviousNumericType getType(Object o) {
+			return getType( o.getClass() );
+		}
+		
+		public abstract Object plus(Object a,Object b);
+		
+		public abstract int compareHook(Object a,Object b);
+		
+		public static final int compare(Object a,Object b) 
+		{
+			Object left = a;
+			Object right = b;
+			final PreviousNumericType type; 
+			if ( left.getClass() != right.getClass() ) 
+			{
+				type = getWiderType( left ,  right );
+				left = type.convert( left );
+				right = type.convert( right );
+			} else {
+				type = getType( left );
+			}
+			return type.compareHook(left,right);
+		}
+		
+		public Object convert(Object a) {
+			switch(this) {
+				case BYTE:
+					return ((Number) a).byteValue();
+				case DOUBLE:
+					return ((Number) a).doubleValue();
+				case FLOAT:
+					return ((Number) a).floatValue();
+				case INT:
+					return ((Number) a).intValue();
+				case LONG:
+					return ((Number) a).longValue();
+				case SHORT:
+					return ((Number) a).shortValue();
+			}
+			throw new RuntimeException("Internal error,unreachable code reached");
+		}
+		
+		public static PreviousNumericType getWiderType(Class<?> a,Class<?> b) 
+		{
+			final PreviousNumericType typeA = getType(a);
+			final PreviousNumericType typeB = getType(b);
+			if ( typeA == null || typeB == null ) {
+				return null;
+			}
+			if ( typeA.isFloatingPoint == typeB.isFloatingPoint ) {
+				return typeA.size > typeB.size ? typeA : typeB;
+			}
+			return typeA.isFloatingPoint ? typeA : typeB;
+		}
+		
+		public static PreviousNumericType getWiderType(Object a,Object b) 
+		{
+			return getWiderType( a.getClass(), b.getClass() );
+		}
+	}
+	
+	/**
+	 * Copy of the way OperatorType used to apply PLUS and GT.
+	 */
+	private static final class EnumPath 
+	{
+		static Object plus(Object left,Object right) 
+		{
+			final PreviousNumericType type = PreviousNumericType.getWiderType( left ,  right );
+			final Object a = type.convert(left); 
+			final Object b = type.convert(right);
+			return PreviousNumericType.getType(a).plus( a, b);
+		}
+		
+		static int compare(Object left,Object right) 
+		{
+			final PreviousNumericType type = PreviousNumericType.getWiderType( left ,  right );
+			final Object a = type.convert(left); 
+			final Object b = type.convert(right);
+			return PreviousNumericType.compare(a,b);
+		}
+	}
+	
+	public static void main(String[] args) 
+	{
+		for ( Object a : OPERANDS ) {
+			for ( Object b : OPERANDS ) {
+				if ( ! EnumPath.plus( a , b ).equals( NumericKernel.plus( a , b ) ) || Integer.signum( EnumPath.compare( a , b ) ) != Integer.signum( NumericKernel.compare( a , b ) ) ) {
+					throw new RuntimeException("Results differ for "+a+" and "+b);
+				}
+			}
+		}
+		
+		System.out.println( String.format("%-10s %12s %12s","operation","enum ns/op","kernel ns/op") );
+		for ( int round = 0 ; round < 3 ; round++ ) 
+		{
+			System.out.println( String.format("%-10s %12.1f %12.1f", "plus" , measure( false , false ) , measure( true , false ) ) );
+			System.out.println( String.format("%-10s %12.1f %12.1f", "compare" , measure( false , true ) , measure( true , true ) ) );
+		}
+	}
+	
+	private static double measure(boolean kernel,boolean compare) 
+	{
+		run( kernel , compare , WARMUP );
+		final long start = System.nanoTime();
+		run( kernel , compare , ITERATIONS );
+		return ( System.nanoTime() - start ) / (double) ITERATIONS;
+	}
+	
+	private static void run(boolean kernel,boolean compare,int iterations) 
+	{
+		long sum = 0;
+		for ( int i = 0 ; i < iterations ; i++ ) 
+		{
+			final Object a = OPERANDS[ i & 7 ];
+			final Object b = OPERANDS[ ( i >>> 3 ) & 7 ];
+			if ( compare ) {
+				sum += kernel ? NumericKernel.compare( a , b ) : EnumPath.compare( a , b );
+			} else {
+				sum += ( kernel ? NumericKernel.plus( a , b ) : EnumPath.plus( a , b ) ).hashCode();
+			}
+		}
+		if ( sum == 42 ) {
+			System.out.println("Never printed, keeps the JIT from eliminating the loop");
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package de.codesourcery.tinyscript.eval;
+
+import junit.framework.TestCase;
+
+public class NumericKernelTest extends TestCase 
+{
+	public void testPromotion() 
+	{
+		assertEquals( NumericType.LONG , NumericKernel.promote( NumericType.INT , NumericType.LONG ) );
+		assertEquals( NumericType.FLOAT , NumericKernel.promote( NumericType.LONG , NumericType.FLOAT ) );
+		assertEquals( NumericType.DOUBLE , NumericKernel.promote( NumericType.FLOAT , NumericType.DOUBLE ) );
+		assertEquals( NumericType.SHORT , NumericKernel.promote( NumericType.BYTE , NumericType.SHORT ) );
+		for ( NumericType a : NumericType.values() ) {
+			for ( NumericType b : NumericType.values() ) {
+				assertEquals( NumericKernel.promote( a , b ) , NumericKernel.promote( b , a ) );
+			}
+		}
+	}
+	
+	public void testResultTypes() 
+	{
+		assertEquals( Integer.valueOf( 7 ) , NumericKernel.plus( Short.valueOf( (short) 3 ) , Byte.valueOf( (byte) 4 ) ) );
+		assertEquals( Long.valueOf( 7 ) , NumericKernel.plus( Integer.valueOf( 3 ) , Long.valueOf( 4 ) ) );
+		assertEquals( Float.valueOf( 0.1f * 3f ) , NumericKernel.times( Float.valueOf( 0.1f ) , Integer.valueOf( 3 ) ) );
+		assertEquals( Double.valueOf( 3.5 ) , NumericKernel.divide( Long.valueOf( 7 ) , Double.valueOf( 2 ) ) );
+		assertEquals( Integer.valueOf( 3 ) , NumericKernel.divide( Integer.valueOf( 7 ) , Integer.valueOf( 2 ) ) );
+		assertEquals( Long.valueOf( 7 ) , NumericType.LONG.plus( Integer.valueOf( 3 ) , Integer.valueOf( 4 ) ) );
+		assertEquals( Float.valueOf( 3.5f ) , NumericType.FLOAT.divide( Integer.valueOf( 7 ) , Integer.valueOf( 2 ) ) );
+	}
+	
+	public void testFloatPromotion() 
+	{
+		// 2^24+1 is not representable as a float, the long operand gets rounded before the operation
+		final Long big = Long.valueOf( 16777217L );
+		assertEquals( Float.valueOf( 16777216f ) , NumericKernel.plus( big , Float.valueOf( 1f ) ) );
+		assertEquals( Float.valueOf( (float) 16777217L + 1f ) , NumericKernel.plus( big , Float.valueOf( 1f ) ) );
+		assertEquals( 0 , NumericKernel.compare( big , Float.valueOf( 16777216f ) ) );
+		assertTrue( NumericKernel.eq( big , Float.valueOf( 16777216f ) ) );
+		assertEquals( 0 , NumericType.FLOAT.compareHook( big , Float.valueOf( 16777216f ) ) );
+		// not rounded if compared with a double
+		assertTrue( NumericKernel.compare( big , Double.valueOf( 16777216d ) ) > 0 );
+	}
+	
+	public void testIntegerOverflow() 
+	{
+		assertEquals( Integer.valueOf( Integer.MIN_VALUE ) , NumericKernel.divide( Integer.valueOf( Integer.MIN_VALUE ) , Integer.valueOf( -1 ) ) );
+		assertEquals( Long.valueOf( 2147483648L ) , NumericKernel.plus( Integer.valueOf( Integer.MAX_VALUE ) , Long.valueOf( 1 ) ) );
+		assertEquals( Integer.valueOf( Integer.MIN_VALUE ) , NumericKernel.plus( Integer.valueOf( Integer.MAX_VALUE ) , Integer.valueOf( 1 ) ) );
+		assertEquals( Long.valueOf( Long.MIN_VALUE ) , NumericKernel.times( Long.valueOf( Long.MIN_VALUE / 2 ) , Integer.valueOf( 2 ) ) );
+	}
+	
+	public void testCompare() 
+	{
+		assertTrue( NumericKernel.compare( Integer.valueOf( 3 ) , Double.valueOf( 2.5 ) ) > 0 );
+		assertTrue( NumericKernel.compare( Long.valueOf( Long.MAX_VALUE ) , Long.valueOf( Long.MAX_VALUE - 1 ) ) > 0 );
+		assertTrue( NumericKernel.eq( 1 , 1.0f ) );
+		assertTrue( NumericKernel.eq( Double.NaN , Double.NaN ) );
+		assertFalse( NumericKernel.eq( 0.0 , -0.0 ) );
+	}
+}
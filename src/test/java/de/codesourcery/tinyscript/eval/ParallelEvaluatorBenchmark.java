@@ -0,0 +1,88 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import de.codesourcery.tinyscript.ast.AST;
+
+/**
+ * Measures how {@link ParallelEvaluator} scales with the number of threads compared to
+ * evaluating all inputs one after another with a single {@link Evaluator}.
+ *
+ * Not a unit test, run the main method manually on a machine with several cores.
+ */
+public class ParallelEvaluatorBenchmark
+{
+	private static final String EXPRESSION = "( price() * qty() + 7 ) / 3 > 1000 and qty() * qty() - price() < 250000";
+
+	private static final int INPUT_COUNT = 200_000;
+	private static final int ROUNDS = 10;
+
+	public static final class Order
+	{
+		private final long price;
+		private final long qty;
+
+		public Order(long price,long qty) {
+			this.price = price;
+			this.qty = qty;
+		}
+
+		public long price() {
+			return price;
+		}
+
+		public long qty() {
+			return qty;
+		}
+	}
+
+	public static void main(String[] args)
+	{
+		final List<Order> inputs = new ArrayList<>();
+		for ( int i = 0 ; i < INPUT_COUNT ; i++ ) {
+			inputs.add( new Order( i % 1000 , i % 617 ) );
+		}
+		final AST ast = new ExpressionCompiler().parseAndType( EXPRESSION , Order.class );
+
+		final double sequential = measure( () ->
+		{
+			final Evaluator evaluator = new Evaluator( null );
+			for ( Order order : inputs )
+			{
+				evaluator.setTarget( order );
+				evaluator.evaluate( ast );
+			}
+		});
+		System.out.println( "Available processors: "+Runtime.getRuntime().availableProcessors() );
+		System.out.println( String.format("%-10s %12s %8s","threads","ms/round","speedup") );
+		System.out.println( String.format("%-10s %12.1f %8.2f","sequential", sequential , 1.0 ) );
+
+		final int maxThreads = Math.max( 4 , Runtime.getRuntime().availableProcessors() );
+		for ( int threads = 1 ; threads <= maxThreads ; threads *= 2 )
+		{
+			final ForkJoinPool pool = new ForkJoinPool( threads );
+			try
+			{
+				final ParallelEvaluator<Order> evaluator = new ParallelEvaluator<>( ast , pool );
+				final double parallel = measure( () -> evaluator.evaluate( inputs ) );
+				System.out.println( String.format("%-10d %12.1f %8.2f", threads , parallel , sequential / parallel ) );
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+
+	private static double measure(Runnable round)
+	{
+		for ( int i = 0 ; i < ROUNDS ; i++ ) { // warm-up
+			round.run();
+		}
+		final long start = System.nanoTime();
+		for ( int i = 0 ; i < ROUNDS ; i++ ) {
+			round.run();
+		}
+		return ( System.nanoTime() - start ) / 1_000_000d / ROUNDS;
+	}
+}
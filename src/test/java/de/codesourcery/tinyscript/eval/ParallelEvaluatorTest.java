@@ -0,0 +1,149 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import de.codesourcery.tinyscript.ast.AST;
+
+public class ParallelEvaluatorTest extends TestCase 
+{
+	private static final int INPUT_COUNT = 10000;
+	
+	private final AtomicInteger calls = new AtomicInteger();
+	private final AtomicInteger evaluatorsCreated = new AtomicInteger();
+	private final List<Evaluator> evaluators = new CopyOnWriteArrayList<>();
+	
+	public final class TestTarget 
+	{
+		private final long value;
+		
+		public TestTarget(long value) {
+			this.value = value;
+		}
+		
+		public long value() {
+			calls.incrementAndGet();
+			return value;
+		}
+	}
+	
+	private final ForkJoinPool pool = new ForkJoinPool( 4 );
+	
+	@Override
+	protected void tearDown() throws Exception {
+		pool.shutdownNow();
+	}
+	
+	private List<TestTarget> createInputs() 
+	{
+		final List<TestTarget> result = new ArrayList<>();
+		for ( int i = 0 ; i < INPUT_COUNT ; i++ ) {
+			result.add( new TestTarget( i ) );
+		}
+		return result;
+	}
+	
+	private ParallelEvaluator<TestTarget> createEvaluator(String expression) 
+	{
+		final AST ast = new ExpressionCompiler().parse( expression );
+		final ParallelEvaluator<TestTarget> result = new ParallelEvaluator<TestTarget>( ast , pool ) 
+		{
+			@Override
+			protected Evaluator createEvaluatorHook() 
+			{
+				evaluatorsCreated.incrementAndGet();
+				final Evaluator evaluator = super.createEvaluatorHook();
+				evaluators.add( evaluator );
+				return evaluator;
+			}
+			
+			@Override
+			protected IScope createScopeHook() 
+			{
+				final Map<Identifier,Object> variables = new HashMap<>();
+				return new IScope() 
+				{
+					@Override
+					public Object readVariable(Identifier name) {
+						return variables.get( name );
+					}
+					
+					@Override
+					public void writeVariable(Identifier name, Object value) {
+						variables.put( name , value );
+					}
+					
+					@Override
+					public Class<?> getDataType(Identifier name) {
+						return Long.class;
+					}
+				};
+			}
+		};
+		result.setChunkSize( 100 );
+		return result;
+	}
+	
+	public void testEvaluatePreservesOrder() 
+	{
+		final List<Object> results = createEvaluator( "x = value() ; x * 2 + 1" ).evaluate( createInputs() );
+		assertEquals( INPUT_COUNT , results.size() );
+		for ( int i = 0 ; i < INPUT_COUNT ; i++ ) {
+			assertEquals( Long.valueOf( i * 2L + 1 ) , results.get( i ) );
+		}
+		assertEquals( INPUT_COUNT , calls.get() );
+		// one evaluator per thread, not per chunk
+		assertTrue( evaluatorsCreated.get() <= pool.getParallelism() );
+		// evaluators must not keep the last input alive
+		for ( Evaluator evaluator : evaluators ) {
+			assertNull( evaluator.getTarget() );
+		}
+	}
+	
+	public void testLinkedList() 
+	{
+		final List<Object> results = createEvaluator( "value() + 1" ).evaluate( new LinkedList<>( createInputs() ) );
+		for ( int i = 0 ; i < INPUT_COUNT ; i++ ) {
+			assertEquals( Long.valueOf( i + 1L ) , results.get( i ) );
+		}
+	}
+	
+	public void testAnyMatchShortCircuits() 
+	{
+		final List<TestTarget> inputs = createInputs();
+		assertTrue( createEvaluator( "value() == 3" ).anyMatch( inputs ) );
+		assertTrue( calls.get() < INPUT_COUNT );
+		
+		calls.set( 0 );
+		assertFalse( createEvaluator( "value() < 0" ).anyMatch( inputs ) );
+		assertEquals( INPUT_COUNT , calls.get() );
+	}
+	
+	public void testAllMatchShortCircuits() 
+	{
+		final List<TestTarget> inputs = createInputs();
+		assertTrue( createEvaluator( "value() >= 0" ).allMatch( inputs ) );
+		assertEquals( INPUT_COUNT , calls.get() );
+		
+		calls.set( 0 );
+		assertFalse( createEvaluator( "value() != 42" ).allMatch( inputs ) );
+		assertTrue( calls.get() < INPUT_COUNT );
+	}
+	
+	public void testNonBooleanPredicateFails() 
+	{
+		try {
+			createEvaluator( "value()" ).anyMatch( createInputs() );
+			fail("Should've failed");
+		} catch(RuntimeException e) {
+			// ok
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.lang.reflect.Method;
+
+import de.codesourcery.tinyscript.ast.AST;
+import de.codesourcery.tinyscript.ast.ASTNode;
+import de.codesourcery.tinyscript.ast.VariableNode;
+import junit.framework.TestCase;
+
+public class PartialEvaluatorTest extends TestCase 
+{
+	private static final Identifier SCALE = new Identifier("scale");
+	
+	private int limitCalls;
+	private int valueCalls;
+	
+	public final class TestTarget 
+	{
+		private final long value;
+		
+		public TestTarget(long value) {
+			this.value = value;
+		}
+		
+		public long limit() {
+			limitCalls++;
+			return 10;
+		}
+		
+		public long value() {
+			valueCalls++;
+			return value;
+		}
+	}
+	
+	private final PartialEvaluator partialEvaluator = new PartialEvaluator() 
+	{
+		@Override
+		protected boolean isInvariantHook(VariableNode variable) {
+			return variable.name.equals( SCALE );
+		}
+		
+		@Override
+		protected boolean isInvariantHook(Method method) {
+			return method.getName().equals( "limit" ) || super.isInvariantHook( method );
+		}
+	};
+	
+	private final IScope scope = new IScope() 
+	{
+		@Override
+		public Object readVariable(Identifier name) 
+		{
+			if ( name.equals( SCALE ) ) {
+				return 3L;
+			}
+			throw new RuntimeException("Unknown variable "+name);
+		}
+		
+		@Override
+		public void writeVariable(Identifier name, Object value) {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public Class<?> getDataType(Identifier name) {
+			return Long.class;
+		}
+	};
+	
+	@Override
+	protected void setUp() throws Exception {
+		partialEvaluator.setScope( scope );
+	}
+	
+	public void testInvariantSubtreesGetEvaluatedOncePerBatch() 
+	{
+		final AST ast = new ExpressionCompiler().parse( "value() + 1 > limit() * scale" );
+		final ASTNode specialized = partialEvaluator.specialize( ast , new TestTarget( 0 ) );
+		assertEquals( 1 , partialEvaluator.getHoistedCount() );
+		assertEquals( 1 , limitCalls );
+		
+		final Evaluator evaluator = new Evaluator( null );
+		evaluator.setVariableResolver( scope );
+		for ( int i = 0 ; i < 100 ; i++ ) 
+		{
+			evaluator.setTarget( new TestTarget( i ) );
+			assertEquals( "row "+i , Boolean.valueOf( i + 1 > 30 ) , evaluator.evaluate( specialized ).value() );
+		}
+		assertEquals( 1 , limitCalls );
+		assertEquals( 100 , valueCalls );
+	}
+	
+	public void testClassification() 
+	{
+		final AST ast = new ExpressionCompiler().parse( "value() * scale + limit()" );
+		final TestTarget target = new TestTarget( 0 );
+		final ASTNode plus = ast.child(0);
+		final ASTNode times = plus.child(0);
+		
+		assertFalse( partialEvaluator.isInvariant( plus , ast , target ) );
+		assertFalse( partialEvaluator.isInvariant( times , ast , target ) );
+		assertFalse( partialEvaluator.isInvariant( times.child(0) , ast , target ) );
+		assertTrue( partialEvaluator.isInvariant( times.child(1) , ast , target ) );
+		assertTrue( partialEvaluator.isInvariant( plus.child(1) , ast , target ) );
+	}
+	
+	public void testAssignedVariablesArePerRow() 
+	{
+		final AST ast = new ExpressionCompiler().parse( "scale = value() ; scale * limit()" );
+		partialEvaluator.specialize( ast , new TestTarget( 0 ) );
+		assertEquals( 1 , partialEvaluator.getHoistedCount() ); // only limit()
+	}
+	
+	public void testFailingSubtreesAreLeftAlone() 
+	{
+		final AST ast = new ExpressionCompiler().parse( "value() + limit() / ( scale - 3 )" );
+		final ASTNode specialized = partialEvaluator.specialize( ast , new TestTarget( 0 ) );
+		// the division fails, its operands still get hoisted
+		assertEquals( 2 , partialEvaluator.getHoistedCount() );
+		
+		final Evaluator evaluator = new Evaluator( new TestTarget( 1 ) );
+		try {
+			evaluator.evaluate( specialized );
+			fail("Should've failed");
+		} catch(ArithmeticException e) {
+			// ok
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package de.codesourcery.tinyscript.eval;
+
+import junit.framework.TestCase;
+
+public class PredicateIndexTest extends TestCase {
+
+	public static final class Event
+	{
+		public int priceCalls;
+
+		private final String country;
+		private final Double price;
+		private final Integer quantity;
+
+		public Event(String country,Double price,Integer quantity) {
+			this.country = country;
+			this.price = price;
+			this.quantity = quantity;
+		}
+
+		public String country() {
+			return country;
+		}
+
+		public Double price() {
+			priceCalls++;
+			return price;
+		}
+
+		public Integer quantity() {
+			return quantity;
+		}
+	}
+
+	private PredicateIndex index;
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		index = new PredicateIndex();
+		index.addRule( "cheapDE" , "country() == 'DE' and price() <= 10" );
+		index.addRule( "expensive" , "price() > 100" );
+		index.addRule( "bulk" , "10 <= quantity() and price() > 5" );
+		index.addRule( "exactlyOne" , "quantity() == 1" );
+		index.addRule( "residual" , "price() > 1 and ( quantity() == 3 or country() == 'FR' )" );
+		index.addRule( "unindexed" , "country() == 'US' or quantity() > 1000" );
+	}
+
+	public void testIndexedAttributes() {
+		assertEquals( 3 , index.getAttributeCount() );
+	}
+
+	public void testEvaluate()
+	{
+		final Event event = new Event( "DE" , 7.5 , 1 );
+		assertEquals( "[cheapDE, exactlyOne]" , index.evaluate( event ).toString() );
+		assertEquals( 1 , event.priceCalls );
+
+		assertEquals( "[expensive, bulk, residual]" , index.evaluate( new Event( "FR" , 150d , 20 ) ).toString() );
+		assertEquals( "[cheapDE, residual]" , index.evaluate( new Event( "DE" , 10d , 3 ) ).toString() );
+		assertEquals( "[unindexed]" , index.evaluate( new Event( "US" , 0.5 , 2 ) ).toString() );
+		assertEquals( "[bulk, unindexed]" , index.evaluate( new Event( "UK" , 50d , 2000 ) ).toString() );
+	}
+
+	public void testNumericEquality()
+	{
+		final PredicateIndex index = new PredicateIndex();
+		index.addRule( "zero" , "price() == 0" );
+		index.addRule( "fraction" , "price() == 2.5" );
+
+		assertEquals( "[zero]" , index.evaluate( new Event( "DE" , 0d , 1 ) ).toString() );
+		assertEquals( "[]" , index.evaluate( new Event( "DE" , -0d , 1 ) ).toString() );
+		assertEquals( "[fraction]" , index.evaluate( new Event( "DE" , 2.5 , 1 ) ).toString() );
+		assertEquals( "[]" , index.evaluate( new Event( "DE" , 2d , 1 ) ).toString() );
+	}
+}
@@ -0,0 +1,83 @@
+package de.codesourcery.tinyscript.eval;
+
+import junit.framework.TestCase;
+import de.codesourcery.tinyscript.ast.AST;
+import de.codesourcery.tinyscript.ast.ASTNode;
+import de.codesourcery.tinyscript.eval.RangeAnalyzer.Range;
+
+public class RangeAnalyzerTest extends TestCase 
+{
+	public static final class TestTarget 
+	{
+		public short smallValue() {
+			return 42;
+		}
+		
+		public int intValue() {
+			return 42;
+		}
+		
+		public long longValue() {
+			return 42;
+		}
+	}
+	
+	public void testLiterals() 
+	{
+		final RangeAnalyzer analyzer = new RangeAnalyzer();
+		final AST ast = parse("( 1 + 2 ) * 3");
+		final Range range = analyzer.analyze( ast );
+		assertEquals( 9 , range.min );
+		assertEquals( 9 , range.max );
+		assertFalse( analyzer.mayOverflow( operator( ast ) ) );
+	}
+	
+	public void testSmallTypesCannotOverflow() 
+	{
+		final RangeAnalyzer analyzer = new RangeAnalyzer();
+		final AST ast = parse("smallValue() * 100 + smallValue()");
+		final Range range = analyzer.analyze( ast );
+		assertEquals( Short.MIN_VALUE*101 , range.min );
+		assertEquals( Short.MAX_VALUE*101 , range.max );
+		assertFalse( analyzer.mayOverflow( operator( ast ) ) );
+		assertTrue( analyzer.fitsInt( ast ) );
+	}
+	
+	public void testIntegerMayOverflow() 
+	{
+		final RangeAnalyzer analyzer = new RangeAnalyzer();
+		final AST ast = parse("intValue() * intValue()");
+		assertEquals( Range.INT.max , analyzer.analyze( ast ).max );
+		assertTrue( analyzer.mayOverflow( operator( ast ) ) );
+		
+		final AST longAst = parse("intValue() * intValue() + longValue()");
+		analyzer.analyze( longAst );
+		assertTrue( analyzer.mayOverflow( operator( longAst ) ) );
+	}
+	
+	public void testDivisionNarrowsRange() 
+	{
+		final RangeAnalyzer analyzer = new RangeAnalyzer();
+		final AST ast = parse("intValue() / 65536 * 1000");
+		final Range range = analyzer.analyze( ast );
+		assertEquals( -32768L*1000 , range.min );
+		assertEquals( 32767L*1000 , range.max );
+		assertFalse( analyzer.mayOverflow( operator( ast ) ) );
+	}
+	
+	private static ASTNode operator(ASTNode node) 
+	{
+		ASTNode result = node.child(0);
+		while ( result.getNodeType() == ASTNode.NodeType.EXPRESSION ) {
+			result = result.child(0);
+		}
+		return result;
+	}
+	
+	private static AST parse(String expression) 
+	{
+		final AST ast = new ExpressionCompiler().parse( expression );
+		new Typer( null , TestTarget.class ).type( ast );
+		return ast;
+	}
+}
@@ -0,0 +1,126 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import junit.framework.TestCase;
+import de.codesourcery.tinyscript.ast.AST;
+import de.codesourcery.tinyscript.eval.RecordSchema.FieldType;
+
+public class RecordScopeTest extends TestCase {
+
+	private RecordSchema schema;
+	private ByteBuffer buffer;
+
+	public static final class TestTarget {
+
+		public Integer limit() {
+			return 100;
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		schema = new RecordSchema()
+			.addField( "id" , FieldType.INT )
+			.addField( "price" , FieldType.DOUBLE )
+			.addField( "flag" , FieldType.BOOLEAN );
+		schema.setRecordSize( 16 );
+
+		buffer = ByteBuffer.allocateDirect( 3 * 16 ).order( ByteOrder.LITTLE_ENDIAN );
+		writeRecord( 1 , 50.0 , true );
+		writeRecord( 2 , 150.0 , true );
+		writeRecord( 3 , 250.0 , false );
+		buffer.flip();
+	}
+
+	private void writeRecord(int id,double price,boolean flag)
+	{
+		final int start = buffer.position();
+		buffer.putInt( id ).putDouble( price ).put( (byte) ( flag ? 1 : 0 ) );
+		buffer.position( start + 16 );
+	}
+
+	public void testSchema()
+	{
+		assertEquals( 16 , schema.getRecordSize() );
+		assertEquals( 4 , schema.getOffset( 1 ) );
+		assertEquals( 12 , schema.getOffset( 2 ) );
+		try {
+			schema.setRecordSize( 12 );
+			fail("Should've failed");
+		} catch(IllegalArgumentException e) {
+			// ok
+		}
+	}
+
+	public void testCompiledPredicate() throws Exception
+	{
+		final RecordScope scope = new RecordScope( schema , buffer );
+		assertEquals( 3 , scope.getRecordCount() );
+
+		final ExpressionCompiler compiler = new ExpressionCompiler();
+		compiler.setScope( scope );
+		final byte[] data = compiler.compile( "RecordScopeTestExpression" , "price > limit() and flag" , TestTarget.class );
+		final Class<?> cl = new ByteCodeCache.ByteCodeClassLoader( getClass().getClassLoader() ).define( "RecordScopeTestExpression" , data );
+		final CompiledExpression<TestTarget> expr = CompiledExpression.newInstance( cl , new TestTarget() , scope );
+
+		final StringBuilder matches = new StringBuilder();
+		while ( scope.next() )
+		{
+			if ( (Boolean) expr.apply() ) {
+				matches.append( scope.readLong( 0 ) );
+			}
+		}
+		assertEquals( "2" , matches.toString() );
+	}
+
+	public void testEvaluator()
+	{
+		final RecordScope scope = new RecordScope( schema , buffer );
+		final ExpressionCompiler compiler = new ExpressionCompiler();
+		compiler.setScope( scope );
+		final AST ast = compiler.parseAndType( "id*2" , TestTarget.class );
+
+		final Evaluator evaluator = new Evaluator( new TestTarget() );
+		evaluator.setVariableResolver( scope );
+
+		scope.setRecordIndex( 2 );
+		assertEquals( 6 , evaluator.evaluate( ast ).value() );
+		scope.reset();
+		assertTrue( scope.next() );
+		assertEquals( 2 , evaluator.evaluate( ast ).value() );
+	}
+
+	public void testMultipleBuffers()
+	{
+		// records 0+1 , no records , record 2
+		final ByteBuffer first = buffer.duplicate().order( ByteOrder.LITTLE_ENDIAN );
+		first.limit( 2 * 16 );
+		final ByteBuffer empty = ByteBuffer.allocate( 0 );
+		final ByteBuffer second = buffer.duplicate().order( ByteOrder.LITTLE_ENDIAN );
+		second.position( 2 * 16 );
+
+		final RecordScope scope = new RecordScope( schema , first , empty , second );
+		assertEquals( 3 , scope.getRecordCount() );
+
+		final StringBuilder ids = new StringBuilder();
+		while ( scope.next() ) {
+			ids.append( scope.readLong( 0 ) );
+		}
+		assertEquals( "123" , ids.toString() );
+
+		scope.setRecordIndex( 2 );
+		assertEquals( 250.0 , scope.readDouble( 1 ) );
+		scope.setRecordIndex( 1 );
+		assertEquals( 150.0 , scope.readDouble( 1 ) );
+		try {
+			scope.setRecordIndex( 3 );
+			fail("Should've failed");
+		} catch(IllegalArgumentException e) {
+			// ok
+		}
+	}
+}
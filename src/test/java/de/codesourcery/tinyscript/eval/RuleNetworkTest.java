@@ -0,0 +1,64 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class RuleNetworkTest extends TestCase {
+
+	public static final class Event
+	{
+		public int countryCalls;
+		public int amountCalls;
+
+		private final String country;
+		private final Integer amount;
+
+		public Event(String country,Integer amount) {
+			this.country = country;
+			this.amount = amount;
+		}
+
+		public String country() {
+			countryCalls++;
+			return country;
+		}
+
+		public Integer amount() {
+			amountCalls++;
+			return amount;
+		}
+	}
+
+	public void testSharedSubExpressionsAreEvaluatedOnce()
+	{
+		final RuleNetwork network = new RuleNetwork();
+		network.addRule( "r1" , "country() == 'DE' and amount() > 100" );
+		network.addRule( "r2" , "'DE' == country() and amount() > 1000" );
+		network.addRule( "r3" , "country() == 'FR' or amount() > 100" );
+		network.addRule( "r4" , "country() == 'DE'" );
+
+		// country(), 'DE', ==, amount(), 100, >, and, 1000, >, and, 'FR', ==, or
+		assertEquals( 13 , network.getNodeCount() );
+
+		final Event event = new Event( "DE" , 500 );
+		final Set<String> matches = network.evaluate( event );
+		assertEquals( "[r1, r3, r4]" , matches.toString() );
+		assertEquals( 1 , event.countryCalls );
+		assertEquals( 1 , event.amountCalls );
+	}
+
+	public void testShortCircuit()
+	{
+		final RuleNetwork network = new RuleNetwork();
+		network.addRule( "r1" , "country() == 'DE' and amount() > 100" );
+
+		final Event event = new Event( "US" , 500 );
+		assertTrue( network.evaluate( event ).isEmpty() );
+		assertEquals( 0 , event.amountCalls );
+
+		// memoized values must not leak into the next event
+		final Event event2 = new Event( "DE" , 500 );
+		assertEquals( "[r1]" , network.evaluate( event2 ).toString() );
+	}
+}
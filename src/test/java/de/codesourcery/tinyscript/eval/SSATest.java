@@ -6,8 +6,14 @@ import java.util.HashMap;
 import java.util.Map;
 
 import junit.framework.TestCase;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
 import de.codesourcery.tinyscript.ast.AST;
 import de.codesourcery.tinyscript.ast.ASTNode;
+import de.codesourcery.tinyscript.ast.OperatorNode;
 import de.codesourcery.tinyscript.parser.ASTBuilder;
 import de.codesourcery.tinyscript.parser.ExpressionParser;
 import de.codesourcery.tinyscript.parser.Lexer;
@@ -20,11 +26,22 @@ public class SSATest extends TestCase {
 	
 	private final Map<Identifier,Object> vars = new HashMap<>();
 	
-	protected static class TestClass 
+	public static class TestClass 
 	{
+		public int applyCount;
+		
 		public long apply(long a,long b) {
+			applyCount++;
 			return a+b;
 		}
+		
+		public String missing() {
+			return null;
+		}
+		
+		public long len(String s) {
+			return s == null ? -1 : s.length();
+		}
 	}
 	
 	@Override
@@ -77,6 +94,148 @@ public class SSATest extends TestCase {
 		System.out.println("Rewritten: "+new ASTPrinter().print( result ));
 	}
 
+	public void testValueNumbering() throws Exception 
+	{
+		vars.put(new Identifier("a") , 10L );
+		vars.put(new Identifier("b") , 20L );
+		target = new TestClass();
+		
+		final AST ssa = valueNumbering( "a*b + b*a" );
+		assertEquals( 1 , count( ssa , OperatorType.TIMES ) );
+		assertEquals( 400L , new Evaluator( target ) { { setVariableResolver( scope ); } }.evaluate( ssa ).value() );
+		assertEquals( 400L , compile( ssa ).apply() );
+	}
+	
+	public void testValueNumberingRespectsAssignments() 
+	{
+		vars.put(new Identifier("a") , 10L );
+		vars.put(new Identifier("b") , 20L );
+		target = new TestClass();
+		
+		vars.put(new Identifier("x") , 0L );
+		final AST ssa = valueNumbering( "x = a*b ; a = 1 ; a*b + x" );
+		assertEquals( 2 , count( ssa , OperatorType.TIMES ) );
+		assertEquals( 220L , new Evaluator( target ) { { setVariableResolver( scope ); } }.evaluate( ssa ).value() );
+	}
+	
+	public void testValueNumberingMergesPureCalls() throws Exception 
+	{
+		vars.put(new Identifier("a") , 10L );
+		vars.put(new Identifier("b") , 20L );
+		final TestClass testClass = new TestClass();
+		target = testClass;
+		
+		final AST ssa = valueNumbering( "apply(a,b) * apply(b,a) + apply(a,b)" );
+		final Evaluator evaluator = new Evaluator( target );
+		evaluator.setVariableResolver( scope );
+		assertEquals( 930L , evaluator.evaluate( ssa ).value() );
+		assertEquals( 2 , testClass.applyCount );
+		
+		testClass.applyCount = 0;
+		assertEquals( 930L , compile( ssa ).apply() );
+		assertEquals( 2 , testClass.applyCount );
+	}
+	
+	public void testDeadCodeElimination() throws Exception 
+	{
+		vars.put(new Identifier("a") , 10L );
+		vars.put(new Identifier("b") , 20L );
+		vars.put(new Identifier("x") , 0L );
+		final TestClass testClass = new TestClass();
+		target = testClass;
+		
+		final AST ast = parse( "a*b ; apply(a,b) ; x = a+1 ; 7 ; a ; x*2" );
+		new Typer(scope,TestClass.class).type( ast );
+		final AST ssa = new DeadCodeEliminator().rewrite( new SSARewriter().rewriteAST( ast ) );
+		System.out.println("Dead code eliminated: "+new ASTPrinter().print( ssa ));
+		
+		// apply() might have side effects
+		assertEquals( 3 , ssa.getChildCount() );
+		assertEquals( 1 , count( ssa , OperatorType.TIMES ) );
+		
+		final Evaluator evaluator = new Evaluator( target );
+		evaluator.setVariableResolver( scope );
+		assertEquals( 22L , evaluator.evaluate( ssa ).value() );
+		assertEquals( 1 , testClass.applyCount );
+		
+		vars.put(new Identifier("x") , 0L );
+		assertEquals( 22L , compile( ssa ).apply() );
+		assertEquals( 2 , testClass.applyCount );
+	}
+	
+	public void testLocalVariableReuse() throws Exception 
+	{
+		vars.put(new Identifier("a") , 10L );
+		vars.put(new Identifier("b") , 20L );
+		target = new TestClass();
+		
+		final AST ast = parse( "((a+1)*(b+2)+(a+3)*(b+4))*((a+5)*(b+6)+(a+7)*(b+8)) > 0" );
+		new Typer(scope,TestClass.class).type( ast );
+		final AST ssa = new SSARewriter().rewriteAST( ast );
+		
+		final MethodBodyWriter writer = new MethodBodyWriter( TestClass.class );
+		final ClassWriter classWriter = new ClassWriter( ClassWriter.COMPUTE_MAXS );
+		classWriter.visit( Opcodes.V1_8 , Opcodes.ACC_PUBLIC , "Dummy" , null , "java/lang/Object" , null );
+		final MethodVisitor mv = classWriter.visitMethod( Opcodes.ACC_PUBLIC , "apply" , "()V" , null , null );
+		mv.visitCode();
+		writer.generateMethodBody( ssa , mv );
+		
+		final LocalVariableAllocator locals = writer.getLocalVariables();
+		assertEquals( ssa.getChildCount() , locals.getTemporaryCount() );
+		// at most four long intermediate results are live at the same time, plus the boolean result
+		assertEquals( 4*2+1 , locals.getSlotCount() );
+		
+		final Evaluator evaluator = new Evaluator( target );
+		evaluator.setVariableResolver( scope );
+		assertEquals( Boolean.TRUE , evaluator.evaluate( ssa ).value() );
+		assertEquals( Boolean.TRUE , compile( ssa ).apply() );
+	}
+	
+	public void testTemporaryWithNullValue() 
+	{
+		target = new TestClass();
+		
+		final AST ast = parse( "len( missing() )" );
+		new Typer(scope,TestClass.class).type( ast );
+		final AST ssa = new SSARewriter().rewriteAST( ast );
+		
+		final Evaluator evaluator = new Evaluator( target );
+		evaluator.setVariableResolver( scope );
+		assertEquals( -1L , evaluator.evaluate( ssa ).value() );
+	}
+	
+	private AST valueNumbering(String expression) 
+	{
+		final AST ast = parse( expression );
+		new Typer(scope,TestClass.class).type( ast );
+		final AST ssa = new SSARewriter().rewriteAST( ast );
+		final AST result = new ValueNumbering() 
+		{
+			@Override
+			protected boolean hasNoSideEffectsHook(Method method) {
+				return "apply".equals( method.getName() ) && method.getParameterCount() == 2;
+			}
+		}.rewrite( ssa );
+		System.out.println("Value numbering: "+new ASTPrinter().print( result ));
+		return result;
+	}
+	
+	private CompiledExpression<Object> compile(AST ssa) throws Exception 
+	{
+		final byte[] data = new ByteCodeWriter("SSATestClass").compile( ssa , TestClass.class );
+		final Class<?> cl = new ByteCodeCache.ByteCodeClassLoader( getClass().getClassLoader() ).define( "SSATestClass" , data );
+		return CompiledExpression.newInstance( cl , target , scope );
+	}
+	
+	private static int count(ASTNode node,OperatorType type) 
+	{
+		int result = node instanceof OperatorNode && ((OperatorNode) node).type == type ? 1 : 0;
+		for ( ASTNode child : node.children() ) {
+			result += count( child , type );
+		}
+		return result;
+	}
+	
 	private AST parse(String expression) {
 		return parse(expression,false);
 	}
@@ -0,0 +1,95 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import de.codesourcery.tinyscript.ast.AST;
+
+/**
+ * Measures how much the algebraic rewrite rules of {@link ASTSimplifier} speed up evaluation
+ * of rules that were generated from templates (and thus contain lots of <code>true and ...</code>,
+ * <code>x * 1</code> etc.).
+ *
+ * Not a unit test, run the main method manually.
+ */
+public class SimplifierBenchmark
+{
+	private static final String[] RULES = {
+		"true and price * 1 > 100 and not not ( qty + 0 >= 3 )",
+		"( qty + 1 ) + 2 > 10 or false",
+		"price * 4 / 2 > 50 and 1 < qty",
+		"not ( price - 10 < 90 ) and ( qty * 1 ) * 8 >= 16",
+	};
+
+	private static final int WARMUP = 200_000;
+	private static final int ITERATIONS = 1_000_000;
+
+	private static final Map<Identifier,Object> vars = new HashMap<>();
+
+	private static final IScope scope = new IScope()
+	{
+		@Override
+		public void writeVariable(Identifier name, Object value) {
+			vars.put( name , value );
+		}
+
+		@Override
+		public Object readVariable(Identifier name) {
+			return vars.get( name );
+		}
+
+		@Override
+		public Class<?> getDataType(Identifier name) {
+			return vars.get( name ).getClass();
+		}
+	};
+
+	public static void main(String[] args)
+	{
+		vars.put( new Identifier("price") , 120 );
+		vars.put( new Identifier("qty") , 5 );
+
+		final Evaluator evaluator = new Evaluator( null );
+		evaluator.setVariableResolver( scope );
+
+		System.out.println( String.format("%-60s %12s %12s","rule","plain ns/op","rules ns/op") );
+		for ( String rule : RULES )
+		{
+			final AST plain = simplify( rule , false );
+			final AST rewritten = simplify( rule , true );
+			if ( ! evaluator.evaluate( plain ).value().equals( evaluator.evaluate( rewritten ).value() ) ) {
+				throw new RuntimeException("Rewritten rule yields a different result: "+rule);
+			}
+			final double plainNanos = measure( evaluator , plain );
+			final double rewrittenNanos = measure( evaluator , rewritten );
+			System.out.println( String.format("%-60s %12.1f %12.1f", rule , plainNanos , rewrittenNanos ) );
+			System.out.println( "    => "+new ASTPrinter().print( rewritten ) );
+		}
+	}
+
+	private static AST simplify(String expression,boolean applyAlgebraicRules)
+	{
+		final ASTSimplifier simplifier = new ASTSimplifier();
+		simplifier.setScope( scope );
+		simplifier.setResolveVariables( false );
+		simplifier.setApplyAlgebraicRules( applyAlgebraicRules );
+		return (AST) simplifier.simplify( new ExpressionCompiler().parse( expression ) , null );
+	}
+
+	private static double measure(Evaluator evaluator,AST ast)
+	{
+		int matches = 0;
+		for ( int i = 0 ; i < WARMUP ; i++ ) {
+			matches += (Boolean) evaluator.evaluate( ast ).value() ? 1 : 0;
+		}
+		final long start = System.nanoTime();
+		for ( int i = 0 ; i < ITERATIONS ; i++ ) {
+			matches += (Boolean) evaluator.evaluate( ast ).value() ? 1 : 0;
+		}
+		final long elapsed = System.nanoTime() - start;
+		if ( matches == -1 ) {
+			System.out.println("Never printed, keeps the JIT from eliminating the loop");
+		}
+		return elapsed / (double) ITERATIONS;
+	}
+}
@@ -0,0 +1,188 @@
+package de.codesourcery.tinyscript.eval;
+
+import de.codesourcery.tinyscript.ast.AST;
+import junit.framework.TestCase;
+
+public class SlotScopeTest extends TestCase {
+
+	private ScopeLayout layout;
+	private SlotScope scope;
+	private ExpressionCompiler compiler;
+
+	public static final class TestTarget {
+
+		public Integer value1() {
+			return 3;
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+		layout = new ScopeLayout();
+		scope = new SlotScope( layout );
+		compiler = new ExpressionCompiler();
+		compiler.setScope( scope );
+	}
+
+	public void testLayout()
+	{
+		final int x = layout.declare( "x" , Integer.class );
+		assertEquals( x , layout.declare( "x" , Integer.class ) );
+		assertEquals( x , layout.getSlot( new Identifier("x") ) );
+		assertEquals( -1 , layout.getSlot( new Identifier("y") ) );
+		try {
+			layout.declare( "x" , String.class );
+			fail("Should've failed");
+		} catch(RuntimeException e) {
+			// ok
+		}
+	}
+
+	public void testEvaluatorUsesSlots()
+	{
+		layout.declare( "x" , Integer.class );
+		scope.writeVariable( new Identifier("x") , 7 );
+
+		final AST ast = compiler.parseAndType( "y = x * 2" , TestTarget.class );
+		assertEquals( 1 , layout.getSlot( new Identifier("y") ) );
+
+		final Evaluator evaluator = new Evaluator( new TestTarget() );
+		evaluator.setVariableResolver( scope );
+		assertEquals( 14 , evaluator.evaluate( ast ).value() );
+		assertEquals( 14 , scope.readSlot( 1 ) );
+	}
+
+	public void testCompiledExpressionUsesSlots() throws Exception
+	{
+		layout.declare( "x" , Integer.class );
+
+		final byte[] data = compiler.compile( "SlotScopeTestExpression" , "y = x + value1()" , TestTarget.class );
+		final Class<?> cl = new ByteCodeCache.ByteCodeClassLoader( getClass().getClassLoader() ).define( "SlotScopeTestExpression" , data );
+		final CompiledExpression<TestTarget> expr = CompiledExpression.newInstance( cl , new TestTarget() , scope );
+
+		scope.writeSlot( 0 , 4 );
+		assertEquals( 7 , expr.apply() );
+		assertEquals( 7 , scope.readVariable( new Identifier("y") ) );
+
+		scope.writeSlot( 0 , 10 );
+		assertEquals( 13 , expr.apply() );
+		assertEquals( 13 , scope.readSlot( layout.getSlot( new Identifier("y") ) ) );
+	}
+
+	public void testPrimitiveSlots() throws Exception
+	{
+		final int l = layout.declare( "l" , Long.class );
+		final int d = layout.declare( "d" , Double.class );
+		final int b = layout.declare( "b" , Boolean.class );
+		scope.writeLong( l , 10000000000L );
+		scope.writeDouble( d , 0.5 );
+		scope.writeBoolean( b , true );
+		
+		assertEquals( Long.valueOf( 10000000000L ) , scope.readSlot( l ) );
+		assertEquals( Double.valueOf( 0.5 ) , scope.readVariable( new Identifier("d") ) );
+		assertEquals( Boolean.TRUE , scope.readSlot( b ) );
+		
+		final byte[] data = compiler.compile( "SlotScopeTestExpression2" , "r = l * 2 + value1()" , TestTarget.class );
+		final Class<?> cl = new ByteCodeCache.ByteCodeClassLoader( getClass().getClassLoader() ).define( "SlotScopeTestExpression2" , data );
+		final CompiledExpression<TestTarget> expr = CompiledExpression.newInstance( cl , new TestTarget() , scope );
+		assertEquals( 20000000003L , expr.apply() );
+		assertEquals( 20000000003L , scope.readLong( layout.getSlot( new Identifier("r") ) ) );
+		
+		final AST ast = compiler.parseAndType( "e = d * 3" , TestTarget.class );
+		final Evaluator evaluator = new Evaluator( new TestTarget() );
+		evaluator.setVariableResolver( scope );
+		assertEquals( 1.5 , evaluator.evaluate( ast ).value() );
+		assertEquals( 1.5 , scope.readDouble( layout.getSlot( new Identifier("e") ) ) );
+	}
+	
+	public void testLayoutMismatchIsDetected() throws Exception
+	{
+		layout.declare( "x" , Integer.class );
+		layout.declare( "y" , Integer.class );
+		final AST ast = compiler.parseAndType( "x - y" , TestTarget.class );
+		final byte[] data = compiler.compile( "SlotScopeTestExpression3" , "x - y" , TestTarget.class );
+		final Class<?> cl = new ByteCodeCache.ByteCodeClassLoader( getClass().getClassLoader() ).define( "SlotScopeTestExpression3" , data );
+		
+		// same variable order works even though it is a different layout
+		final ScopeLayout sameOrder = new ScopeLayout();
+		sameOrder.declare( "x" , Integer.class );
+		sameOrder.declare( "y" , Integer.class );
+		final SlotScope compatible = new SlotScope( sameOrder );
+		compatible.writeVariable( new Identifier("x") , 5 );
+		compatible.writeVariable( new Identifier("y") , 3 );
+		
+		final Evaluator evaluator = new Evaluator( new TestTarget() );
+		evaluator.setVariableResolver( compatible );
+		assertEquals( 2 , evaluator.evaluate( ast ).value() );
+		assertEquals( 2 , CompiledExpression.newInstance( cl , new TestTarget() , compatible ).apply() );
+		
+		final ScopeLayout otherOrder = new ScopeLayout();
+		otherOrder.declare( "y" , Integer.class );
+		otherOrder.declare( "x" , Integer.class );
+		final SlotScope incompatible = new SlotScope( otherOrder );
+		incompatible.writeVariable( new Identifier("x") , 5 );
+		incompatible.writeVariable( new Identifier("y") , 3 );
+		
+		evaluator.setVariableResolver( incompatible );
+		try {
+			evaluator.evaluate( ast );
+			fail("Should've failed");
+		} catch(RuntimeException e) {
+			assertTrue( e.getMessage().contains( "another layout" ) );
+		}
+		try {
+			CompiledExpression.newInstance( cl , new TestTarget() , incompatible );
+			fail("Should've failed");
+		} catch(RuntimeException e) {
+			assertTrue( e.getCause().getCause().getMessage().contains( "another layout" ) );
+		}
+	}
+	
+	public void testUnassignedVariablesFail() 
+	{
+		final int l = layout.declare( "l" , Long.class );
+		final int b = layout.declare( "b" , Boolean.class );
+		layout.declare( "s" , String.class );
+		try {
+			scope.readLong( l );
+			fail("Should've failed");
+		} catch(RuntimeException e) {
+			assertTrue( e.getMessage().contains( "Unknown variable" ) );
+		}
+		try {
+			scope.readBoolean( b );
+			fail("Should've failed");
+		} catch(RuntimeException e) {
+			// ok
+		}
+		try {
+			scope.readVariable( new Identifier("s") );
+			fail("Should've failed");
+		} catch(RuntimeException e) {
+			// ok
+		}
+		
+		final AST ast = compiler.parseAndType( "l + 1" , TestTarget.class );
+		final Evaluator evaluator = new Evaluator( new TestTarget() );
+		evaluator.setVariableResolver( scope );
+		try {
+			evaluator.evaluate( ast );
+			fail("Should've failed");
+		} catch(RuntimeException e) {
+			assertTrue( e.getMessage().contains( "Unknown variable" ) );
+		}
+		
+		scope.writeLong( l , 0 );
+		assertEquals( 1L , evaluator.evaluate( ast ).value() );
+		
+		scope.clear();
+		try {
+			scope.readLong( l );
+			fail("Should've failed");
+		} catch(RuntimeException e) {
+			// ok
+		}
+	}
+}
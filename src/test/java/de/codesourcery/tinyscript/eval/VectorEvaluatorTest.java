@@ -0,0 +1,130 @@
+package de.codesourcery.tinyscript.eval;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import de.codesourcery.tinyscript.ast.AST;
+import de.codesourcery.tinyscript.eval.BatchEvaluator.Batch;
+import de.codesourcery.tinyscript.eval.BatchEvaluator.Column;
+
+public class VectorEvaluatorTest extends TestCase 
+{
+	private static final int ROWS = 1003; // not a multiple of the vector length, exercises the tail loops
+	
+	private Batch batch;
+	
+	@Override
+	protected void setUp() throws Exception 
+	{
+		super.setUp();
+		final Random rnd = new Random( 0xdeadbeef );
+		final double[] a = new double[ ROWS ];
+		final double[] b = new double[ ROWS ];
+		final long[] c = new long[ ROWS ];
+		final boolean[] flag = new boolean[ ROWS ];
+		for ( int i = 0 ; i < ROWS ; i++ ) 
+		{
+			a[i] = rnd.nextDouble() * 100 - 50;
+			b[i] = rnd.nextInt( 10 );
+			c[i] = rnd.nextInt( 200 ) - 100;
+			flag[i] = rnd.nextBoolean();
+		}
+		// special values, in the vectorized loop as well as in the tail
+		a[3] = Double.NaN;
+		a[4] = -0.0;
+		a[5] = 0.0;
+		b[6] = Double.NaN;
+		b[7] = -0.0;
+		a[ ROWS - 1 ] = Double.NaN;
+		a[ ROWS - 2 ] = -0.0;
+		batch = new Batch( ROWS ).add( "a" , a ).add( "b" , b ).add( "c" , c ).add( "flag" , flag );
+	}
+	
+	public void testDefaultKernels() 
+	{
+		doTest( new VectorEvaluator() );
+	}
+	
+	public void testScalarKernels() {
+		doTest( new VectorEvaluator( new ScalarColumnKernels() ) );
+	}
+	
+	public void testSupports() 
+	{
+		final VectorEvaluator evaluator = new VectorEvaluator();
+		assertTrue( evaluator.supports( parse( "a * b + c > 3" ) , batch ) );
+		assertTrue( evaluator.supports( parse( "c * 2 > 3" ) , batch ) ); // integer arithmetic
+		assertFalse( evaluator.supports( parse( "flag * 2 > 3" ) , batch ) ); // boolean arithmetic
+		assertFalse( evaluator.supports( parse( "x > 3" ) , batch ) ); // unknown column
+	}
+	
+	public void testIntegralArithmetic() 
+	{
+		final Random rnd = new Random( 0xcafebabe );
+		final long[][] columns = new long[4][ ROWS ];
+		for ( long[] column : columns ) 
+		{
+			for ( int i = 0 ; i < ROWS ; i++ ) {
+				column[i] = rnd.nextInt( 2000 ) - 1000;
+			}
+		}
+		// wraps around, in the vectorized loop as well as in the tail
+		columns[0][1] = Long.MAX_VALUE;
+		columns[1][1] = 3;
+		columns[0][ ROWS - 1 ] = Long.MIN_VALUE;
+		columns[1][ ROWS - 1 ] = -1;
+		columns[1][2] = 0; // only divided by constants
+		final Batch longs = new Batch( ROWS ).add( "a" , columns[0] ).add( "b" , columns[1] ).add( "c" , columns[2] ).add( "d" , columns[3] );
+		
+		final BatchEvaluator reference = new BatchEvaluator( null );
+		for ( VectorEvaluator evaluator : new VectorEvaluator[] { new VectorEvaluator() , new VectorEvaluator( new ScalarColumnKernels() ) } ) 
+		{
+			for ( String expression : new String[] { "a * b + c > d" , "a - b * 3 <= d / 7" , "2 - a == c" , "( a + 1 ) * 2 != b" } ) 
+			{
+				final AST ast = parse( expression );
+				final long[] bitmap = evaluator.evaluatePredicate( ast , longs );
+				final Column expected = reference.evaluate( ast , longs );
+				for ( int row = 0 ; row < ROWS ; row++ ) {
+					assertEquals( expression+" , row "+row , expected.booleans[row] , ( bitmap[ row >>> 6 ] & ( 1L << row ) ) != 0 );
+				}
+			}
+			for ( String expression : new String[] { "a * b + c" , "a - b - 1" , "100 - a * 3" , "a / 3 + c / ( 0 - 2 )" , "2 * 3" } ) 
+			{
+				final AST ast = parse( expression );
+				final long[] values = evaluator.evaluateIntegral( ast , longs );
+				final Column expected = reference.evaluate( ast , longs );
+				for ( int row = 0 ; row < ROWS ; row++ ) {
+					assertEquals( expression+" , row "+row , expected.longs[row] , values[row] );
+				}
+			}
+		}
+	}
+	
+	private void doTest(VectorEvaluator evaluator) 
+	{
+		final String[] predicates = { "a * b + c > 3" , "c <= 10 and not flag" , "5 < a or b == 0" , "flag == ( c != 7 )" , "a / b >= c" , "true" ,
+				"a > 2.0" , "a < 0.0" , "a == 0.0" , "a != b" , "a >= b" , "a == a" , "0.0 <= a" };
+		final BatchEvaluator reference = new BatchEvaluator( null );
+		for ( String expression : predicates ) 
+		{
+			final AST ast = parse( expression );
+			final long[] bitmap = evaluator.evaluatePredicate( ast , batch );
+			final Column expected = reference.evaluate( ast , batch );
+			for ( int row = 0 ; row < ROWS ; row++ ) {
+				assertEquals( expression+" , row "+row , expected.booleans[row] , ( bitmap[ row >>> 6 ] & ( 1L << row ) ) != 0 );
+			}
+			assertEquals( reference.filter( ast , batch , BatchEvaluator.allRows( ROWS ) ).length , VectorEvaluator.toSelection( bitmap , ROWS ).length );
+		}
+		
+		final AST ast = parse( "a * b - c / 2.0" );
+		final double[] values = evaluator.evaluateNumeric( ast , batch );
+		final Column expected = reference.evaluate( ast , batch );
+		for ( int row = 0 ; row < ROWS ; row++ ) {
+			assertEquals( expected.doubles[row] , values[row] , 0 );
+		}
+	}
+	
+	private static AST parse(String expression) {
+		return new ExpressionCompiler().parse( expression );
+	}
+}
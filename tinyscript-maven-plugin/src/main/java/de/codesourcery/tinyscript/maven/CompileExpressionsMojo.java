@@ -0,0 +1,192 @@
+package de.codesourcery.tinyscript.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+
+import de.codesourcery.tinyscript.eval.ExpressionCompiler;
+import de.codesourcery.tinyscript.eval.PrecompiledExpressions;
+
+/**
+ * Compiles all tinyscript expressions (*.ts files) below a source directory
+ * against a target class and writes the generated classes plus a registry
+ * (see {@link PrecompiledExpressions}) to the project's output directory.
+ */
+@Mojo(name="compile",defaultPhase=LifecyclePhase.PROCESS_CLASSES,requiresDependencyResolution=ResolutionScope.COMPILE,threadSafe=true)
+public class CompileExpressionsMojo extends AbstractMojo
+{
+	private static final String FILE_SUFFIX = ".ts";
+
+	@Parameter(defaultValue="${project}",readonly=true,required=true)
+	private MavenProject project;
+
+	@Parameter(defaultValue="${project.basedir}/src/main/tinyscript",required=true)
+	private File sourceDirectory;
+
+	@Parameter(defaultValue="${project.build.outputDirectory}",required=true)
+	private File outputDirectory;
+
+	/**
+	 * Fully-qualified name of the class function calls get resolved against.
+	 */
+	@Parameter(required=true)
+	private String targetClass;
+
+	@Parameter(defaultValue="tinyscript.generated",required=true)
+	private String packageName;
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException
+	{
+		if ( ! sourceDirectory.isDirectory() ) {
+			getLog().info("No tinyscript sources in "+sourceDirectory);
+			return;
+		}
+
+		final List<File> sources = new ArrayList<>();
+		collectSources( sourceDirectory , sources );
+		Collections.sort( sources );
+
+		// expression names by generated class name, lower-case to also catch clashes on case-insensitive file systems
+		final Map<String,String> expressionsByClassName = new HashMap<>();
+		final Properties registry = new Properties();
+		try ( URLClassLoader classLoader = new URLClassLoader( getCompileClasspath() , getClass().getClassLoader() ) )
+		{
+			final Class<?> target;
+			try {
+				target = Class.forName( targetClass , false , classLoader );
+			} catch (ClassNotFoundException e) {
+				throw new MojoFailureException("Failed to load target class "+targetClass,e);
+			}
+
+			final ExpressionCompiler compiler = new ExpressionCompiler();
+			for ( File source : sources )
+			{
+				final String name = getExpressionName( source );
+				final String className = getClassName( name );
+				final String existing = expressionsByClassName.put( className.toLowerCase( Locale.ROOT ) , name );
+				if ( existing != null ) {
+					throw new MojoFailureException("Expressions '"+existing+"' and '"+name+"' both map to class "+className+", please rename one of them");
+				}
+				final byte[] byteCode;
+				try {
+					byteCode = compiler.compile( className , readSource( source ) , target );
+				}
+				catch(RuntimeException e) {
+					throw new MojoFailureException("Failed to compile "+source.getAbsolutePath()+": "+e.getMessage(),e);
+				}
+				writeFile( new File( outputDirectory , className.replace('.','/')+".class" ) , byteCode );
+				registry.setProperty( name , className );
+			}
+		}
+		catch(IOException e) {
+			throw new MojoExecutionException(e.getMessage(),e);
+		}
+
+		final File registryFile = new File( outputDirectory , PrecompiledExpressions.REGISTRY_FILE );
+		registryFile.getParentFile().mkdirs();
+		try ( OutputStream out = Files.newOutputStream( registryFile.toPath() ) ) {
+			registry.store( out , "Generated by tinyscript-maven-plugin, target class: "+targetClass );
+		}
+		catch(IOException e) {
+			throw new MojoExecutionException("Failed to write "+registryFile.getAbsolutePath(),e);
+		}
+		getLog().info("Compiled "+sources.size()+" tinyscript expressions against "+targetClass);
+	}
+
+	private URL[] getCompileClasspath() throws MojoExecutionException
+	{
+		final List<URL> result = new ArrayList<>();
+		try
+		{
+			for ( String element : project.getCompileClasspathElements() ) {
+				result.add( new File( element ).toURI().toURL() );
+			}
+		}
+		catch (DependencyResolutionRequiredException | MalformedURLException e) {
+			throw new MojoExecutionException("Failed to resolve compile classpath",e);
+		}
+		return result.toArray( new URL[ result.size() ] );
+	}
+
+	private static void collectSources(File directory,List<File> result)
+	{
+		final File[] files = directory.listFiles();
+		if ( files == null ) {
+			return;
+		}
+		for ( File f : files )
+		{
+			if ( f.isDirectory() ) {
+				collectSources( f , result );
+			} else if ( f.getName().endsWith( FILE_SUFFIX ) ) {
+				result.add( f );
+			}
+		}
+	}
+
+	private String getExpressionName(File source)
+	{
+		final String path = sourceDirectory.toPath().relativize( source.toPath() ).toString().replace( File.separatorChar , '/' );
+		return path.substring( 0 , path.length() - FILE_SUFFIX.length() );
+	}
+
+	private String getClassName(String expressionName)
+	{
+		final StringBuilder result = new StringBuilder( packageName );
+		final String[] parts = expressionName.split("/");
+		for ( int i = 0 ; i < parts.length ; i++ )
+		{
+			String part = toIdentifier( parts[i] );
+			if ( i == parts.length-1 ) {
+				part = Character.toUpperCase( part.charAt(0) )+part.substring(1);
+			}
+			result.append('.').append( part );
+		}
+		return result.toString();
+	}
+
+	private static String toIdentifier(String s)
+	{
+		final StringBuilder result = new StringBuilder();
+		for ( char c : s.toCharArray() ) {
+			result.append( Character.isJavaIdentifierPart( c ) ? c : '_' );
+		}
+		if ( result.length() == 0 || ! Character.isJavaIdentifierStart( result.charAt(0) ) ) {
+			result.insert( 0 , '_' );
+		}
+		return result.toString();
+	}
+
+	private static String readSource(File file) throws IOException {
+		return new String( Files.readAllBytes( file.toPath() ) , StandardCharsets.UTF_8 ).trim();
+	}
+
+	private static void writeFile(File file,byte[] data) throws IOException
+	{
+		file.getParentFile().mkdirs();
+		Files.write( file.toPath() , data );
+	}
+}
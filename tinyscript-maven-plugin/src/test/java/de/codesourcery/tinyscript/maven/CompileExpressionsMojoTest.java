@@ -0,0 +1,130 @@
+package de.codesourcery.tinyscript.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+
+import de.codesourcery.tinyscript.eval.PrecompiledExpressions;
+
+public class CompileExpressionsMojoTest extends TestCase 
+{
+	private File baseDirectory;
+	private File sourceDirectory;
+	private File outputDirectory;
+	
+	public static final class TestTarget 
+	{
+		public Integer value() {
+			return 21;
+		}
+	}
+	
+	@Override
+	protected void setUp() throws Exception 
+	{
+		baseDirectory = Files.createTempDirectory("tinyscript_plugin").toFile();
+		sourceDirectory = new File( baseDirectory , "src" );
+		outputDirectory = new File( baseDirectory , "classes" );
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		delete( baseDirectory );
+	}
+	
+	private static void delete(File file) 
+	{
+		final File[] children = file.listFiles();
+		if ( children != null ) {
+			for ( File child : children ) {
+				delete( child );
+			}
+		}
+		file.delete();
+	}
+	
+	private void writeSource(String path,String source) throws IOException 
+	{
+		final File file = new File( sourceDirectory , path );
+		file.getParentFile().mkdirs();
+		Files.write( file.toPath() , source.getBytes( StandardCharsets.UTF_8 ) );
+	}
+	
+	private CompileExpressionsMojo createMojo() throws Exception 
+	{
+		final CompileExpressionsMojo mojo = new CompileExpressionsMojo();
+		set( mojo , "project" , new MavenProject() 
+		{
+			@Override
+			public List<String> getCompileClasspathElements() {
+				return Collections.emptyList();
+			}
+		});
+		set( mojo , "sourceDirectory" , sourceDirectory );
+		set( mojo , "outputDirectory" , outputDirectory );
+		set( mojo , "targetClass" , TestTarget.class.getName() );
+		set( mojo , "packageName" , "tinyscript.test" );
+		return mojo;
+	}
+	
+	private static void set(Object object,String fieldName,Object value) throws Exception 
+	{
+		final Field field = object.getClass().getDeclaredField( fieldName );
+		field.setAccessible( true );
+		field.set( object , value );
+	}
+	
+	public void testGeneratesClassesAndRegistry() throws Exception 
+	{
+		writeSource( "twice.ts" , "value() * 2" );
+		writeSource( "rules/plus-one.ts" , "value() + 1" );
+		createMojo().execute();
+		
+		assertTrue( new File( outputDirectory , "tinyscript/test/Twice.class" ).isFile() );
+		assertTrue( new File( outputDirectory , "tinyscript/test/rules/Plus_one.class" ).isFile() );
+		
+		try ( URLClassLoader loader = new URLClassLoader( new URL[] { outputDirectory.toURI().toURL() } , getClass().getClassLoader() ) ) 
+		{
+			final PrecompiledExpressions expressions = new PrecompiledExpressions( loader );
+			assertEquals( new HashSet<>( Arrays.asList( "twice" , "rules/plus-one" ) ) , expressions.getNames() );
+			assertEquals( 42 , expressions.newInstance( "twice" , new TestTarget() , null ).apply() );
+			assertEquals( 22 , expressions.newInstance( "rules/plus-one" , new TestTarget() , null ).apply() );
+		}
+	}
+	
+	public void testTypeErrorsFailTheBuild() throws Exception 
+	{
+		writeSource( "broken.ts" , "unknownFunction() + 1" );
+		try {
+			createMojo().execute();
+			fail("Should've failed");
+		} catch(MojoFailureException e) {
+			assertTrue( e.getMessage().contains( "broken.ts" ) );
+		}
+	}
+	
+	public void testClassNameCollisionsFailTheBuild() throws Exception 
+	{
+		writeSource( "a-b.ts" , "value()" );
+		writeSource( "a_b.ts" , "value() * 2" );
+		try {
+			createMojo().execute();
+			fail("Should've failed");
+		} catch(MojoFailureException e) {
+			assertTrue( e.getMessage().contains( "'a-b'" ) && e.getMessage().contains( "'a_b'" ) );
+		}
+	}
+}